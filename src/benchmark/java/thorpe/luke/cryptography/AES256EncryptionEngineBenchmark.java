@@ -0,0 +1,53 @@
+package thorpe.luke.cryptography;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AES256EncryptionEngineBenchmark {
+
+  @Param({"16", "1024", "65536", "1048576"})
+  public int payloadSize;
+
+  private EncryptionEngine encryptionEngine;
+  private String plainText;
+  private String cipherText;
+
+  @Setup
+  public void setUp() {
+    encryptionEngine = AES256EncryptionEngine.fromPassword("password", "salt");
+    plainText = RandomStringUtils.randomAlphanumeric(payloadSize);
+    cipherText = encryptionEngine.encrypt(plainText);
+  }
+
+  @Benchmark
+  public String encrypt() {
+    return encryptionEngine.encrypt(plainText);
+  }
+
+  @Benchmark
+  public String decrypt() throws KeyMismatchException {
+    return encryptionEngine.decrypt(cipherText);
+  }
+
+  /** The key derivation function is independent of the payload, so it only runs once. */
+  @State(Scope.Benchmark)
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3, time = 2)
+  @Measurement(iterations = 5, time = 2)
+  @Fork(1)
+  public static class KeyDerivation {
+
+    @Benchmark
+    public EncryptionEngine fromPassword() {
+      return AES256EncryptionEngine.fromPassword("password", "salt");
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package thorpe.luke.cryptography;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures how batch encryption scales with the number of workers sharing a single engine. With no
+ * lock on the hot path, throughput should grow linearly up to the number of physical cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AES256EncryptionEngineContentionBenchmark {
+  private static final int BATCH_SIZE = 1024;
+  private static final int PLAIN_TEXT_LENGTH = 1024;
+
+  @Param({"1", "2", "4", "8"})
+  public int parallelism;
+
+  private EncryptionEngine encryptionEngine;
+  private ForkJoinPool pool;
+  private List<String> plainTexts;
+  private List<String> cipherTexts;
+
+  @Setup
+  public void setUp() {
+    encryptionEngine = AES256EncryptionEngine.fromPassword("password", "salt");
+    pool = new ForkJoinPool(parallelism);
+    plainTexts =
+        IntStream.range(0, BATCH_SIZE)
+            .mapToObj(i -> RandomStringUtils.randomAlphanumeric(PLAIN_TEXT_LENGTH))
+            .collect(Collectors.toList());
+    cipherTexts = encryptionEngine.encryptAll(plainTexts, pool);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Benchmark
+  public List<String> encryptAll() {
+    return encryptionEngine.encryptAll(plainTexts, pool);
+  }
+
+  @Benchmark
+  public List<String> decryptAll() throws KeyMismatchException {
+    return encryptionEngine.decryptAll(cipherTexts, pool);
+  }
+}
@@ -0,0 +1,39 @@
+package thorpe.luke.cryptography;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.openjdk.jmh.annotations.*;
+
+/** Comparable with {@link AES256EncryptionEngineBenchmark}, which encrypts in one block. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkedAESGCMEncryptionEngineBenchmark {
+
+  @Param({"16", "1024", "65536", "1048576", "8388608"})
+  public int payloadSize;
+
+  private EncryptionEngine encryptionEngine;
+  private String plainText;
+  private String cipherText;
+
+  @Setup
+  public void setUp() {
+    encryptionEngine = ChunkedAESGCMEncryptionEngine.fromPassword("password", "salt");
+    plainText = RandomStringUtils.randomAlphanumeric(payloadSize);
+    cipherText = encryptionEngine.encrypt(plainText);
+  }
+
+  @Benchmark
+  public String encrypt() {
+    return encryptionEngine.encrypt(plainText);
+  }
+
+  @Benchmark
+  public String decrypt() throws KeyMismatchException {
+    return encryptionEngine.decrypt(cipherText);
+  }
+}
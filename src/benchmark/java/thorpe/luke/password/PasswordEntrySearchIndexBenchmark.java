@@ -0,0 +1,46 @@
+package thorpe.luke.password;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordEntrySearchIndexBenchmark {
+  private static final int LIMIT = 20;
+
+  @Param({"1000", "100000"})
+  public int entryCount;
+
+  /**
+   * A selective query matches a handful of entries, whereas "account" matches every entry and so
+   * has to rank them all.
+   */
+  @Param({"#4242", "account"})
+  public String query;
+
+  private List<PasswordEntry> entries;
+  private PasswordEntrySearchIndex searchIndex;
+
+  @Setup
+  public void setUp() {
+    entries = PasswordLibraryFixtures.someEntries(entryCount);
+    searchIndex = PasswordEntrySearchIndex.fromEntries(entries);
+  }
+
+  @Benchmark
+  public List<PasswordEntry> search() {
+    return searchIndex.search(query, LIMIT);
+  }
+
+  @Benchmark
+  public PasswordEntrySearchIndex replaceEntry() {
+    PasswordEntry entry = entries.get(entryCount / 2);
+    searchIndex.replace(entry, entry);
+    return searchIndex;
+  }
+}
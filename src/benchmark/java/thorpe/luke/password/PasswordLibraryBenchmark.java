@@ -0,0 +1,119 @@
+package thorpe.luke.password;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import thorpe.luke.cryptography.DerivedKeyCache;
+
+public class PasswordLibraryBenchmark {
+
+  /** The cost of adding one more entry to a library of the given size. */
+  @State(Scope.Benchmark)
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Warmup(iterations = 3, time = 2)
+  @Measurement(iterations = 5, time = 2)
+  @Fork(1)
+  public static class AddEntry {
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int entryCount;
+
+    private PasswordLibrary passwordLibrary;
+    private PasswordEntry passwordEntry;
+
+    @Setup
+    public void setUp() {
+      passwordLibrary = PasswordLibraryFixtures.someLibrary(entryCount);
+      passwordEntry = PasswordLibraryFixtures.someEntry(entryCount);
+    }
+
+    @Benchmark
+    public PasswordLibrary addEntry() {
+      return passwordLibrary.addEntry(passwordEntry);
+    }
+  }
+
+  /**
+   * Full round trips through the file methods, both as a fresh process runs them (deriving the key
+   * every time) and as the launcher runs them (with the key cached).
+   */
+  @State(Scope.Benchmark)
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3, time = 2)
+  @Measurement(iterations = 5, time = 2)
+  @Fork(1)
+  public static class RoundTrip {
+
+    @Param({"10", "1000", "10000"})
+    public int entryCount;
+
+    private PasswordLibrary passwordLibrary;
+    private DerivedKeyCache derivedKeyCache;
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+      passwordLibrary = PasswordLibraryFixtures.someLibrary(entryCount);
+      derivedKeyCache = new DerivedKeyCache(Duration.ofHours(1));
+      file = File.createTempFile("password_library", PasswordLibrary.FILE_SUFFIX);
+      passwordLibrary.writeToEncryptedFile(file, PasswordLibraryFixtures.SALT);
+    }
+
+    @TearDown
+    public void tearDown() {
+      derivedKeyCache.lockAll();
+      file.delete();
+    }
+
+    private static void decryptEverything(PasswordLibrary passwordLibrary, Blackhole blackhole) {
+      for (PasswordEntry entry : passwordLibrary.getEntries()) {
+        blackhole.consume(entry.getPassword());
+        blackhole.consume(entry.getOldPasswords());
+      }
+    }
+
+    @Benchmark
+    public void writeToEncryptedFile() throws IOException {
+      passwordLibrary.writeToEncryptedFile(file, PasswordLibraryFixtures.SALT);
+    }
+
+    @Benchmark
+    public void readFromEncryptedFile(Blackhole blackhole)
+        throws IOException, PasswordMismatchException {
+      decryptEverything(
+          PasswordLibrary.readFromEncryptedFile(
+              file, PasswordLibraryFixtures.PASSWORD, PasswordLibraryFixtures.SALT),
+          blackhole);
+    }
+
+    @Benchmark
+    public void writeToEncryptedFileWithCachedKey() throws IOException {
+      passwordLibrary.writeToEncryptedFile(file, PasswordLibraryFixtures.SALT, derivedKeyCache);
+    }
+
+    @Benchmark
+    public void readFromEncryptedFileWithCachedKey(Blackhole blackhole)
+        throws IOException, PasswordMismatchException {
+      decryptEverything(
+          PasswordLibrary.readFromEncryptedFile(
+              file,
+              PasswordLibraryFixtures.PASSWORD,
+              PasswordLibraryFixtures.SALT,
+              derivedKeyCache),
+          blackhole);
+    }
+
+    /** Opening only as far as the launcher needs to list the entries. */
+    @Benchmark
+    public PasswordLibrary readIndexFromEncryptedFileWithCachedKey()
+        throws IOException, PasswordMismatchException {
+      return PasswordLibrary.readFromEncryptedFile(
+          file, PasswordLibraryFixtures.PASSWORD, PasswordLibraryFixtures.SALT, derivedKeyCache);
+    }
+  }
+}
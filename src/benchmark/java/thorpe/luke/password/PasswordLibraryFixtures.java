@@ -0,0 +1,47 @@
+package thorpe.luke.password;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.apache.commons.lang3.RandomStringUtils;
+
+/** Realistically sized libraries and entries for benchmarks to work on. */
+public class PasswordLibraryFixtures {
+  public static final String PASSWORD = "my_p4s$w0Rd";
+  public static final String SALT = "my_$4Lt";
+
+  private static final int OLD_PASSWORDS_PER_ENTRY = 3;
+
+  public static PasswordEntry someEntry(int i) {
+    LocalDateTime now = LocalDateTime.now();
+    Map<LocalDateTime, String> oldPasswords =
+        IntStream.range(0, OLD_PASSWORDS_PER_ENTRY)
+            .boxed()
+            .collect(
+                Collectors.toMap(
+                    j -> now.minusDays(30L * (j + 1)), j -> RandomStringUtils.randomAscii(16)));
+    return new PasswordEntry(
+        "Account #" + i,
+        "The account with the number " + i + ", used for " + RandomStringUtils.randomAlphabetic(24),
+        RandomStringUtils.randomAscii(16),
+        now,
+        oldPasswords);
+  }
+
+  public static List<PasswordEntry> someEntries(int entryCount) {
+    return IntStream.range(0, entryCount)
+        .mapToObj(PasswordLibraryFixtures::someEntry)
+        .collect(Collectors.toList());
+  }
+
+  public static PasswordLibrary someLibrary(int entryCount) {
+    return PasswordLibrary.fromPassword(
+        "Benchmark Library",
+        "Holds " + entryCount + " entries.",
+        PASSWORD,
+        SALT,
+        someEntries(entryCount));
+  }
+}
@@ -0,0 +1,60 @@
+package thorpe.luke.password;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordLibrarySearchServiceBenchmark {
+  private static final int LIMIT = 20;
+  private static final int ENTRIES_PER_LIBRARY = 10000;
+
+  @Param({"1", "8", "32"})
+  public int libraryCount;
+
+  @Param({"#4242", "account"})
+  public String query;
+
+  private PasswordLibrarySearchService<Integer> searchService;
+  private Map<Integer, PasswordLibrary> libraries;
+  private Map<Integer, PasswordLibrary> librariesAndOneMore;
+  private boolean withOneMore;
+
+  @Setup
+  public void setUp() {
+    searchService = new PasswordLibrarySearchService<>();
+    libraries = new HashMap<>();
+    for (int i = 0; i < libraryCount; i++) {
+      libraries.put(i, PasswordLibraryFixtures.someLibrary(ENTRIES_PER_LIBRARY));
+    }
+    librariesAndOneMore = new HashMap<>(libraries);
+    librariesAndOneMore.put(libraryCount, PasswordLibraryFixtures.someLibrary(1));
+    searchService.sync(libraries);
+    // Every library is indexed before measuring, as they would be after the first search.
+    searchService.search("warm up", LIMIT);
+  }
+
+  /** A query answered from the cache, as when the same query is typed again. */
+  @Benchmark
+  public List<PasswordLibrarySearchService.Result<Integer>> cachedSearch() {
+    return searchService.search(query, LIMIT);
+  }
+
+  /**
+   * A query that has to be answered afresh, because a library with a single entry was unlocked or
+   * locked since it was last asked. The indices of the other libraries are kept.
+   */
+  @Benchmark
+  public List<PasswordLibrarySearchService.Result<Integer>> uncachedSearch() {
+    withOneMore = !withOneMore;
+    searchService.sync(withOneMore ? librariesAndOneMore : libraries);
+    return searchService.search(query, LIMIT);
+  }
+}
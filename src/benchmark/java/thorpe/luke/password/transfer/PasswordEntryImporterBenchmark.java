@@ -0,0 +1,55 @@
+package thorpe.luke.password.transfer;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import thorpe.luke.password.PasswordLibrary;
+import thorpe.luke.password.PasswordLibraryFixtures;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordEntryImporterBenchmark {
+  @Param({"1000", "100000"})
+  public int entryCount;
+
+  @Param({"CSV", "JSON_LINES"})
+  public PasswordEntryFileFormat format;
+
+  private PasswordLibrary emptyPasswordLibrary;
+  private PasswordLibrary passwordLibrary;
+  private String dump;
+
+  @Setup
+  public void setUp() throws IOException {
+    emptyPasswordLibrary =
+        PasswordLibrary.fromPassword(
+            "Empty", "", PasswordLibraryFixtures.PASSWORD, PasswordLibraryFixtures.SALT);
+    passwordLibrary = PasswordLibraryFixtures.someLibrary(entryCount);
+    StringWriter stringWriter = new StringWriter();
+    try (PasswordEntryWriter writer = format.newWriter(stringWriter)) {
+      PasswordEntryExporter.export(passwordLibrary, writer);
+    }
+    dump = stringWriter.toString();
+  }
+
+  @Benchmark
+  public PasswordEntryImporter.Report importDump() throws IOException {
+    try (PasswordEntryReader reader = format.newReader(new StringReader(dump))) {
+      return new PasswordEntryImporter(PasswordEntryImporter.DuplicatePolicy.SKIP)
+          .importInto(emptyPasswordLibrary, reader);
+    }
+  }
+
+  @Benchmark
+  public int exportDump() throws IOException {
+    try (PasswordEntryWriter writer = format.newWriter(new StringWriter(dump.length()))) {
+      return PasswordEntryExporter.export(passwordLibrary, writer);
+    }
+  }
+}
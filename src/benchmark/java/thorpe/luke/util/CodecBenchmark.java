@@ -0,0 +1,72 @@
+package thorpe.luke.util;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import thorpe.luke.cryptography.AES256EncryptionEngine;
+import thorpe.luke.password.PasswordLibraryFixtures;
+import thorpe.luke.password.apdater.PasswordLibraryCodecs;
+import thorpe.luke.password.apdater.PasswordLibraryJsonAdapter;
+
+/**
+ * Compares the JSON and binary encodings of a whole library. The encoded and encrypted sizes are
+ * printed during setup, since the encrypted size is what ends up on disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+  public enum Encoding {
+    JSON {
+      @Override
+      Codec<PasswordLibraryJsonAdapter> codec() {
+        return new JsonCodec<>(PasswordLibraryJsonAdapter.class);
+      }
+    },
+    BINARY {
+      @Override
+      Codec<PasswordLibraryJsonAdapter> codec() {
+        return PasswordLibraryCodecs.LIBRARY;
+      }
+    };
+
+    abstract Codec<PasswordLibraryJsonAdapter> codec();
+  }
+
+  @Param({"10", "1000", "10000"})
+  public int entryCount;
+
+  @Param({"JSON", "BINARY"})
+  public Encoding encoding;
+
+  private Codec<PasswordLibraryJsonAdapter> codec;
+  private PasswordLibraryJsonAdapter passwordLibraryJsonAdapter;
+  private byte[] encoded;
+
+  @Setup
+  public void setUp() throws CodecException {
+    codec = encoding.codec();
+    passwordLibraryJsonAdapter = PasswordLibraryFixtures.someLibrary(entryCount).toAdapter();
+    encoded = codec.encode(passwordLibraryJsonAdapter);
+    String encrypted =
+        AES256EncryptionEngine.fromPassword(
+                PasswordLibraryFixtures.PASSWORD, PasswordLibraryFixtures.SALT)
+            .encryptBytes(encoded);
+    System.out.printf(
+        "%n%s encoding of %d entries: %d bytes encoded, %d bytes encrypted.%n",
+        encoding, entryCount, encoded.length, encrypted.length());
+  }
+
+  @Benchmark
+  public byte[] encode() throws CodecException {
+    return codec.encode(passwordLibraryJsonAdapter);
+  }
+
+  @Benchmark
+  public PasswordLibraryJsonAdapter decode() throws CodecException {
+    return codec.decode(encoded);
+  }
+}
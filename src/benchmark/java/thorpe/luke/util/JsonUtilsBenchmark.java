@@ -0,0 +1,37 @@
+package thorpe.luke.util;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import thorpe.luke.password.PasswordLibraryFixtures;
+import thorpe.luke.password.apdater.PasswordLibraryJsonAdapter;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonUtilsBenchmark {
+
+  @Param({"10", "1000", "10000"})
+  public int entryCount;
+
+  private PasswordLibraryJsonAdapter passwordLibraryJsonAdapter;
+  private String json;
+
+  @Setup
+  public void setUp() throws JsonException {
+    passwordLibraryJsonAdapter = PasswordLibraryFixtures.someLibrary(entryCount).toAdapter();
+    json = JsonUtils.toJson(passwordLibraryJsonAdapter);
+  }
+
+  @Benchmark
+  public String toJson() throws JsonException {
+    return JsonUtils.toJson(passwordLibraryJsonAdapter);
+  }
+
+  @Benchmark
+  public PasswordLibraryJsonAdapter fromJson() throws JsonException {
+    return JsonUtils.fromJson(json, PasswordLibraryJsonAdapter.class);
+  }
+}
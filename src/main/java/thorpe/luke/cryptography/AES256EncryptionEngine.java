@@ -1,61 +1,174 @@
 package thorpe.luke.cryptography;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
+import java.util.Arrays;
 import java.util.Base64;
 import javax.crypto.*;
 import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.SecretKeySpec;
+import thorpe.luke.metrics.Counter;
+import thorpe.luke.metrics.Metrics;
+import thorpe.luke.metrics.OperationTimer;
 
 public class AES256EncryptionEngine implements EncryptionEngine {
   private static final String ENCRYPTION_ALGORITHM = "AES/ECB/PKCS5Padding";
   private static final String KEY_GENERATION_ALGORITHM = "PBKDF2WithHmacSHA256";
   private static final String KEY_SPECIFICATION_ALGORITHM = "AES";
 
+  private static final OperationTimer KEY_DERIVATION_TIMER =
+      Metrics.timer("kdf.derive", "deriving keys");
+  // Shared with the other engines, which encrypt the same things by other means.
+  static final OperationTimer ENCRYPTION_TIMER = Metrics.timer("cipher.encrypt", "encrypting");
+  static final OperationTimer DECRYPTION_TIMER = Metrics.timer("cipher.decrypt", "decrypting");
+  static final Counter KEY_MISMATCH_COUNTER =
+      Metrics.counter("cipher.key_mismatches", "decryptions with the wrong key");
+
   private final SecretKey key;
-  private final Cipher cipher;
 
-  private AES256EncryptionEngine(SecretKey key)
-      throws NoSuchPaddingException, NoSuchAlgorithmException {
+  private AES256EncryptionEngine(SecretKey key) {
     this.key = key;
-    this.cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
   }
 
   public static AES256EncryptionEngine fromPassword(String password, String salt) {
+    return fromKey(deriveKey(password, salt));
+  }
+
+  public static AES256EncryptionEngine fromKey(SecretKey key) {
+    return new AES256EncryptionEngine(key);
+  }
+
+  /**
+   * Runs the key derivation function, which is deliberately expensive. Callers that derive the same
+   * key repeatedly should go through a {@link DerivedKeyCache}.
+   */
+  public static DestroyableSecretKey deriveKey(String password, String salt) {
+    long startTime = KEY_DERIVATION_TIMER.start();
     SecretKeyFactory keyFactory;
+    PBEKeySpec keySpec = new PBEKeySpec(password.toCharArray(), salt.getBytes(), 65536, 256);
     try {
       keyFactory = SecretKeyFactory.getInstance(KEY_GENERATION_ALGORITHM);
-      KeySpec keySpec = new PBEKeySpec(password.toCharArray(), salt.getBytes(), 65536, 256);
-      SecretKey key =
-          new SecretKeySpec(
-              keyFactory.generateSecret(keySpec).getEncoded(), KEY_SPECIFICATION_ALGORITHM);
-      return new AES256EncryptionEngine(key);
-    } catch (NoSuchAlgorithmException | InvalidKeySpecException | NoSuchPaddingException e) {
+      byte[] encodedKey = keyFactory.generateSecret(keySpec).getEncoded();
+      DestroyableSecretKey key = new DestroyableSecretKey(encodedKey, KEY_SPECIFICATION_ALGORITHM);
+      Arrays.fill(encodedKey, (byte) 0);
+      return key;
+    } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+      throw new AES256EncryptionException(e);
+    } finally {
+      keySpec.clearPassword();
+      KEY_DERIVATION_TIMER.stop(startTime);
+    }
+  }
+
+  // Every use takes a fresh cipher, rather than each thread keeping one, since a kept cipher holds
+  // the expanded schedule of the last key it was given for as long as its thread lives, long after
+  // the key itself has been destroyed.
+  private static Cipher newCipher() {
+    try {
+      return Cipher.getInstance(ENCRYPTION_ALGORITHM);
+    } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
       throw new AES256EncryptionException(e);
     }
   }
 
+  private Cipher newCipher(int mode) {
+    Cipher cipher = newCipher();
+    try {
+      cipher.init(mode, key);
+    } catch (InvalidKeyException e) {
+      throw new AES256EncryptionException(e);
+    }
+    return cipher;
+  }
+
   @Override
-  public synchronized String encrypt(String plainText) {
+  public String encrypt(String plainText) {
+    return encryptBytes(plainText.getBytes());
+  }
+
+  @Override
+  public String decrypt(String cipherText) throws KeyMismatchException {
+    return new String(decryptBytes(cipherText));
+  }
+
+  @Override
+  public String encryptBytes(byte[] plainBytes) {
+    long startTime = ENCRYPTION_TIMER.start();
+    Cipher cipher = newCipher();
     try {
       cipher.init(Cipher.ENCRYPT_MODE, key);
-      byte[] cipherText = cipher.doFinal(plainText.getBytes());
+      byte[] cipherText = cipher.doFinal(plainBytes);
       return Base64.getEncoder().encodeToString(cipherText);
     } catch (IllegalBlockSizeException | BadPaddingException | InvalidKeyException e) {
       throw new AES256EncryptionException(e);
+    } finally {
+      ENCRYPTION_TIMER.stop(startTime);
     }
   }
 
   @Override
-  public synchronized String decrypt(String cipherText) throws KeyMismatchException {
+  public byte[] decryptBytes(String cipherText) throws KeyMismatchException {
+    long startTime = DECRYPTION_TIMER.start();
+    Cipher cipher = newCipher();
     try {
       cipher.init(Cipher.DECRYPT_MODE, key);
-      byte[] plainText = cipher.doFinal(Base64.getDecoder().decode(cipherText));
-      return new String(plainText);
+      return cipher.doFinal(Base64.getDecoder().decode(cipherText));
     } catch (IllegalBlockSizeException | BadPaddingException | InvalidKeyException e) {
+      KEY_MISMATCH_COUNTER.increment();
       throw new KeyMismatchException(e);
+    } finally {
+      DECRYPTION_TIMER.stop(startTime);
+    }
+  }
+
+  @Override
+  public OutputStream encryptTo(OutputStream cipherTextOutputStream) {
+    // A stream keeps its cipher, and with it the key schedule, only for as long as it is in use.
+    return new CipherOutputStream(
+        Base64.getEncoder().wrap(cipherTextOutputStream), newCipher(Cipher.ENCRYPT_MODE));
+  }
+
+  @Override
+  public InputStream decryptFrom(InputStream cipherTextInputStream) {
+    return new KeyMismatchTranslatingInputStream(
+        new CipherInputStream(
+            Base64.getDecoder().wrap(cipherTextInputStream), newCipher(Cipher.DECRYPT_MODE)));
+  }
+
+  private static class KeyMismatchTranslatingInputStream extends FilterInputStream {
+
+    private KeyMismatchTranslatingInputStream(InputStream inputStream) {
+      super(inputStream);
+    }
+
+    private static IOException translate(IOException e) {
+      if (e.getCause() instanceof GeneralSecurityException) {
+        return new IOException(new KeyMismatchException((GeneralSecurityException) e.getCause()));
+      }
+      return e;
+    }
+
+    @Override
+    public int read() throws IOException {
+      try {
+        return super.read();
+      } catch (IOException e) {
+        throw translate(e);
+      }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      try {
+        return super.read(buffer, offset, length);
+      } catch (IOException e) {
+        throw translate(e);
+      }
     }
   }
 }
@@ -0,0 +1,84 @@
+package thorpe.luke.cryptography;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Applies a cryptographic operation to every element of a batch, splitting the batch across the
+ * workers of a {@link ForkJoinPool}.
+ */
+class BatchCryptographyTask<I, O> extends RecursiveAction {
+  private static final int SLICES_PER_WORKER = 4;
+
+  interface Operation<I, O> {
+    O apply(I input) throws KeyMismatchException;
+  }
+
+  private final Operation<I, O> operation;
+  private final List<I> inputs;
+  private final Object[] outputs;
+  private final int from;
+  private final int to;
+  private final int threshold;
+
+  private BatchCryptographyTask(
+      Operation<I, O> operation,
+      List<I> inputs,
+      Object[] outputs,
+      int from,
+      int to,
+      int threshold) {
+    this.operation = operation;
+    this.inputs = inputs;
+    this.outputs = outputs;
+    this.from = from;
+    this.to = to;
+    this.threshold = threshold;
+  }
+
+  static <I, O> List<O> applyToAll(Operation<I, O> operation, List<I> inputs, ForkJoinPool pool)
+      throws KeyMismatchException {
+    Object[] outputs = new Object[inputs.size()];
+    int threshold = Math.max(1, inputs.size() / (pool.getParallelism() * SLICES_PER_WORKER));
+    try {
+      pool.invoke(
+          new BatchCryptographyTask<>(operation, inputs, outputs, 0, inputs.size(), threshold));
+    } catch (KeyMismatchRuntimeException e) {
+      throw e.getCause();
+    }
+    @SuppressWarnings("unchecked")
+    List<O> outputList = (List<O>) Arrays.asList(outputs);
+    return outputList;
+  }
+
+  @Override
+  protected void compute() {
+    if (to - from <= threshold) {
+      for (int i = from; i < to; i++) {
+        try {
+          outputs[i] = operation.apply(inputs.get(i));
+        } catch (KeyMismatchException e) {
+          throw new KeyMismatchRuntimeException(e);
+        }
+      }
+      return;
+    }
+    int middle = (from + to) >>> 1;
+    invokeAll(
+        new BatchCryptographyTask<>(operation, inputs, outputs, from, middle, threshold),
+        new BatchCryptographyTask<>(operation, inputs, outputs, middle, to, threshold));
+  }
+
+  private static class KeyMismatchRuntimeException extends RuntimeException {
+    private KeyMismatchRuntimeException(KeyMismatchException e) {
+      super(e);
+    }
+
+    @Override
+    public synchronized KeyMismatchException getCause() {
+      return (KeyMismatchException) super.getCause();
+    }
+  }
+}
@@ -0,0 +1,790 @@
+package thorpe.luke.cryptography;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javax.crypto.*;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Authenticated encryption in the style of STREAM: plain text is cut into fixed-size chunks, and
+ * each chunk is sealed with AES-256-GCM under its own nonce and tag. Each message is sealed under a
+ * key of its own, derived with HKDF-SHA256 from the engine's key and a random salt as in Tink's
+ * streaming AEAD, so no nonce is ever used twice under the same key, however many messages the
+ * engine seals. Within a message, a nonce is made of a random prefix, the number of the chunk and a
+ * flag marking the final chunk, so chunks cannot be altered, reordered, dropped or cut off without
+ * detection, and every chunk can be sealed or opened independently of the others, and so in
+ * parallel.
+ *
+ * <pre>
+ * version (1 byte) | chunk size (4 bytes) | salt (32 bytes) | nonce prefix (7 bytes) | chunk 0 | ...
+ * </pre>
+ *
+ * Each chunk is the cipher text of chunk size bytes of plain text, or fewer for the final chunk,
+ * followed by its 16-byte tag. The header is authenticated as part of every chunk. Sealing the same
+ * plain text twice gives different cipher texts, since each gets a fresh salt.
+ *
+ * <p>A message can instead be sealed in parts of any length, such as the fields of a record, each
+ * of which can be opened without the others. Parts take the place of chunks, and their lengths the
+ * place of the chunk size:
+ *
+ * <pre>
+ * version (1 byte) | salt (32 bytes) | nonce prefix (7 bytes) | part count (4 bytes)
+ *     | part lengths (4 bytes each) | part 0 | part 1 | ...
+ * </pre>
+ *
+ * Either kind of message can be bound to associated data, such as where the message is kept, which
+ * is authenticated after the header but not stored, so the message only opens alongside the same
+ * data. Messages sealed by the first version, with a random nonce prefix under the engine's own
+ * key, can still be opened.
+ */
+public class ChunkedAESGCMEncryptionEngine implements EncryptionEngine {
+  public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+  private static final String ENCRYPTION_ALGORITHM = "AES/GCM/NoPadding";
+  private static final String KEY_DERIVATION_ALGORITHM = "HmacSHA256";
+  private static final String KEY_ALGORITHM = "AES";
+  private static final byte CHUNKS_UNDER_ENGINE_KEY = 1;
+  private static final byte CHUNKS = 2;
+  private static final byte PARTS = 3;
+  private static final int SALT_LENGTH = 32;
+  private static final int NONCE_PREFIX_LENGTH = 7;
+  private static final int NONCE_LENGTH = NONCE_PREFIX_LENGTH + Integer.BYTES + 1;
+  private static final int ENGINE_KEY_HEADER_LENGTH = 1 + Integer.BYTES + NONCE_PREFIX_LENGTH;
+  private static final int CHUNKS_HEADER_LENGTH =
+      1 + Integer.BYTES + SALT_LENGTH + NONCE_PREFIX_LENGTH;
+  private static final int PARTS_HEADER_LENGTH =
+      1 + SALT_LENGTH + NONCE_PREFIX_LENGTH + Integer.BYTES;
+  private static final int TAG_LENGTH = 16;
+  private static final byte[] MESSAGE_KEY_INFO =
+      "passlib chunked aes-gcm message key".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] NO_ASSOCIATED_DATA = new byte[0];
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private final SecretKey key;
+  private final int chunkSize;
+  private final ForkJoinPool pool;
+
+  private ChunkedAESGCMEncryptionEngine(SecretKey key, int chunkSize, ForkJoinPool pool) {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("Chunks must hold at least one byte.");
+    }
+    this.key = key;
+    this.chunkSize = chunkSize;
+    this.pool = pool;
+  }
+
+  public static ChunkedAESGCMEncryptionEngine fromPassword(String password, String salt) {
+    return fromKey(AES256EncryptionEngine.deriveKey(password, salt));
+  }
+
+  public static ChunkedAESGCMEncryptionEngine fromKey(SecretKey key) {
+    return fromKey(key, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+  }
+
+  static ChunkedAESGCMEncryptionEngine fromKey(SecretKey key, int chunkSize, ForkJoinPool pool) {
+    return new ChunkedAESGCMEncryptionEngine(key, chunkSize, pool);
+  }
+
+  // Every use takes a fresh cipher or MAC, rather than each thread keeping one, since a kept
+  // instance holds the schedule of the last key it was given for as long as its thread lives, and
+  // chunks are sealed on pool threads that outlive any key.
+  private static Cipher newCipher() {
+    try {
+      return Cipher.getInstance(ENCRYPTION_ALGORITHM);
+    } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+      throw new AES256EncryptionException(e);
+    }
+  }
+
+  private static Mac newMac() {
+    try {
+      return Mac.getInstance(KEY_DERIVATION_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      throw new AES256EncryptionException(e);
+    }
+  }
+
+  @Override
+  public String encrypt(String plainText) {
+    return encryptBytes(plainText.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public String decrypt(String cipherText) throws KeyMismatchException {
+    return new String(decryptBytes(cipherText), StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public String encryptBytes(byte[] plainBytes) {
+    long startTime = AES256EncryptionEngine.ENCRYPTION_TIMER.start();
+    try {
+      return Base64.getEncoder().encodeToString(seal(plainBytes));
+    } finally {
+      AES256EncryptionEngine.ENCRYPTION_TIMER.stop(startTime);
+    }
+  }
+
+  @Override
+  public byte[] decryptBytes(String cipherText) throws KeyMismatchException {
+    long startTime = AES256EncryptionEngine.DECRYPTION_TIMER.start();
+    try {
+      return open(decodeBase64(cipherText));
+    } catch (KeyMismatchException e) {
+      AES256EncryptionEngine.KEY_MISMATCH_COUNTER.increment();
+      throw e;
+    } finally {
+      AES256EncryptionEngine.DECRYPTION_TIMER.stop(startTime);
+    }
+  }
+
+  private static byte[] decodeBase64(String cipherText) throws KeyMismatchException {
+    try {
+      return Base64.getDecoder().decode(cipherText);
+    } catch (IllegalArgumentException e) {
+      throw new KeyMismatchException(e);
+    }
+  }
+
+  /**
+   * Seals the parts as one message bound to the associated data, such that {@link #decryptPart} can
+   * open any one part without the others. Dropping, reordering or swapping parts, within or between
+   * messages, is detected just as it is for chunks.
+   */
+  public String encryptParts(List<byte[]> parts, byte[] associatedData) {
+    if (parts.isEmpty()) {
+      throw new IllegalArgumentException("A message must have at least one part.");
+    }
+    long startTime = AES256EncryptionEngine.ENCRYPTION_TIMER.start();
+    MessageHeader header = newPartsHeader(parts);
+    try {
+      int length = header.bytes.length;
+      for (byte[] part : parts) {
+        length += part.length + TAG_LENGTH;
+      }
+      byte[] sealedBytes = Arrays.copyOf(header.bytes, length);
+      int offset = header.bytes.length;
+      for (int partNumber = 0; partNumber < parts.size(); partNumber++) {
+        byte[] part = parts.get(partNumber);
+        sealChunk(
+            header,
+            partNumber,
+            partNumber == parts.size() - 1,
+            associatedData,
+            part,
+            0,
+            part.length,
+            sealedBytes,
+            offset);
+        offset += part.length + TAG_LENGTH;
+      }
+      return Base64.getEncoder().encodeToString(sealedBytes);
+    } finally {
+      header.destroy();
+      AES256EncryptionEngine.ENCRYPTION_TIMER.stop(startTime);
+    }
+  }
+
+  /** Opens one part of a message sealed by {@link #encryptParts} with the same associated data. */
+  public byte[] decryptPart(String cipherText, int partNumber, byte[] associatedData)
+      throws KeyMismatchException {
+    long startTime = AES256EncryptionEngine.DECRYPTION_TIMER.start();
+    try {
+      byte[] sealedBytes = decodeBase64(cipherText);
+      int[] partLengths = readPartLengths(sealedBytes);
+      if (partNumber < 0 || partNumber >= partLengths.length) {
+        throw new KeyMismatchException(
+            new AEADBadTagException("Part " + partNumber + " is missing."));
+      }
+      int offset = PARTS_HEADER_LENGTH + partLengths.length * Integer.BYTES;
+      for (int i = 0; i < partNumber; i++) {
+        offset += partLengths[i] + TAG_LENGTH;
+      }
+      byte[] plainBytes = new byte[partLengths[partNumber]];
+      MessageHeader header = readPartsHeader(sealedBytes, partLengths);
+      try {
+        openChunk(
+            header,
+            partNumber,
+            partNumber == partLengths.length - 1,
+            associatedData,
+            sealedBytes,
+            offset,
+            plainBytes.length + TAG_LENGTH,
+            plainBytes,
+            0);
+      } finally {
+        header.destroy();
+      }
+      return plainBytes;
+    } catch (KeyMismatchException e) {
+      AES256EncryptionEngine.KEY_MISMATCH_COUNTER.increment();
+      throw e;
+    } finally {
+      AES256EncryptionEngine.DECRYPTION_TIMER.stop(startTime);
+    }
+  }
+
+  /**
+   * Opens the same part of every message in the batch in parallel, each with its own associated
+   * data, preserving the order of the batch.
+   */
+  public List<byte[]> decryptAllParts(
+      List<String> cipherTexts, int partNumber, List<byte[]> associatedData)
+      throws KeyMismatchException {
+    if (associatedData.size() != cipherTexts.size()) {
+      throw new IllegalArgumentException("Each message needs its own associated data.");
+    }
+    return BatchCryptographyTask.applyToAll(
+        i -> decryptPart(cipherTexts.get(i), partNumber, associatedData.get(i)),
+        IntStream.range(0, cipherTexts.size()).boxed().collect(Collectors.toList()),
+        pool);
+  }
+
+  byte[] seal(byte[] plainBytes) {
+    return seal(plainBytes, NO_ASSOCIATED_DATA);
+  }
+
+  /** Seals every chunk of the plain text in parallel, straight into one output buffer. */
+  byte[] seal(byte[] plainBytes, byte[] associatedData) {
+    MessageHeader header = newChunksHeader();
+    int headerLength = header.bytes.length;
+    int chunkCount = chunkCount(plainBytes.length, chunkSize);
+    byte[] sealedBytes =
+        Arrays.copyOf(header.bytes, headerLength + plainBytes.length + chunkCount * TAG_LENGTH);
+    try {
+      forEachChunk(
+          chunkCount,
+          chunkNumber -> {
+            int offset = chunkNumber * chunkSize;
+            sealChunk(
+                header,
+                chunkNumber,
+                chunkNumber == chunkCount - 1,
+                associatedData,
+                plainBytes,
+                offset,
+                Math.min(chunkSize, plainBytes.length - offset),
+                sealedBytes,
+                headerLength + chunkNumber * (chunkSize + TAG_LENGTH));
+          });
+    } catch (KeyMismatchException e) {
+      throw new IllegalStateException("Encryption cannot cause a key mismatch.", e);
+    } finally {
+      header.destroy();
+    }
+    return sealedBytes;
+  }
+
+  byte[] open(byte[] sealedBytes) throws KeyMismatchException {
+    return open(sealedBytes, NO_ASSOCIATED_DATA);
+  }
+
+  /**
+   * Checks that the chunks add up before decrypting anything, then opens every chunk in parallel,
+   * stopping early once any chunk fails to authenticate.
+   */
+  byte[] open(byte[] sealedBytes, byte[] associatedData) throws KeyMismatchException {
+    int headerLength = chunksHeaderLength(sealedBytes.length > 0 ? sealedBytes[0] : 0);
+    if (sealedBytes.length < headerLength) {
+      throw new KeyMismatchException(new AEADBadTagException("Not a chunked cipher text."));
+    }
+    int sealedChunkSize = readChunkSize(sealedBytes);
+    int sealedLength = sealedBytes.length - headerLength;
+    long sealedChunkLength = (long) sealedChunkSize + TAG_LENGTH;
+    int chunkCount = (int) Math.max(1, (sealedLength + sealedChunkLength - 1) / sealedChunkLength);
+    long finalChunkLength = sealedLength - (chunkCount - 1) * sealedChunkLength;
+    // Only the sole chunk of an empty plain text may be a bare tag.
+    if (finalChunkLength < TAG_LENGTH || (chunkCount > 1 && finalChunkLength == TAG_LENGTH)) {
+      throw new KeyMismatchException(new AEADBadTagException("Truncated chunked cipher text."));
+    }
+    int plainLength = sealedLength - chunkCount * TAG_LENGTH;
+    byte[] plainBytes = new byte[plainLength];
+    MessageHeader header = readChunksHeader(Arrays.copyOf(sealedBytes, headerLength));
+    try {
+      forEachChunk(
+          chunkCount,
+          chunkNumber -> {
+            int offset = chunkNumber * sealedChunkSize;
+            openChunk(
+                header,
+                chunkNumber,
+                chunkNumber == chunkCount - 1,
+                associatedData,
+                sealedBytes,
+                headerLength + (int) (chunkNumber * sealedChunkLength),
+                Math.min(sealedChunkSize, plainLength - offset) + TAG_LENGTH,
+                plainBytes,
+                offset);
+          });
+    } finally {
+      header.destroy();
+    }
+    return plainBytes;
+  }
+
+  /**
+   * The key, nonce prefix and header that every chunk or part of one message is sealed with. Keys
+   * derived for the message are destroyed along with it, unlike the engine's own key.
+   */
+  private static class MessageHeader {
+    private final byte[] bytes;
+    private final SecretKey key;
+    private final byte[] noncePrefix;
+    private final boolean derivedKey;
+
+    private MessageHeader(byte[] bytes, SecretKey key, byte[] noncePrefix, boolean derivedKey) {
+      this.bytes = bytes;
+      this.key = key;
+      this.noncePrefix = noncePrefix;
+      this.derivedKey = derivedKey;
+    }
+
+    private void destroy() {
+      if (derivedKey) {
+        ((DestroyableSecretKey) key).destroy();
+      }
+    }
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    RANDOM.nextBytes(bytes);
+    return bytes;
+  }
+
+  private MessageHeader newChunksHeader() {
+    byte[] salt = randomBytes(SALT_LENGTH);
+    byte[] noncePrefix = randomBytes(NONCE_PREFIX_LENGTH);
+    byte[] header =
+        ByteBuffer.allocate(CHUNKS_HEADER_LENGTH)
+            .put(CHUNKS)
+            .putInt(chunkSize)
+            .put(salt)
+            .put(noncePrefix)
+            .array();
+    return new MessageHeader(header, deriveMessageKey(salt), noncePrefix, true);
+  }
+
+  private MessageHeader newPartsHeader(List<byte[]> parts) {
+    byte[] salt = randomBytes(SALT_LENGTH);
+    byte[] noncePrefix = randomBytes(NONCE_PREFIX_LENGTH);
+    ByteBuffer header =
+        ByteBuffer.allocate(PARTS_HEADER_LENGTH + parts.size() * Integer.BYTES)
+            .put(PARTS)
+            .put(salt)
+            .put(noncePrefix)
+            .putInt(parts.size());
+    for (byte[] part : parts) {
+      header.putInt(part.length);
+    }
+    return new MessageHeader(header.array(), deriveMessageKey(salt), noncePrefix, true);
+  }
+
+  /** The length of the header of a chunked message of the given version, or 0 if unknown. */
+  private static int chunksHeaderLength(byte version) {
+    switch (version) {
+      case CHUNKS_UNDER_ENGINE_KEY:
+        return ENGINE_KEY_HEADER_LENGTH;
+      case CHUNKS:
+        return CHUNKS_HEADER_LENGTH;
+      default:
+        return Integer.MAX_VALUE;
+    }
+  }
+
+  private static int readChunkSize(byte[] header) throws KeyMismatchException {
+    int sealedChunkSize = ByteBuffer.wrap(header, 1, Integer.BYTES).getInt();
+    if (sealedChunkSize < 1) {
+      throw new KeyMismatchException(new AEADBadTagException("Malformed chunked cipher text."));
+    }
+    return sealedChunkSize;
+  }
+
+  private MessageHeader readChunksHeader(byte[] header) throws KeyMismatchException {
+    if (header.length == 0 || header.length != chunksHeaderLength(header[0])) {
+      throw new KeyMismatchException(new AEADBadTagException("Not a chunked cipher text."));
+    }
+    readChunkSize(header);
+    if (header[0] == CHUNKS_UNDER_ENGINE_KEY) {
+      return new MessageHeader(
+          header,
+          key,
+          Arrays.copyOfRange(header, 1 + Integer.BYTES, ENGINE_KEY_HEADER_LENGTH),
+          false);
+    }
+    int saltOffset = 1 + Integer.BYTES;
+    return new MessageHeader(
+        header,
+        deriveMessageKey(Arrays.copyOfRange(header, saltOffset, saltOffset + SALT_LENGTH)),
+        Arrays.copyOfRange(header, saltOffset + SALT_LENGTH, CHUNKS_HEADER_LENGTH),
+        true);
+  }
+
+  /**
+   * The lengths of the parts of a message, once they are checked to add up to the whole message, so
+   * that nothing is derived or decrypted for a message that has been cut short.
+   */
+  private static int[] readPartLengths(byte[] sealedBytes) throws KeyMismatchException {
+    if (sealedBytes.length < PARTS_HEADER_LENGTH || sealedBytes[0] != PARTS) {
+      throw new KeyMismatchException(new AEADBadTagException("Not a cipher text in parts."));
+    }
+    ByteBuffer header = ByteBuffer.wrap(sealedBytes);
+    header.position(PARTS_HEADER_LENGTH - Integer.BYTES);
+    int partCount = header.getInt();
+    if (partCount < 1
+        || partCount > (sealedBytes.length - PARTS_HEADER_LENGTH) / (Integer.BYTES + TAG_LENGTH)) {
+      throw new KeyMismatchException(new AEADBadTagException("Malformed cipher text in parts."));
+    }
+    int[] partLengths = new int[partCount];
+    long length = PARTS_HEADER_LENGTH + (long) partCount * Integer.BYTES;
+    for (int i = 0; i < partCount; i++) {
+      partLengths[i] = header.getInt();
+      if (partLengths[i] < 0) {
+        throw new KeyMismatchException(new AEADBadTagException("Malformed cipher text in parts."));
+      }
+      length += partLengths[i] + TAG_LENGTH;
+    }
+    if (length != sealedBytes.length) {
+      throw new KeyMismatchException(new AEADBadTagException("Truncated cipher text in parts."));
+    }
+    return partLengths;
+  }
+
+  private MessageHeader readPartsHeader(byte[] sealedBytes, int[] partLengths) {
+    byte[] header =
+        Arrays.copyOf(sealedBytes, PARTS_HEADER_LENGTH + partLengths.length * Integer.BYTES);
+    return new MessageHeader(
+        header,
+        deriveMessageKey(Arrays.copyOfRange(header, 1, 1 + SALT_LENGTH)),
+        Arrays.copyOfRange(header, 1 + SALT_LENGTH, 1 + SALT_LENGTH + NONCE_PREFIX_LENGTH),
+        true);
+  }
+
+  /** HKDF-SHA256, extracting with the message's salt and expanding to a single AES-256 key. */
+  private DestroyableSecretKey deriveMessageKey(byte[] salt) {
+    byte[] encodedKey = key.getEncoded();
+    byte[] pseudoRandomBytes = null;
+    DestroyableSecretKey pseudoRandomKey = null;
+    byte[] messageKeyBytes = null;
+    try {
+      Mac mac = newMac();
+      mac.init(new SecretKeySpec(salt, KEY_DERIVATION_ALGORITHM));
+      pseudoRandomBytes = mac.doFinal(encodedKey);
+      pseudoRandomKey = new DestroyableSecretKey(pseudoRandomBytes, KEY_DERIVATION_ALGORITHM);
+      mac.init(pseudoRandomKey);
+      mac.update(MESSAGE_KEY_INFO);
+      mac.update((byte) 1);
+      messageKeyBytes = mac.doFinal();
+      return new DestroyableSecretKey(messageKeyBytes, KEY_ALGORITHM);
+    } catch (InvalidKeyException e) {
+      throw new AES256EncryptionException(e);
+    } finally {
+      Arrays.fill(encodedKey, (byte) 0);
+      if (pseudoRandomBytes != null) {
+        Arrays.fill(pseudoRandomBytes, (byte) 0);
+      }
+      if (pseudoRandomKey != null) {
+        pseudoRandomKey.destroy();
+      }
+      if (messageKeyBytes != null) {
+        Arrays.fill(messageKeyBytes, (byte) 0);
+      }
+    }
+  }
+
+  private static int chunkCount(int length, int chunkSize) {
+    return (int) Math.max(1, ((long) length + chunkSize - 1) / chunkSize);
+  }
+
+  private static GCMParameterSpec nonceFor(
+      MessageHeader header, int chunkNumber, boolean finalChunk) {
+    byte[] nonce = new byte[NONCE_LENGTH];
+    System.arraycopy(header.noncePrefix, 0, nonce, 0, NONCE_PREFIX_LENGTH);
+    ByteBuffer.wrap(nonce, NONCE_PREFIX_LENGTH, Integer.BYTES).putInt(chunkNumber);
+    nonce[NONCE_LENGTH - 1] = (byte) (finalChunk ? 1 : 0);
+    return new GCMParameterSpec(TAG_LENGTH * Byte.SIZE, nonce);
+  }
+
+  private static void sealChunk(
+      MessageHeader header,
+      int chunkNumber,
+      boolean finalChunk,
+      byte[] associatedData,
+      byte[] input,
+      int inputOffset,
+      int inputLength,
+      byte[] output,
+      int outputOffset) {
+    Cipher cipher = newCipher();
+    try {
+      cipher.init(Cipher.ENCRYPT_MODE, header.key, nonceFor(header, chunkNumber, finalChunk));
+      cipher.updateAAD(header.bytes);
+      cipher.updateAAD(associatedData);
+      cipher.doFinal(input, inputOffset, inputLength, output, outputOffset);
+    } catch (GeneralSecurityException e) {
+      throw new AES256EncryptionException(e);
+    }
+  }
+
+  private static void openChunk(
+      MessageHeader header,
+      int chunkNumber,
+      boolean finalChunk,
+      byte[] associatedData,
+      byte[] input,
+      int inputOffset,
+      int inputLength,
+      byte[] output,
+      int outputOffset)
+      throws KeyMismatchException {
+    Cipher cipher = newCipher();
+    try {
+      cipher.init(Cipher.DECRYPT_MODE, header.key, nonceFor(header, chunkNumber, finalChunk));
+      cipher.updateAAD(header.bytes);
+      cipher.updateAAD(associatedData);
+      cipher.doFinal(input, inputOffset, inputLength, output, outputOffset);
+    } catch (AEADBadTagException e) {
+      throw new KeyMismatchException(
+          new AEADBadTagException("Chunk " + chunkNumber + " failed to authenticate."));
+    } catch (GeneralSecurityException e) {
+      throw new KeyMismatchException(e);
+    }
+  }
+
+  private interface ChunkOperation {
+    void apply(int chunkNumber) throws KeyMismatchException;
+  }
+
+  private void forEachChunk(int chunkCount, ChunkOperation operation) throws KeyMismatchException {
+    if (chunkCount == 1) {
+      operation.apply(0);
+      return;
+    }
+    // Once one chunk has failed, the chunks that have yet to start are skipped.
+    AtomicBoolean failed = new AtomicBoolean();
+    List<Integer> chunkNumbers =
+        IntStream.range(0, chunkCount).boxed().collect(Collectors.toList());
+    BatchCryptographyTask.applyToAll(
+        chunkNumber -> {
+          if (!failed.get()) {
+            try {
+              operation.apply(chunkNumber);
+            } catch (KeyMismatchException | RuntimeException e) {
+              failed.set(true);
+              throw e;
+            }
+          }
+          return null;
+        },
+        chunkNumbers,
+        pool);
+  }
+
+  @Override
+  public OutputStream encryptTo(OutputStream cipherTextOutputStream) {
+    return new SealingOutputStream(Base64.getEncoder().wrap(cipherTextOutputStream));
+  }
+
+  @Override
+  public InputStream decryptFrom(InputStream cipherTextInputStream) {
+    return new OpeningInputStream(Base64.getDecoder().wrap(cipherTextInputStream));
+  }
+
+  /**
+   * Seals each chunk as soon as it is full and more plain text arrives, so that only the chunk
+   * flushed on close is sealed as the final one.
+   */
+  private class SealingOutputStream extends OutputStream {
+    private final OutputStream outputStream;
+    private final MessageHeader header = newChunksHeader();
+    private final byte[] chunk = new byte[chunkSize];
+    private final byte[] sealedChunk = new byte[chunkSize + TAG_LENGTH];
+    private int chunkLength;
+    private int chunkNumber;
+    private boolean closed;
+
+    private SealingOutputStream(OutputStream outputStream) {
+      this.outputStream = outputStream;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      if (closed) {
+        throw new IOException("Stream closed.");
+      }
+      while (length > 0) {
+        if (chunkLength == chunkSize) {
+          writeChunk(false);
+        }
+        int count = Math.min(length, chunkSize - chunkLength);
+        System.arraycopy(bytes, offset, chunk, chunkLength, count);
+        chunkLength += count;
+        offset += count;
+        length -= count;
+      }
+    }
+
+    private void writeChunk(boolean finalChunk) throws IOException {
+      if (chunkNumber == 0) {
+        outputStream.write(header.bytes);
+      }
+      sealChunk(
+          header,
+          chunkNumber++,
+          finalChunk,
+          NO_ASSOCIATED_DATA,
+          chunk,
+          0,
+          chunkLength,
+          sealedChunk,
+          0);
+      outputStream.write(sealedChunk, 0, chunkLength + TAG_LENGTH);
+      chunkLength = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        writeChunk(true);
+        outputStream.close();
+      } finally {
+        header.destroy();
+      }
+    }
+  }
+
+  /**
+   * Reads a batch of sealed chunks ahead, one per worker of the pool, and opens the batch in
+   * parallel. A chunk is only known to be the final one once the end of the stream is reached, so
+   * one sealed chunk is always held back until the next is read.
+   */
+  private class OpeningInputStream extends InputStream {
+    private final InputStream inputStream;
+    private final Deque<byte[]> sealedChunks = new ArrayDeque<>();
+    private MessageHeader header;
+    private int sealedChunkLength;
+    private int chunkNumber;
+    private boolean endReached;
+    private byte[] plainBytes = new byte[0];
+    private int position;
+
+    private OpeningInputStream(InputStream inputStream) {
+      this.inputStream = inputStream;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      while (position == plainBytes.length) {
+        if (endReached && sealedChunks.isEmpty()) {
+          return -1;
+        }
+        try {
+          openNextBatch();
+        } catch (KeyMismatchException e) {
+          throw new IOException(e);
+        }
+      }
+      int count = Math.min(length, plainBytes.length - position);
+      System.arraycopy(plainBytes, position, bytes, offset, count);
+      position += count;
+      return count;
+    }
+
+    private void openNextBatch() throws IOException, KeyMismatchException {
+      if (header == null) {
+        byte[] version = inputStream.readNBytes(1);
+        int headerLength = chunksHeaderLength(version.length > 0 ? version[0] : 0);
+        if (headerLength == Integer.MAX_VALUE) {
+          throw new KeyMismatchException(new AEADBadTagException("Not a chunked cipher text."));
+        }
+        byte[] headerBytes = Arrays.copyOf(version, headerLength);
+        int headerRead = inputStream.readNBytes(headerBytes, 1, headerLength - 1);
+        header = readChunksHeader(Arrays.copyOf(headerBytes, 1 + headerRead));
+        sealedChunkLength = readChunkSize(header.bytes) + TAG_LENGTH;
+      }
+      int batchSize = Math.max(1, pool.getParallelism());
+      while (!endReached && sealedChunks.size() <= batchSize) {
+        byte[] sealedChunk = inputStream.readNBytes(sealedChunkLength);
+        if (sealedChunk.length > 0) {
+          sealedChunks.add(sealedChunk);
+        }
+        endReached = sealedChunk.length < sealedChunkLength;
+      }
+      if (sealedChunks.isEmpty() || sealedChunks.peekLast().length < TAG_LENGTH) {
+        throw new KeyMismatchException(new AEADBadTagException("Truncated chunked cipher text."));
+      }
+
+      List<byte[]> batch = new ArrayList<>(batchSize);
+      while (!sealedChunks.isEmpty() && (endReached || batch.size() < batchSize)) {
+        batch.add(sealedChunks.poll());
+      }
+      int[] offsets = new int[batch.size() + 1];
+      for (int i = 0; i < batch.size(); i++) {
+        offsets[i + 1] = offsets[i] + batch.get(i).length - TAG_LENGTH;
+      }
+      byte[] openedBytes = new byte[offsets[batch.size()]];
+      int firstChunkNumber = chunkNumber;
+      forEachChunk(
+          batch.size(),
+          i ->
+              openChunk(
+                  header,
+                  firstChunkNumber + i,
+                  endReached && i == batch.size() - 1,
+                  NO_ASSOCIATED_DATA,
+                  batch.get(i),
+                  0,
+                  batch.get(i).length,
+                  openedBytes,
+                  offsets[i]));
+      chunkNumber += batch.size();
+      plainBytes = openedBytes;
+      position = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (header != null) {
+        header.destroy();
+      }
+      inputStream.close();
+    }
+  }
+}
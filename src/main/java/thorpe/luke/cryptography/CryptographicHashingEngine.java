@@ -1,5 +1,21 @@
 package thorpe.luke.cryptography;
 
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
 public interface CryptographicHashingEngine {
   String hash(String text);
+
+  default List<String> hashAll(List<String> texts) {
+    return hashAll(texts, ForkJoinPool.commonPool());
+  }
+
+  /** Hashes every text in the batch in parallel, preserving the order of the batch. */
+  default List<String> hashAll(List<String> texts, ForkJoinPool pool) {
+    try {
+      return BatchCryptographyTask.applyToAll(this::hash, texts, pool);
+    } catch (KeyMismatchException e) {
+      throw new IllegalStateException("Hashing cannot cause a key mismatch.", e);
+    }
+  }
 }
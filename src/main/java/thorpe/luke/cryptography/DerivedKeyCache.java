@@ -0,0 +1,191 @@
+package thorpe.luke.cryptography;
+
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import javax.crypto.SecretKey;
+
+/**
+ * Holds keys derived by {@link AES256EncryptionEngine#deriveKey(String, String)} for the duration
+ * of a session, so that repeatedly opening and saving the same library only pays for the key
+ * derivation once. Keys expire after going unused for the time to live, or when locked, and their
+ * material is zeroed as they are evicted.
+ *
+ * <p>A key that is still needed after the call that fetched it, such as by a read that is still
+ * decrypting, is held through a {@link Lease}. The material of a key evicted while leased is only
+ * zeroed once the last of its leases is closed, though the key is no longer handed out meanwhile.
+ */
+public class DerivedKeyCache {
+  private final Cache<DerivationInput, CachedKey> keys;
+
+  public DerivedKeyCache(Duration timeToLive) {
+    this(timeToLive, Ticker.systemTicker());
+  }
+
+  DerivedKeyCache(Duration timeToLive, Ticker ticker) {
+    this.keys =
+        CacheBuilder.newBuilder()
+            .expireAfterAccess(timeToLive)
+            .ticker(ticker)
+            .removalListener(DerivedKeyCache::destroyKey)
+            .build();
+  }
+
+  private static void destroyKey(RemovalNotification<DerivationInput, CachedKey> notification) {
+    notification.getValue().evict();
+  }
+
+  /**
+   * The key, deriving it if need be. The key is destroyed as soon as it is evicted, so anything
+   * that uses it beyond a moment should {@link #acquire(String, String)} it instead.
+   */
+  public SecretKey getOrDerive(String password, String salt) {
+    return getOrDeriveCachedKey(password, salt).key;
+  }
+
+  /** The key, if it has been derived and not yet evicted, without deriving it otherwise. */
+  public Optional<SecretKey> getIfPresent(String password, String salt) {
+    return getCachedKeyIfPresent(password, salt).map(cachedKey -> cachedKey.key);
+  }
+
+  /** Leases the key, deriving it if need be. The key is not destroyed until the lease is closed. */
+  public Lease acquire(String password, String salt) {
+    while (true) {
+      CachedKey cachedKey = getOrDeriveCachedKey(password, salt);
+      if (cachedKey.retain()) {
+        return new Lease(cachedKey);
+      }
+      // The key was evicted just after it was fetched, so it is fetched, or derived, again.
+    }
+  }
+
+  /** Leases the key, if it has been derived and not yet evicted, without deriving it otherwise. */
+  public Optional<Lease> acquireIfPresent(String password, String salt) {
+    return getCachedKeyIfPresent(password, salt).filter(CachedKey::retain).map(Lease::new);
+  }
+
+  private CachedKey getOrDeriveCachedKey(String password, String salt) {
+    keys.cleanUp();
+    try {
+      return keys.get(
+          new DerivationInput(password, salt),
+          () -> new CachedKey(AES256EncryptionEngine.deriveKey(password, salt)));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new AES256EncryptionException(e);
+    }
+  }
+
+  private Optional<CachedKey> getCachedKeyIfPresent(String password, String salt) {
+    keys.cleanUp();
+    return Optional.ofNullable(keys.getIfPresent(new DerivationInput(password, salt)));
+  }
+
+  public void lock(String password, String salt) {
+    keys.invalidate(new DerivationInput(password, salt));
+  }
+
+  public void lockAll() {
+    keys.invalidateAll();
+  }
+
+  public long size() {
+    keys.cleanUp();
+    return keys.size();
+  }
+
+  /** A key held for use, which is not destroyed until the lease is closed. */
+  public static class Lease implements AutoCloseable {
+    private final CachedKey cachedKey;
+    private boolean closed;
+
+    private Lease(CachedKey cachedKey) {
+      this.cachedKey = cachedKey;
+      this.closed = false;
+    }
+
+    public SecretKey getKey() {
+      return cachedKey.key;
+    }
+
+    /**
+     * Gives the key back, destroying it if it was evicted meanwhile and this was its last lease.
+     */
+    @Override
+    public synchronized void close() {
+      if (!closed) {
+        closed = true;
+        cachedKey.release();
+      }
+    }
+  }
+
+  /** A cached key, counting the leases on it, so that it is only destroyed once none is left. */
+  private static class CachedKey {
+    private final DestroyableSecretKey key;
+    private int leaseCount;
+    private boolean evicted;
+
+    private CachedKey(DestroyableSecretKey key) {
+      this.key = key;
+      this.leaseCount = 0;
+      this.evicted = false;
+    }
+
+    /** Takes out a lease, unless the key has already been evicted. */
+    private synchronized boolean retain() {
+      if (evicted) {
+        return false;
+      }
+      leaseCount++;
+      return true;
+    }
+
+    private synchronized void release() {
+      leaseCount--;
+      if (evicted && leaseCount == 0) {
+        key.destroy();
+      }
+    }
+
+    private synchronized void evict() {
+      evicted = true;
+      if (leaseCount == 0) {
+        key.destroy();
+      }
+    }
+  }
+
+  private static class DerivationInput {
+    private final String password;
+    private final String salt;
+
+    private DerivationInput(String password, String salt) {
+      this.password = password;
+      this.salt = salt;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(password, salt);
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (this == object) {
+        return true;
+      } else if (object instanceof DerivationInput) {
+        DerivationInput that = (DerivationInput) object;
+        return this.password.equals(that.password) && this.salt.equals(that.salt);
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package thorpe.luke.cryptography;
+
+import java.util.Arrays;
+import javax.crypto.SecretKey;
+
+/**
+ * A secret key whose material can be zeroed once it is no longer needed, unlike {@link
+ * javax.crypto.spec.SecretKeySpec} which cannot be destroyed.
+ */
+public class DestroyableSecretKey implements SecretKey {
+  private final byte[] encoded;
+  private final String algorithm;
+  private volatile boolean destroyed;
+
+  public DestroyableSecretKey(byte[] encoded, String algorithm) {
+    this.encoded = encoded.clone();
+    this.algorithm = algorithm;
+    this.destroyed = false;
+  }
+
+  @Override
+  public String getAlgorithm() {
+    return algorithm;
+  }
+
+  @Override
+  public String getFormat() {
+    return "RAW";
+  }
+
+  @Override
+  public byte[] getEncoded() {
+    if (destroyed) {
+      throw new IllegalStateException("Key material has been destroyed.");
+    }
+    return encoded.clone();
+  }
+
+  @Override
+  public void destroy() {
+    destroyed = true;
+    Arrays.fill(encoded, (byte) 0);
+  }
+
+  @Override
+  public boolean isDestroyed() {
+    return destroyed;
+  }
+}
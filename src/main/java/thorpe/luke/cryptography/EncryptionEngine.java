@@ -1,7 +1,65 @@
 package thorpe.luke.cryptography;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
 public interface EncryptionEngine {
   String encrypt(String plainText);
 
   String decrypt(String cipherText) throws KeyMismatchException;
+
+  /** Encrypts arbitrary bytes, such as a binary encoding, to Base64 cipher text. */
+  String encryptBytes(byte[] plainBytes);
+
+  byte[] decryptBytes(String cipherText) throws KeyMismatchException;
+
+  /**
+   * Wraps a sink of Base64 cipher text, such that plain text written to the returned stream is
+   * encrypted and encoded on the fly. Closing the returned stream flushes the final block and
+   * closes the underlying stream. The output decrypts just as that of {@link #encrypt(String)}
+   * does, and for a deterministic engine, is identical to it.
+   */
+  OutputStream encryptTo(OutputStream cipherTextOutputStream);
+
+  /**
+   * Wraps a source of Base64 cipher text, such that reading from the returned stream yields the
+   * decrypted plain text. A key mismatch surfaces as an {@link java.io.IOException} caused by a
+   * {@link KeyMismatchException}.
+   */
+  InputStream decryptFrom(InputStream cipherTextInputStream);
+
+  default List<String> encryptAll(List<String> plainTexts) {
+    return encryptAll(plainTexts, ForkJoinPool.commonPool());
+  }
+
+  /** Encrypts every plain text in the batch in parallel, preserving the order of the batch. */
+  default List<String> encryptAll(List<String> plainTexts, ForkJoinPool pool) {
+    try {
+      return BatchCryptographyTask.applyToAll(this::encrypt, plainTexts, pool);
+    } catch (KeyMismatchException e) {
+      throw new IllegalStateException("Encryption cannot cause a key mismatch.", e);
+    }
+  }
+
+  default List<String> decryptAll(List<String> cipherTexts) throws KeyMismatchException {
+    return decryptAll(cipherTexts, ForkJoinPool.commonPool());
+  }
+
+  /** Decrypts every cipher text in the batch in parallel, preserving the order of the batch. */
+  default List<String> decryptAll(List<String> cipherTexts, ForkJoinPool pool)
+      throws KeyMismatchException {
+    return BatchCryptographyTask.applyToAll(this::decrypt, cipherTexts, pool);
+  }
+
+  default List<byte[]> decryptAllBytes(List<String> cipherTexts) throws KeyMismatchException {
+    return decryptAllBytes(cipherTexts, ForkJoinPool.commonPool());
+  }
+
+  /** Like {@link #decryptAll(List, ForkJoinPool)}, but without decoding the plain text. */
+  default List<byte[]> decryptAllBytes(List<String> cipherTexts, ForkJoinPool pool)
+      throws KeyMismatchException {
+    return BatchCryptographyTask.applyToAll(this::decryptBytes, cipherTexts, pool);
+  }
 }
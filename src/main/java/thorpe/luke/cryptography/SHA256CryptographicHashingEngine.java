@@ -1,31 +1,109 @@
 package thorpe.luke.cryptography;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Base64;
+import thorpe.luke.metrics.Metrics;
+import thorpe.luke.metrics.OperationTimer;
 
+/**
+ * Hashes text followed by the salt. The salt is encoded once, up front, and the text is encoded
+ * into a buffer that is reused, along with the digest, by each thread, so an engine may be shared
+ * between threads and hashing allocates little more than the encoded result. The buffer is zeroed
+ * after every hash, so the text does not outlive the call in a thread that does.
+ */
 public class SHA256CryptographicHashingEngine implements CryptographicHashingEngine {
   private static final String HASHING_ALGORITHM = "SHA-256";
+  private static final int INITIAL_BUFFER_SIZE = 256;
 
-  private final MessageDigest messageDigest;
-  private final String salt;
+  // An explicit encoding, so the same text hashes the same on every JVM. UTF-8 is the platform
+  // encoding wherever Java 18 or later runs, or the locale asks for it, so those hashes are kept.
+  private static final Charset CHARSET = StandardCharsets.UTF_8;
 
-  private SHA256CryptographicHashingEngine(String salt) throws NoSuchAlgorithmException {
-    this.messageDigest = MessageDigest.getInstance(HASHING_ALGORITHM);
-    this.salt = salt;
+  private static final OperationTimer HASHING_TIMER = Metrics.timer("hash.sha256", "hashing");
+
+  private static final ThreadLocal<HashingState> HASHING_STATES =
+      ThreadLocal.withInitial(HashingState::new);
+
+  private final byte[] saltBytes;
+
+  private SHA256CryptographicHashingEngine(String salt) {
+    this.saltBytes = salt.getBytes(CHARSET);
   }
 
   public static SHA256CryptographicHashingEngine fromSalt(String salt) {
-    try {
-      return new SHA256CryptographicHashingEngine(salt);
-    } catch (NoSuchAlgorithmException e) {
-      throw new SHA256CryptographicHashing(e);
+    return new SHA256CryptographicHashingEngine(salt);
+  }
+
+  private static class HashingState {
+    private final MessageDigest messageDigest;
+    private final CharsetEncoder encoder;
+    private final byte[] hash;
+    private ByteBuffer buffer;
+
+    private HashingState() {
+      try {
+        this.messageDigest = MessageDigest.getInstance(HASHING_ALGORITHM);
+      } catch (NoSuchAlgorithmException e) {
+        throw new SHA256CryptographicHashing(e);
+      }
+      // Matches String::getBytes, which replaces what it cannot encode rather than failing.
+      this.encoder =
+          CHARSET
+              .newEncoder()
+              .onMalformedInput(CodingErrorAction.REPLACE)
+              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      this.hash = new byte[messageDigest.getDigestLength()];
+      this.buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    }
+
+    private ByteBuffer encode(String text) {
+      CharBuffer chars = CharBuffer.wrap(text);
+      encoder.reset();
+      buffer.clear();
+      while (encoder.encode(chars, buffer, true).isOverflow()) {
+        growBuffer();
+      }
+      while (encoder.flush(buffer).isOverflow()) {
+        growBuffer();
+      }
+      return buffer.flip();
+    }
+
+    private void growBuffer() {
+      ByteBuffer smallerBuffer = buffer;
+      buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+      Arrays.fill(smallerBuffer.array(), (byte) 0);
+    }
+
+    /** Zeroes the encoded text, which the digest has consumed up to the buffer's position. */
+    private void clearBuffer() {
+      Arrays.fill(buffer.array(), 0, buffer.position(), (byte) 0);
     }
   }
 
   @Override
   public String hash(String text) {
-    byte[] hash = messageDigest.digest((text + salt).getBytes());
-    return Base64.getEncoder().encodeToString(hash);
+    long startTime = HASHING_TIMER.start();
+    HashingState state = HASHING_STATES.get();
+    try {
+      state.messageDigest.update(state.encode(text));
+      state.messageDigest.update(saltBytes);
+      state.messageDigest.digest(state.hash, 0, state.hash.length);
+    } catch (DigestException e) {
+      throw new SHA256CryptographicHashing(e);
+    } finally {
+      state.clearBuffer();
+      HASHING_TIMER.stop(startTime);
+    }
+    return Base64.getEncoder().encodeToString(state.hash);
   }
 }
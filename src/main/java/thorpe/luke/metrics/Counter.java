@@ -0,0 +1,38 @@
+package thorpe.luke.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counts events, or their sizes, from any number of threads at once without contending. */
+public class Counter implements CounterMXBean {
+  private final String name;
+  private final String description;
+  private final LongAdder count;
+
+  Counter(String name, String description) {
+    this.name = name;
+    this.description = description;
+    this.count = new LongAdder();
+  }
+
+  public void increment() {
+    count.increment();
+  }
+
+  public void add(long amount) {
+    count.add(amount);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public String getDescription() {
+    return description;
+  }
+
+  @Override
+  public long getCount() {
+    return count.sum();
+  }
+}
@@ -0,0 +1,8 @@
+package thorpe.luke.metrics;
+
+/** How a {@link Counter} appears over JMX. */
+public interface CounterMXBean {
+  String getDescription();
+
+  long getCount();
+}
@@ -0,0 +1,68 @@
+package thorpe.luke.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in buckets whose width grows with their value, as an HDR histogram does, so that
+ * any duration from a nanosecond to centuries is kept to within an eighth of its value in a fixed
+ * few kilobytes. Recording a duration takes a handful of atomic increments, allocates nothing and
+ * takes no lock, so it may be done from any number of threads at once.
+ */
+class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray bucketCounts;
+  private final LongAdder totalNanos;
+
+  LatencyHistogram() {
+    this.bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+    this.totalNanos = new LongAdder();
+  }
+
+  void record(long nanos) {
+    if (nanos < 0) {
+      // The clock is monotonic, but a duration measured across threads may still come out negative.
+      nanos = 0;
+    }
+    bucketCounts.incrementAndGet(bucketOf(nanos));
+    totalNanos.add(nanos);
+  }
+
+  /**
+   * Values below {@link #SUB_BUCKET_COUNT} have a bucket each. Above that, each power of two is
+   * split into {@link #SUB_BUCKET_COUNT} buckets by the bits just below its highest bit.
+   */
+  static int bucketOf(long nanos) {
+    if (nanos < SUB_BUCKET_COUNT) {
+      return (int) nanos;
+    }
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+    int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /** The greatest duration counted in the bucket. */
+  static long highestValueOf(int bucket) {
+    if (bucket < SUB_BUCKET_COUNT) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKET_COUNT - 1;
+    long lowestValue = (long) (SUB_BUCKET_COUNT + bucket % SUB_BUCKET_COUNT) << shift;
+    return lowestValue + ((1L << shift) - 1);
+  }
+
+  /**
+   * Copies the counts out. Durations recorded meanwhile may or may not be included, so the total
+   * and the counts can disagree by the few durations being recorded at that instant.
+   */
+  LatencySnapshot snapshot() {
+    long[] counts = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = bucketCounts.get(i);
+    }
+    return new LatencySnapshot(counts, totalNanos.sum());
+  }
+}
@@ -0,0 +1,71 @@
+package thorpe.luke.metrics;
+
+/**
+ * The durations an {@link OperationTimer} had counted at some instant. Percentiles are as precise
+ * as the buckets of a {@link LatencyHistogram}, and err on the high side.
+ */
+public class LatencySnapshot {
+  private final long[] bucketCounts;
+  private final long count;
+  private final long totalNanos;
+
+  LatencySnapshot(long[] bucketCounts, long totalNanos) {
+    this.bucketCounts = bucketCounts;
+    long count = 0;
+    for (long bucketCount : bucketCounts) {
+      count += bucketCount;
+    }
+    this.count = count;
+    this.totalNanos = totalNanos;
+  }
+
+  static LatencySnapshot empty() {
+    return new LatencySnapshot(new long[LatencyHistogram.BUCKET_COUNT], 0);
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  public long getMeanNanos() {
+    return count == 0 ? 0 : totalNanos / count;
+  }
+
+  /** The duration that the given fraction of durations, from 0 to 1, were no longer than. */
+  public long getPercentileNanos(double fraction) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(fraction * count));
+    long seen = 0;
+    for (int bucket = 0; bucket < bucketCounts.length; bucket++) {
+      seen += bucketCounts[bucket];
+      if (seen >= rank) {
+        return LatencyHistogram.highestValueOf(bucket);
+      }
+    }
+    return getMaxNanos();
+  }
+
+  public long getMaxNanos() {
+    for (int bucket = bucketCounts.length - 1; bucket >= 0; bucket--) {
+      if (bucketCounts[bucket] > 0) {
+        return LatencyHistogram.highestValueOf(bucket);
+      }
+    }
+    return 0;
+  }
+
+  /** The durations counted since the earlier snapshot of the same timer. */
+  public LatencySnapshot since(LatencySnapshot earlier) {
+    long[] counts = new long[bucketCounts.length];
+    for (int bucket = 0; bucket < counts.length; bucket++) {
+      counts[bucket] = Math.max(0, bucketCounts[bucket] - earlier.bucketCounts[bucket]);
+    }
+    return new LatencySnapshot(counts, Math.max(0, totalNanos - earlier.totalNanos));
+  }
+}
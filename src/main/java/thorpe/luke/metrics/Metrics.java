@@ -0,0 +1,49 @@
+package thorpe.luke.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The timers and counters of the process, each known by a dotted name such as {@code kdf.derive}.
+ * Classes look theirs up once, into a static field, so that nothing is looked up as they run. Each
+ * timer and counter is also registered as an MXBean under {@link #JMX_DOMAIN}, so that a running
+ * application can be watched with a tool such as JConsole.
+ */
+public final class Metrics {
+  public static final String JMX_DOMAIN = "thorpe.luke.password";
+
+  private static final ConcurrentMap<String, OperationTimer> TIMERS = new ConcurrentSkipListMap<>();
+  private static final ConcurrentMap<String, Counter> COUNTERS = new ConcurrentSkipListMap<>();
+
+  private Metrics() {}
+
+  /** The timer of the given name, made and registered the first time it is asked for. */
+  public static OperationTimer timer(String name, String description) {
+    return TIMERS.computeIfAbsent(
+        name, ignored -> register("OperationTimer", name, new OperationTimer(name, description)));
+  }
+
+  /** The counter of the given name, made and registered the first time it is asked for. */
+  public static Counter counter(String name, String description) {
+    return COUNTERS.computeIfAbsent(
+        name, ignored -> register("Counter", name, new Counter(name, description)));
+  }
+
+  /** Registers the MXBean if possible. Metrics are still kept in a process without JMX. */
+  private static <T> T register(String type, String name, T mxBean) {
+    try {
+      ManagementFactory.getPlatformMBeanServer()
+          .registerMBean(mxBean, new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + name));
+    } catch (JMException | SecurityException ignored) {
+    }
+    return mxBean;
+  }
+
+  /** Every timer and counter as it stands, ordered by name. */
+  public static MetricsSnapshot snapshot() {
+    return MetricsSnapshot.of(TIMERS.values(), COUNTERS.values());
+  }
+}
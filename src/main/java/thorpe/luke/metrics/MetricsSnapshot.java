@@ -0,0 +1,97 @@
+package thorpe.luke.metrics;
+
+import java.util.*;
+
+/**
+ * The timers and counters of the process at some instant, which can be compared with an earlier
+ * snapshot to see what happened in between. Timed operations include any others they call, so the
+ * time of reading a library, say, includes the time of decrypting it.
+ */
+public class MetricsSnapshot {
+  private static final double NANOS_PER_MILLI = 1e6;
+
+  private final SortedMap<String, LatencySnapshot> latencies;
+  private final SortedMap<String, Long> counts;
+  private final Map<String, String> descriptions;
+
+  private MetricsSnapshot(
+      SortedMap<String, LatencySnapshot> latencies,
+      SortedMap<String, Long> counts,
+      Map<String, String> descriptions) {
+    this.latencies = Collections.unmodifiableSortedMap(latencies);
+    this.counts = Collections.unmodifiableSortedMap(counts);
+    this.descriptions = descriptions;
+  }
+
+  static MetricsSnapshot of(Collection<OperationTimer> timers, Collection<Counter> counters) {
+    SortedMap<String, LatencySnapshot> latencies = new TreeMap<>();
+    SortedMap<String, Long> counts = new TreeMap<>();
+    Map<String, String> descriptions = new HashMap<>();
+    for (OperationTimer timer : timers) {
+      latencies.put(timer.getName(), timer.snapshot());
+      descriptions.put(timer.getName(), timer.getDescription());
+    }
+    for (Counter counter : counters) {
+      counts.put(counter.getName(), counter.getCount());
+      descriptions.put(counter.getName(), counter.getDescription());
+    }
+    return new MetricsSnapshot(latencies, counts, descriptions);
+  }
+
+  /** The durations counted by each timer, by its name. */
+  public SortedMap<String, LatencySnapshot> getLatencies() {
+    return latencies;
+  }
+
+  /** The count of each counter, by its name. */
+  public SortedMap<String, Long> getCounts() {
+    return counts;
+  }
+
+  public String getDescription(String name) {
+    return descriptions.getOrDefault(name, name);
+  }
+
+  /** What happened between the earlier snapshot and this one. */
+  public MetricsSnapshot since(MetricsSnapshot earlier) {
+    SortedMap<String, LatencySnapshot> latenciesSince = new TreeMap<>();
+    latencies.forEach(
+        (name, latency) ->
+            latenciesSince.put(
+                name,
+                latency.since(earlier.latencies.getOrDefault(name, LatencySnapshot.empty()))));
+    SortedMap<String, Long> countsSince = new TreeMap<>();
+    counts.forEach(
+        (name, count) -> countsSince.put(name, count - earlier.counts.getOrDefault(name, 0L)));
+    return new MetricsSnapshot(latenciesSince, countsSince, descriptions);
+  }
+
+  /**
+   * A table of every timer and then every counter, a line to each, with tabs between the columns
+   * and the first line of each giving their headings.
+   */
+  public List<String> format() {
+    List<String> lines = new ArrayList<>();
+    lines.add("timer\tcount\ttotal\tmean\tp50\tp90\tp99\tmax");
+    latencies.forEach(
+        (name, latency) ->
+            lines.add(
+                String.join(
+                    "\t",
+                    name,
+                    Long.toString(latency.getCount()),
+                    formatNanos(latency.getTotalNanos()),
+                    formatNanos(latency.getMeanNanos()),
+                    formatNanos(latency.getPercentileNanos(0.5)),
+                    formatNanos(latency.getPercentileNanos(0.9)),
+                    formatNanos(latency.getPercentileNanos(0.99)),
+                    formatNanos(latency.getMaxNanos()))));
+    lines.add("counter\tcount");
+    counts.forEach((name, count) -> lines.add(name + "\t" + count));
+    return lines;
+  }
+
+  private static String formatNanos(long nanos) {
+    return String.format("%.3f ms", nanos / NANOS_PER_MILLI);
+  }
+}
@@ -0,0 +1,90 @@
+package thorpe.luke.metrics;
+
+/**
+ * Times an operation each time it runs. Timing allocates nothing, so it can be left around the
+ * hottest of operations:
+ *
+ * <pre>{@code
+ * long startTime = TIMER.start();
+ * try {
+ *   ...
+ * } finally {
+ *   TIMER.stop(startTime);
+ * }
+ * }</pre>
+ */
+public class OperationTimer implements OperationTimerMXBean {
+  private static final double NANOS_PER_MILLI = 1e6;
+
+  private final String name;
+  private final String description;
+  private final LatencyHistogram histogram;
+
+  OperationTimer(String name, String description) {
+    this.name = name;
+    this.description = description;
+    this.histogram = new LatencyHistogram();
+  }
+
+  public long start() {
+    return System.nanoTime();
+  }
+
+  /** Records the time since the given start, as returned by {@link #start()}. */
+  public void stop(long startTime) {
+    histogram.record(System.nanoTime() - startTime);
+  }
+
+  public void record(long nanos) {
+    histogram.record(nanos);
+  }
+
+  public LatencySnapshot snapshot() {
+    return histogram.snapshot();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /** What is being timed, in a few words, as in "deriving keys". */
+  @Override
+  public String getDescription() {
+    return description;
+  }
+
+  @Override
+  public long getCount() {
+    return snapshot().getCount();
+  }
+
+  @Override
+  public double getTotalMillis() {
+    return snapshot().getTotalNanos() / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public double getMeanMillis() {
+    return snapshot().getMeanNanos() / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public double getMedianMillis() {
+    return snapshot().getPercentileNanos(0.5) / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public double get90thPercentileMillis() {
+    return snapshot().getPercentileNanos(0.9) / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public double get99thPercentileMillis() {
+    return snapshot().getPercentileNanos(0.99) / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public double getMaxMillis() {
+    return snapshot().getMaxNanos() / NANOS_PER_MILLI;
+  }
+}
@@ -0,0 +1,20 @@
+package thorpe.luke.metrics;
+
+/** How an {@link OperationTimer} appears over JMX, with its durations in milliseconds. */
+public interface OperationTimerMXBean {
+  String getDescription();
+
+  long getCount();
+
+  double getTotalMillis();
+
+  double getMeanMillis();
+
+  double getMedianMillis();
+
+  double get90thPercentileMillis();
+
+  double get99thPercentileMillis();
+
+  double getMaxMillis();
+}
@@ -0,0 +1,79 @@
+package thorpe.luke.password;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+import javax.crypto.SecretKey;
+import thorpe.luke.cryptography.AES256EncryptionEngine;
+import thorpe.luke.cryptography.EncryptionEngine;
+import thorpe.luke.cryptography.KeyMismatchException;
+import thorpe.luke.password.apdater.PasswordLibraryCodecs;
+import thorpe.luke.password.apdater.PasswordLibraryJsonAdapter;
+import thorpe.luke.util.Codec;
+import thorpe.luke.util.CodecException;
+
+/**
+ * Version 1: the whole library as a single JSON document, encrypted as one blob. It has no version
+ * line, so every file written before formats were versioned is in this format. It is only read,
+ * never written, as it encrypts with {@link AES256EncryptionEngine} in ECB mode.
+ */
+class BlobPasswordLibraryFormat implements PasswordLibraryFormat {
+  private static final Codec<PasswordLibraryJsonAdapter> CODEC =
+      PasswordLibraryCodecs.preferringJson(
+          PasswordLibraryCodecs.LIBRARY, PasswordLibraryJsonAdapter.class);
+
+  @Override
+  public int getVersion() {
+    return 1;
+  }
+
+  @Override
+  public EncryptionEngine encryptionEngineFor(SecretKey key) {
+    return AES256EncryptionEngine.fromKey(key);
+  }
+
+  /**
+   * Files in this format were written in the default charset of the platform they were written on,
+   * where later formats are always in UTF-8. The platform is taken to be the one reading the file,
+   * and only if its default charset is not UTF-8 is the library read whole, to be re-encoded.
+   */
+  private static InputStream inUtf8(InputStream plainInputStream) throws IOException {
+    if (Charset.defaultCharset().equals(StandardCharsets.UTF_8)) {
+      return plainInputStream;
+    }
+    return new ByteArrayInputStream(
+        new String(plainInputStream.readAllBytes(), Charset.defaultCharset())
+            .getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public PasswordLibrary read(
+      InputStream inputStream, Supplier<EncryptionEngineLease> encryptionEngineSupplier)
+      throws IOException, PasswordMismatchException {
+    try (EncryptionEngineLease encryptionEngineLease = encryptionEngineSupplier.get();
+        InputStream plainInputStream = encryptionEngineLease.get().decryptFrom(inputStream)) {
+      PasswordLibraryJsonAdapter passwordLibraryJsonAdapter;
+      try {
+        passwordLibraryJsonAdapter = CODEC.decode(inUtf8(plainInputStream));
+      } catch (CodecException e) {
+        // A wrong key decrypts to garbage, which the parser rejects before the padding is reached,
+        // so the padding is what tells a wrong key apart from a damaged file. Under AES-ECB, a wrong
+        // key leaves valid padding about once in 256 tries, and is then taken for damage.
+        plainInputStream.transferTo(OutputStream.nullOutputStream());
+        throw new IOException("Malformed password library.", e);
+      }
+      // Drain any trailing bytes so that the final block, and hence the padding, is verified.
+      plainInputStream.transferTo(OutputStream.nullOutputStream());
+      return PasswordLibrary.fromAdapter(passwordLibraryJsonAdapter);
+    } catch (IOException e) {
+      if (e.getCause() instanceof KeyMismatchException) {
+        throw new PasswordMismatchException();
+      }
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package thorpe.luke.password;
+
+import thorpe.luke.cryptography.DerivedKeyCache;
+import thorpe.luke.cryptography.EncryptionEngine;
+
+/**
+ * An encryption engine lent out for a single use, such as reading a library or decrypting the
+ * secrets of one entry. An engine whose key is held in a {@link DerivedKeyCache} leases the key, so
+ * that locking it part way through a use does not destroy it under the engine.
+ */
+class EncryptionEngineLease implements AutoCloseable {
+  private final EncryptionEngine encryptionEngine;
+  private final DerivedKeyCache.Lease keyLease;
+
+  private EncryptionEngineLease(EncryptionEngine encryptionEngine, DerivedKeyCache.Lease keyLease) {
+    this.encryptionEngine = encryptionEngine;
+    this.keyLease = keyLease;
+  }
+
+  /** Lends out an engine whose key is not held in a cache, so has nothing to give back. */
+  static EncryptionEngineLease of(EncryptionEngine encryptionEngine) {
+    return new EncryptionEngineLease(encryptionEngine, null);
+  }
+
+  /** Lends out the format's engine, leasing its key from the cache, deriving it if need be. */
+  static EncryptionEngineLease of(
+      PasswordLibraryFormat format,
+      DerivedKeyCache derivedKeyCache,
+      String passwordHash,
+      String salt) {
+    DerivedKeyCache.Lease keyLease = derivedKeyCache.acquire(passwordHash, salt);
+    try {
+      return new EncryptionEngineLease(format.encryptionEngineFor(keyLease.getKey()), keyLease);
+    } catch (RuntimeException e) {
+      keyLease.close();
+      throw e;
+    }
+  }
+
+  EncryptionEngine get() {
+    return encryptionEngine;
+  }
+
+  @Override
+  public void close() {
+    if (keyLease != null) {
+      keyLease.close();
+    }
+  }
+}
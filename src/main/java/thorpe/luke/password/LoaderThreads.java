@@ -0,0 +1,39 @@
+package thorpe.luke.password;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** The threads that {@link PasswordLibraryLoader} reads files on. */
+public interface LoaderThreads {
+  /** A new executor for the given number of tasks, which is shut down once they are done. */
+  ExecutorService newExecutor(int taskCount);
+
+  /**
+   * A virtual thread for each file where there are virtual threads, or otherwise a pool of platform
+   * threads. Virtual threads need Java 21 or later, so they are only built by the jdk21 profile.
+   */
+  static LoaderThreads best() {
+    try {
+      return ServiceLoader.load(LoaderThreads.class).findFirst().orElseGet(LoaderThreads::platform);
+    } catch (ServiceConfigurationError | LinkageError e) {
+      // Built with virtual threads, but running on a Java too old to load them. The loader wraps
+      // most failures, but the UnsupportedClassVersionError from a class built for a newer Java
+      // comes through unwrapped.
+      return platform();
+    }
+  }
+
+  /** A platform thread for each file, up to one for each processor. */
+  static LoaderThreads platform() {
+    return taskCount ->
+        Executors.newFixedThreadPool(
+            Math.max(1, Math.min(taskCount, Runtime.getRuntime().availableProcessors())),
+            new ThreadFactoryBuilder()
+                .setNameFormat("password-library-loader-%d")
+                .setDaemon(true)
+                .build());
+  }
+}
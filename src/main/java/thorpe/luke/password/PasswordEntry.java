@@ -1,18 +1,24 @@
 package thorpe.luke.password;
 
+import com.google.common.base.Suppliers;
 import java.time.LocalDateTime;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import thorpe.luke.password.apdater.PasswordEntryIndexJsonAdapter;
 import thorpe.luke.password.apdater.PasswordEntryJsonAdapter;
+import thorpe.luke.password.apdater.PasswordEntrySecretJsonAdapter;
+import thorpe.luke.password.apdater.PasswordHistoryJsonAdapter;
 
 public class PasswordEntry {
   private final String name;
   private final String description;
-  private final String password;
+  private final Supplier<String> password;
   private final LocalDateTime dateTimeOfCreation;
-  private final Map<LocalDateTime, String> oldPasswords;
+  private final Supplier<NavigableMap<LocalDateTime, String>> oldPasswords;
 
   public PasswordEntry(
       String name,
@@ -20,11 +26,93 @@ public class PasswordEntry {
       String password,
       LocalDateTime dateTimeOfCreation,
       Map<LocalDateTime, String> oldPasswords) {
+    this(
+        name,
+        description,
+        Suppliers.ofInstance(password),
+        dateTimeOfCreation,
+        Suppliers.ofInstance(sortedCopyOf(oldPasswords)));
+  }
+
+  private PasswordEntry(
+      String name,
+      String description,
+      Supplier<String> password,
+      LocalDateTime dateTimeOfCreation,
+      Supplier<NavigableMap<LocalDateTime, String>> oldPasswords) {
     this.name = name;
     this.description = description;
     this.password = password;
     this.dateTimeOfCreation = dateTimeOfCreation;
-    this.oldPasswords = Collections.unmodifiableMap(oldPasswords);
+    this.oldPasswords = oldPasswords;
+  }
+
+  private static NavigableMap<LocalDateTime, String> sortedCopyOf(
+      Map<LocalDateTime, String> oldPasswords) {
+    if (oldPasswords == null || oldPasswords.isEmpty()) {
+      // Most entries have no history, so they share one empty map.
+      return Collections.emptyNavigableMap();
+    }
+    return Collections.unmodifiableNavigableMap(new TreeMap<>(oldPasswords));
+  }
+
+  /**
+   * Creates an entry whose secrets are only decoded, at most once, when they are first accessed.
+   */
+  static PasswordEntry withLazySecrets(
+      PasswordEntryIndexJsonAdapter passwordEntryIndexJsonAdapter,
+      Supplier<PasswordEntrySecretJsonAdapter> passwordEntrySecretJsonAdapterSupplier) {
+    Supplier<PasswordEntrySecretJsonAdapter> secrets =
+        Suppliers.memoize(passwordEntrySecretJsonAdapterSupplier::get);
+    return new PasswordEntry(
+        passwordEntryIndexJsonAdapter.getName(),
+        passwordEntryIndexJsonAdapter.getDescription(),
+        () -> secrets.get().getPassword(),
+        passwordEntryIndexJsonAdapter.getDateTimeOfCreation(),
+        Suppliers.memoize(() -> sortedCopyOf(secrets.get().getOldPasswords())));
+  }
+
+  /**
+   * Like {@link #withLazySecrets(PasswordEntryIndexJsonAdapter, Supplier)}, but for an entry whose
+   * password history is kept apart from its password, so that the history is only decoded once it
+   * is asked for, and not along with the password.
+   */
+  static PasswordEntry withLazySecrets(
+      PasswordEntryIndexJsonAdapter passwordEntryIndexJsonAdapter,
+      Supplier<PasswordEntrySecretJsonAdapter> passwordEntrySecretJsonAdapterSupplier,
+      Supplier<PasswordHistoryJsonAdapter> passwordHistoryJsonAdapterSupplier) {
+    return new PasswordEntry(
+        passwordEntryIndexJsonAdapter.getName(),
+        passwordEntryIndexJsonAdapter.getDescription(),
+        Suppliers.memoize(() -> passwordEntrySecretJsonAdapterSupplier.get().getPassword()),
+        passwordEntryIndexJsonAdapter.getDateTimeOfCreation(),
+        Suppliers.memoize(
+            () -> sortedCopyOf(passwordHistoryJsonAdapterSupplier.get().getOldPasswords())));
+  }
+
+  /** Creates a copy of this entry under another name, without decoding its secrets. */
+  PasswordEntry withName(String name) {
+    return new PasswordEntry(name, description, password, dateTimeOfCreation, oldPasswords);
+  }
+
+  /**
+   * Returns this entry with its password history cut down to what the policy keeps, or this same
+   * entry if the policy keeps all of it. The history is only decoded if the policy has limits.
+   */
+  public PasswordEntry withHistoryCompactedBy(PasswordHistoryPolicy policy, LocalDateTime now) {
+    if (policy.keepsEverything()) {
+      return this;
+    }
+    NavigableMap<LocalDateTime, String> keptOldPasswords = policy.apply(oldPasswords.get(), now);
+    if (keptOldPasswords.size() == oldPasswords.get().size()) {
+      return this;
+    }
+    return new PasswordEntry(
+        name,
+        description,
+        password,
+        dateTimeOfCreation,
+        Suppliers.ofInstance(sortedCopyOf(keptOldPasswords)));
   }
 
   public static PasswordEntry fromAdapter(PasswordEntryJsonAdapter passwordEntryJsonAdapter) {
@@ -38,7 +126,24 @@ public class PasswordEntry {
 
   public PasswordEntryJsonAdapter toAdapter() {
     return new PasswordEntryJsonAdapter(
-        name, description, password, dateTimeOfCreation, oldPasswords);
+        name, description, password.get(), dateTimeOfCreation, oldPasswords.get());
+  }
+
+  public PasswordEntryIndexJsonAdapter toIndexAdapter() {
+    return new PasswordEntryIndexJsonAdapter(name, description, dateTimeOfCreation);
+  }
+
+  public PasswordEntrySecretJsonAdapter toSecretAdapter() {
+    return new PasswordEntrySecretJsonAdapter(password.get(), oldPasswords.get());
+  }
+
+  /** The secrets less the password history, for formats that keep the history apart. */
+  public PasswordEntrySecretJsonAdapter toPasswordOnlySecretAdapter() {
+    return new PasswordEntrySecretJsonAdapter(password.get(), null);
+  }
+
+  public PasswordHistoryJsonAdapter toHistoryAdapter() {
+    return new PasswordHistoryJsonAdapter(oldPasswords.get());
   }
 
   public String getName() {
@@ -49,21 +154,30 @@ public class PasswordEntry {
     return description;
   }
 
+  /**
+   * The current password, which for an entry read from a file is decrypted on the first call, and
+   * may need the library's key derived again to do so.
+   */
   public String getPassword() {
-    return password;
+    return password.get();
   }
 
   public LocalDateTime getDateTimeOfCreation() {
     return dateTimeOfCreation;
   }
 
-  public Map<LocalDateTime, String> getOldPasswords() {
-    return new HashMap<>(oldPasswords);
+  /**
+   * The previous passwords by when each was created, oldest first. The map cannot be modified, and
+   * is decoded on the first call rather than when the entry is read.
+   */
+  public NavigableMap<LocalDateTime, String> getOldPasswords() {
+    return oldPasswords.get();
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(name, description, password, oldPasswords);
+    // Secrets are left out so that hashing an entry does not force them to be decoded.
+    return Objects.hash(name, description);
   }
 
   @Override
@@ -74,8 +188,8 @@ public class PasswordEntry {
       PasswordEntry that = (PasswordEntry) object;
       return this.name.equals(that.name)
           && this.description.equals(that.description)
-          && this.password.equals(that.password)
-          && this.oldPasswords.equals(that.oldPasswords);
+          && this.password.get().equals(that.password.get())
+          && this.oldPasswords.get().equals(that.oldPasswords.get());
     }
     return false;
   }
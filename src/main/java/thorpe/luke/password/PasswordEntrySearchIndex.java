@@ -0,0 +1,66 @@
+package thorpe.luke.password;
+
+import java.util.*;
+import thorpe.luke.util.TrigramIndex;
+
+/**
+ * Searches the entries of a library by name and description. The index is built once when the
+ * library is opened, and then kept in step with each entry that is added, edited or deleted, rather
+ * than being rebuilt.
+ */
+public class PasswordEntrySearchIndex {
+  private final TrigramIndex<String> trigramIndex;
+  private final Map<String, PasswordEntry> entries;
+
+  private PasswordEntrySearchIndex() {
+    this.trigramIndex = new TrigramIndex<>();
+    this.entries = new HashMap<>();
+  }
+
+  public static PasswordEntrySearchIndex fromEntries(Collection<PasswordEntry> passwordEntries) {
+    PasswordEntrySearchIndex searchIndex = new PasswordEntrySearchIndex();
+    passwordEntries.forEach(searchIndex::add);
+    return searchIndex;
+  }
+
+  public void add(PasswordEntry entry) {
+    trigramIndex.put(entry.getName(), entry.getName(), entry.getDescription());
+    entries.put(entry.getName(), entry);
+  }
+
+  public void remove(PasswordEntry entry) {
+    if (entries.remove(entry.getName(), entry)) {
+      trigramIndex.remove(entry.getName());
+    }
+  }
+
+  public void replace(PasswordEntry oldEntry, PasswordEntry newEntry) {
+    remove(oldEntry);
+    add(newEntry);
+  }
+
+  /**
+   * Returns at most the given number of entries whose name or description contains the query,
+   * ignoring case. Matches on the name rank above matches on the description.
+   */
+  public List<PasswordEntry> search(String query, int limit) {
+    List<PasswordEntry> results = new ArrayList<>();
+    for (String name : trigramIndex.search(query, limit)) {
+      results.add(entries.get(name));
+    }
+    return results;
+  }
+
+  /** As {@link #search}, but with the rank of each match, keyed by the name of its entry. */
+  public List<TrigramIndex.Match<String>> searchMatches(String query, int limit) {
+    return trigramIndex.searchMatches(query, limit);
+  }
+
+  public Optional<PasswordEntry> getEntry(String name) {
+    return Optional.ofNullable(entries.get(name));
+  }
+
+  public int size() {
+    return entries.size();
+  }
+}
@@ -0,0 +1,98 @@
+package thorpe.luke.password;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.Objects;
+
+/**
+ * How much of each entry's password history to keep: at most the given number of old passwords, and
+ * none older than the given age, where zero turns either limit off. The policy is applied when a
+ * password is changed, so an old password that ages past the limit goes at the entry's next change.
+ */
+public class PasswordHistoryPolicy {
+  public static final PasswordHistoryPolicy KEEP_EVERYTHING = PasswordHistoryPolicy.where().build();
+
+  private final int maximumCount;
+  private final Duration maximumAge;
+
+  private PasswordHistoryPolicy(int maximumCount, Duration maximumAge) {
+    this.maximumCount = maximumCount;
+    this.maximumAge = maximumAge;
+  }
+
+  /** The most old passwords to keep per entry, or zero for no limit. */
+  public int getMaximumCount() {
+    return maximumCount;
+  }
+
+  /** How long to keep an old password for after it was created, or zero for no limit. */
+  public Duration getMaximumAge() {
+    return maximumAge;
+  }
+
+  public boolean keepsEverything() {
+    return maximumCount == 0 && maximumAge.isZero();
+  }
+
+  /** Returns a view of the old passwords, sorted by creation time, that the policy keeps. */
+  NavigableMap<LocalDateTime, String> apply(
+      NavigableMap<LocalDateTime, String> oldPasswords, LocalDateTime now) {
+    NavigableMap<LocalDateTime, String> keptOldPasswords = oldPasswords;
+    if (!maximumAge.isZero()) {
+      keptOldPasswords = keptOldPasswords.tailMap(now.minus(maximumAge), true);
+    }
+    if (maximumCount > 0 && keptOldPasswords.size() > maximumCount) {
+      Iterator<LocalDateTime> newestFirst = keptOldPasswords.descendingKeySet().iterator();
+      for (int i = 1; i < maximumCount; i++) {
+        newestFirst.next();
+      }
+      keptOldPasswords = keptOldPasswords.tailMap(newestFirst.next(), true);
+    }
+    return keptOldPasswords;
+  }
+
+  public static PasswordHistoryPolicyBuilder where() {
+    return new PasswordHistoryPolicyBuilder();
+  }
+
+  public static class PasswordHistoryPolicyBuilder {
+
+    private int maximumCount;
+    private Duration maximumAge = Duration.ZERO;
+
+    public PasswordHistoryPolicyBuilder maximumCountIsSetTo(int maximumCount) {
+      this.maximumCount = maximumCount;
+      return this;
+    }
+
+    public PasswordHistoryPolicyBuilder maximumAgeIsSetTo(Duration maximumAge) {
+      this.maximumAge = maximumAge;
+      return this;
+    }
+
+    public PasswordHistoryPolicy build() {
+      if (maximumCount < 0 || maximumAge.isNegative()) {
+        throw new IllegalArgumentException("Password history limits cannot be negative.");
+      }
+      return new PasswordHistoryPolicy(maximumCount, maximumAge);
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(maximumCount, maximumAge);
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (this == object) {
+      return true;
+    } else if (object instanceof PasswordHistoryPolicy) {
+      PasswordHistoryPolicy that = (PasswordHistoryPolicy) object;
+      return this.maximumCount == that.maximumCount && this.maximumAge.equals(that.maximumAge);
+    }
+    return false;
+  }
+}
@@ -1,35 +1,85 @@
 package thorpe.luke.password;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.nio.file.Files;
+import java.io.*;
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import javax.crypto.SecretKey;
 import thorpe.luke.cryptography.*;
+import thorpe.luke.metrics.Counter;
+import thorpe.luke.metrics.Metrics;
+import thorpe.luke.metrics.OperationTimer;
+import thorpe.luke.password.apdater.PasswordLibraryHeaderJsonAdapter;
 import thorpe.luke.password.apdater.PasswordLibraryJsonAdapter;
-import thorpe.luke.util.JsonException;
-import thorpe.luke.util.JsonUtils;
+import thorpe.luke.util.DurableFiles;
+import thorpe.luke.util.PersistentHashMap;
 
 public class PasswordLibrary {
   public static final String FILE_SUFFIX = ".passlib";
 
+  private static final OperationTimer READ_TIMER =
+      Metrics.timer("library.read", "reading libraries");
+  private static final OperationTimer WRITE_TIMER =
+      Metrics.timer("library.write", "writing libraries");
+  private static final Counter READ_BYTES_COUNTER =
+      Metrics.counter("library.bytes_read", "bytes of libraries read");
+  private static final Counter WRITTEN_BYTES_COUNTER =
+      Metrics.counter("library.bytes_written", "bytes of libraries written");
+
+  private static volatile SaltedHashingEngine lastHashingEngine;
+
   private final String name;
   private final String description;
   private final String passwordHash;
-  private final Set<PasswordEntry> entries;
+  private final PersistentHashMap<String, PasswordEntry> entries;
 
   private PasswordLibrary(
-      String name, String description, String passwordHash, Collection<PasswordEntry> entries) {
+      String name,
+      String description,
+      String passwordHash,
+      PersistentHashMap<String, PasswordEntry> entries) {
     this.name = name;
     this.description = description;
     this.passwordHash = passwordHash;
-    this.entries = Collections.unmodifiableSet(new HashSet<>(entries));
+    this.entries = entries;
+  }
+
+  private static PersistentHashMap<String, PasswordEntry> entriesByName(
+      Collection<PasswordEntry> passwordEntries) {
+    PersistentHashMap.Builder<String, PasswordEntry> entries = PersistentHashMap.builder();
+    for (PasswordEntry entry : passwordEntries) {
+      if (entries.containsKey(entry.getName())) {
+        throw new IllegalArgumentException(
+            "There is already a password entry called \"" + entry.getName() + "\".");
+      }
+      entries.put(entry.getName(), entry);
+    }
+    return entries.build();
+  }
+
+  /**
+   * Creates a library from entries that have been read back from storage. Libraries written before
+   * entries were keyed by name may hold several entries with the same name, so rather than refuse
+   * to open them, the later entries are renamed with a numbered suffix.
+   */
+  static PasswordLibrary fromStoredEntries(
+      String name,
+      String description,
+      String passwordHash,
+      Collection<PasswordEntry> passwordEntries) {
+    PersistentHashMap.Builder<String, PasswordEntry> entries = PersistentHashMap.builder();
+    for (PasswordEntry entry : passwordEntries) {
+      String entryName = entry.getName();
+      for (int suffix = 2; entries.containsKey(entryName); suffix++) {
+        entryName = entry.getName() + " (" + suffix + ")";
+      }
+      entries.put(entryName, entryName.equals(entry.getName()) ? entry : entry.withName(entryName));
+    }
+    return new PasswordLibrary(name, description, passwordHash, entries.build());
   }
 
   public static PasswordLibrary fromAdapter(PasswordLibraryJsonAdapter passwordLibraryJsonAdapter) {
-    return new PasswordLibrary(
+    return PasswordLibrary.fromStoredEntries(
         passwordLibraryJsonAdapter.getName(),
         passwordLibraryJsonAdapter.getDescription(),
         passwordLibraryJsonAdapter.getPasswordHash(),
@@ -45,12 +95,32 @@ public class PasswordLibrary {
         name,
         description,
         passwordHash,
-        entries.stream().map(PasswordEntry::toAdapter).collect(Collectors.toList()));
+        getEntries().stream().map(PasswordEntry::toAdapter).collect(Collectors.toList()));
+  }
+
+  public PasswordLibraryHeaderJsonAdapter toHeaderAdapter() {
+    return new PasswordLibraryHeaderJsonAdapter(name, description, passwordHash);
+  }
+
+  static String hash(String password, String salt) {
+    SaltedHashingEngine saltedHashingEngine = lastHashingEngine;
+    if (saltedHashingEngine == null || !saltedHashingEngine.salt.equals(salt)) {
+      // The salt rarely changes, so the engine for the last salt is kept to save encoding it again.
+      saltedHashingEngine =
+          new SaltedHashingEngine(salt, SHA256CryptographicHashingEngine.fromSalt(salt));
+      lastHashingEngine = saltedHashingEngine;
+    }
+    return saltedHashingEngine.hashingEngine.hash(password);
   }
 
-  private static String hash(String password, String salt) {
-    CryptographicHashingEngine hashingEngine = SHA256CryptographicHashingEngine.fromSalt(salt);
-    return hashingEngine.hash(password);
+  private static class SaltedHashingEngine {
+    private final String salt;
+    private final CryptographicHashingEngine hashingEngine;
+
+    private SaltedHashingEngine(String salt, CryptographicHashingEngine hashingEngine) {
+      this.salt = salt;
+      this.hashingEngine = hashingEngine;
+    }
   }
 
   public static PasswordLibrary fromPassword(
@@ -64,24 +134,47 @@ public class PasswordLibrary {
       String password,
       String salt,
       Collection<PasswordEntry> passwordEntries) {
-    return new PasswordLibrary(name, description, hash(password, salt), passwordEntries);
+    return new PasswordLibrary(
+        name, description, hash(password, salt), entriesByName(passwordEntries));
   }
 
   public static PasswordLibrary readFromEncryptedFile(File file, String password, String salt)
       throws IOException, PasswordMismatchException {
-    String cipherJson = new String(Files.readAllBytes(file.toPath()));
     String passwordHash = hash(password, salt);
-    EncryptionEngine encryptionEngine = AES256EncryptionEngine.fromPassword(passwordHash, salt);
+    SecretKey key = AES256EncryptionEngine.deriveKey(passwordHash, salt);
+    return readFromEncryptedFile(
+        file, passwordHash, format -> EncryptionEngineLease.of(format.encryptionEngineFor(key)));
+  }
+
+  /**
+   * Reads a library using a cached key. Entry secrets are decrypted lazily through the cache, so
+   * locking the library's key does not leave them undecryptable: the first secret asked for after
+   * that derives the key again, which is slow, so secrets should not be asked for on a thread that
+   * must stay responsive.
+   */
+  public static PasswordLibrary readFromEncryptedFile(
+      File file, String password, String salt, DerivedKeyCache derivedKeyCache)
+      throws IOException, PasswordMismatchException {
+    String passwordHash = hash(password, salt);
+    return readFromEncryptedFile(
+        file,
+        passwordHash,
+        format -> EncryptionEngineLease.of(format, derivedKeyCache, passwordHash, salt));
+  }
+
+  private static PasswordLibrary readFromEncryptedFile(
+      File file,
+      String passwordHash,
+      Function<PasswordLibraryFormat, EncryptionEngineLease> encryptionEngineLender)
+      throws IOException, PasswordMismatchException {
     PasswordLibrary passwordLibrary;
-    try {
-      String plainJson = encryptionEngine.decrypt(cipherJson);
-      passwordLibrary =
-          PasswordLibrary.fromAdapter(
-              JsonUtils.fromJson(plainJson, PasswordLibraryJsonAdapter.class));
-    } catch (JsonException e) {
-      throw new IOException(e);
-    } catch (KeyMismatchException e) {
-      throw new PasswordMismatchException();
+    long startTime = READ_TIMER.start();
+    try (InputStream cipherInputStream = DurableFiles.newInputStream(file.toPath())) {
+      PasswordLibraryFormat format = PasswordLibraryFormat.detect(cipherInputStream);
+      passwordLibrary = format.read(cipherInputStream, () -> encryptionEngineLender.apply(format));
+      READ_BYTES_COUNTER.add(file.length());
+    } finally {
+      READ_TIMER.stop(startTime);
     }
     if (!passwordLibrary.getPasswordHash().equals(passwordHash)) {
       throw new PasswordMismatchException();
@@ -90,23 +183,158 @@ public class PasswordLibrary {
   }
 
   public void writeToEncryptedFile(File file, String salt) throws IOException {
-    BufferedWriter fileWriter = new BufferedWriter(new FileWriter(file));
-    String plainJson;
+    writeToEncryptedFile(file, AES256EncryptionEngine.deriveKey(passwordHash, salt));
+  }
+
+  public void writeToEncryptedFile(File file, String salt, DerivedKeyCache derivedKeyCache)
+      throws IOException {
+    try (DerivedKeyCache.Lease keyLease = derivedKeyCache.acquire(passwordHash, salt)) {
+      writeToEncryptedFile(file, keyLease.getKey());
+    }
+  }
+
+  private void writeToEncryptedFile(File file, SecretKey key) throws IOException {
+    PasswordLibraryChecksums.forget(file);
+    writeToEncryptedFile(
+        file,
+        PasswordLibraryFormat.LATEST.encryptionEngineFor(key),
+        PasswordLibraryChecksums.keyCheckOf(key));
+    PasswordLibraryChecksums.record(file, key);
+  }
+
+  /**
+   * Writes the library to a temporary file that is forced to disk and then moved over the file, so
+   * that a crash part way through leaves the previous contents intact.
+   */
+  private void writeToEncryptedFile(File file, EncryptionEngine encryptionEngine, String keyCheck)
+      throws IOException {
+    long startTime = WRITE_TIMER.start();
     try {
-      plainJson = JsonUtils.toJson(this);
-    } catch (JsonException e) {
-      throw new IOException(e);
+      DurableFiles.write(
+          file.toPath(),
+          cipherOutputStream ->
+              PasswordLibraryFormat.LATEST.write(this, cipherOutputStream, encryptionEngine));
+      WRITTEN_BYTES_COUNTER.add(file.length());
+    } finally {
+      WRITE_TIMER.stop(startTime);
     }
-    EncryptionEngine encryptionEngine = AES256EncryptionEngine.fromPassword(passwordHash, salt);
-    String cipherJson = encryptionEngine.encrypt(plainJson);
-    fileWriter.write(cipherJson);
-    fileWriter.close();
+    PasswordLibraryCatalog.record(file, this, PasswordLibraryFormat.LATEST.getVersion(), keyCheck);
+  }
+
+  /**
+   * Derives the key for a library with the given password into the cache, so that the slow part of
+   * a subsequent read can be done, and reported on, separately.
+   */
+  public static void unlock(String password, String salt, DerivedKeyCache derivedKeyCache) {
+    derivedKeyCache.getOrDerive(hash(password, salt), salt);
+  }
+
+  /** Derives this library's key into the cache, ahead of a write. */
+  public void unlock(String salt, DerivedKeyCache derivedKeyCache) {
+    derivedKeyCache.getOrDerive(passwordHash, salt);
+  }
+
+  /** Evicts this library's derived key from the cache, zeroing the key material. */
+  public void lock(String salt, DerivedKeyCache derivedKeyCache) {
+    derivedKeyCache.lock(passwordHash, salt);
   }
 
+  /**
+   * Returns a library with the entry added, sharing all but O(log n) of its structure with this
+   * one.
+   *
+   * @throws IllegalArgumentException if there is already an entry with the same name.
+   */
   public PasswordLibrary addEntry(PasswordEntry entry) {
-    Collection<PasswordEntry> entries = new LinkedList<>(this.entries);
-    entries.add(entry);
-    return new PasswordLibrary(name, description, passwordHash, entries);
+    if (entries.containsKey(entry.getName())) {
+      throw new IllegalArgumentException(
+          "There is already a password entry called \"" + entry.getName() + "\".");
+    }
+    return new PasswordLibrary(
+        name, description, passwordHash, entries.plus(entry.getName(), entry));
+  }
+
+  /** Returns a library without the named entry, or this library if there is no such entry. */
+  public PasswordLibrary removeEntry(String entryName) {
+    PersistentHashMap<String, PasswordEntry> updatedEntries = entries.minus(entryName);
+    return updatedEntries == entries
+        ? this
+        : new PasswordLibrary(name, description, passwordHash, updatedEntries);
+  }
+
+  /**
+   * Returns a library with the named entry replaced, where the replacement may be renamed.
+   *
+   * @throws IllegalArgumentException if there is no entry with the given name, or the replacement
+   *     is renamed to the name of another entry.
+   */
+  public PasswordLibrary replaceEntry(String entryName, PasswordEntry entry) {
+    if (!entries.containsKey(entryName)) {
+      throw new IllegalArgumentException(
+          "There is no password entry called \"" + entryName + "\".");
+    }
+    PersistentHashMap<String, PasswordEntry> updatedEntries = entries.minus(entryName);
+    if (updatedEntries.containsKey(entry.getName())) {
+      throw new IllegalArgumentException(
+          "There is already a password entry called \"" + entry.getName() + "\".");
+    }
+    return new PasswordLibrary(
+        name, description, passwordHash, updatedEntries.plus(entry.getName(), entry));
+  }
+
+  /** Starts a builder that changes many entries of this library at once. */
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  /**
+   * Adds or replaces many entries at once, such as when importing, without creating a library for
+   * each one. Each entry costs amortised O(1) allocation rather than a copied path of O(log n).
+   */
+  public static class Builder {
+    private final String name;
+    private final String description;
+    private final String passwordHash;
+    private final PersistentHashMap.Builder<String, PasswordEntry> entries;
+
+    private Builder(PasswordLibrary passwordLibrary) {
+      this.name = passwordLibrary.name;
+      this.description = passwordLibrary.description;
+      this.passwordHash = passwordLibrary.passwordHash;
+      this.entries = passwordLibrary.entries.toBuilder();
+    }
+
+    public boolean containsEntry(String entryName) {
+      return entries.containsKey(entryName);
+    }
+
+    /** @throws IllegalArgumentException if there is already an entry with the same name. */
+    public Builder addEntry(PasswordEntry entry) {
+      if (entries.containsKey(entry.getName())) {
+        throw new IllegalArgumentException(
+            "There is already a password entry called \"" + entry.getName() + "\".");
+      }
+      entries.put(entry.getName(), entry);
+      return this;
+    }
+
+    /** Adds the entry, replacing any entry with the same name. */
+    public Builder putEntry(PasswordEntry entry) {
+      entries.put(entry.getName(), entry);
+      return this;
+    }
+
+    public int getEntryCount() {
+      return entries.size();
+    }
+
+    public PasswordLibrary build() {
+      return new PasswordLibrary(name, description, passwordHash, entries.build());
+    }
+  }
+
+  public Optional<PasswordEntry> getEntry(String entryName) {
+    return Optional.ofNullable(entries.get(entryName));
   }
 
   public String getName() {
@@ -121,8 +349,39 @@ public class PasswordLibrary {
     return passwordHash;
   }
 
+  /** An unmodifiable view of the entries, which costs nothing to create. */
   public Set<PasswordEntry> getEntries() {
-    return new HashSet<>(entries);
+    return new AbstractSet<>() {
+      @Override
+      public Iterator<PasswordEntry> iterator() {
+        Iterator<Map.Entry<String, PasswordEntry>> iterator = entries.iterator();
+        return new Iterator<>() {
+          @Override
+          public boolean hasNext() {
+            return iterator.hasNext();
+          }
+
+          @Override
+          public PasswordEntry next() {
+            return iterator.next().getValue();
+          }
+        };
+      }
+
+      @Override
+      public boolean contains(Object object) {
+        if (object instanceof PasswordEntry) {
+          PasswordEntry entry = (PasswordEntry) object;
+          return entry.equals(entries.get(entry.getName()));
+        }
+        return false;
+      }
+
+      @Override
+      public int size() {
+        return entries.size();
+      }
+    };
   }
 
   @Override
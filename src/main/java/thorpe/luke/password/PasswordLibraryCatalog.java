@@ -0,0 +1,366 @@
+package thorpe.luke.password;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import thorpe.luke.util.BinaryCodec;
+import thorpe.luke.util.CodecException;
+import thorpe.luke.util.DurableFiles;
+
+/**
+ * The non-secret metadata of the libraries in a directory, kept in a {@link #FILE_NAME} file
+ * alongside them, so that libraries can be told apart without a password. The catalog is only a
+ * cache: entries are checked against the size and modification time of their file when read, and a
+ * missing or unreadable catalog is treated as empty.
+ */
+public class PasswordLibraryCatalog {
+  public static final String FILE_NAME = ".passlib-catalog";
+
+  private static final int CATALOG_VERSION = 2;
+  private static final int FIRST_CATALOG_VERSION_WITH_KEY_CHECKS = 2;
+  private static final String SNAPSHOT_NAME_SEPARATOR = "___";
+  private static final String SNAPSHOT_SEQUENCE_SEPARATOR = "_r";
+  private static final int MAXIMUM_SNAPSHOT_SEQUENCE = 100;
+  private static final Object WRITE_LOCK = new Object();
+  private static final Logger LOGGER = Logger.getLogger(PasswordLibraryCatalog.class.getName());
+
+  private static final BinaryCodec<Map<String, Entry>> CODEC =
+      new BinaryCodec<>() {
+        @Override
+        public void write(Map<String, Entry> entries, OutputStream outputStream)
+            throws IOException {
+          writeVarLong(CATALOG_VERSION, outputStream);
+          writeVarLong(entries.size(), outputStream);
+          for (Entry entry : entries.values()) {
+            writeString(entry.fileName, outputStream);
+            writeString(entry.libraryName, outputStream);
+            writeVarLong(entry.size, outputStream);
+            writeVarLong(entry.entryCount, outputStream);
+            writeVarLong(entry.lastModified.toEpochMilli(), outputStream);
+            writeVarLong(entry.formatVersion, outputStream);
+            writeString(entry.keyCheck, outputStream);
+          }
+        }
+
+        @Override
+        public Map<String, Entry> read(InputStream inputStream) throws IOException, CodecException {
+          int version = readVarInt(inputStream);
+          if (version < 1 || version > CATALOG_VERSION) {
+            throw new CodecException("Unsupported catalog version " + version + ".");
+          }
+          int size = readVarInt(inputStream);
+          Map<String, Entry> entries = new LinkedHashMap<>();
+          for (int i = 0; i < size; i++) {
+            Entry entry =
+                new Entry(
+                    readString(inputStream),
+                    readString(inputStream),
+                    readVarLong(inputStream),
+                    readVarInt(inputStream),
+                    Instant.ofEpochMilli(readVarLong(inputStream)),
+                    readVarInt(inputStream),
+                    version >= FIRST_CATALOG_VERSION_WITH_KEY_CHECKS
+                        ? readString(inputStream)
+                        : "");
+            entries.put(entry.fileName, entry);
+          }
+          return entries;
+        }
+      };
+
+  private final Map<String, Entry> entries;
+
+  private PasswordLibraryCatalog(Map<String, Entry> entries) {
+    this.entries = entries;
+  }
+
+  public static PasswordLibraryCatalog empty() {
+    return new PasswordLibraryCatalog(Collections.emptyMap());
+  }
+
+  /**
+   * Reads the catalog for a directory in one go, keeping only the entries whose file has not
+   * changed since the entry was recorded.
+   */
+  public static PasswordLibraryCatalog read(File directory) {
+    Map<String, Entry> currentEntries = new HashMap<>();
+    for (Entry entry : readEntries(directory).values()) {
+      if (entry.describes(new File(directory, entry.fileName))) {
+        currentEntries.put(entry.fileName, entry);
+      }
+    }
+    return new PasswordLibraryCatalog(currentEntries);
+  }
+
+  private static Map<String, Entry> readEntries(File directory) {
+    try {
+      return CODEC.decode(Files.readAllBytes(new File(directory, FILE_NAME).toPath()));
+    } catch (IOException | CodecException e) {
+      return new LinkedHashMap<>();
+    }
+  }
+
+  /**
+   * Records a library that has just been written to the file with the key the check value is of,
+   * dropping the entries of any files that have since been deleted. Failing to update the catalog
+   * does not fail the write it follows, as the catalog is only a cache.
+   */
+  static void record(
+      File file, PasswordLibrary passwordLibrary, int formatVersion, String keyCheck) {
+    File directory = file.getAbsoluteFile().getParentFile();
+    synchronized (WRITE_LOCK) {
+      try {
+        BasicFileAttributes attributes =
+            Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        Map<String, Entry> entries = readEntries(directory);
+        entries.values().removeIf(entry -> !new File(directory, entry.fileName).isFile());
+        entries.put(
+            file.getName(),
+            new Entry(
+                file.getName(),
+                passwordLibrary.getName(),
+                attributes.size(),
+                passwordLibrary.getEntries().size(),
+                attributes.lastModifiedTime().toInstant(),
+                formatVersion,
+                keyCheck));
+        writeEntries(directory, entries);
+      } catch (IOException | CodecException e) {
+        // The catalog is only a cache of what the files hold, so the write it follows stands.
+        LOGGER.log(Level.WARNING, "Failed to update the catalog in " + directory + ".", e);
+      }
+    }
+  }
+
+  private static void writeEntries(File directory, Map<String, Entry> entries)
+      throws IOException, CodecException {
+    byte[] encodedEntries = CODEC.encode(entries);
+    DurableFiles.write(
+        new File(directory, FILE_NAME).toPath(),
+        outputStream -> outputStream.write(encodedEntries));
+  }
+
+  public Optional<Entry> get(File file) {
+    return Optional.ofNullable(entries.get(file.getName()));
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Groups snapshots of the same library in the same directory together, newest first, ordered by
+   * their recorded modification time, falling back to the file's own.
+   *
+   * <p>Files are grouped by the exact name of the library recorded in the catalog together with the
+   * check value of its key, so that two libraries of the same name, under different passwords, are
+   * never taken for one. A file the catalog describes without a key check only has its library's
+   * name, and a file the catalog does not describe only has the sanitized name it was saved under.
+   * Such a file joins the one library in its directory with that name, or the other such files if
+   * there is none. Where that is ambiguous, because several libraries go by that name, or the name
+   * sanitizes to nothing at all, the file is put in a group of its own rather than risk it being
+   * taken for a snapshot of another library.
+   */
+  public static List<List<File>> groupSnapshots(
+      Collection<File> files, Function<File, Optional<Entry>> catalogLookup) {
+    Map<File, Optional<Entry>> entries = new HashMap<>();
+    // The libraries identified in each directory, by the exact and by the sanitized forms of their
+    // names.
+    Map<File, Map<String, Set<String>>> identitiesByDirectory = new HashMap<>();
+    for (File file : files) {
+      Optional<Entry> entry = catalogLookup.apply(file);
+      entries.put(file, entry);
+      if (entry.isPresent() && !entry.get().keyCheck.isEmpty()) {
+        Map<String, Set<String>> identities =
+            identitiesByDirectory.computeIfAbsent(
+                file.getAbsoluteFile().getParentFile(), ignored -> new HashMap<>());
+        String identity = identityOf(entry.get());
+        identities
+            .computeIfAbsent(exactNameLookup(entry.get().libraryName), ignored -> new HashSet<>())
+            .add(identity);
+        identities
+            .computeIfAbsent(
+                sanitizedNameLookup(sanitize(entry.get().libraryName)), ignored -> new HashSet<>())
+            .add(identity);
+      }
+    }
+
+    Map<String, List<File>> groups = new TreeMap<>();
+    Map<File, Instant> lastModified = new HashMap<>();
+    for (File file : files) {
+      Optional<Entry> entry = entries.get(file);
+      File directory = file.getAbsoluteFile().getParentFile();
+      String identity;
+      if (entry.isPresent() && !entry.get().keyCheck.isEmpty()) {
+        identity = identityOf(entry.get());
+      } else {
+        String name =
+            entry.map(presentEntry -> presentEntry.libraryName).orElseGet(() -> keyOf(file));
+        String lookup = entry.isPresent() ? exactNameLookup(name) : sanitizedNameLookup(name);
+        Set<String> identities =
+            identitiesByDirectory
+                .getOrDefault(directory, Collections.emptyMap())
+                .getOrDefault(lookup, Collections.emptySet());
+        if (name.isEmpty() || identities.size() > 1) {
+          identity = "";
+        } else if (identities.size() == 1) {
+          identity = identities.iterator().next();
+        } else {
+          identity = lookup;
+        }
+      }
+      // Keys sort by directory and then by library. A file in a group of its own is keyed by its
+      // own name as well.
+      String groupKey =
+          directory.getPath() + '\0' + identity + (identity.isEmpty() ? '\0' + file.getName() : "");
+      groups.computeIfAbsent(groupKey, ignored -> new ArrayList<>()).add(file);
+      lastModified.put(
+          file,
+          entry
+              .map(Entry::getLastModified)
+              .orElseGet(() -> Instant.ofEpochMilli(file.lastModified())));
+    }
+    Comparator<File> newestFirst =
+        Comparator.<File, Instant>comparing(lastModified::get)
+            .thenComparing(PasswordLibraryDirectoryIndex.ORDER)
+            .reversed();
+    List<List<File>> snapshots = new ArrayList<>(groups.size());
+    for (List<File> group : groups.values()) {
+      group.sort(newestFirst);
+      snapshots.add(group);
+    }
+    return snapshots;
+  }
+
+  private static String identityOf(Entry entry) {
+    return "#" + entry.libraryName + '\0' + entry.keyCheck;
+  }
+
+  private static String exactNameLookup(String libraryName) {
+    return "=" + libraryName;
+  }
+
+  private static String sanitizedNameLookup(String sanitizedLibraryName) {
+    return "~" + sanitizedLibraryName;
+  }
+
+  /**
+   * The name of the library in the file, as recorded in the catalog, falling back to the sanitized
+   * name the file was saved under.
+   */
+  public static String libraryNameOf(File file, Optional<Entry> entry) {
+    return entry.map(Entry::getLibraryName).orElseGet(() -> keyOf(file));
+  }
+
+  private static String keyOf(File file) {
+    String name = file.getName();
+    if (name.endsWith(PasswordLibrary.FILE_SUFFIX)) {
+      name = name.substring(0, name.length() - PasswordLibrary.FILE_SUFFIX.length());
+    }
+    int separator = name.lastIndexOf(SNAPSHOT_NAME_SEPARATOR);
+    return separator < 0 ? name : name.substring(separator + SNAPSHOT_NAME_SEPARATOR.length());
+  }
+
+  /** Reduces a library name to the form it takes in the names of its snapshot files. */
+  public static String sanitize(String libraryName) {
+    return libraryName.replaceAll("[^a-zA-Z0-9]", "");
+  }
+
+  /** The name a snapshot of the library taken at the given time is saved under. */
+  public static String snapshotFileName(PasswordLibrary passwordLibrary, String timestamp) {
+    return timestamp
+        + SNAPSHOT_NAME_SEPARATOR
+        + sanitize(passwordLibrary.getName())
+        + PasswordLibrary.FILE_SUFFIX;
+  }
+
+  /**
+   * Creates an empty file for a snapshot of the library taken at the given time. Snapshots taken
+   * within the same tick of the clock would share a name, so later ones are numbered instead, in a
+   * way that sorts them after the first.
+   */
+  public static File createSnapshotFile(
+      File directory, PasswordLibrary passwordLibrary, String timestamp) throws IOException {
+    File file = new File(directory, snapshotFileName(passwordLibrary, timestamp));
+    for (int sequence = 2; !file.createNewFile(); sequence++) {
+      if (sequence > MAXIMUM_SNAPSHOT_SEQUENCE) {
+        throw new IOException("Couldn't create file " + file.getName());
+      }
+      file =
+          new File(
+              directory,
+              snapshotFileName(
+                  passwordLibrary, timestamp + SNAPSHOT_SEQUENCE_SEPARATOR + sequence));
+    }
+    return file;
+  }
+
+  public static class Entry {
+    private final String fileName;
+    private final String libraryName;
+    private final long size;
+    private final int entryCount;
+    private final Instant lastModified;
+    private final int formatVersion;
+    /** The check value of the key the file was written with, or empty where it is not known. */
+    private final String keyCheck;
+
+    private Entry(
+        String fileName,
+        String libraryName,
+        long size,
+        int entryCount,
+        Instant lastModified,
+        int formatVersion,
+        String keyCheck) {
+      this.fileName = fileName;
+      this.libraryName = libraryName;
+      this.size = size;
+      this.entryCount = entryCount;
+      this.lastModified = lastModified;
+      this.formatVersion = formatVersion;
+      this.keyCheck = keyCheck;
+    }
+
+    private boolean describes(File file) {
+      try {
+        BasicFileAttributes attributes =
+            Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        return attributes.size() == size
+            && attributes.lastModifiedTime().toInstant().toEpochMilli()
+                == lastModified.toEpochMilli();
+      } catch (IOException e) {
+        return false;
+      }
+    }
+
+    public String getFileName() {
+      return fileName;
+    }
+
+    public String getLibraryName() {
+      return libraryName;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public int getEntryCount() {
+      return entryCount;
+    }
+
+    public Instant getLastModified() {
+      return lastModified;
+    }
+
+    public int getFormatVersion() {
+      return formatVersion;
+    }
+  }
+}
@@ -0,0 +1,387 @@
+package thorpe.luke.password;
+
+import com.google.common.io.BaseEncoding;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import thorpe.luke.cryptography.AES256EncryptionException;
+import thorpe.luke.cryptography.DestroyableSecretKey;
+import thorpe.luke.util.BinaryCodec;
+import thorpe.luke.util.CodecException;
+import thorpe.luke.util.DurableFiles;
+
+/**
+ * Keyed checksums of the libraries in a directory, kept in a {@link #FILE_NAME} file alongside
+ * them, so that a damaged library can be found without decrypting it. Each checksum is an
+ * HMAC-SHA256 of the whole file, under a key of its own derived from the library's key, and is
+ * recorded with a check value of that key. A key whose check value differs is not the library's
+ * key, whatever state the file is in, while the right key with a differing checksum means the file
+ * has changed since it was written.
+ *
+ * <p>Files are read for checksums through memory mappings. Failing to record a checksum does not
+ * fail the write it follows, but drops any checksum recorded for the file before, so that a file is
+ * never checked against an older version of itself. A file that is about to be replaced has its
+ * checksum dropped first, for the same reason, should the writer crash before recording the new
+ * one. A journal instead keeps a {@link RunningChecksum} of its file, so that recording the
+ * checksum after an append costs only as much as the append, and a crash before that leaves a file
+ * that has only grown since its checksum was recorded, which can be told apart from a damaged one.
+ */
+public class PasswordLibraryChecksums {
+  public static final String FILE_NAME = ".passlib-checksums";
+
+  private static final int CHECKSUMS_VERSION = 1;
+  private static final String MAC_ALGORITHM = "HmacSHA256";
+  private static final byte[] CHECKSUM_KEY_LABEL =
+      "passlib checksum key".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] KEY_CHECK_LABEL =
+      "passlib key check".getBytes(StandardCharsets.US_ASCII);
+  private static final long MAPPING_SIZE = 64L << 20;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+  private static final Object WRITE_LOCK = new Object();
+  private static final Logger LOGGER = Logger.getLogger(PasswordLibraryChecksums.class.getName());
+
+  private static final BinaryCodec<Map<String, Entry>> CODEC =
+      new BinaryCodec<>() {
+        @Override
+        public void write(Map<String, Entry> entries, OutputStream outputStream)
+            throws IOException {
+          writeVarLong(CHECKSUMS_VERSION, outputStream);
+          writeVarLong(entries.size(), outputStream);
+          for (Entry entry : entries.values()) {
+            writeString(entry.fileName, outputStream);
+            writeVarLong(entry.size, outputStream);
+            writeString(HEX.encode(entry.keyCheck), outputStream);
+            writeString(HEX.encode(entry.checksum), outputStream);
+          }
+        }
+
+        @Override
+        public Map<String, Entry> read(InputStream inputStream) throws IOException, CodecException {
+          int version = readVarInt(inputStream);
+          if (version != CHECKSUMS_VERSION) {
+            throw new CodecException("Unsupported checksums version " + version + ".");
+          }
+          int size = readVarInt(inputStream);
+          Map<String, Entry> entries = new LinkedHashMap<>();
+          for (int i = 0; i < size; i++) {
+            Entry entry =
+                new Entry(
+                    readString(inputStream),
+                    readVarLong(inputStream),
+                    decodeHex(readString(inputStream)),
+                    decodeHex(readString(inputStream)));
+            entries.put(entry.fileName, entry);
+          }
+          return entries;
+        }
+      };
+
+  private final Map<String, Entry> entries;
+
+  private PasswordLibraryChecksums(Map<String, Entry> entries) {
+    this.entries = entries;
+  }
+
+  /** Reads the checksums for a directory, treating a missing or unreadable file as empty. */
+  public static PasswordLibraryChecksums read(File directory) {
+    return new PasswordLibraryChecksums(readEntries(directory));
+  }
+
+  private static Map<String, Entry> readEntries(File directory) {
+    try {
+      return CODEC.decode(Files.readAllBytes(new File(directory, FILE_NAME).toPath()));
+    } catch (IOException | CodecException e) {
+      return new LinkedHashMap<>();
+    }
+  }
+
+  private static byte[] decodeHex(String hex) throws CodecException {
+    try {
+      return HEX.decode(hex);
+    } catch (IllegalArgumentException e) {
+      throw new CodecException(e);
+    }
+  }
+
+  /**
+   * Records the checksum of a library file that has just been written with the given key, dropping
+   * the checksums of any files that have since been deleted.
+   */
+  static void record(File file, SecretKey key) {
+    Entry entry;
+    try {
+      ChecksumKey checksumKey = ChecksumKey.of(key);
+      try {
+        entry =
+            new Entry(
+                file.getName(),
+                Files.size(file.toPath()),
+                checksumKey.getKeyCheck(),
+                checksumKey.checksum(file.toPath()));
+      } finally {
+        checksumKey.destroy();
+      }
+    } catch (IOException | IllegalStateException e) {
+      // The file could not be read back, or the key was locked meanwhile.
+      forget(file);
+      return;
+    }
+    put(file, entry);
+  }
+
+  /**
+   * The check value of a library key, as recorded alongside its checksums, which tells keys apart
+   * without giving them away.
+   */
+  static String keyCheckOf(SecretKey key) {
+    ChecksumKey checksumKey = ChecksumKey.of(key);
+    try {
+      return HEX.encode(checksumKey.getKeyCheck());
+    } finally {
+      checksumKey.destroy();
+    }
+  }
+
+  private static void put(File file, Entry entry) {
+    update(
+        file,
+        entries -> {
+          entries.put(entry.fileName, entry);
+          return true;
+        });
+  }
+
+  /**
+   * Drops the checksum of a library file that has been written without one, or is about to be
+   * replaced.
+   */
+  static void forget(File file) {
+    update(file, entries -> entries.remove(file.getName()) != null);
+  }
+
+  private interface EntriesUpdate {
+    /** Applies the update, returning whether it changed anything. */
+    boolean apply(Map<String, Entry> entries);
+  }
+
+  private static void update(File file, EntriesUpdate entriesUpdate) {
+    File directory = file.getAbsoluteFile().getParentFile();
+    synchronized (WRITE_LOCK) {
+      try {
+        Map<String, Entry> entries = readEntries(directory);
+        boolean changed =
+            entries.values().removeIf(entry -> !new File(directory, entry.fileName).isFile());
+        if (entriesUpdate.apply(entries) || changed) {
+          byte[] encodedEntries = CODEC.encode(entries);
+          DurableFiles.write(
+              new File(directory, FILE_NAME).toPath(),
+              outputStream -> outputStream.write(encodedEntries));
+        }
+      } catch (IOException | CodecException e) {
+        // The write it follows has succeeded regardless, and the file is left unrecorded or with
+        // its earlier checksum, which the integrity job then reports on.
+        LOGGER.log(Level.WARNING, "Failed to update the checksums in " + directory + ".", e);
+      }
+    }
+  }
+
+  /**
+   * The checksum of a file that is only ever appended to, kept up to date as it grows, so that the
+   * file is read through once rather than after every append.
+   */
+  static class RunningChecksum {
+    private final ChecksumKey checksumKey;
+    private final byte[] keyCheck;
+    private final Mac mac;
+    private long size;
+
+    private RunningChecksum(ChecksumKey checksumKey, Mac mac, long size) {
+      this.checksumKey = checksumKey;
+      this.keyCheck = checksumKey.getKeyCheck();
+      this.mac = mac;
+      this.size = size;
+    }
+
+    /** Starts from the whole file as it now stands, written with the given key. */
+    static RunningChecksum of(File file, SecretKey key) throws IOException {
+      ChecksumKey checksumKey = ChecksumKey.of(key);
+      try {
+        Mac mac = ChecksumKey.newMac(checksumKey.key);
+        long size = ChecksumKey.update(mac, file.toPath(), Long.MAX_VALUE);
+        return new RunningChecksum(checksumKey, mac, size);
+      } catch (IOException | RuntimeException e) {
+        checksumKey.destroy();
+        throw e;
+      }
+    }
+
+    /** The number of bytes of the file taken in so far. */
+    long getSize() {
+      return size;
+    }
+
+    /** Takes in bytes just appended to the file. */
+    void update(byte[] appended) {
+      mac.update(appended);
+      size += appended.length;
+    }
+
+    /** Records the checksum of the file as it now stands. */
+    void record(File file) {
+      Mac finalMac;
+      try {
+        finalMac = (Mac) mac.clone();
+      } catch (CloneNotSupportedException e) {
+        throw new AES256EncryptionException(e);
+      }
+      put(file, new Entry(file.getName(), size, keyCheck, finalMac.doFinal()));
+    }
+
+    void destroy() {
+      checksumKey.destroy();
+    }
+  }
+
+  public Optional<Entry> get(File file) {
+    return Optional.ofNullable(entries.get(file.getName()));
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public static class Entry {
+    private final String fileName;
+    private final long size;
+    private final byte[] keyCheck;
+    private final byte[] checksum;
+
+    private Entry(String fileName, long size, byte[] keyCheck, byte[] checksum) {
+      this.fileName = fileName;
+      this.size = size;
+      this.keyCheck = keyCheck;
+      this.checksum = checksum;
+    }
+
+    public String getFileName() {
+      return fileName;
+    }
+
+    /** The size of the file when its checksum was recorded. */
+    public long getSize() {
+      return size;
+    }
+
+    /** Whether the checksum was made with the key the check value is of. */
+    boolean hasKeyCheck(byte[] keyCheck) {
+      return MessageDigest.isEqual(this.keyCheck, keyCheck);
+    }
+
+    boolean hasChecksum(byte[] checksum) {
+      return MessageDigest.isEqual(this.checksum, checksum);
+    }
+  }
+
+  /**
+   * The key checksums are made with, derived from a library's key so that neither gives away the
+   * other.
+   */
+  static class ChecksumKey {
+    private final DestroyableSecretKey key;
+
+    private ChecksumKey(DestroyableSecretKey key) {
+      this.key = key;
+    }
+
+    static ChecksumKey of(SecretKey libraryKey) {
+      byte[] encodedLibraryKey = libraryKey.getEncoded();
+      DestroyableSecretKey macKey = new DestroyableSecretKey(encodedLibraryKey, MAC_ALGORITHM);
+      Arrays.fill(encodedLibraryKey, (byte) 0);
+      try {
+        Mac mac = newMac(macKey);
+        return new ChecksumKey(
+            new DestroyableSecretKey(mac.doFinal(CHECKSUM_KEY_LABEL), MAC_ALGORITHM));
+      } finally {
+        macKey.destroy();
+      }
+    }
+
+    static Mac newMac(SecretKey key) {
+      try {
+        Mac mac = Mac.getInstance(MAC_ALGORITHM);
+        mac.init(key);
+        return mac;
+      } catch (GeneralSecurityException e) {
+        throw new AES256EncryptionException(e);
+      }
+    }
+
+    byte[] getKeyCheck() {
+      return newMac(key).doFinal(KEY_CHECK_LABEL);
+    }
+
+    /**
+     * Reads the whole file through memory mappings of at most {@link #MAPPING_SIZE} each, or
+     * through a buffer where {@link DurableFiles#MAPPING_ENABLED} is not set.
+     */
+    byte[] checksum(Path file) throws IOException {
+      return checksum(file, Long.MAX_VALUE);
+    }
+
+    /** The checksum of at most the given number of bytes from the start of the file. */
+    byte[] checksum(Path file, long length) throws IOException {
+      Mac mac = newMac(key);
+      update(mac, file, length);
+      return mac.doFinal();
+    }
+
+    /** Takes in at most the given number of bytes of the file, returning how many there were. */
+    private static long update(Mac mac, Path file, long length) throws IOException {
+      try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+        long size = Math.min(length, fileChannel.size());
+        if (!DurableFiles.MAPPING_ENABLED) {
+          return update(mac, fileChannel, size);
+        }
+        for (long position = 0; position < size; position += MAPPING_SIZE) {
+          ByteBuffer mapping =
+              fileChannel.map(
+                  FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPING_SIZE, size - position));
+          mac.update(mapping);
+        }
+        return size;
+      }
+    }
+
+    private static long update(Mac mac, FileChannel fileChannel, long size) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      long position = 0;
+      while (position < size) {
+        buffer.clear().limit((int) Math.min(BUFFER_SIZE, size - position));
+        int count = fileChannel.read(buffer, position);
+        if (count < 0) {
+          break;
+        }
+        buffer.flip();
+        mac.update(buffer);
+        position += count;
+      }
+      return position;
+    }
+
+    void destroy() {
+      key.destroy();
+    }
+  }
+}
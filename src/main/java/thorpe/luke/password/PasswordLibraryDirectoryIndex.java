@@ -0,0 +1,269 @@
+package thorpe.luke.password;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * An in-memory index of the library files under a directory, kept up to date by a {@link
+ * WatchService} rather than by rescanning. Each batch of file system events is turned into a delta
+ * of added, removed and modified files for the listener, and the directory is only walked again if
+ * the watch service overflows and events have been lost.
+ *
+ * <p>The listener is called on the index's own daemon thread, one delta at a time and in order.
+ */
+public class PasswordLibraryDirectoryIndex implements Closeable {
+  /** Library files sorted by name, as they are shown, with the path to break ties. */
+  public static final Comparator<File> ORDER =
+      Comparator.comparing(File::getName).thenComparing(File::getPath);
+
+  public interface Listener {
+    void onChange(Delta delta);
+  }
+
+  public static class Delta {
+    private final List<File> added = new ArrayList<>();
+    private final List<File> removed = new ArrayList<>();
+    private final List<File> modified = new ArrayList<>();
+
+    public List<File> getAdded() {
+      return added;
+    }
+
+    public List<File> getRemoved() {
+      return removed;
+    }
+
+    public List<File> getModified() {
+      return modified;
+    }
+
+    public boolean isEmpty() {
+      return added.isEmpty() && removed.isEmpty() && modified.isEmpty();
+    }
+  }
+
+  private final Path directory;
+  private final Listener listener;
+  private final WatchService watchService;
+  private final Map<WatchKey, Path> watchedDirectories;
+  // Sorted by path, so that everything under a deleted directory is one contiguous range.
+  private final NavigableMap<Path, File> files;
+  private final Thread watcherThread;
+
+  private PasswordLibraryDirectoryIndex(
+      Path directory, Listener listener, WatchService watchService) {
+    this.directory = directory;
+    this.listener = listener;
+    this.watchService = watchService;
+    this.watchedDirectories = new HashMap<>();
+    this.files = new TreeMap<>();
+    this.watcherThread = new Thread(this::watch, "password-library-directory-watcher");
+    this.watcherThread.setDaemon(true);
+  }
+
+  /** Indexes the directory with one full walk, then watches it for changes. */
+  public static PasswordLibraryDirectoryIndex open(Path directory, Listener listener)
+      throws IOException {
+    WatchService watchService = directory.getFileSystem().newWatchService();
+    PasswordLibraryDirectoryIndex index =
+        new PasswordLibraryDirectoryIndex(directory, listener, watchService);
+    try {
+      synchronized (index) {
+        index.registerAll(directory, new Delta());
+      }
+    } catch (IOException e) {
+      watchService.close();
+      throw e;
+    }
+    index.watcherThread.start();
+    return index;
+  }
+
+  /** Walks the directory once, without watching it, and returns the files in {@link #ORDER}. */
+  public static List<File> scan(Path directory) throws IOException {
+    List<File> files = new ArrayList<>();
+    Files.walkFileTree(
+        directory,
+        new SimpleFileVisitor<>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+            if (attributes.isRegularFile()
+                && file.getFileName().toString().endsWith(PasswordLibrary.FILE_SUFFIX)) {
+              files.add(file.toFile());
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException e) {
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    files.sort(ORDER);
+    return files;
+  }
+
+  private static boolean isLibraryFile(Path path) {
+    return path.getFileName().toString().endsWith(PasswordLibrary.FILE_SUFFIX)
+        && Files.isRegularFile(path);
+  }
+
+  /** Returns the indexed files in {@link #ORDER}. */
+  public synchronized List<File> getFiles() {
+    List<File> sortedFiles = new ArrayList<>(files.values());
+    sortedFiles.sort(ORDER);
+    return sortedFiles;
+  }
+
+  /**
+   * Brings the index up to date with a file that has just been written or deleted, without waiting
+   * for the watch service to notice. The listener hears about it as for any other change.
+   */
+  public synchronized void refresh(File file) {
+    Path path = file.toPath();
+    Delta delta = new Delta();
+    if (Files.exists(path)) {
+      addOrModify(path, delta);
+    } else {
+      removeAll(path, delta);
+    }
+    publish(delta);
+  }
+
+  /** Walks the whole directory again, and reports how the result differs from the index. */
+  synchronized void rescan() throws IOException {
+    Map<Path, File> previousFiles = new HashMap<>(files);
+    files.clear();
+    registerAll(directory, new Delta());
+    Delta delta = new Delta();
+    for (Map.Entry<Path, File> entry : files.entrySet()) {
+      if (previousFiles.remove(entry.getKey()) == null) {
+        delta.added.add(entry.getValue());
+      }
+    }
+    delta.removed.addAll(previousFiles.values());
+    publish(delta);
+  }
+
+  /** Watches every directory under the start, and adds every library file found on the way. */
+  private void registerAll(Path start, Delta delta) throws IOException {
+    Files.walkFileTree(
+        start,
+        new SimpleFileVisitor<>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes)
+              throws IOException {
+            watchedDirectories.put(
+                dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+            if (attributes.isRegularFile()
+                && file.getFileName().toString().endsWith(PasswordLibrary.FILE_SUFFIX)
+                && !files.containsKey(file)) {
+              File libraryFile = file.toFile();
+              files.put(file, libraryFile);
+              delta.added.add(libraryFile);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException e) {
+            // The file may have been deleted mid-walk, in which case its deletion event follows.
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private void addOrModify(Path path, Delta delta) {
+    if (files.containsKey(path)) {
+      delta.modified.add(files.get(path));
+    } else if (isLibraryFile(path)) {
+      File libraryFile = path.toFile();
+      files.put(path, libraryFile);
+      delta.added.add(libraryFile);
+    }
+  }
+
+  private void removeAll(Path path, Delta delta) {
+    // Paths under the deleted one share its string prefix, though siblings such as "name-2" may be
+    // interleaved with them.
+    String prefix = path.toString();
+    Iterator<Map.Entry<Path, File>> iterator = files.tailMap(path, true).entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Path, File> entry = iterator.next();
+      if (!entry.getKey().toString().startsWith(prefix)) {
+        break;
+      } else if (entry.getKey().startsWith(path)) {
+        delta.removed.add(entry.getValue());
+        iterator.remove();
+      }
+    }
+  }
+
+  private void publish(Delta delta) {
+    if (!delta.isEmpty()) {
+      listener.onChange(delta);
+    }
+  }
+
+  private void watch() {
+    while (true) {
+      WatchKey key;
+      try {
+        key = watchService.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+      synchronized (this) {
+        Path dir = watchedDirectories.get(key);
+        Delta delta = new Delta();
+        boolean overflowed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == OVERFLOW || dir == null) {
+            overflowed = true;
+            continue;
+          }
+          Path path = dir.resolve((Path) event.context());
+          if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+            try {
+              registerAll(path, delta);
+            } catch (IOException e) {
+              overflowed = true;
+            }
+          } else if (event.kind() == ENTRY_CREATE || event.kind() == ENTRY_MODIFY) {
+            addOrModify(path, delta);
+          } else if (event.kind() == ENTRY_DELETE) {
+            removeAll(path, delta);
+          }
+        }
+        if (!key.reset()) {
+          watchedDirectories.remove(key);
+        }
+        publish(delta);
+        if (overflowed) {
+          try {
+            rescan();
+          } catch (IOException ignored) {
+            // The directory itself has gone, so the index keeps what it last knew about.
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+    watcherThread.interrupt();
+  }
+}
@@ -0,0 +1,75 @@
+package thorpe.luke.password;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Supplier;
+import javax.crypto.SecretKey;
+import thorpe.luke.cryptography.EncryptionEngine;
+
+/**
+ * A versioned layout for the contents of a {@link PasswordLibrary#FILE_SUFFIX} file. Every version
+ * is read, but only {@link #LATEST} is written, so a file in an older version is rewritten in the
+ * latest on its next save.
+ */
+interface PasswordLibraryFormat {
+  /** Versioned formats open with this prefix, which cannot occur in the Base64 of version 1. */
+  String VERSION_PREFIX = "#passlib ";
+
+  BlobPasswordLibraryFormat BLOB = new BlobPasswordLibraryFormat();
+  RecordPasswordLibraryFormat RECORDS = RecordPasswordLibraryFormat.withJsonFields();
+  RecordPasswordLibraryFormat BINARY_RECORDS = RecordPasswordLibraryFormat.withBinaryFields();
+  RecordPasswordLibraryFormat SEALED_FIELDS = RecordPasswordLibraryFormat.withSealedFields();
+  SealedRecordPasswordLibraryFormat SEALED_RECORDS = new SealedRecordPasswordLibraryFormat();
+  SealedRecordPasswordLibraryFormat LATEST = SEALED_RECORDS;
+
+  int getVersion();
+
+  /** The encryption engine that the format encrypts with, given the library's key. */
+  EncryptionEngine encryptionEngineFor(SecretKey key);
+
+  /**
+   * Reads a library from a stream positioned just after the version line. The supplier is called
+   * whenever the format needs to decrypt, which may be after this method has returned, and each
+   * lease it gives is closed as soon as that decryption is done.
+   */
+  PasswordLibrary read(
+      InputStream inputStream, Supplier<EncryptionEngineLease> encryptionEngineSupplier)
+      throws IOException, PasswordMismatchException;
+
+  /**
+   * Consumes the version line, if there is one, from a stream that supports marking and returns the
+   * format that the rest of the stream is in.
+   */
+  static PasswordLibraryFormat detect(InputStream inputStream) throws IOException {
+    byte[] versionPrefix = VERSION_PREFIX.getBytes(StandardCharsets.US_ASCII);
+    inputStream.mark(versionPrefix.length);
+    byte[] prefix = inputStream.readNBytes(versionPrefix.length);
+    if (!Arrays.equals(prefix, versionPrefix)) {
+      inputStream.reset();
+      return BLOB;
+    }
+    StringBuilder version = new StringBuilder();
+    for (int c = inputStream.read(); c != '\n'; c = inputStream.read()) {
+      if (c == -1) {
+        throw new IOException("Truncated password library version line.");
+      }
+      version.append((char) c);
+    }
+    for (PasswordLibraryFormat format :
+        new PasswordLibraryFormat[] {
+          BLOB, RECORDS, BINARY_RECORDS, SEALED_FIELDS, SEALED_RECORDS
+        }) {
+      if (version.toString().equals(Integer.toString(format.getVersion()))) {
+        return format;
+      }
+    }
+    throw new IOException("Unsupported password library format version " + version + ".");
+  }
+
+  static void writeVersionLine(int version, OutputStream outputStream) throws IOException {
+    outputStream.write((VERSION_PREFIX + version + "\n").getBytes(StandardCharsets.US_ASCII));
+  }
+}
@@ -0,0 +1,230 @@
+package thorpe.luke.password;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import thorpe.luke.cryptography.DerivedKeyCache;
+
+/**
+ * Checks library files against the checksums recorded by {@link PasswordLibraryChecksums}, without
+ * decrypting them, so that a damaged file is told apart from one under another password. The key is
+ * derived once for every file, and the files are then read at once, each on its own thread from
+ * {@link LoaderThreads}.
+ *
+ * <p>Like {@link PasswordLibraryLoader}, the job is structured: every thread it starts has finished
+ * by the time it returns, and if the calling thread is interrupted, the files still being read are
+ * cancelled before it returns.
+ */
+public class PasswordLibraryIntegrityJob {
+  public enum Status {
+    /** The file is as it was written, under the password. */
+    INTACT,
+    /** The file is under the password, but has changed since it was written. */
+    CORRUPT,
+    /**
+     * The file is under the password, and is as it was written, but has since grown, such as a
+     * journal whose writer stopped between an append and recording the checksum after it.
+     */
+    STALE,
+    /** The file was written under another password, so it cannot be checked with this one. */
+    WRONG_PASSWORD,
+    /** No checksum was recorded for the file, such as for a file written by an older version. */
+    UNRECORDED,
+    /** The file could not be read at all. */
+    UNREADABLE
+  }
+
+  private final DerivedKeyCache derivedKeyCache;
+  private final LoaderThreads loaderThreads;
+
+  public PasswordLibraryIntegrityJob(DerivedKeyCache derivedKeyCache) {
+    this(derivedKeyCache, LoaderThreads.best());
+  }
+
+  public PasswordLibraryIntegrityJob(DerivedKeyCache derivedKeyCache, LoaderThreads loaderThreads) {
+    this.derivedKeyCache = derivedKeyCache;
+    this.loaderThreads = loaderThreads;
+  }
+
+  /**
+   * Checks each file, reporting the results in the order of the files. Each result is also given to
+   * the listener, on the calling thread, as soon as it is known.
+   */
+  public Report run(List<File> files, String password, String salt, Consumer<Result> listener)
+      throws InterruptedException {
+    long startTime = System.nanoTime();
+    if (files.isEmpty()) {
+      return new Report(Collections.emptyList(), Duration.ofNanos(System.nanoTime() - startTime));
+    }
+    PasswordLibraryChecksums.ChecksumKey checksumKey;
+    try (DerivedKeyCache.Lease keyLease =
+        derivedKeyCache.acquire(PasswordLibrary.hash(password, salt), salt)) {
+      checksumKey = PasswordLibraryChecksums.ChecksumKey.of(keyLease.getKey());
+    }
+    byte[] keyCheck = checksumKey.getKeyCheck();
+    Map<File, PasswordLibraryChecksums> checksumsByDirectory = new HashMap<>();
+    ExecutorService executor = loaderThreads.newExecutor(files.size());
+    CompletionService<Result> completionService = new ExecutorCompletionService<>(executor);
+    List<Future<Result>> futures = new ArrayList<>(files.size());
+    try {
+      for (File file : files) {
+        Optional<PasswordLibraryChecksums.Entry> entry =
+            checksumsByDirectory
+                .computeIfAbsent(
+                    file.getAbsoluteFile().getParentFile(), PasswordLibraryChecksums::read)
+                .get(file);
+        futures.add(completionService.submit(() -> check(file, entry, checksumKey, keyCheck)));
+      }
+      for (int i = 0; i < files.size(); i++) {
+        listener.accept(resultOf(completionService.take()));
+      }
+      List<Result> results = new ArrayList<>(files.size());
+      for (Future<Result> future : futures) {
+        results.add(resultOf(future));
+      }
+      return new Report(results, Duration.ofNanos(System.nanoTime() - startTime));
+    } finally {
+      for (Future<Result> future : futures) {
+        future.cancel(true);
+      }
+      executor.shutdown();
+      PasswordLibraryLoader.awaitTermination(executor);
+      checksumKey.destroy();
+    }
+  }
+
+  private static Result check(
+      File file,
+      Optional<PasswordLibraryChecksums.Entry> entry,
+      PasswordLibraryChecksums.ChecksumKey checksumKey,
+      byte[] keyCheck) {
+    long startTime = System.nanoTime();
+    long size = file.length();
+    Status status;
+    IOException failure = null;
+    if (!file.isFile()) {
+      status = Status.UNREADABLE;
+      failure = new IOException(file.getName() + " does not exist.");
+    } else if (entry.isEmpty()) {
+      status = Status.UNRECORDED;
+    } else if (!entry.get().hasKeyCheck(keyCheck)) {
+      status = Status.WRONG_PASSWORD;
+    } else if (entry.get().getSize() > size) {
+      status = Status.CORRUPT;
+    } else {
+      try {
+        // Only the recorded size is read, so that a file that has only been appended to since is
+        // told apart from a damaged one.
+        boolean intact =
+            entry.get().hasChecksum(checksumKey.checksum(file.toPath(), entry.get().getSize()));
+        if (!intact) {
+          status = Status.CORRUPT;
+        } else if (entry.get().getSize() < size) {
+          status = Status.STALE;
+        } else {
+          status = Status.INTACT;
+        }
+      } catch (IOException e) {
+        status = Status.UNREADABLE;
+        failure = e;
+      }
+    }
+    return new Result(file, status, failure, size, Duration.ofNanos(System.nanoTime() - startTime));
+  }
+
+  private static Result resultOf(Future<Result> future) throws InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      // Checks catch their own failures, so only a cancelled check gets here.
+      throw new CancellationException("A check was cancelled.");
+    }
+  }
+
+  public static class Result {
+    private final File file;
+    private final Status status;
+    private final IOException failure;
+    private final long size;
+    private final Duration elapsed;
+
+    private Result(File file, Status status, IOException failure, long size, Duration elapsed) {
+      this.file = file;
+      this.status = status;
+      this.failure = failure;
+      this.size = size;
+      this.elapsed = elapsed;
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    public Status getStatus() {
+      return status;
+    }
+
+    /** Why the file could not be read, if it is {@link Status#UNREADABLE}. */
+    public Optional<IOException> getFailure() {
+      return Optional.ofNullable(failure);
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    /** How long the file took to check, from its own read to its checksum. */
+    public Duration getElapsed() {
+      return elapsed;
+    }
+  }
+
+  public static class Report {
+    private final List<Result> results;
+    private final Duration elapsed;
+
+    private Report(List<Result> results, Duration elapsed) {
+      this.results = Collections.unmodifiableList(results);
+      this.elapsed = elapsed;
+    }
+
+    /** A result for each file, in the order the files were given. */
+    public List<Result> getResults() {
+      return results;
+    }
+
+    public long count(Status status) {
+      return results.stream().filter(result -> result.getStatus() == status).count();
+    }
+
+    /** Whether any file is damaged or could not be read. */
+    public boolean hasFailures() {
+      return count(Status.CORRUPT) > 0 || count(Status.UNREADABLE) > 0;
+    }
+
+    /** The total size of the files under the password, whether intact or not. */
+    public long getCheckedBytes() {
+      return results
+          .stream()
+          .filter(
+              result ->
+                  result.getStatus() == Status.INTACT
+                      || result.getStatus() == Status.CORRUPT
+                      || result.getStatus() == Status.STALE)
+          .mapToLong(Result::getSize)
+          .sum();
+    }
+
+    /** How long the whole job took, including deriving the key. */
+    public Duration getElapsed() {
+      return elapsed;
+    }
+
+    public double getBytesPerSecond() {
+      return getCheckedBytes() / Math.max(elapsed.toNanos() / 1e9, Double.MIN_NORMAL);
+    }
+  }
+}
@@ -0,0 +1,392 @@
+package thorpe.luke.password;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import thorpe.luke.cryptography.DerivedKeyCache;
+import thorpe.luke.cryptography.EncryptionEngine;
+import thorpe.luke.util.DurableFiles;
+
+/**
+ * Keeps a single library file up to date as an append-only log. Each save appends records for only
+ * the entries that changed since the last save, and once enough of the file is made up of
+ * superseded records, a compaction is scheduled on the background executor to fold the log back
+ * into a snapshot.
+ *
+ * <p>Entries are tracked by identity, so entries that are carried over unchanged from {@link
+ * #getPasswordLibrary()} into the next save cost nothing to save.
+ */
+public class PasswordLibraryJournal {
+  private static final int MINIMUM_GARBAGE_RECORDS_TO_COMPACT = 32;
+  private static final SealedRecordPasswordLibraryFormat FORMAT =
+      PasswordLibraryFormat.SEALED_RECORDS;
+
+  private final File file;
+  private final String salt;
+  private final DerivedKeyCache derivedKeyCache;
+  private final Executor compactionExecutor;
+  private final ReentrantLock lock;
+  private PasswordLibrary passwordLibrary;
+  private SealedRecordPasswordLibraryFormat.Layout layout;
+  private long committedLength;
+  /** The checksum of the committed part of the file, if the key was at hand to keep it. */
+  private PasswordLibraryChecksums.RunningChecksum runningChecksum;
+  /** The check value of the library's key, which the catalog tells libraries apart by. */
+  private String keyCheck;
+
+  private boolean snapshotRequired;
+  private boolean compactionScheduled;
+
+  private PasswordLibraryJournal(
+      File file, String salt, DerivedKeyCache derivedKeyCache, Executor compactionExecutor) {
+    this.file = file;
+    this.salt = salt;
+    this.derivedKeyCache = derivedKeyCache;
+    this.compactionExecutor = compactionExecutor;
+    this.lock = new ReentrantLock();
+    this.layout = new SealedRecordPasswordLibraryFormat.Layout();
+    this.snapshotRequired = false;
+    this.compactionScheduled = false;
+    this.keyCheck = "";
+  }
+
+  /** Starts a new journal at the given file, writing the library as its first snapshot. */
+  public static PasswordLibraryJournal create(
+      File file,
+      PasswordLibrary passwordLibrary,
+      String salt,
+      DerivedKeyCache derivedKeyCache,
+      Executor compactionExecutor)
+      throws IOException {
+    PasswordLibraryJournal journal =
+        new PasswordLibraryJournal(file, salt, derivedKeyCache, compactionExecutor);
+    journal.writeSnapshot(passwordLibrary);
+    return journal;
+  }
+
+  /**
+   * Opens the journal at the given file. Files in any format other than the journal's own are read
+   * as normal, and rewritten as a snapshot in the journal's format on the first save.
+   */
+  public static PasswordLibraryJournal open(
+      File file,
+      String password,
+      String salt,
+      DerivedKeyCache derivedKeyCache,
+      Executor compactionExecutor)
+      throws IOException, PasswordMismatchException {
+    PasswordLibraryJournal journal =
+        new PasswordLibraryJournal(file, salt, derivedKeyCache, compactionExecutor);
+    String passwordHash = PasswordLibrary.hash(password, salt);
+    try (InputStream cipherInputStream = DurableFiles.newInputStream(file.toPath())) {
+      PasswordLibraryFormat format = PasswordLibraryFormat.detect(cipherInputStream);
+      if (format == FORMAT) {
+        journal.passwordLibrary =
+            FORMAT.read(
+                cipherInputStream, journal.encryptionEngineFor(passwordHash), journal.layout);
+        journal.committedLength = file.length() - journal.layout.uncommittedLength;
+      } else {
+        journal.passwordLibrary =
+            format.read(
+                cipherInputStream,
+                () -> EncryptionEngineLease.of(format, derivedKeyCache, passwordHash, salt));
+        journal.snapshotRequired = true;
+      }
+    }
+    if (!journal.passwordLibrary.getPasswordHash().equals(passwordHash)) {
+      throw new PasswordMismatchException();
+    }
+    journal.keyCheck = journal.keyCheckFor(passwordHash);
+    return journal;
+  }
+
+  private String keyCheckFor(String passwordHash) {
+    try (DerivedKeyCache.Lease keyLease = derivedKeyCache.acquire(passwordHash, salt)) {
+      return PasswordLibraryChecksums.keyCheckOf(keyLease.getKey());
+    }
+  }
+
+  private Supplier<EncryptionEngineLease> encryptionEngineFor(String passwordHash) {
+    return () -> EncryptionEngineLease.of(FORMAT, derivedKeyCache, passwordHash, salt);
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public PasswordLibrary getPasswordLibrary() {
+    lock.lock();
+    try {
+      return passwordLibrary;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Saves the library by appending only what changed since the last save. Changing the password
+   * re-encrypts everything, so that instead rewrites the whole file.
+   */
+  public void save(PasswordLibrary updatedPasswordLibrary) throws IOException {
+    lock.lock();
+    try {
+      if (snapshotRequired
+          || !updatedPasswordLibrary.getPasswordHash().equals(passwordLibrary.getPasswordHash())) {
+        writeSnapshot(updatedPasswordLibrary);
+        return;
+      }
+      appendChanges(updatedPasswordLibrary);
+      scheduleCompactionIfNeeded();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void appendChanges(PasswordLibrary updatedPasswordLibrary) throws IOException {
+    try (EncryptionEngineLease encryptionEngineLease =
+        encryptionEngineFor(updatedPasswordLibrary.getPasswordHash()).get()) {
+      appendChanges(updatedPasswordLibrary, encryptionEngineLease.get());
+    }
+  }
+
+  private void appendChanges(
+      PasswordLibrary updatedPasswordLibrary, EncryptionEngine encryptionEngine)
+      throws IOException {
+    StringBuilder records = new StringBuilder();
+    SealedRecordPasswordLibraryFormat.Layout updatedLayout = layout.continued();
+
+    if (!updatedPasswordLibrary.getName().equals(passwordLibrary.getName())
+        || !updatedPasswordLibrary.getDescription().equals(passwordLibrary.getDescription())) {
+      records.append(FORMAT.libraryRecord(updatedPasswordLibrary, encryptionEngine, updatedLayout));
+    }
+    for (PasswordEntry entry : updatedPasswordLibrary.getEntries()) {
+      Long entrySerial = layout.entrySerials.get(entry);
+      if (entrySerial == null) {
+        records.append(FORMAT.entryRecord(entry, encryptionEngine, updatedLayout));
+      } else {
+        updatedLayout.entrySerials.put(entry, entrySerial);
+      }
+    }
+    for (Map.Entry<PasswordEntry, Long> entrySerial : layout.entrySerials.entrySet()) {
+      if (!updatedLayout.entrySerials.containsKey(entrySerial.getKey())) {
+        records.append(
+            SealedRecordPasswordLibraryFormat.deletionRecord(
+                entrySerial.getValue(), updatedLayout));
+      }
+    }
+
+    if (records.length() > 0) {
+      CRC32 frameChecksum = new CRC32();
+      frameChecksum.update(records.toString().getBytes(StandardCharsets.US_ASCII));
+      records.append(FORMAT.commitRecord(frameChecksum, encryptionEngine, updatedLayout));
+      byte[] frame = records.toString().getBytes(StandardCharsets.US_ASCII);
+      try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+        // Cut off whatever a crash or failed append left after the last commit record.
+        fileChannel.truncate(committedLength);
+        fileChannel.position(committedLength);
+        OutputStream outputStream = Channels.newOutputStream(fileChannel);
+        outputStream.write(frame);
+        fileChannel.force(true);
+      }
+      committedLength += frame.length;
+      PasswordLibraryCatalog.record(file, updatedPasswordLibrary, FORMAT.getVersion(), keyCheck);
+      recordAppendedChecksum(updatedPasswordLibrary, frame);
+    }
+    passwordLibrary = updatedPasswordLibrary;
+    layout = updatedLayout;
+  }
+
+  private void writeSnapshot(PasswordLibrary updatedPasswordLibrary) throws IOException {
+    SealedRecordPasswordLibraryFormat.Layout updatedLayout =
+        new SealedRecordPasswordLibraryFormat.Layout();
+    try (EncryptionEngineLease encryptionEngineLease =
+        encryptionEngineFor(updatedPasswordLibrary.getPasswordHash()).get()) {
+      replaceFile(
+          outputStream ->
+              FORMAT.write(
+                  updatedPasswordLibrary,
+                  outputStream,
+                  encryptionEngineLease.get(),
+                  updatedLayout));
+      // The key is still leased, so this does not derive it again.
+      keyCheck = keyCheckFor(updatedPasswordLibrary.getPasswordHash());
+    }
+    passwordLibrary = updatedPasswordLibrary;
+    layout = updatedLayout;
+    committedLength = file.length();
+    snapshotRequired = false;
+    PasswordLibraryCatalog.record(file, passwordLibrary, FORMAT.getVersion(), keyCheck);
+    recordChecksum(passwordLibrary);
+  }
+
+  /**
+   * Records the checksum of the file as it now stands, reading the whole file through once, after
+   * which appends are taken into the checksum as they are made. Compaction needs no key, and does
+   * not derive one only to record a checksum, so a file compacted once its key is locked goes
+   * without one.
+   */
+  private void recordChecksum(PasswordLibrary passwordLibrary) {
+    dropRunningChecksum();
+    Optional<DerivedKeyCache.Lease> keyLease =
+        derivedKeyCache.acquireIfPresent(passwordLibrary.getPasswordHash(), salt);
+    if (keyLease.isEmpty()) {
+      PasswordLibraryChecksums.forget(file);
+      return;
+    }
+    try (DerivedKeyCache.Lease lease = keyLease.get()) {
+      runningChecksum = PasswordLibraryChecksums.RunningChecksum.of(file, lease.getKey());
+    } catch (IOException e) {
+      // The file could not be read back.
+      PasswordLibraryChecksums.forget(file);
+      return;
+    }
+    runningChecksum.record(file);
+  }
+
+  /**
+   * Records the checksum of the file after an append, at the cost of the append alone. Once the key
+   * is locked, the running checksum is dropped along with it, so the journal holds nothing derived
+   * from a locked key.
+   */
+  private void recordAppendedChecksum(PasswordLibrary passwordLibrary, byte[] frame) {
+    if (runningChecksum != null
+        && runningChecksum.getSize() == committedLength - frame.length
+        && derivedKeyCache.getIfPresent(passwordLibrary.getPasswordHash(), salt).isPresent()) {
+      runningChecksum.update(frame);
+      runningChecksum.record(file);
+    } else {
+      recordChecksum(passwordLibrary);
+    }
+  }
+
+  private void dropRunningChecksum() {
+    if (runningChecksum != null) {
+      runningChecksum.destroy();
+      runningChecksum = null;
+    }
+  }
+
+  private int getGarbageRecordCount() {
+    // Everything except the live entry records, the latest library record and the last commit
+    // record is garbage.
+    return layout.recordCount - layout.entrySerials.size() - 2;
+  }
+
+  private void scheduleCompactionIfNeeded() {
+    int garbageRecordCount = getGarbageRecordCount();
+    if (compactionScheduled
+        || garbageRecordCount < MINIMUM_GARBAGE_RECORDS_TO_COMPACT
+        || garbageRecordCount <= layout.recordCount - garbageRecordCount) {
+      return;
+    }
+    compactionScheduled = true;
+    compactionExecutor.execute(
+        () -> {
+          try {
+            compact();
+          } catch (IOException ignored) {
+            // The log is still intact, so compaction will simply be retried after the next save.
+          }
+        });
+  }
+
+  /**
+   * Folds the log into a snapshot by dropping deleted entry records, deletion records and all but
+   * the latest library record and the last commit record. This works on the records as they are
+   * stored, without decrypting anything, and keeps the serials of the records it keeps.
+   */
+  public void compact() throws IOException {
+    lock.lock();
+    try {
+      compactionScheduled = false;
+      if (snapshotRequired || getGarbageRecordCount() == 0) {
+        return;
+      }
+
+      List<SealedRecordPasswordLibraryFormat.RecordLine> records = readCommittedRecords();
+      // The serials of the records to keep, with the latest library and commit records keyed by
+      // their type.
+      Set<Long> liveEntrySerials = new HashSet<>();
+      Map<String, Long> latestSerials = new HashMap<>();
+      for (SealedRecordPasswordLibraryFormat.RecordLine record : records) {
+        if (record.type.equals(SealedRecordPasswordLibraryFormat.ENTRY_RECORD)) {
+          liveEntrySerials.add(record.serial);
+        } else if (record.type.equals(SealedRecordPasswordLibraryFormat.DELETION_RECORD)) {
+          liveEntrySerials.remove(record.getDeletedSerial());
+        } else {
+          latestSerials.put(record.type, record.serial);
+        }
+      }
+      if (!latestSerials.containsKey(SealedRecordPasswordLibraryFormat.LIBRARY_RECORD)) {
+        throw new IOException("Password library has no library record.");
+      }
+
+      // The kept records stay in their frames' order, and the last commit record still commits to
+      // them, but the frame checksum it holds is of the frame it ended, so the records up to it
+      // become a frame of their own under a new commit line. That needs no key: only the checksum
+      // of a commit line lies outside its seal.
+      replaceFile(
+          outputStream -> {
+            PasswordLibraryFormat.writeVersionLine(FORMAT.getVersion(), outputStream);
+            Writer writer =
+                new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.US_ASCII));
+            CRC32 frameChecksum = new CRC32();
+            for (SealedRecordPasswordLibraryFormat.RecordLine record : records) {
+              if (record.type.equals(SealedRecordPasswordLibraryFormat.ENTRY_RECORD)
+                  ? liveEntrySerials.contains(record.serial)
+                  : !record.type.equals(SealedRecordPasswordLibraryFormat.DELETION_RECORD)
+                      && latestSerials.get(record.type) == record.serial) {
+                String line =
+                    record.type.equals(SealedRecordPasswordLibraryFormat.COMMIT_RECORD)
+                        ? record.withFrameChecksum(frameChecksum)
+                        : record.line;
+                writer.write(line + "\n");
+                frameChecksum.update((line + "\n").getBytes(StandardCharsets.US_ASCII));
+              }
+            }
+            writer.flush();
+          });
+
+      layout.recordCount = layout.entrySerials.size() + 2;
+      committedLength = file.length();
+      PasswordLibraryCatalog.record(file, passwordLibrary, FORMAT.getVersion(), keyCheck);
+      recordChecksum(passwordLibrary);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Reads the records of every whole frame in the file, without the key. */
+  private List<SealedRecordPasswordLibraryFormat.RecordLine> readCommittedRecords()
+      throws IOException {
+    try (InputStream inputStream = DurableFiles.newInputStream(file.toPath())) {
+      if (PasswordLibraryFormat.detect(inputStream) != FORMAT) {
+        throw new IOException("Password library is not in the record format.");
+      }
+      return SealedRecordPasswordLibraryFormat.readCommitted(inputStream).records;
+    }
+  }
+
+  /**
+   * Writes a replacement alongside the file, then moves it over the file in one step. The checksum
+   * of the file is dropped first, so that a crash before the replacement's checksum is recorded
+   * leaves the replacement unrecorded rather than looking damaged.
+   */
+  private void replaceFile(DurableFiles.ContentWriter replacementWriter) throws IOException {
+    dropRunningChecksum();
+    PasswordLibraryChecksums.forget(file);
+    DurableFiles.write(file.toPath(), replacementWriter);
+  }
+}
@@ -0,0 +1,189 @@
+package thorpe.luke.password;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import thorpe.luke.cryptography.DerivedKeyCache;
+
+/**
+ * Reads several libraries at once, each on its own thread from {@link LoaderThreads}. Deriving a
+ * key is the costliest step and uses a whole core, so at most a bounded number of derivations run
+ * at a time, one for each processor by default, however many files are read. The rest of a read,
+ * waiting on the disk and then decrypting and parsing, is not bounded.
+ *
+ * <p>Loads are structured: every thread a load starts has finished by the time it returns, and if
+ * the calling thread is interrupted, as when a task is cancelled, the files still being read are
+ * cancelled before it returns.
+ */
+public class PasswordLibraryLoader {
+  private final DerivedKeyCache derivedKeyCache;
+  private final LoaderThreads loaderThreads;
+  private final Semaphore keyDerivations;
+
+  public PasswordLibraryLoader(DerivedKeyCache derivedKeyCache) {
+    this(derivedKeyCache, LoaderThreads.best(), Runtime.getRuntime().availableProcessors());
+  }
+
+  public PasswordLibraryLoader(
+      DerivedKeyCache derivedKeyCache, LoaderThreads loaderThreads, int maximumKeyDerivations) {
+    if (maximumKeyDerivations <= 0) {
+      throw new IllegalArgumentException("At least one key derivation must be allowed.");
+    }
+    this.derivedKeyCache = derivedKeyCache;
+    this.loaderThreads = loaderThreads;
+    this.keyDerivations = new Semaphore(maximumKeyDerivations);
+  }
+
+  /**
+   * Reads each file, returning the outcomes in the order of the files. A file that fails to read
+   * does not stop the others. Each outcome is also given to the listener, on the calling thread, as
+   * soon as it is known.
+   */
+  public List<Outcome> loadEach(
+      List<File> files, String password, String salt, Consumer<Outcome> listener)
+      throws InterruptedException {
+    return load(files, password, salt, false, listener);
+  }
+
+  /**
+   * As {@link #loadEach}, but also decrypts every password and every old password of each library,
+   * so that damage anywhere in a file is found.
+   */
+  public List<Outcome> verifyEach(
+      List<File> files, String password, String salt, Consumer<Outcome> listener)
+      throws InterruptedException {
+    return load(files, password, salt, true, listener);
+  }
+
+  private List<Outcome> load(
+      List<File> files,
+      String password,
+      String salt,
+      boolean decryptSecrets,
+      Consumer<Outcome> listener)
+      throws InterruptedException {
+    if (files.isEmpty()) {
+      return Collections.emptyList();
+    }
+    ExecutorService executor = loaderThreads.newExecutor(files.size());
+    CompletionService<Outcome> completionService = new ExecutorCompletionService<>(executor);
+    List<Future<Outcome>> futures = new ArrayList<>(files.size());
+    try {
+      for (File file : files) {
+        futures.add(completionService.submit(() -> read(file, password, salt, decryptSecrets)));
+      }
+      for (int i = 0; i < files.size(); i++) {
+        listener.accept(outcomeOf(completionService.take()));
+      }
+      List<Outcome> outcomes = new ArrayList<>(files.size());
+      for (Future<Outcome> future : futures) {
+        outcomes.add(outcomeOf(future));
+      }
+      return outcomes;
+    } finally {
+      for (Future<Outcome> future : futures) {
+        future.cancel(true);
+      }
+      executor.shutdown();
+      awaitTermination(executor);
+    }
+  }
+
+  private Outcome read(File file, String password, String salt, boolean decryptSecrets)
+      throws InterruptedException {
+    long startTime = System.nanoTime();
+    try {
+      keyDerivations.acquire();
+      try {
+        PasswordLibrary.unlock(password, salt, derivedKeyCache);
+      } finally {
+        keyDerivations.release();
+      }
+      PasswordLibrary passwordLibrary =
+          PasswordLibrary.readFromEncryptedFile(file, password, salt, derivedKeyCache);
+      if (decryptSecrets) {
+        for (PasswordEntry passwordEntry : passwordLibrary.getEntries()) {
+          passwordEntry.getPassword();
+          passwordEntry.getOldPasswords();
+        }
+      }
+      return new Outcome(
+          file, passwordLibrary, null, Duration.ofNanos(System.nanoTime() - startTime));
+    } catch (InterruptedException e) {
+      throw e;
+    } catch (Exception e) {
+      return new Outcome(file, null, e, Duration.ofNanos(System.nanoTime() - startTime));
+    }
+  }
+
+  private static Outcome outcomeOf(Future<Outcome> future) throws InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      // Only an interrupted read gets here, and only once the load is being cancelled anyway.
+      throw new CancellationException("A read was cancelled.");
+    }
+  }
+
+  /**
+   * Waits for every read to stop, even if interrupted again meanwhile, so that no thread outlives
+   * the load. Reads stop soon once cancelled, but a key derivation in progress is not interrupted.
+   */
+  static void awaitTermination(ExecutorService executor) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        if (executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+          break;
+        }
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public static class Outcome {
+    private final File file;
+    private final PasswordLibrary passwordLibrary;
+    private final Exception failure;
+    private final Duration elapsed;
+
+    private Outcome(
+        File file, PasswordLibrary passwordLibrary, Exception failure, Duration elapsed) {
+      this.file = file;
+      this.passwordLibrary = passwordLibrary;
+      this.failure = failure;
+      this.elapsed = elapsed;
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    /** The library read from the file, or empty if it could not be read. */
+    public Optional<PasswordLibrary> getPasswordLibrary() {
+      return Optional.ofNullable(passwordLibrary);
+    }
+
+    /**
+     * Why the file could not be read, such as a {@link PasswordMismatchException}, or empty if it
+     * was.
+     */
+    public Optional<Exception> getFailure() {
+      return Optional.ofNullable(failure);
+    }
+
+    /** How long the file took to read, including any wait to derive its key. */
+    public Duration getElapsed() {
+      return elapsed;
+    }
+  }
+}
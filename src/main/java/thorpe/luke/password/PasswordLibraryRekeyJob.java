@@ -0,0 +1,193 @@
+package thorpe.luke.password;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import thorpe.luke.cryptography.DerivedKeyCache;
+import thorpe.luke.util.DurableFiles;
+
+/**
+ * Re-encrypts many libraries from one password and salt to another, a few at a time. Each library
+ * is written to a temporary file that is then moved over the original, so a library is only ever
+ * under one set of credentials. That makes the job resumable: running it again after a crash skips
+ * the libraries that were already re-encrypted, and clears away any half-written temporary files.
+ */
+public class PasswordLibraryRekeyJob {
+  public enum Outcome {
+    REKEYED,
+    ALREADY_REKEYED,
+    FAILED
+  }
+
+  public interface Listener {
+    /** Called on the thread running the job as each library is finished with. */
+    void onFinished(File file, Outcome outcome, int finishedCount, int totalCount);
+  }
+
+  private final String oldPassword;
+  private final String oldSalt;
+  private final String newPassword;
+  private final String newSalt;
+  private final DerivedKeyCache derivedKeyCache;
+  private final int parallelism;
+
+  public PasswordLibraryRekeyJob(
+      String oldPassword,
+      String oldSalt,
+      String newPassword,
+      String newSalt,
+      DerivedKeyCache derivedKeyCache,
+      int parallelism) {
+    if (oldPassword.equals(newPassword) && oldSalt.equals(newSalt)) {
+      throw new IllegalArgumentException("The new credentials are the same as the old ones.");
+    }
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("A re-key job needs at least one worker.");
+    }
+    this.oldPassword = oldPassword;
+    this.oldSalt = oldSalt;
+    this.newPassword = newPassword;
+    this.newSalt = newSalt;
+    this.derivedKeyCache = derivedKeyCache;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Re-encrypts the files on a pool of at most the job's parallelism, returning once every file has
+   * been finished with. A library that fails to re-encrypt is left as it was, and does not stop the
+   * others. If the calling thread is interrupted, or the listener throws, the libraries yet to
+   * start are skipped, and the job stops once the libraries in progress are finished. Those are
+   * never interrupted, since an interrupt would close the file being written.
+   */
+  public Report run(Collection<File> files, Listener listener) throws InterruptedException {
+    long startTime = System.nanoTime();
+    List<File> rekeyedFiles = new ArrayList<>();
+    List<File> alreadyRekeyedFiles = new ArrayList<>();
+    Map<File, Exception> failures = new LinkedHashMap<>();
+    long rekeyedBytes = 0;
+
+    ExecutorService workers =
+        Executors.newFixedThreadPool(
+            Math.min(parallelism, Math.max(files.size(), 1)),
+            new ThreadFactoryBuilder()
+                .setNameFormat("password-library-rekey-%d")
+                .setDaemon(true)
+                .build());
+    Map<Future<Outcome>, File> filesByFuture = new HashMap<>();
+    try {
+      CompletionService<Outcome> completionService = new ExecutorCompletionService<>(workers);
+      for (File file : files) {
+        filesByFuture.put(completionService.submit(() -> rekey(file)), file);
+      }
+      for (int finishedCount = 1; finishedCount <= files.size(); finishedCount++) {
+        Future<Outcome> future = completionService.take();
+        File file = filesByFuture.get(future);
+        Outcome outcome;
+        try {
+          outcome = future.get();
+        } catch (ExecutionException e) {
+          outcome = Outcome.FAILED;
+          failures.put(file, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+        }
+        if (outcome == Outcome.REKEYED) {
+          rekeyedFiles.add(file);
+          rekeyedBytes += file.length();
+        } else if (outcome == Outcome.ALREADY_REKEYED) {
+          alreadyRekeyedFiles.add(file);
+        }
+        listener.onFinished(file, outcome, finishedCount, files.size());
+      }
+    } finally {
+      for (Future<Outcome> future : filesByFuture.keySet()) {
+        future.cancel(false);
+      }
+      workers.shutdown();
+      PasswordLibraryLoader.awaitTermination(workers);
+    }
+    return new Report(
+        rekeyedFiles,
+        alreadyRekeyedFiles,
+        failures,
+        rekeyedBytes,
+        Duration.ofNanos(System.nanoTime() - startTime));
+  }
+
+  private Outcome rekey(File file) throws IOException, PasswordMismatchException {
+    DurableFiles.deleteTemporaryFiles(file.toPath());
+    PasswordLibrary passwordLibrary;
+    try {
+      passwordLibrary =
+          PasswordLibrary.readFromEncryptedFile(file, oldPassword, oldSalt, derivedKeyCache);
+    } catch (PasswordMismatchException e) {
+      // Either this library was re-encrypted before a crash, or it has some other password.
+      PasswordLibrary.readFromEncryptedFile(file, newPassword, newSalt, derivedKeyCache);
+      return Outcome.ALREADY_REKEYED;
+    }
+    PasswordLibrary rekeyedPasswordLibrary =
+        PasswordLibrary.fromPassword(
+            passwordLibrary.getName(),
+            passwordLibrary.getDescription(),
+            newPassword,
+            newSalt,
+            passwordLibrary.getEntries());
+    // Written to a temporary file and moved over the original, so it is never half re-encrypted.
+    rekeyedPasswordLibrary.writeToEncryptedFile(file, newSalt, derivedKeyCache);
+    return Outcome.REKEYED;
+  }
+
+  public static class Report {
+    private final List<File> rekeyedFiles;
+    private final List<File> alreadyRekeyedFiles;
+    private final Map<File, Exception> failures;
+    private final long rekeyedBytes;
+    private final Duration elapsed;
+
+    private Report(
+        List<File> rekeyedFiles,
+        List<File> alreadyRekeyedFiles,
+        Map<File, Exception> failures,
+        long rekeyedBytes,
+        Duration elapsed) {
+      this.rekeyedFiles = Collections.unmodifiableList(rekeyedFiles);
+      this.alreadyRekeyedFiles = Collections.unmodifiableList(alreadyRekeyedFiles);
+      this.failures = Collections.unmodifiableMap(failures);
+      this.rekeyedBytes = rekeyedBytes;
+      this.elapsed = elapsed;
+    }
+
+    public List<File> getRekeyedFiles() {
+      return rekeyedFiles;
+    }
+
+    /**
+     * Files that were already under the new credentials, such as by an earlier, interrupted run.
+     */
+    public List<File> getAlreadyRekeyedFiles() {
+      return alreadyRekeyedFiles;
+    }
+
+    /** Files that were left as they were, with the reason why. */
+    public Map<File, Exception> getFailures() {
+      return failures;
+    }
+
+    public long getRekeyedBytes() {
+      return rekeyedBytes;
+    }
+
+    public Duration getElapsed() {
+      return elapsed;
+    }
+
+    public double getFilesPerSecond() {
+      return rekeyedFiles.size() / Math.max(elapsed.toNanos() / 1e9, Double.MIN_NORMAL);
+    }
+
+    public double getBytesPerSecond() {
+      return rekeyedBytes / Math.max(elapsed.toNanos() / 1e9, Double.MIN_NORMAL);
+    }
+  }
+}
@@ -0,0 +1,289 @@
+package thorpe.luke.password;
+
+import com.google.common.base.Suppliers;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+import thorpe.luke.util.TrigramIndex;
+
+/**
+ * Searches several unlocked libraries at once, to find which of them holds an entry. Each library
+ * is searched by its own {@link PasswordEntrySearchIndex}, built the first time the library is
+ * searched, and the libraries are searched in parallel on a {@link ForkJoinPool}. Each library
+ * gives at most the number of results asked for, and results are merged pairwise, keeping only the
+ * best of them at each step.
+ *
+ * <p>Results are cached by query until the libraries being searched change. Libraries are known by
+ * keys, which also order results that are otherwise ranked equally.
+ */
+public class PasswordLibrarySearchService<K extends Comparable<? super K>> {
+  private static final int MAXIMUM_CACHED_QUERIES = 256;
+
+  private final ForkJoinPool pool;
+  private final Map<Query, CachedResults<K>> cachedResults;
+  private volatile Libraries<K> libraries;
+
+  public PasswordLibrarySearchService() {
+    this(ForkJoinPool.commonPool());
+  }
+
+  public PasswordLibrarySearchService(ForkJoinPool pool) {
+    this.pool = pool;
+    this.cachedResults = new ConcurrentHashMap<>();
+    this.libraries = new Libraries<>(new TreeMap<K, IndexedLibrary<K>>());
+  }
+
+  /** Searches the library under the key, in place of any library it was searching before. */
+  public synchronized void put(K key, PasswordLibrary passwordLibrary) {
+    SortedMap<K, IndexedLibrary<K>> indexedLibraries = new TreeMap<>(libraries.byKey);
+    indexedLibraries.put(key, new IndexedLibrary<>(key, passwordLibrary));
+    update(indexedLibraries);
+  }
+
+  public synchronized void remove(K key) {
+    if (libraries.byKey.containsKey(key)) {
+      SortedMap<K, IndexedLibrary<K>> indexedLibraries = new TreeMap<>(libraries.byKey);
+      indexedLibraries.remove(key);
+      update(indexedLibraries);
+    }
+  }
+
+  public synchronized void clear() {
+    update(new TreeMap<>());
+  }
+
+  /**
+   * Searches exactly the given libraries from now on. Libraries that were already being searched
+   * keep their indices, and cached results are only dropped if something changed.
+   */
+  public synchronized void sync(Map<K, PasswordLibrary> passwordLibraries) {
+    SortedMap<K, IndexedLibrary<K>> indexedLibraries = new TreeMap<>();
+    boolean changed = passwordLibraries.size() != libraries.byKey.size();
+    for (Map.Entry<K, PasswordLibrary> passwordLibrary : passwordLibraries.entrySet()) {
+      IndexedLibrary<K> indexedLibrary = libraries.byKey.get(passwordLibrary.getKey());
+      if (indexedLibrary == null || indexedLibrary.passwordLibrary != passwordLibrary.getValue()) {
+        indexedLibrary = new IndexedLibrary<>(passwordLibrary.getKey(), passwordLibrary.getValue());
+        changed = true;
+      }
+      indexedLibraries.put(passwordLibrary.getKey(), indexedLibrary);
+    }
+    if (changed) {
+      update(indexedLibraries);
+    }
+  }
+
+  private void update(SortedMap<K, IndexedLibrary<K>> indexedLibraries) {
+    libraries = new Libraries<>(indexedLibraries);
+    cachedResults.clear();
+  }
+
+  public int size() {
+    return libraries.byKey.size();
+  }
+
+  /**
+   * Returns at most the given number of entries, from any of the libraries, whose name or
+   * description contains the query, best first, as {@link PasswordEntrySearchIndex#search} ranks
+   * them.
+   */
+  public List<Result<K>> search(String query, int limit) {
+    Libraries<K> searchedLibraries = this.libraries;
+    Query cacheKey = new Query(query, limit);
+    CachedResults<K> cached = cachedResults.get(cacheKey);
+    if (cached != null && cached.libraries == searchedLibraries) {
+      return cached.results;
+    }
+    List<Result<K>> results =
+        searchedLibraries.inOrder.isEmpty() || limit <= 0
+            ? Collections.emptyList()
+            : Collections.unmodifiableList(
+                pool.invoke(
+                    new SearchTask<>(
+                        searchedLibraries.inOrder,
+                        0,
+                        searchedLibraries.inOrder.size(),
+                        query,
+                        limit)));
+    if (cachedResults.size() >= MAXIMUM_CACHED_QUERIES) {
+      cachedResults.clear();
+    }
+    // Results found just as the libraries changed are not cached, as they may already be stale.
+    if (this.libraries == searchedLibraries) {
+      cachedResults.put(cacheKey, new CachedResults<>(searchedLibraries, results));
+    }
+    return results;
+  }
+
+  /** Keeps the best of two lists of results, each best first, up to the limit. */
+  private static <K extends Comparable<? super K>> List<Result<K>> merge(
+      List<Result<K>> left, List<Result<K>> right, int limit) {
+    List<Result<K>> merged = new ArrayList<>(Math.min(limit, left.size() + right.size()));
+    int i = 0;
+    int j = 0;
+    while (merged.size() < limit && (i < left.size() || j < right.size())) {
+      if (j == right.size() || (i < left.size() && left.get(i).compareTo(right.get(j)) <= 0)) {
+        merged.add(left.get(i++));
+      } else {
+        merged.add(right.get(j++));
+      }
+    }
+    return merged;
+  }
+
+  public static class Result<K extends Comparable<? super K>> implements Comparable<Result<K>> {
+    private final K libraryKey;
+    private final PasswordLibrary passwordLibrary;
+    private final PasswordEntry passwordEntry;
+    private final int rank;
+
+    private Result(
+        K libraryKey, PasswordLibrary passwordLibrary, PasswordEntry passwordEntry, int rank) {
+      this.libraryKey = libraryKey;
+      this.passwordLibrary = passwordLibrary;
+      this.passwordEntry = passwordEntry;
+      this.rank = rank;
+    }
+
+    public K getLibraryKey() {
+      return libraryKey;
+    }
+
+    public PasswordLibrary getPasswordLibrary() {
+      return passwordLibrary;
+    }
+
+    public PasswordEntry getPasswordEntry() {
+      return passwordEntry;
+    }
+
+    /** How well the entry matches, as ranked by {@link TrigramIndex.Match}. Lower is better. */
+    public int getRank() {
+      return rank;
+    }
+
+    /** Ordered as one library orders its matches, and then by library. */
+    @Override
+    public int compareTo(Result<K> that) {
+      if (this.rank != that.rank) {
+        return Integer.compare(this.rank, that.rank);
+      }
+      String thisName = this.passwordEntry.getName();
+      String thatName = that.passwordEntry.getName();
+      if (thisName.length() != thatName.length()) {
+        return Integer.compare(thisName.length(), thatName.length());
+      }
+      int comparison = thisName.compareTo(thatName);
+      if (comparison != 0) {
+        return comparison;
+      }
+      return this.libraryKey.compareTo(that.libraryKey);
+    }
+  }
+
+  private static class SearchTask<K extends Comparable<? super K>>
+      extends RecursiveTask<List<Result<K>>> {
+    private final List<IndexedLibrary<K>> libraries;
+    private final int from;
+    private final int to;
+    private final String query;
+    private final int limit;
+
+    private SearchTask(
+        List<IndexedLibrary<K>> libraries, int from, int to, String query, int limit) {
+      this.libraries = libraries;
+      this.from = from;
+      this.to = to;
+      this.query = query;
+      this.limit = limit;
+    }
+
+    @Override
+    protected List<Result<K>> compute() {
+      if (to - from == 1) {
+        return libraries.get(from).search(query, limit);
+      }
+      int middle = (from + to) >>> 1;
+      SearchTask<K> left = new SearchTask<>(libraries, from, middle, query, limit);
+      left.fork();
+      List<Result<K>> right = new SearchTask<>(libraries, middle, to, query, limit).compute();
+      return merge(left.join(), right, limit);
+    }
+  }
+
+  private static class IndexedLibrary<K extends Comparable<? super K>> {
+    private final K key;
+    private final PasswordLibrary passwordLibrary;
+    private final Supplier<PasswordEntrySearchIndex> searchIndex;
+
+    private IndexedLibrary(K key, PasswordLibrary passwordLibrary) {
+      this.key = key;
+      this.passwordLibrary = passwordLibrary;
+      this.searchIndex =
+          Suppliers.memoize(
+              () -> PasswordEntrySearchIndex.fromEntries(passwordLibrary.getEntries()));
+    }
+
+    private List<Result<K>> search(String query, int limit) {
+      PasswordEntrySearchIndex index = searchIndex.get();
+      List<Result<K>> results = new ArrayList<>();
+      for (TrigramIndex.Match<String> match : index.searchMatches(query, limit)) {
+        index
+            .getEntry(match.getKey())
+            .ifPresent(
+                passwordEntry ->
+                    results.add(
+                        new Result<>(key, passwordLibrary, passwordEntry, match.getRank())));
+      }
+      return results;
+    }
+  }
+
+  /** The libraries being searched, replaced as a whole whenever they change. */
+  private static class Libraries<K extends Comparable<? super K>> {
+    private final SortedMap<K, IndexedLibrary<K>> byKey;
+    private final List<IndexedLibrary<K>> inOrder;
+
+    private Libraries(SortedMap<K, IndexedLibrary<K>> byKey) {
+      this.byKey = byKey;
+      this.inOrder = new ArrayList<>(byKey.values());
+    }
+  }
+
+  private static class CachedResults<K extends Comparable<? super K>> {
+    private final Libraries<K> libraries;
+    private final List<Result<K>> results;
+
+    private CachedResults(Libraries<K> libraries, List<Result<K>> results) {
+      this.libraries = libraries;
+      this.results = results;
+    }
+  }
+
+  private static class Query {
+    private final String text;
+    private final int limit;
+
+    private Query(String text, int limit) {
+      this.text = text;
+      this.limit = limit;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (this == object) {
+        return true;
+      } else if (object instanceof Query) {
+        Query that = (Query) object;
+        return this.text.equals(that.text) && this.limit == that.limit;
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(text, limit);
+    }
+  }
+}
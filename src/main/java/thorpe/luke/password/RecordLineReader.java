@@ -0,0 +1,45 @@
+package thorpe.luke.password;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the ASCII lines of a record format, keeping count of the bytes read, so that a final line
+ * cut short by a crash, without its newline, can be told apart from a whole one.
+ */
+class RecordLineReader {
+  private final InputStream inputStream;
+  private long position;
+  private boolean terminated;
+
+  RecordLineReader(InputStream inputStream) {
+    this.inputStream =
+        inputStream.markSupported() ? inputStream : new BufferedInputStream(inputStream);
+  }
+
+  /** The next line, without its newline, or null at the end of the stream. */
+  String readLine() throws IOException {
+    StringBuilder line = new StringBuilder();
+    for (int c = inputStream.read(); c != -1; c = inputStream.read()) {
+      position++;
+      if (c == '\n') {
+        terminated = true;
+        return line.toString();
+      }
+      line.append((char) c);
+    }
+    terminated = false;
+    return line.length() == 0 ? null : line.toString();
+  }
+
+  /** Whether the last line read ended with a newline. */
+  boolean isTerminated() {
+    return terminated;
+  }
+
+  /** The number of bytes read so far. */
+  long getPosition() {
+    return position;
+  }
+}
@@ -0,0 +1,243 @@
+package thorpe.luke.password;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.crypto.SecretKey;
+import thorpe.luke.cryptography.AES256EncryptionEngine;
+import thorpe.luke.cryptography.ChunkedAESGCMEncryptionEngine;
+import thorpe.luke.cryptography.EncryptionEngine;
+import thorpe.luke.cryptography.KeyMismatchException;
+import thorpe.luke.password.apdater.PasswordEntryIndexJsonAdapter;
+import thorpe.luke.password.apdater.PasswordEntrySecretJsonAdapter;
+import thorpe.luke.password.apdater.PasswordHistoryJsonAdapter;
+import thorpe.luke.password.apdater.PasswordLibraryCodecs;
+import thorpe.luke.password.apdater.PasswordLibraryHeaderJsonAdapter;
+import thorpe.luke.util.Codec;
+import thorpe.luke.util.CodecException;
+
+/**
+ * Versions 2, 3 and 4: one line per record, where each field of a record is encrypted separately.
+ * Version 2 encodes fields as JSON, and versions 3 and 4 in the more compact binary encoding.
+ * Fields are told apart by their first byte, so any version reads fields in either encoding.
+ * Versions 2 and 3 encrypt fields with {@link AES256EncryptionEngine}, and version 4 seals them
+ * with {@link ChunkedAESGCMEncryptionEngine}, so that a field that has been tampered with fails to
+ * decrypt. Fields are not bound to their records, though, so version 4 has given way to {@link
+ * SealedRecordPasswordLibraryFormat}, which seals records as a whole. None of these versions is
+ * written any more, only read: {@link AES256EncryptionEngine} encrypts in ECB mode, which gives
+ * away where blocks repeat, and version 4 leaves records unbound.
+ *
+ * <pre>
+ * #passlib 4
+ * L &lt;library header&gt;
+ * E &lt;entry index&gt; &lt;entry secrets&gt; [&lt;password history&gt;]
+ * D &lt;entry record number&gt;
+ * </pre>
+ *
+ * The library header and entry indices hold names, descriptions and timestamps, and are decrypted
+ * on open. Entry secrets hold the current password, and are only decrypted once the entry is first
+ * asked for it. Version 4 keeps the old passwords in a field of their own, which is only decrypted
+ * once the entry is asked for its history; earlier versions keep them in with the entry secrets.
+ *
+ * <p>Records are replayed in order, so the format doubles as an append-only log: the last library
+ * record wins, and a deletion record removes the entry record with the given zero-based number,
+ * counting entry records from the start of the file. A final record without its newline was cut
+ * short by a crash, and is ignored.
+ */
+class RecordPasswordLibraryFormat implements PasswordLibraryFormat {
+  private static final String LIBRARY_RECORD = "L";
+  private static final String ENTRY_RECORD = "E";
+  private static final String DELETION_RECORD = "D";
+  private static final String FIELD_SEPARATOR = " ";
+
+  private final int version;
+  private final Function<SecretKey, EncryptionEngine> encryptionEngineFactory;
+  private final Codec<PasswordLibraryHeaderJsonAdapter> headerCodec;
+  private final Codec<PasswordEntryIndexJsonAdapter> indexCodec;
+  private final Codec<PasswordEntrySecretJsonAdapter> secretCodec;
+  private final Codec<PasswordHistoryJsonAdapter> historyCodec;
+
+  private RecordPasswordLibraryFormat(
+      int version,
+      Function<SecretKey, EncryptionEngine> encryptionEngineFactory,
+      Codec<PasswordLibraryHeaderJsonAdapter> headerCodec,
+      Codec<PasswordEntryIndexJsonAdapter> indexCodec,
+      Codec<PasswordEntrySecretJsonAdapter> secretCodec,
+      Codec<PasswordHistoryJsonAdapter> historyCodec) {
+    this.version = version;
+    this.encryptionEngineFactory = encryptionEngineFactory;
+    this.headerCodec = headerCodec;
+    this.indexCodec = indexCodec;
+    this.secretCodec = secretCodec;
+    this.historyCodec = historyCodec;
+  }
+
+  static RecordPasswordLibraryFormat withJsonFields() {
+    return new RecordPasswordLibraryFormat(
+        2,
+        AES256EncryptionEngine::fromKey,
+        PasswordLibraryCodecs.preferringJson(
+            PasswordLibraryCodecs.LIBRARY_HEADER, PasswordLibraryHeaderJsonAdapter.class),
+        PasswordLibraryCodecs.preferringJson(
+            PasswordLibraryCodecs.ENTRY_INDEX, PasswordEntryIndexJsonAdapter.class),
+        PasswordLibraryCodecs.preferringJson(
+            PasswordLibraryCodecs.ENTRY_SECRETS, PasswordEntrySecretJsonAdapter.class),
+        PasswordLibraryCodecs.preferringJson(
+            PasswordLibraryCodecs.PASSWORD_HISTORY, PasswordHistoryJsonAdapter.class));
+  }
+
+  static RecordPasswordLibraryFormat withBinaryFields() {
+    return new RecordPasswordLibraryFormat(
+        3,
+        AES256EncryptionEngine::fromKey,
+        PasswordLibraryCodecs.preferringBinary(
+            PasswordLibraryCodecs.LIBRARY_HEADER, PasswordLibraryHeaderJsonAdapter.class),
+        PasswordLibraryCodecs.preferringBinary(
+            PasswordLibraryCodecs.ENTRY_INDEX, PasswordEntryIndexJsonAdapter.class),
+        PasswordLibraryCodecs.preferringBinary(
+            PasswordLibraryCodecs.ENTRY_SECRETS, PasswordEntrySecretJsonAdapter.class),
+        PasswordLibraryCodecs.preferringBinary(
+            PasswordLibraryCodecs.PASSWORD_HISTORY, PasswordHistoryJsonAdapter.class));
+  }
+
+  static RecordPasswordLibraryFormat withSealedFields() {
+    return new RecordPasswordLibraryFormat(
+        4,
+        ChunkedAESGCMEncryptionEngine::fromKey,
+        PasswordLibraryCodecs.preferringBinary(
+            PasswordLibraryCodecs.LIBRARY_HEADER, PasswordLibraryHeaderJsonAdapter.class),
+        PasswordLibraryCodecs.preferringBinary(
+            PasswordLibraryCodecs.ENTRY_INDEX, PasswordEntryIndexJsonAdapter.class),
+        PasswordLibraryCodecs.preferringBinary(
+            PasswordLibraryCodecs.ENTRY_SECRETS, PasswordEntrySecretJsonAdapter.class),
+        PasswordLibraryCodecs.preferringBinary(
+            PasswordLibraryCodecs.PASSWORD_HISTORY, PasswordHistoryJsonAdapter.class));
+  }
+
+  @Override
+  public int getVersion() {
+    return version;
+  }
+
+  @Override
+  public EncryptionEngine encryptionEngineFor(SecretKey key) {
+    return encryptionEngineFactory.apply(key);
+  }
+
+  @Override
+  public PasswordLibrary read(
+      InputStream inputStream, Supplier<EncryptionEngineLease> encryptionEngineSupplier)
+      throws IOException, PasswordMismatchException {
+    RecordLineReader reader = new RecordLineReader(inputStream);
+    String headerCipherText = null;
+    List<String> indexCipherTexts = new ArrayList<>();
+    List<String> secretCipherTexts = new ArrayList<>();
+    List<String> historyCipherTexts = new ArrayList<>();
+    BitSet deletedEntryRecords = new BitSet();
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      if (!reader.isTerminated()) {
+        // Records were appended whole, so a final line without its newline was cut short by a
+        // crash part way through an append.
+        break;
+      }
+      String[] fields = line.split(FIELD_SEPARATOR);
+      if (fields[0].equals(LIBRARY_RECORD) && fields.length == 2) {
+        headerCipherText = fields[1];
+      } else if (fields[0].equals(ENTRY_RECORD) && (fields.length == 3 || fields.length == 4)) {
+        indexCipherTexts.add(fields[1]);
+        secretCipherTexts.add(fields[2]);
+        historyCipherTexts.add(fields.length == 4 ? fields[3] : null);
+      } else if (fields[0].equals(DELETION_RECORD) && fields.length == 2) {
+        deletedEntryRecords.set(parseEntryRecordNumber(fields[1], indexCipherTexts.size()));
+      } else if (line.isEmpty()) {
+        continue;
+      } else {
+        throw new IOException("Malformed password library record.");
+      }
+    }
+    if (headerCipherText == null) {
+      throw new IOException("Password library has no library record.");
+    }
+
+    List<Integer> liveEntryRecords = new ArrayList<>();
+    List<String> liveIndexCipherTexts = new ArrayList<>();
+    for (int i = deletedEntryRecords.nextClearBit(0);
+        i < indexCipherTexts.size();
+        i = deletedEntryRecords.nextClearBit(i + 1)) {
+      liveEntryRecords.add(i);
+      liveIndexCipherTexts.add(indexCipherTexts.get(i));
+    }
+
+    PasswordLibraryHeaderJsonAdapter header;
+    List<PasswordEntry> entries = new ArrayList<>(liveEntryRecords.size());
+    try (EncryptionEngineLease encryptionEngineLease = encryptionEngineSupplier.get()) {
+      EncryptionEngine encryptionEngine = encryptionEngineLease.get();
+      try {
+        header = headerCodec.decode(encryptionEngine.decryptBytes(headerCipherText));
+      } catch (KeyMismatchException e) {
+        throw new PasswordMismatchException();
+      } catch (CodecException e) {
+        // Under AES-ECB, a wrong key leaves valid padding about once in 256 tries, and is then
+        // reported as this instead.
+        throw new IOException("Malformed password library header.", e);
+      }
+      // Past the header, the key is known to be right, so a field that fails to decrypt is damaged.
+      try {
+        List<byte[]> indices = encryptionEngine.decryptAllBytes(liveIndexCipherTexts);
+        for (int i = 0; i < indices.size(); i++) {
+          int entryRecordNumber = liveEntryRecords.get(i);
+          String secretCipherText = secretCipherTexts.get(entryRecordNumber);
+          String historyCipherText = historyCipherTexts.get(entryRecordNumber);
+          PasswordEntry entry =
+              historyCipherText == null
+                  ? PasswordEntry.withLazySecrets(
+                      indexCodec.decode(indices.get(i)),
+                      () -> decryptSecrets(secretCipherText, encryptionEngineSupplier))
+                  : PasswordEntry.withLazySecrets(
+                      indexCodec.decode(indices.get(i)),
+                      () -> decryptSecrets(secretCipherText, encryptionEngineSupplier),
+                      () -> decryptHistory(historyCipherText, encryptionEngineSupplier));
+          entries.add(entry);
+        }
+      } catch (KeyMismatchException e) {
+        throw new IOException("Password library entry failed to decrypt.", e);
+      } catch (CodecException e) {
+        throw new IOException("Malformed password library entry.", e);
+      }
+    }
+    return PasswordLibrary.fromStoredEntries(
+        header.getName(), header.getDescription(), header.getPasswordHash(), entries);
+  }
+
+  private static int parseEntryRecordNumber(String field, int entryRecordCount) throws IOException {
+    int entryRecordNumber;
+    try {
+      entryRecordNumber = Integer.parseInt(field);
+    } catch (NumberFormatException e) {
+      throw new IOException("Malformed password library deletion record.", e);
+    }
+    if (entryRecordNumber < 0 || entryRecordNumber >= entryRecordCount) {
+      throw new IOException("Password library deletion record refers to a missing entry.");
+    }
+    return entryRecordNumber;
+  }
+
+  private PasswordEntrySecretJsonAdapter decryptSecrets(
+      String secretCipherText, Supplier<EncryptionEngineLease> encryptionEngineSupplier) {
+    try (EncryptionEngineLease encryptionEngineLease = encryptionEngineSupplier.get()) {
+      return secretCodec.decode(encryptionEngineLease.get().decryptBytes(secretCipherText));
+    } catch (KeyMismatchException | CodecException e) {
+      throw new IllegalStateException("Failed to decrypt the secrets of a password entry.", e);
+    }
+  }
+
+  private PasswordHistoryJsonAdapter decryptHistory(
+      String historyCipherText, Supplier<EncryptionEngineLease> encryptionEngineSupplier) {
+    try (EncryptionEngineLease encryptionEngineLease = encryptionEngineSupplier.get()) {
+      return historyCodec.decode(encryptionEngineLease.get().decryptBytes(historyCipherText));
+    } catch (KeyMismatchException | CodecException e) {
+      throw new IllegalStateException("Failed to decrypt the history of a password entry.", e);
+    }
+  }
+}
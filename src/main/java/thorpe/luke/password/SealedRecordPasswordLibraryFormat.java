@@ -0,0 +1,477 @@
+package thorpe.luke.password;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import javax.crypto.SecretKey;
+import thorpe.luke.cryptography.ChunkedAESGCMEncryptionEngine;
+import thorpe.luke.cryptography.EncryptionEngine;
+import thorpe.luke.cryptography.KeyMismatchException;
+import thorpe.luke.password.apdater.PasswordEntryIndexJsonAdapter;
+import thorpe.luke.password.apdater.PasswordEntrySecretJsonAdapter;
+import thorpe.luke.password.apdater.PasswordHistoryJsonAdapter;
+import thorpe.luke.password.apdater.PasswordLibraryCodecs;
+import thorpe.luke.password.apdater.PasswordLibraryHeaderJsonAdapter;
+import thorpe.luke.util.Codec;
+import thorpe.luke.util.CodecException;
+
+/**
+ * Version 5: one line per record, like {@link RecordPasswordLibraryFormat}, but with each record
+ * sealed as a whole by {@link ChunkedAESGCMEncryptionEngine#encryptParts}, and bound to its place
+ * in the log.
+ *
+ * <pre>
+ * #passlib 5
+ * L &lt;serial&gt; &lt;library header&gt;
+ * E &lt;serial&gt; &lt;entry index, entry secrets and password history&gt;
+ * D &lt;serial&gt; &lt;entry serial&gt;
+ * C &lt;serial&gt; &lt;frame checksum&gt; &lt;live records&gt;
+ * </pre>
+ *
+ * Every record has a serial, greater than that of the record before it, which survives compaction.
+ * Serials start from a random number for each log, so records cannot be moved from one log to
+ * another under the same key. Each sealed record is bound to its type and serial as associated
+ * data, so a record that is altered, moved or replayed fails to open. The fields of an entry record
+ * are sealed as parts of one message, so the secrets and history can still be opened lazily, apart
+ * from the index.
+ *
+ * <p>Each write ends with a commit record, which seals a digest of the serials of the library
+ * record and entry records that are live once the write is replayed. A log whose live records
+ * differ from those of its last commit record, such as one with a record dropped, is rejected.
+ * Deletion records are only checked this way, so they hold nothing secret, and the log can still be
+ * compacted without the key, by keeping the latest library record, the live entry records and the
+ * last commit record.
+ *
+ * <p>The records of a write, up to its commit record, make up a frame, and the commit record holds
+ * a CRC-32 of the bytes of the frame before it. A frame that was cut short or left torn by a crash
+ * part way through an append is only ever the last one, so once the frames before it check out, it
+ * is ignored, and it is cut off before the next append. A frame that fails its check with a whole
+ * frame after it is damage, not a crash, and fails the read.
+ */
+class SealedRecordPasswordLibraryFormat implements PasswordLibraryFormat {
+  static final String LIBRARY_RECORD = "L";
+  static final String ENTRY_RECORD = "E";
+  static final String DELETION_RECORD = "D";
+  static final String COMMIT_RECORD = "C";
+  static final String FIELD_SEPARATOR = " ";
+
+  private static final int VERSION = 5;
+  private static final int INDEX_PART = 0;
+  private static final int SECRETS_PART = 1;
+  private static final int HISTORY_PART = 2;
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private final Codec<PasswordLibraryHeaderJsonAdapter> headerCodec =
+      PasswordLibraryCodecs.preferringBinary(
+          PasswordLibraryCodecs.LIBRARY_HEADER, PasswordLibraryHeaderJsonAdapter.class);
+  private final Codec<PasswordEntryIndexJsonAdapter> indexCodec =
+      PasswordLibraryCodecs.preferringBinary(
+          PasswordLibraryCodecs.ENTRY_INDEX, PasswordEntryIndexJsonAdapter.class);
+  private final Codec<PasswordEntrySecretJsonAdapter> secretCodec =
+      PasswordLibraryCodecs.preferringBinary(
+          PasswordLibraryCodecs.ENTRY_SECRETS, PasswordEntrySecretJsonAdapter.class);
+  private final Codec<PasswordHistoryJsonAdapter> historyCodec =
+      PasswordLibraryCodecs.preferringBinary(
+          PasswordLibraryCodecs.PASSWORD_HISTORY, PasswordHistoryJsonAdapter.class);
+
+  /** Where each live entry of a library that was read came from, for appending to the log. */
+  static class Layout {
+    final Map<PasswordEntry, Long> entrySerials = new IdentityHashMap<>();
+    long librarySerial;
+    long nextSerial;
+    int recordCount;
+    /** The length of any uncommitted frame left at the end of the log by a crash. */
+    long uncommittedLength;
+
+    /** A layout to append to this one, with the same records but no entries yet. */
+    Layout continued() {
+      Layout layout = new Layout();
+      layout.librarySerial = librarySerial;
+      layout.nextSerial = nextSerial;
+      layout.recordCount = recordCount;
+      return layout;
+    }
+  }
+
+  /** A record as it is stored, with its type and serial, which can be read without the key. */
+  static class RecordLine {
+    final String line;
+    final String type;
+    final long serial;
+    private final String[] fields;
+
+    private RecordLine(String line, String[] fields) {
+      this.line = line;
+      this.type = fields[0];
+      this.serial = Long.parseLong(fields[1]);
+      this.fields = fields;
+    }
+
+    /** Parses a line, or returns null if it is not a well-formed record. */
+    private static RecordLine parse(String line) {
+      String[] fields = line.split(FIELD_SEPARATOR);
+      int expectedFieldCount;
+      switch (fields[0]) {
+        case LIBRARY_RECORD:
+        case ENTRY_RECORD:
+        case DELETION_RECORD:
+          expectedFieldCount = 3;
+          break;
+        case COMMIT_RECORD:
+          expectedFieldCount = 4;
+          break;
+        default:
+          return null;
+      }
+      if (fields.length != expectedFieldCount
+          || !isSerial(fields[1])
+          || (fields[0].equals(DELETION_RECORD) && !isSerial(fields[2]))
+          || (fields[0].equals(COMMIT_RECORD) && !fields[2].matches("[0-9a-f]{8}"))) {
+        return null;
+      }
+      return new RecordLine(line, fields);
+    }
+
+    private static boolean isSerial(String field) {
+      try {
+        return field.matches("[0-9]+") && Long.parseLong(field) >= 0;
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+
+    /** The serial of the entry record that a deletion record deletes. */
+    long getDeletedSerial() {
+      return Long.parseLong(fields[2]);
+    }
+
+    private long getFrameChecksum() {
+      return Long.parseLong(fields[2], 16);
+    }
+
+    /** The line of a commit record, with its frame checksum replaced. */
+    String withFrameChecksum(CRC32 frameChecksum) {
+      return record(COMMIT_RECORD, serial, checksumField(frameChecksum), getCipherText()).trim();
+    }
+
+    private String getCipherText() {
+      return fields[fields.length - 1];
+    }
+  }
+
+  /**
+   * The records of a log up to the end of its last whole frame, with the length of any frame left
+   * after it.
+   */
+  static class CommittedRecords {
+    final List<RecordLine> records = new ArrayList<>();
+    long uncommittedLength;
+  }
+
+  /** Reads the committed records of a log, without the key. */
+  static CommittedRecords readCommitted(InputStream inputStream) throws IOException {
+    RecordLineReader reader = new RecordLineReader(inputStream);
+    CommittedRecords committedRecords = new CommittedRecords();
+    List<RecordLine> frame = new ArrayList<>();
+    CRC32 frameChecksum = new CRC32();
+    boolean frameTorn = false;
+    boolean earlierFrameTorn = false;
+    long committedPosition = 0;
+    long lastSerial = -1;
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      RecordLine record = reader.isTerminated() ? RecordLine.parse(line) : null;
+      if (record == null) {
+        frameTorn = true;
+        continue;
+      }
+      frame.add(record);
+      if (!record.type.equals(COMMIT_RECORD)) {
+        frameChecksum.update((line + "\n").getBytes(StandardCharsets.US_ASCII));
+        continue;
+      }
+      if (frameTorn || record.getFrameChecksum() != frameChecksum.getValue()) {
+        earlierFrameTorn = true;
+      } else if (earlierFrameTorn) {
+        throw new IOException("Password library is damaged before its last write.");
+      } else {
+        for (RecordLine committedRecord : frame) {
+          if (committedRecord.serial <= lastSerial) {
+            throw new IOException("Password library records are out of order.");
+          }
+          lastSerial = committedRecord.serial;
+        }
+        committedRecords.records.addAll(frame);
+        committedPosition = reader.getPosition();
+      }
+      frame.clear();
+      frameChecksum.reset();
+      frameTorn = false;
+    }
+    committedRecords.uncommittedLength = reader.getPosition() - committedPosition;
+    return committedRecords;
+  }
+
+  @Override
+  public int getVersion() {
+    return VERSION;
+  }
+
+  @Override
+  public ChunkedAESGCMEncryptionEngine encryptionEngineFor(SecretKey key) {
+    return ChunkedAESGCMEncryptionEngine.fromKey(key);
+  }
+
+  private static ChunkedAESGCMEncryptionEngine sealingEngine(EncryptionEngine encryptionEngine) {
+    if (!(encryptionEngine instanceof ChunkedAESGCMEncryptionEngine)) {
+      throw new IllegalArgumentException("Sealed records need a chunked AES-GCM engine.");
+    }
+    return (ChunkedAESGCMEncryptionEngine) encryptionEngine;
+  }
+
+  private static byte[] associatedData(String recordType, long serial) {
+    return ("passlib " + VERSION + " " + recordType + FIELD_SEPARATOR + serial)
+        .getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /** A digest of the serials of the live records, in ascending order. */
+  private static byte[] liveRecordsDigest(long librarySerial, Collection<Long> entrySerials) {
+    long[] sortedEntrySerials = entrySerials.stream().mapToLong(Long::longValue).sorted().toArray();
+    Hasher hasher = Hashing.sha256().newHasher().putLong(librarySerial);
+    for (long entrySerial : sortedEntrySerials) {
+      hasher.putLong(entrySerial);
+    }
+    return hasher.hash().asBytes();
+  }
+
+  @Override
+  public PasswordLibrary read(
+      InputStream inputStream, Supplier<EncryptionEngineLease> encryptionEngineSupplier)
+      throws IOException, PasswordMismatchException {
+    return read(inputStream, encryptionEngineSupplier, new Layout());
+  }
+
+  PasswordLibrary read(
+      InputStream inputStream,
+      Supplier<EncryptionEngineLease> encryptionEngineSupplier,
+      Layout layout)
+      throws IOException, PasswordMismatchException {
+    CommittedRecords committedRecords = readCommitted(inputStream);
+    String headerCipherText = null;
+    Map<Long, String> entryCipherTexts = new LinkedHashMap<>();
+    RecordLine commitRecord = null;
+    for (RecordLine record : committedRecords.records) {
+      switch (record.type) {
+        case LIBRARY_RECORD:
+          headerCipherText = record.getCipherText();
+          layout.librarySerial = record.serial;
+          break;
+        case ENTRY_RECORD:
+          entryCipherTexts.put(record.serial, record.getCipherText());
+          break;
+        case DELETION_RECORD:
+          if (entryCipherTexts.remove(record.getDeletedSerial()) == null) {
+            throw new IOException("Password library deletion record refers to a missing entry.");
+          }
+          break;
+        default:
+          commitRecord = record;
+      }
+      layout.recordCount++;
+    }
+    if (headerCipherText == null) {
+      throw new IOException("Password library has no library record.");
+    }
+    layout.nextSerial = commitRecord.serial + 1;
+    layout.uncommittedLength = committedRecords.uncommittedLength;
+
+    List<Long> entrySerials = new ArrayList<>(entryCipherTexts.keySet());
+    List<String> liveEntryCipherTexts = new ArrayList<>(entryCipherTexts.values());
+    List<byte[]> entryAssociatedData = new ArrayList<>(entrySerials.size());
+    for (long entrySerial : entrySerials) {
+      entryAssociatedData.add(associatedData(ENTRY_RECORD, entrySerial));
+    }
+
+    PasswordLibraryHeaderJsonAdapter header;
+    List<PasswordEntry> entries = new ArrayList<>(entrySerials.size());
+    try (EncryptionEngineLease encryptionEngineLease = encryptionEngineSupplier.get()) {
+      ChunkedAESGCMEncryptionEngine encryptionEngine = sealingEngine(encryptionEngineLease.get());
+      try {
+        header =
+            headerCodec.decode(
+                encryptionEngine.decryptPart(
+                    headerCipherText, 0, associatedData(LIBRARY_RECORD, layout.librarySerial)));
+      } catch (KeyMismatchException e) {
+        throw new PasswordMismatchException();
+      } catch (CodecException e) {
+        throw new IOException("Malformed password library header.", e);
+      }
+      // Past the header, the key is known to be right, so a record that fails to open is damaged.
+      try {
+        byte[] committedDigest =
+            encryptionEngine.decryptPart(
+                commitRecord.getCipherText(),
+                0,
+                associatedData(COMMIT_RECORD, commitRecord.serial));
+        if (!MessageDigest.isEqual(
+            committedDigest, liveRecordsDigest(layout.librarySerial, entrySerials))) {
+          throw new IOException("Password library records are missing or out of place.");
+        }
+        List<byte[]> indices =
+            encryptionEngine.decryptAllParts(liveEntryCipherTexts, INDEX_PART, entryAssociatedData);
+        for (int i = 0; i < indices.size(); i++) {
+          String entryCipherText = liveEntryCipherTexts.get(i);
+          byte[] entryAssociatedDatum = entryAssociatedData.get(i);
+          PasswordEntry entry =
+              PasswordEntry.withLazySecrets(
+                  indexCodec.decode(indices.get(i)),
+                  () ->
+                      decryptPart(
+                          secretCodec,
+                          entryCipherText,
+                          SECRETS_PART,
+                          entryAssociatedDatum,
+                          encryptionEngineSupplier),
+                  () ->
+                      decryptPart(
+                          historyCodec,
+                          entryCipherText,
+                          HISTORY_PART,
+                          entryAssociatedDatum,
+                          encryptionEngineSupplier));
+          entries.add(entry);
+          layout.entrySerials.put(entry, entrySerials.get(i));
+        }
+      } catch (KeyMismatchException e) {
+        throw new IOException("Password library record failed to authenticate.", e);
+      } catch (CodecException e) {
+        throw new IOException("Malformed password library entry.", e);
+      }
+    }
+    return PasswordLibrary.fromStoredEntries(
+        header.getName(), header.getDescription(), header.getPasswordHash(), entries);
+  }
+
+  private static <T> T decryptPart(
+      Codec<T> codec,
+      String cipherText,
+      int partNumber,
+      byte[] associatedData,
+      Supplier<EncryptionEngineLease> encryptionEngineSupplier) {
+    try (EncryptionEngineLease encryptionEngineLease = encryptionEngineSupplier.get()) {
+      return codec.decode(
+          sealingEngine(encryptionEngineLease.get())
+              .decryptPart(cipherText, partNumber, associatedData));
+    } catch (KeyMismatchException | CodecException e) {
+      throw new IllegalStateException("Failed to decrypt a part of a password entry.", e);
+    }
+  }
+
+  private static String checksumField(CRC32 frameChecksum) {
+    return String.format("%08x", frameChecksum.getValue());
+  }
+
+  private static String record(String type, long serial, String... fields) {
+    StringBuilder record = new StringBuilder(type).append(FIELD_SEPARATOR).append(serial);
+    for (String field : fields) {
+      record.append(FIELD_SEPARATOR).append(field);
+    }
+    return record.append("\n").toString();
+  }
+
+  String libraryRecord(
+      PasswordLibrary passwordLibrary, EncryptionEngine encryptionEngine, Layout layout)
+      throws IOException {
+    long serial = layout.nextSerial++;
+    String cipherText;
+    try {
+      cipherText =
+          sealingEngine(encryptionEngine)
+              .encryptParts(
+                  Collections.singletonList(headerCodec.encode(passwordLibrary.toHeaderAdapter())),
+                  associatedData(LIBRARY_RECORD, serial));
+    } catch (CodecException e) {
+      throw new IOException(e);
+    }
+    layout.librarySerial = serial;
+    layout.recordCount++;
+    return record(LIBRARY_RECORD, serial, cipherText);
+  }
+
+  String entryRecord(PasswordEntry entry, EncryptionEngine encryptionEngine, Layout layout)
+      throws IOException {
+    long serial = layout.nextSerial++;
+    String cipherText;
+    try {
+      cipherText =
+          sealingEngine(encryptionEngine)
+              .encryptParts(
+                  Arrays.asList(
+                      indexCodec.encode(entry.toIndexAdapter()),
+                      secretCodec.encode(entry.toPasswordOnlySecretAdapter()),
+                      historyCodec.encode(entry.toHistoryAdapter())),
+                  associatedData(ENTRY_RECORD, serial));
+    } catch (CodecException e) {
+      throw new IOException(e);
+    }
+    layout.entrySerials.put(entry, serial);
+    layout.recordCount++;
+    return record(ENTRY_RECORD, serial, cipherText);
+  }
+
+  static String deletionRecord(long entrySerial, Layout layout) {
+    layout.recordCount++;
+    return record(DELETION_RECORD, layout.nextSerial++, Long.toString(entrySerial));
+  }
+
+  /**
+   * Ends a frame, committing to the live records of the layout as it now stands, given the checksum
+   * of the records of the frame.
+   */
+  String commitRecord(CRC32 frameChecksum, EncryptionEngine encryptionEngine, Layout layout) {
+    long serial = layout.nextSerial++;
+    String cipherText =
+        sealingEngine(encryptionEngine)
+            .encryptParts(
+                Collections.singletonList(
+                    liveRecordsDigest(layout.librarySerial, layout.entrySerials.values())),
+                associatedData(COMMIT_RECORD, serial));
+    layout.recordCount++;
+    return record(COMMIT_RECORD, serial, checksumField(frameChecksum), cipherText);
+  }
+
+  /** Writes the library as a snapshot, from its version line to its one commit record. */
+  public void write(
+      PasswordLibrary passwordLibrary, OutputStream outputStream, EncryptionEngine encryptionEngine)
+      throws IOException {
+    write(passwordLibrary, outputStream, encryptionEngine, new Layout());
+  }
+
+  void write(
+      PasswordLibrary passwordLibrary,
+      OutputStream outputStream,
+      EncryptionEngine encryptionEngine,
+      Layout layout)
+      throws IOException {
+    layout.nextSerial = RANDOM.nextLong() >>> 2;
+    PasswordLibraryFormat.writeVersionLine(getVersion(), outputStream);
+    Writer writer =
+        new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.US_ASCII));
+    CRC32 frameChecksum = new CRC32();
+    String libraryRecord = libraryRecord(passwordLibrary, encryptionEngine, layout);
+    frameChecksum.update(libraryRecord.getBytes(StandardCharsets.US_ASCII));
+    writer.write(libraryRecord);
+    for (PasswordEntry entry : passwordLibrary.getEntries()) {
+      String entryRecord = entryRecord(entry, encryptionEngine, layout);
+      frameChecksum.update(entryRecord.getBytes(StandardCharsets.US_ASCII));
+      writer.write(entryRecord);
+    }
+    writer.write(commitRecord(frameChecksum, encryptionEngine, layout));
+    writer.flush();
+  }
+}
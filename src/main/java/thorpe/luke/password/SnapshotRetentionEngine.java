@@ -0,0 +1,239 @@
+package thorpe.luke.password;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.*;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Deletes the snapshots that a {@link SnapshotRetentionPolicy} no longer keeps. Snapshots are
+ * grouped by library and dated using the catalog where it can, so running the engine never decrypts
+ * anything. Counts of what has been reclaimed are kept across runs.
+ */
+public class SnapshotRetentionEngine {
+  private final ZoneId zoneId;
+  private final AtomicLong runCount;
+  private final AtomicLong deletedFileCount;
+  private final AtomicLong reclaimedBytes;
+
+  public SnapshotRetentionEngine() {
+    this(ZoneId.systemDefault());
+  }
+
+  SnapshotRetentionEngine(ZoneId zoneId) {
+    this.zoneId = zoneId;
+    this.runCount = new AtomicLong();
+    this.deletedFileCount = new AtomicLong();
+    this.reclaimedBytes = new AtomicLong();
+  }
+
+  private static class Snapshot {
+    private final File file;
+    private final Instant savedAt;
+    private final long size;
+
+    private Snapshot(File file, Instant savedAt, long size) {
+      this.file = file;
+      this.savedAt = savedAt;
+      this.size = size;
+    }
+  }
+
+  /**
+   * Applies the policy to the given library files. A dry run deletes nothing, and reports what
+   * would have been deleted instead.
+   */
+  public Report run(Collection<File> files, SnapshotRetentionPolicy policy, boolean dryRun) {
+    long startTime = System.nanoTime();
+    Map<File, PasswordLibraryCatalog> catalogs = new HashMap<>();
+    Function<File, Optional<PasswordLibraryCatalog.Entry>> catalogLookup =
+        file ->
+            catalogs
+                .computeIfAbsent(
+                    file.getAbsoluteFile().getParentFile(), PasswordLibraryCatalog::read)
+                .get(file);
+
+    List<List<Snapshot>> snapshotsByLibrary = new ArrayList<>();
+    for (List<File> group : PasswordLibraryCatalog.groupSnapshots(files, catalogLookup)) {
+      List<Snapshot> snapshots = new ArrayList<>(group.size());
+      for (File file : group) {
+        Optional<PasswordLibraryCatalog.Entry> entry = catalogLookup.apply(file);
+        snapshots.add(
+            new Snapshot(
+                file,
+                entry
+                    .map(PasswordLibraryCatalog.Entry::getLastModified)
+                    .orElseGet(() -> Instant.ofEpochMilli(file.lastModified())),
+                entry.map(PasswordLibraryCatalog.Entry::getSize).orElseGet(file::length)));
+      }
+      snapshotsByLibrary.add(snapshots);
+    }
+
+    List<File> expiredFiles = new ArrayList<>();
+    long expiredBytes = 0;
+    int failedFileCount = 0;
+    for (Snapshot snapshot : selectExpired(snapshotsByLibrary, policy)) {
+      if (!dryRun) {
+        try {
+          if (!Files.deleteIfExists(snapshot.file.toPath())) {
+            continue;
+          }
+        } catch (IOException e) {
+          failedFileCount++;
+          continue;
+        }
+      }
+      expiredFiles.add(snapshot.file);
+      expiredBytes += snapshot.size;
+    }
+
+    runCount.incrementAndGet();
+    if (!dryRun) {
+      deletedFileCount.addAndGet(expiredFiles.size());
+      reclaimedBytes.addAndGet(expiredBytes);
+    }
+    return new Report(
+        dryRun,
+        files.size(),
+        expiredFiles,
+        expiredBytes,
+        failedFileCount,
+        Duration.ofNanos(System.nanoTime() - startTime));
+  }
+
+  private List<Snapshot> selectExpired(
+      List<List<Snapshot>> snapshotsByLibrary, SnapshotRetentionPolicy policy) {
+    Set<Snapshot> kept = new HashSet<>();
+    List<Snapshot> expendable = new ArrayList<>();
+    for (List<Snapshot> snapshots : snapshotsByLibrary) {
+      if (policy.hasCountRules()) {
+        keepNewestPerBucket(snapshots, policy.getKeepLast(), snapshot -> snapshot, kept);
+        keepNewestPerBucket(snapshots, policy.getKeepDaily(), this::dayOf, kept);
+        keepNewestPerBucket(snapshots, policy.getKeepWeekly(), this::weekOf, kept);
+      } else {
+        kept.addAll(snapshots);
+      }
+      kept.add(snapshots.get(0));
+      expendable.addAll(snapshots.subList(1, snapshots.size()));
+    }
+
+    if (policy.getMaximumTotalBytes() > 0) {
+      long totalBytes = kept.stream().mapToLong(snapshot -> snapshot.size).sum();
+      expendable.sort(Comparator.comparing(snapshot -> snapshot.savedAt));
+      for (Snapshot snapshot : expendable) {
+        if (totalBytes <= policy.getMaximumTotalBytes()) {
+          break;
+        }
+        if (kept.remove(snapshot)) {
+          totalBytes -= snapshot.size;
+        }
+      }
+    }
+
+    List<Snapshot> expired = new ArrayList<>();
+    for (List<Snapshot> snapshots : snapshotsByLibrary) {
+      for (Snapshot snapshot : snapshots) {
+        if (!kept.contains(snapshot)) {
+          expired.add(snapshot);
+        }
+      }
+    }
+    return expired;
+  }
+
+  /** Keeps the newest snapshot in each of the given number of most recent buckets. */
+  private static void keepNewestPerBucket(
+      List<Snapshot> snapshots,
+      int count,
+      Function<Snapshot, Object> bucketOf,
+      Set<Snapshot> kept) {
+    Object lastBucket = null;
+    int keptCount = 0;
+    for (Snapshot snapshot : snapshots) {
+      Object bucket = bucketOf.apply(snapshot);
+      if (bucket.equals(lastBucket)) {
+        continue;
+      }
+      if (keptCount == count) {
+        return;
+      }
+      kept.add(snapshot);
+      keptCount++;
+      lastBucket = bucket;
+    }
+  }
+
+  private LocalDate dayOf(Snapshot snapshot) {
+    return LocalDate.ofInstant(snapshot.savedAt, zoneId);
+  }
+
+  private LocalDate weekOf(Snapshot snapshot) {
+    return dayOf(snapshot).with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+  }
+
+  public long getRunCount() {
+    return runCount.get();
+  }
+
+  public long getDeletedFileCount() {
+    return deletedFileCount.get();
+  }
+
+  public long getReclaimedBytes() {
+    return reclaimedBytes.get();
+  }
+
+  public static class Report {
+    private final boolean dryRun;
+    private final int examinedFileCount;
+    private final List<File> expiredFiles;
+    private final long reclaimedBytes;
+    private final int failedFileCount;
+    private final Duration elapsed;
+
+    private Report(
+        boolean dryRun,
+        int examinedFileCount,
+        List<File> expiredFiles,
+        long reclaimedBytes,
+        int failedFileCount,
+        Duration elapsed) {
+      this.dryRun = dryRun;
+      this.examinedFileCount = examinedFileCount;
+      this.expiredFiles = Collections.unmodifiableList(expiredFiles);
+      this.reclaimedBytes = reclaimedBytes;
+      this.failedFileCount = failedFileCount;
+      this.elapsed = elapsed;
+    }
+
+    public boolean isDryRun() {
+      return dryRun;
+    }
+
+    public int getExaminedFileCount() {
+      return examinedFileCount;
+    }
+
+    /** The files that were deleted or, in a dry run, would have been. */
+    public List<File> getExpiredFiles() {
+      return expiredFiles;
+    }
+
+    /** The space that was reclaimed or, in a dry run, would have been. */
+    public long getReclaimedBytes() {
+      return reclaimedBytes;
+    }
+
+    public int getFailedFileCount() {
+      return failedFileCount;
+    }
+
+    public Duration getElapsed() {
+      return elapsed;
+    }
+  }
+}
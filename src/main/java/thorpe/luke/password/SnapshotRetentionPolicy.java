@@ -0,0 +1,109 @@
+package thorpe.luke.password;
+
+import java.util.Objects;
+
+/**
+ * Which snapshots of each library to keep. A snapshot is kept if any of the count rules keeps it,
+ * where a count of zero turns that rule off, and then the oldest of the kept snapshots are dropped
+ * until they fit in the maximum total size, if there is one. The newest snapshot of a library is
+ * always kept.
+ */
+public class SnapshotRetentionPolicy {
+  public static final SnapshotRetentionPolicy KEEP_EVERYTHING =
+      SnapshotRetentionPolicy.where().build();
+
+  private final int keepLast;
+  private final int keepDaily;
+  private final int keepWeekly;
+  private final long maximumTotalBytes;
+
+  private SnapshotRetentionPolicy(
+      int keepLast, int keepDaily, int keepWeekly, long maximumTotalBytes) {
+    this.keepLast = keepLast;
+    this.keepDaily = keepDaily;
+    this.keepWeekly = keepWeekly;
+    this.maximumTotalBytes = maximumTotalBytes;
+  }
+
+  /** The number of most recent snapshots to keep. */
+  public int getKeepLast() {
+    return keepLast;
+  }
+
+  /** The number of days, counting back from the newest snapshot, to keep the last snapshot of. */
+  public int getKeepDaily() {
+    return keepDaily;
+  }
+
+  /** The number of weeks, counting back from the newest snapshot, to keep the last snapshot of. */
+  public int getKeepWeekly() {
+    return keepWeekly;
+  }
+
+  /** The most space that all snapshots may take up together, or zero for no limit. */
+  public long getMaximumTotalBytes() {
+    return maximumTotalBytes;
+  }
+
+  boolean hasCountRules() {
+    return keepLast > 0 || keepDaily > 0 || keepWeekly > 0;
+  }
+
+  public static SnapshotRetentionPolicyBuilder where() {
+    return new SnapshotRetentionPolicyBuilder();
+  }
+
+  public static class SnapshotRetentionPolicyBuilder {
+
+    private int keepLast;
+    private int keepDaily;
+    private int keepWeekly;
+    private long maximumTotalBytes;
+
+    public SnapshotRetentionPolicyBuilder keepLastIsSetTo(int keepLast) {
+      this.keepLast = keepLast;
+      return this;
+    }
+
+    public SnapshotRetentionPolicyBuilder keepDailyIsSetTo(int keepDaily) {
+      this.keepDaily = keepDaily;
+      return this;
+    }
+
+    public SnapshotRetentionPolicyBuilder keepWeeklyIsSetTo(int keepWeekly) {
+      this.keepWeekly = keepWeekly;
+      return this;
+    }
+
+    public SnapshotRetentionPolicyBuilder maximumTotalBytesIsSetTo(long maximumTotalBytes) {
+      this.maximumTotalBytes = maximumTotalBytes;
+      return this;
+    }
+
+    public SnapshotRetentionPolicy build() {
+      if (keepLast < 0 || keepDaily < 0 || keepWeekly < 0 || maximumTotalBytes < 0) {
+        throw new IllegalArgumentException("Snapshot retention limits cannot be negative.");
+      }
+      return new SnapshotRetentionPolicy(keepLast, keepDaily, keepWeekly, maximumTotalBytes);
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(keepLast, keepDaily, keepWeekly, maximumTotalBytes);
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (this == object) {
+      return true;
+    } else if (object instanceof SnapshotRetentionPolicy) {
+      SnapshotRetentionPolicy that = (SnapshotRetentionPolicy) object;
+      return this.keepLast == that.keepLast
+          && this.keepDaily == that.keepDaily
+          && this.keepWeekly == that.keepWeekly
+          && this.maximumTotalBytes == that.maximumTotalBytes;
+    }
+    return false;
+  }
+}
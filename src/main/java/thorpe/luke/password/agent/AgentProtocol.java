@@ -0,0 +1,71 @@
+package thorpe.luke.password.agent;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The messages between the agent and its clients. A request is an operation code followed by its
+ * arguments, and a response is a status code followed by its results. Strings are written as their
+ * length in UTF-8 bytes and then the bytes, and lists of strings are preceded by their size.
+ */
+final class AgentProtocol {
+  static final byte UNLOCK = 1;
+  static final byte GET_PASSWORD = 2;
+  static final byte LIST_ENTRIES = 3;
+  static final byte LOCK = 4;
+  static final byte LOCK_ALL = 5;
+  static final byte LIST_UNLOCKED = 6;
+  static final byte STOP = 7;
+  static final byte SEARCH = 8;
+  static final byte METRICS = 9;
+
+  static final byte OK = 0;
+  static final byte NOT_UNLOCKED = 1;
+  static final byte NO_SUCH_ENTRY = 2;
+  static final byte PASSWORD_MISMATCH = 3;
+  static final byte FAILED = 4;
+
+  private static final int MAXIMUM_STRING_LENGTH = 1 << 20;
+
+  private AgentProtocol() {}
+
+  static void writeString(DataOutput output, String string) throws IOException {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  static String readString(DataInput input) throws IOException {
+    int length = input.readInt();
+    if (length < 0 || length > MAXIMUM_STRING_LENGTH) {
+      throw new IOException("Malformed message: a string of " + length + " bytes.");
+    }
+    byte[] bytes = new byte[length];
+    input.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static void writeStrings(DataOutput output, Collection<String> strings) throws IOException {
+    output.writeInt(strings.size());
+    for (String string : strings) {
+      writeString(output, string);
+    }
+  }
+
+  static List<String> readStrings(DataInput input) throws IOException {
+    int size = input.readInt();
+    if (size < 0 || size > MAXIMUM_STRING_LENGTH) {
+      throw new IOException("Malformed message: a list of " + size + " strings.");
+    }
+    List<String> strings = new ArrayList<>(Math.min(size, 1024));
+    for (int i = 0; i < size; i++) {
+      strings.add(readString(input));
+    }
+    return strings;
+  }
+}
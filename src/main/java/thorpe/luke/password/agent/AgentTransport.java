@@ -0,0 +1,31 @@
+package thorpe.luke.password.agent;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/** How the agent and its clients reach each other through a socket file. */
+public interface AgentTransport {
+  ServerSocketChannel listen(Path socket) throws IOException;
+
+  SocketChannel connect(Path socket) throws IOException;
+
+  /**
+   * The transport over Unix domain sockets. These need Java 16 or later, so the transport is only
+   * built by the jdk17 profile, and is empty in builds without it.
+   */
+  static Optional<AgentTransport> unixDomain() {
+    try {
+      return ServiceLoader.load(AgentTransport.class).findFirst();
+    } catch (ServiceConfigurationError | LinkageError e) {
+      // Built with the transport, but running on a Java too old to load it. The loader wraps most
+      // failures, but the UnsupportedClassVersionError from a class built for a newer Java comes
+      // through unwrapped.
+      return Optional.empty();
+    }
+  }
+}
@@ -0,0 +1,405 @@
+package thorpe.luke.password.agent;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import thorpe.luke.cryptography.DerivedKeyCache;
+import thorpe.luke.metrics.Metrics;
+import thorpe.luke.password.PasswordEntry;
+import thorpe.luke.password.PasswordLibrary;
+import thorpe.luke.password.PasswordLibrarySearchService;
+import thorpe.luke.password.PasswordMismatchException;
+
+/**
+ * A long-running process that keeps unlocked libraries in memory, so that clients can look entries
+ * up without deriving the key and reading the file each time. A library is unlocked once with its
+ * password, and then served to anyone who can open the agent's socket until it has been idle for
+ * the timeout, is locked, or its file changes. The socket is only accessible to its owner, in the
+ * way of ssh-agent: it is bound inside a directory that only its owner can enter, so that no one
+ * else can reach it even before its own permissions are set.
+ */
+public class PasswordLibraryAgent implements Closeable {
+  private static final Duration MAXIMUM_SWEEP_INTERVAL = Duration.ofMinutes(1);
+  private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY =
+      PosixFilePermissions.fromString("rwx------");
+
+  private final Path socket;
+  private final ServerSocketChannel serverSocketChannel;
+  private final String salt;
+  private final long idleTimeoutNanos;
+  private final DerivedKeyCache derivedKeyCache;
+  private final ConcurrentMap<String, ResidentLibrary> residentLibraries;
+  private final PasswordLibrarySearchService<String> searchService;
+  private final ExecutorService connectionExecutor;
+  private final ScheduledExecutorService evictionExecutor;
+  private final CountDownLatch stopped;
+
+  private PasswordLibraryAgent(
+      Path socket, ServerSocketChannel serverSocketChannel, String salt, Duration idleTimeout) {
+    this.socket = socket;
+    this.serverSocketChannel = serverSocketChannel;
+    this.salt = salt;
+    this.idleTimeoutNanos = idleTimeout.toNanos();
+    this.derivedKeyCache = new DerivedKeyCache(idleTimeout);
+    this.residentLibraries = new ConcurrentHashMap<>();
+    this.searchService = new PasswordLibrarySearchService<>();
+    this.connectionExecutor =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setNameFormat("password-library-agent-%d")
+                .setDaemon(true)
+                .build());
+    this.evictionExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("password-library-agent-eviction")
+                .setDaemon(true)
+                .build());
+    this.stopped = new CountDownLatch(1);
+  }
+
+  /**
+   * Starts an agent listening at the socket, replacing any socket file left behind by an agent that
+   * did not stop cleanly. The socket's directory is created only accessible to its owner if it does
+   * not exist, and the agent refuses to start if it exists and others can access it.
+   */
+  public static PasswordLibraryAgent start(
+      AgentTransport transport, Path socket, String salt, Duration idleTimeout) throws IOException {
+    if (idleTimeout.isNegative() || idleTimeout.isZero()) {
+      throw new IllegalArgumentException("The idle timeout must be positive.");
+    }
+    createPrivateDirectory(socket.toAbsolutePath().getParent());
+    if (Files.exists(socket)) {
+      boolean listening;
+      try {
+        transport.connect(socket).close();
+        listening = true;
+      } catch (IOException e) {
+        listening = false;
+      }
+      if (listening) {
+        throw new IOException("An agent is already listening at " + socket + ".");
+      }
+      Files.delete(socket);
+    }
+    ServerSocketChannel serverSocketChannel = transport.listen(socket);
+    try {
+      // Others cannot reach the socket through its directory anyway, but may be let in later.
+      Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+    } catch (UnsupportedOperationException e) {
+      // Where permissions are not POSIX, the socket is as private as its directory.
+    } catch (IOException e) {
+      serverSocketChannel.close();
+      Files.deleteIfExists(socket);
+      throw e;
+    }
+    PasswordLibraryAgent agent =
+        new PasswordLibraryAgent(socket, serverSocketChannel, salt, idleTimeout);
+    long sweepIntervalNanos =
+        Math.max(
+            Math.min(idleTimeout.toNanos() / 4, MAXIMUM_SWEEP_INTERVAL.toNanos()),
+            TimeUnit.MILLISECONDS.toNanos(1));
+    agent.evictionExecutor.scheduleWithFixedDelay(
+        agent::evictIdleLibraries, sweepIntervalNanos, sweepIntervalNanos, TimeUnit.NANOSECONDS);
+    agent.connectionExecutor.execute(agent::acceptConnections);
+    return agent;
+  }
+
+  private static void createPrivateDirectory(Path directory) throws IOException {
+    Files.createDirectories(directory.getParent());
+    try {
+      // The umask can only take permissions away, so the directory is never open to others.
+      Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIRECTORY));
+    } catch (FileAlreadyExistsException e) {
+      // Checked below.
+    } catch (UnsupportedOperationException e) {
+      // Where permissions are not POSIX, the socket is as private as its directory.
+      Files.createDirectories(directory);
+      return;
+    }
+    if (!OWNER_ONLY_DIRECTORY.containsAll(Files.getPosixFilePermissions(directory))) {
+      throw new IOException(
+          "Others can access "
+              + directory
+              + ", so the agent's socket would not be private there. Use a directory only you can access.");
+    }
+  }
+
+  public Path getSocket() {
+    return socket;
+  }
+
+  /** Blocks until the agent is stopped, by a client or by {@link #close}. */
+  public void awaitStop() throws InterruptedException {
+    stopped.await();
+  }
+
+  /** Stops listening, forgets every unlocked library, and removes the socket. */
+  @Override
+  public void close() throws IOException {
+    if (stopped.getCount() == 0) {
+      return;
+    }
+    try {
+      serverSocketChannel.close();
+      Files.deleteIfExists(socket);
+    } finally {
+      residentLibraries.clear();
+      searchService.clear();
+      derivedKeyCache.lockAll();
+      evictionExecutor.shutdownNow();
+      connectionExecutor.shutdownNow();
+      stopped.countDown();
+    }
+  }
+
+  private void acceptConnections() {
+    while (serverSocketChannel.isOpen()) {
+      SocketChannel socketChannel;
+      try {
+        socketChannel = serverSocketChannel.accept();
+      } catch (IOException e) {
+        // Closed, so the agent is stopping.
+        return;
+      }
+      try {
+        connectionExecutor.execute(() -> serve(socketChannel));
+      } catch (RejectedExecutionException e) {
+        try {
+          socketChannel.close();
+        } catch (IOException ignored) {
+          // The agent is stopping anyway.
+        }
+        return;
+      }
+    }
+  }
+
+  private void serve(SocketChannel socketChannel) {
+    // Closing either stream closes the channel.
+    try (DataInputStream input =
+            new DataInputStream(new BufferedInputStream(Channels.newInputStream(socketChannel)));
+        DataOutputStream output =
+            new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(socketChannel)))) {
+      for (int operation = input.read(); operation >= 0; operation = input.read()) {
+        boolean stopRequested = respond((byte) operation, input, output);
+        output.flush();
+        if (stopRequested) {
+          close();
+          return;
+        }
+      }
+    } catch (IOException e) {
+      // The client went away, or sent something that could not be read. Either way it is dropped.
+    }
+  }
+
+  /** Answers one request, returning whether the client asked the agent to stop. */
+  private boolean respond(byte operation, DataInput input, DataOutput output) throws IOException {
+    switch (operation) {
+      case AgentProtocol.UNLOCK:
+        {
+          String path = AgentProtocol.readString(input);
+          String password = AgentProtocol.readString(input);
+          unlock(path, password, output);
+          return false;
+        }
+      case AgentProtocol.GET_PASSWORD:
+        {
+          String path = AgentProtocol.readString(input);
+          String entryName = AgentProtocol.readString(input);
+          Optional<ResidentLibrary> residentLibrary = residentLibraryAt(path);
+          if (!residentLibrary.isPresent()) {
+            output.writeByte(AgentProtocol.NOT_UNLOCKED);
+            return false;
+          }
+          Optional<PasswordEntry> passwordEntry =
+              residentLibrary.get().passwordLibrary.getEntry(entryName);
+          if (!passwordEntry.isPresent()) {
+            output.writeByte(AgentProtocol.NO_SUCH_ENTRY);
+            return false;
+          }
+          output.writeByte(AgentProtocol.OK);
+          AgentProtocol.writeString(output, passwordEntry.get().getPassword());
+          return false;
+        }
+      case AgentProtocol.LIST_ENTRIES:
+        {
+          Optional<ResidentLibrary> residentLibrary =
+              residentLibraryAt(AgentProtocol.readString(input));
+          if (!residentLibrary.isPresent()) {
+            output.writeByte(AgentProtocol.NOT_UNLOCKED);
+            return false;
+          }
+          List<String> entryNames = new ArrayList<>();
+          residentLibrary
+              .get()
+              .passwordLibrary
+              .getEntries()
+              .stream()
+              .map(PasswordEntry::getName)
+              .sorted()
+              .forEach(entryNames::add);
+          output.writeByte(AgentProtocol.OK);
+          AgentProtocol.writeStrings(output, entryNames);
+          return false;
+        }
+      case AgentProtocol.LOCK:
+        lock(AgentProtocol.readString(input));
+        output.writeByte(AgentProtocol.OK);
+        return false;
+      case AgentProtocol.LOCK_ALL:
+        residentLibraries.clear();
+        searchService.clear();
+        derivedKeyCache.lockAll();
+        output.writeByte(AgentProtocol.OK);
+        return false;
+      case AgentProtocol.LIST_UNLOCKED:
+        residentLibraries.values().removeIf(residentLibrary -> !residentLibrary.isCurrent());
+        output.writeByte(AgentProtocol.OK);
+        AgentProtocol.writeStrings(output, new TreeSet<>(residentLibraries.keySet()));
+        return false;
+      case AgentProtocol.SEARCH:
+        {
+          String query = AgentProtocol.readString(input);
+          int limit = input.readInt();
+          output.writeByte(AgentProtocol.OK);
+          List<String> paths = new ArrayList<>();
+          List<String> entryNames = new ArrayList<>();
+          for (PasswordLibrarySearchService.Result<String> result : search(query, limit)) {
+            paths.add(result.getLibraryKey());
+            entryNames.add(result.getPasswordEntry().getName());
+          }
+          AgentProtocol.writeStrings(output, paths);
+          AgentProtocol.writeStrings(output, entryNames);
+          return false;
+        }
+      case AgentProtocol.METRICS:
+        output.writeByte(AgentProtocol.OK);
+        AgentProtocol.writeStrings(output, Metrics.snapshot().format());
+        return false;
+      case AgentProtocol.STOP:
+        // Stop listening before answering, so the socket is gone by the time the client hears.
+        serverSocketChannel.close();
+        Files.deleteIfExists(socket);
+        output.writeByte(AgentProtocol.OK);
+        return true;
+      default:
+        throw new IOException("Malformed message: unknown operation " + operation + ".");
+    }
+  }
+
+  private void unlock(String path, String password, DataOutput output) throws IOException {
+    File file = new File(path);
+    try {
+      PasswordLibrary passwordLibrary =
+          PasswordLibrary.readFromEncryptedFile(file, password, salt, derivedKeyCache);
+      residentLibraries.put(path, new ResidentLibrary(file, passwordLibrary));
+      output.writeByte(AgentProtocol.OK);
+    } catch (PasswordMismatchException e) {
+      output.writeByte(AgentProtocol.PASSWORD_MISMATCH);
+    } catch (IOException | IllegalStateException e) {
+      output.writeByte(AgentProtocol.FAILED);
+      AgentProtocol.writeString(output, String.valueOf(e.getMessage()));
+    }
+  }
+
+  /**
+   * The library unlocked at the path, marked as just used. A library whose file has changed since
+   * it was unlocked is locked again instead, as the agent's copy is out of date.
+   */
+  private Optional<ResidentLibrary> residentLibraryAt(String path) {
+    ResidentLibrary residentLibrary = residentLibraries.get(path);
+    if (residentLibrary == null) {
+      return Optional.empty();
+    }
+    if (!residentLibrary.isCurrent()) {
+      if (residentLibraries.remove(path, residentLibrary)) {
+        forgetSearched(path);
+      }
+      return Optional.empty();
+    }
+    residentLibrary.lastUsedNanos = System.nanoTime();
+    return Optional.of(residentLibrary);
+  }
+
+  /**
+   * Searches every library the agent holds, once those whose files have changed are locked again.
+   * The libraries that held matches count as used.
+   */
+  private List<PasswordLibrarySearchService.Result<String>> search(String query, int limit) {
+    residentLibraries.values().removeIf(residentLibrary -> !residentLibrary.isCurrent());
+    synchronized (searchService) {
+      Map<String, PasswordLibrary> passwordLibraries = new HashMap<>();
+      residentLibraries.forEach(
+          (path, residentLibrary) -> passwordLibraries.put(path, residentLibrary.passwordLibrary));
+      searchService.sync(passwordLibraries);
+    }
+    List<PasswordLibrarySearchService.Result<String>> results = searchService.search(query, limit);
+    for (PasswordLibrarySearchService.Result<String> result : results) {
+      residentLibraryAt(result.getLibraryKey());
+    }
+    return results;
+  }
+
+  private void lock(String path) {
+    if (residentLibraries.remove(path) != null) {
+      forgetSearched(path);
+    }
+  }
+
+  /**
+   * Drops a library that is no longer held from the search index, so its entries are not kept in
+   * memory past its lock. Searches sync the index under the same monitor, so one that read the
+   * library before it was dropped cannot put it back afterwards.
+   */
+  private void forgetSearched(String path) {
+    synchronized (searchService) {
+      if (!residentLibraries.containsKey(path)) {
+        searchService.remove(path);
+      }
+    }
+  }
+
+  private void evictIdleLibraries() {
+    long now = System.nanoTime();
+    residentLibraries.forEach(
+        (path, residentLibrary) -> {
+          if (now - residentLibrary.lastUsedNanos >= idleTimeoutNanos
+              && residentLibraries.remove(path, residentLibrary)) {
+            forgetSearched(path);
+          }
+        });
+  }
+
+  private static class ResidentLibrary {
+    private final File file;
+    private final PasswordLibrary passwordLibrary;
+    private final long lastModified;
+    private final long length;
+    private volatile long lastUsedNanos;
+
+    private ResidentLibrary(File file, PasswordLibrary passwordLibrary) {
+      this.file = file;
+      this.passwordLibrary = passwordLibrary;
+      this.lastModified = file.lastModified();
+      this.length = file.length();
+      this.lastUsedNanos = System.nanoTime();
+    }
+
+    private boolean isCurrent() {
+      return file.lastModified() == lastModified && file.length() == length;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package thorpe.luke.password.agent;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import thorpe.luke.metrics.MetricsSnapshot;
+import thorpe.luke.password.PasswordMismatchException;
+
+/**
+ * A connection to a running {@link PasswordLibraryAgent}. Libraries are known to the agent by the
+ * canonical paths of their files. Requests are answered in order, so a client should be used by one
+ * thread at a time.
+ */
+public class PasswordLibraryAgentClient implements Closeable {
+  private final SocketChannel socketChannel;
+  private final DataInputStream input;
+  private final DataOutputStream output;
+
+  private PasswordLibraryAgentClient(SocketChannel socketChannel) {
+    this.socketChannel = socketChannel;
+    this.input =
+        new DataInputStream(new BufferedInputStream(Channels.newInputStream(socketChannel)));
+    this.output =
+        new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(socketChannel)));
+  }
+
+  /** Connects to the agent listening at the socket, if there is one. */
+  public static Optional<PasswordLibraryAgentClient> connect(Path socket) {
+    Optional<AgentTransport> transport = AgentTransport.unixDomain();
+    if (!transport.isPresent() || !Files.exists(socket)) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(new PasswordLibraryAgentClient(transport.get().connect(socket)));
+    } catch (IOException e) {
+      // Left behind by an agent that did not stop cleanly.
+      return Optional.empty();
+    }
+  }
+
+  public void unlock(File file, String password) throws IOException, PasswordMismatchException {
+    output.writeByte(AgentProtocol.UNLOCK);
+    AgentProtocol.writeString(output, file.getCanonicalPath());
+    AgentProtocol.writeString(output, password);
+    byte status = send();
+    if (status == AgentProtocol.PASSWORD_MISMATCH) {
+      throw new PasswordMismatchException();
+    }
+    if (status == AgentProtocol.FAILED) {
+      throw new IOException(
+          "The agent failed to read "
+              + file.getName()
+              + ". Reason: "
+              + AgentProtocol.readString(input));
+    }
+    expect(AgentProtocol.OK, status);
+  }
+
+  public boolean isUnlocked(File file) throws IOException {
+    return listUnlocked().contains(file.getCanonicalPath());
+  }
+
+  /** The password of the entry, or empty if the library is not unlocked or has no such entry. */
+  public Optional<String> getPassword(File file, String entryName) throws IOException {
+    output.writeByte(AgentProtocol.GET_PASSWORD);
+    AgentProtocol.writeString(output, file.getCanonicalPath());
+    AgentProtocol.writeString(output, entryName);
+    byte status = send();
+    if (status == AgentProtocol.NOT_UNLOCKED || status == AgentProtocol.NO_SUCH_ENTRY) {
+      return Optional.empty();
+    }
+    expect(AgentProtocol.OK, status);
+    return Optional.of(AgentProtocol.readString(input));
+  }
+
+  /** The names of the library's entries in order, or empty if the library is not unlocked. */
+  public Optional<List<String>> listEntries(File file) throws IOException {
+    output.writeByte(AgentProtocol.LIST_ENTRIES);
+    AgentProtocol.writeString(output, file.getCanonicalPath());
+    byte status = send();
+    if (status == AgentProtocol.NOT_UNLOCKED) {
+      return Optional.empty();
+    }
+    expect(AgentProtocol.OK, status);
+    return Optional.of(AgentProtocol.readStrings(input));
+  }
+
+  public void lock(File file) throws IOException {
+    output.writeByte(AgentProtocol.LOCK);
+    AgentProtocol.writeString(output, file.getCanonicalPath());
+    expect(AgentProtocol.OK, send());
+  }
+
+  public void lockAll() throws IOException {
+    output.writeByte(AgentProtocol.LOCK_ALL);
+    expect(AgentProtocol.OK, send());
+  }
+
+  /** The agent's timers and counters, as lines of {@link MetricsSnapshot#format()}. */
+  public List<String> metrics() throws IOException {
+    output.writeByte(AgentProtocol.METRICS);
+    expect(AgentProtocol.OK, send());
+    return AgentProtocol.readStrings(input);
+  }
+
+  /** The canonical paths of the libraries the agent holds unlocked. */
+  public List<String> listUnlocked() throws IOException {
+    output.writeByte(AgentProtocol.LIST_UNLOCKED);
+    expect(AgentProtocol.OK, send());
+    return AgentProtocol.readStrings(input);
+  }
+
+  /**
+   * Searches every library the agent holds by entry name and description, returning at most the
+   * given number of matches, best first.
+   */
+  public List<SearchResult> search(String query, int limit) throws IOException {
+    output.writeByte(AgentProtocol.SEARCH);
+    AgentProtocol.writeString(output, query);
+    output.writeInt(limit);
+    expect(AgentProtocol.OK, send());
+    List<String> paths = AgentProtocol.readStrings(input);
+    List<String> entryNames = AgentProtocol.readStrings(input);
+    if (paths.size() != entryNames.size()) {
+      throw new IOException("The agent answered with mismatched search results.");
+    }
+    List<SearchResult> results = new ArrayList<>(paths.size());
+    for (int i = 0; i < paths.size(); i++) {
+      results.add(new SearchResult(paths.get(i), entryNames.get(i)));
+    }
+    return results;
+  }
+
+  /** Stops the agent, which locks every library and closes this connection. */
+  public void stop() throws IOException {
+    output.writeByte(AgentProtocol.STOP);
+    expect(AgentProtocol.OK, send());
+    close();
+  }
+
+  private byte send() throws IOException {
+    output.flush();
+    return input.readByte();
+  }
+
+  private static void expect(byte expectedStatus, byte status) throws IOException {
+    if (status != expectedStatus) {
+      throw new IOException("The agent answered with unexpected status " + status + ".");
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    socketChannel.close();
+  }
+
+  public static class SearchResult {
+    private final String path;
+    private final String entryName;
+
+    private SearchResult(String path, String entryName) {
+      this.path = path;
+      this.entryName = entryName;
+    }
+
+    /** The canonical path of the library holding the entry. */
+    public String getPath() {
+      return path;
+    }
+
+    public String getEntryName() {
+      return entryName;
+    }
+  }
+}
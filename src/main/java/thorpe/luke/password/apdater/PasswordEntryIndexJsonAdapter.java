@@ -0,0 +1,42 @@
+package thorpe.luke.password.apdater;
+
+import java.time.LocalDateTime;
+
+public class PasswordEntryIndexJsonAdapter {
+  private String name;
+  private String description;
+  private LocalDateTime dateTimeOfCreation;
+
+  public PasswordEntryIndexJsonAdapter() {}
+
+  public PasswordEntryIndexJsonAdapter(
+      String name, String description, LocalDateTime dateTimeOfCreation) {
+    this.name = name;
+    this.description = description;
+    this.dateTimeOfCreation = dateTimeOfCreation;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  public void setDescription(String description) {
+    this.description = description;
+  }
+
+  public LocalDateTime getDateTimeOfCreation() {
+    return dateTimeOfCreation;
+  }
+
+  public void setDateTimeOfCreation(LocalDateTime dateTimeOfCreation) {
+    this.dateTimeOfCreation = dateTimeOfCreation;
+  }
+}
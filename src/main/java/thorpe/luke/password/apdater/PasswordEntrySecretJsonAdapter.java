@@ -0,0 +1,32 @@
+package thorpe.luke.password.apdater;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+public class PasswordEntrySecretJsonAdapter {
+  private String password;
+  private Map<LocalDateTime, String> oldPasswords;
+
+  public PasswordEntrySecretJsonAdapter() {}
+
+  public PasswordEntrySecretJsonAdapter(String password, Map<LocalDateTime, String> oldPasswords) {
+    this.password = password;
+    this.oldPasswords = oldPasswords;
+  }
+
+  public String getPassword() {
+    return password;
+  }
+
+  public void setPassword(String password) {
+    this.password = password;
+  }
+
+  public Map<LocalDateTime, String> getOldPasswords() {
+    return oldPasswords;
+  }
+
+  public void setOldPasswords(Map<LocalDateTime, String> oldPasswords) {
+    this.oldPasswords = oldPasswords;
+  }
+}
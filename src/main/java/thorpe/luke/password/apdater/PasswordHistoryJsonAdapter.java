@@ -0,0 +1,22 @@
+package thorpe.luke.password.apdater;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+public class PasswordHistoryJsonAdapter {
+  private Map<LocalDateTime, String> oldPasswords;
+
+  public PasswordHistoryJsonAdapter() {}
+
+  public PasswordHistoryJsonAdapter(Map<LocalDateTime, String> oldPasswords) {
+    this.oldPasswords = oldPasswords;
+  }
+
+  public Map<LocalDateTime, String> getOldPasswords() {
+    return oldPasswords;
+  }
+
+  public void setOldPasswords(Map<LocalDateTime, String> oldPasswords) {
+    this.oldPasswords = oldPasswords;
+  }
+}
@@ -0,0 +1,146 @@
+package thorpe.luke.password.apdater;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import thorpe.luke.util.AutoDetectingCodec;
+import thorpe.luke.util.BinaryCodec;
+import thorpe.luke.util.CodecException;
+import thorpe.luke.util.JsonCodec;
+
+/** Binary codecs for the adapters, field for field in the order they are declared. */
+public class PasswordLibraryCodecs {
+  public static final BinaryCodec<PasswordEntryJsonAdapter> ENTRY =
+      new BinaryCodec<>() {
+        @Override
+        public void write(PasswordEntryJsonAdapter entry, OutputStream outputStream)
+            throws IOException {
+          writeString(entry.getName(), outputStream);
+          writeString(entry.getDescription(), outputStream);
+          writeString(entry.getPassword(), outputStream);
+          writeDateTime(entry.getDateTimeOfCreation(), outputStream);
+          writeDateTimeToStringMap(entry.getOldPasswords(), outputStream);
+        }
+
+        @Override
+        public PasswordEntryJsonAdapter read(InputStream inputStream)
+            throws IOException, CodecException {
+          return new PasswordEntryJsonAdapter(
+              readString(inputStream),
+              readString(inputStream),
+              readString(inputStream),
+              readDateTime(inputStream),
+              readDateTimeToStringMap(inputStream));
+        }
+      };
+
+  public static final BinaryCodec<PasswordLibraryJsonAdapter> LIBRARY =
+      new BinaryCodec<>() {
+        @Override
+        public void write(PasswordLibraryJsonAdapter library, OutputStream outputStream)
+            throws IOException {
+          writeString(library.getName(), outputStream);
+          writeString(library.getDescription(), outputStream);
+          writeString(library.getPasswordHash(), outputStream);
+          writeVarLong(library.getEntries().size(), outputStream);
+          for (PasswordEntryJsonAdapter entry : library.getEntries()) {
+            ENTRY.write(entry, outputStream);
+          }
+        }
+
+        @Override
+        public PasswordLibraryJsonAdapter read(InputStream inputStream)
+            throws IOException, CodecException {
+          String name = readString(inputStream);
+          String description = readString(inputStream);
+          String passwordHash = readString(inputStream);
+          int entryCount = readVarInt(inputStream);
+          // The count is untrusted until the entries have been read, so it only sizes a small list.
+          Collection<PasswordEntryJsonAdapter> entries = new ArrayList<>(Math.min(entryCount, 64));
+          for (int i = 0; i < entryCount; i++) {
+            entries.add(ENTRY.read(inputStream));
+          }
+          return new PasswordLibraryJsonAdapter(name, description, passwordHash, entries);
+        }
+      };
+
+  public static final BinaryCodec<PasswordLibraryHeaderJsonAdapter> LIBRARY_HEADER =
+      new BinaryCodec<>() {
+        @Override
+        public void write(PasswordLibraryHeaderJsonAdapter header, OutputStream outputStream)
+            throws IOException {
+          writeString(header.getName(), outputStream);
+          writeString(header.getDescription(), outputStream);
+          writeString(header.getPasswordHash(), outputStream);
+        }
+
+        @Override
+        public PasswordLibraryHeaderJsonAdapter read(InputStream inputStream)
+            throws IOException, CodecException {
+          return new PasswordLibraryHeaderJsonAdapter(
+              readString(inputStream), readString(inputStream), readString(inputStream));
+        }
+      };
+
+  public static final BinaryCodec<PasswordEntryIndexJsonAdapter> ENTRY_INDEX =
+      new BinaryCodec<>() {
+        @Override
+        public void write(PasswordEntryIndexJsonAdapter index, OutputStream outputStream)
+            throws IOException {
+          writeString(index.getName(), outputStream);
+          writeString(index.getDescription(), outputStream);
+          writeDateTime(index.getDateTimeOfCreation(), outputStream);
+        }
+
+        @Override
+        public PasswordEntryIndexJsonAdapter read(InputStream inputStream)
+            throws IOException, CodecException {
+          return new PasswordEntryIndexJsonAdapter(
+              readString(inputStream), readString(inputStream), readDateTime(inputStream));
+        }
+      };
+
+  public static final BinaryCodec<PasswordEntrySecretJsonAdapter> ENTRY_SECRETS =
+      new BinaryCodec<>() {
+        @Override
+        public void write(PasswordEntrySecretJsonAdapter secrets, OutputStream outputStream)
+            throws IOException {
+          writeString(secrets.getPassword(), outputStream);
+          writeDateTimeToStringMap(secrets.getOldPasswords(), outputStream);
+        }
+
+        @Override
+        public PasswordEntrySecretJsonAdapter read(InputStream inputStream)
+            throws IOException, CodecException {
+          return new PasswordEntrySecretJsonAdapter(
+              readString(inputStream), readDateTimeToStringMap(inputStream));
+        }
+      };
+
+  public static final BinaryCodec<PasswordHistoryJsonAdapter> PASSWORD_HISTORY =
+      new BinaryCodec<>() {
+        @Override
+        public void write(PasswordHistoryJsonAdapter history, OutputStream outputStream)
+            throws IOException {
+          writeDateTimeToStringMap(history.getOldPasswords(), outputStream);
+        }
+
+        @Override
+        public PasswordHistoryJsonAdapter read(InputStream inputStream)
+            throws IOException, CodecException {
+          return new PasswordHistoryJsonAdapter(readDateTimeToStringMap(inputStream));
+        }
+      };
+
+  public static <T> AutoDetectingCodec<T> preferringBinary(
+      BinaryCodec<T> binaryCodec, Class<T> clazz) {
+    return AutoDetectingCodec.preferringBinary(binaryCodec, new JsonCodec<>(clazz));
+  }
+
+  public static <T> AutoDetectingCodec<T> preferringJson(
+      BinaryCodec<T> binaryCodec, Class<T> clazz) {
+    return AutoDetectingCodec.preferringJson(binaryCodec, new JsonCodec<>(clazz));
+  }
+}
@@ -0,0 +1,39 @@
+package thorpe.luke.password.apdater;
+
+public class PasswordLibraryHeaderJsonAdapter {
+  private String name;
+  private String description;
+  private String passwordHash;
+
+  public PasswordLibraryHeaderJsonAdapter() {}
+
+  public PasswordLibraryHeaderJsonAdapter(String name, String description, String passwordHash) {
+    this.name = name;
+    this.description = description;
+    this.passwordHash = passwordHash;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  public void setDescription(String description) {
+    this.description = description;
+  }
+
+  public String getPasswordHash() {
+    return passwordHash;
+  }
+
+  public void setPasswordHash(String passwordHash) {
+    this.passwordHash = passwordHash;
+  }
+}
@@ -0,0 +1,1025 @@
+package thorpe.luke.password.cli;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Supplier;
+import thorpe.luke.cryptography.DerivedKeyCache;
+import thorpe.luke.metrics.Metrics;
+import thorpe.luke.password.*;
+import thorpe.luke.password.agent.AgentTransport;
+import thorpe.luke.password.agent.PasswordLibraryAgent;
+import thorpe.luke.password.agent.PasswordLibraryAgentClient;
+import thorpe.luke.password.apdater.PasswordLibraryJsonAdapter;
+import thorpe.luke.password.transfer.*;
+import thorpe.luke.password.ui.model.Options;
+import thorpe.luke.password.ui.model.StorageMode;
+import thorpe.luke.password.ui.service.OptionsService;
+import thorpe.luke.util.DurableFiles;
+import thorpe.luke.util.JsonException;
+import thorpe.luke.util.JsonUtils;
+
+/**
+ * Runs commands against the libraries in the data directory without starting the user interface, so
+ * that scripts can read and change them. Libraries are named as they were saved, and the newest
+ * snapshot of a library is the one that is read.
+ *
+ * <p>The password that unlocks the libraries is taken from the {@value #PASSWORD_VARIABLE}
+ * environment variable or, failing that, asked for on the console, and only once per run. The
+ * {@code batch} command runs commands read from standard input, one per line, in a single run, so
+ * the key is derived once and a library that was already read is not read again.
+ *
+ * <p>The {@code agent} command starts a {@link PasswordLibraryAgent}, which holds libraries
+ * unlocked between runs. While one is listening at {@value #AGENT_VARIABLE}, or at agent.sock in a
+ * private agent directory in the config directory, lookups are answered by the agent, and the
+ * password is only needed the first time.
+ */
+public class PasswordManagerCli {
+  static final String PASSWORD_VARIABLE = "PASSWORD_MANAGER_PASSWORD";
+  static final String AGENT_VARIABLE = "PASSWORD_MANAGER_AGENT";
+  static final int SUCCESS = 0;
+  static final int FAILURE = 1;
+  static final int USAGE_ERROR = 2;
+
+  private static final String DEFAULT_CONFIG_PATH = "./.config/";
+  private static final Duration DERIVED_KEY_TIME_TO_LIVE = Duration.ofMinutes(5);
+  private static final String AGENT_DIRECTORY_NAME = "agent";
+  private static final String AGENT_SOCKET_FILE_NAME = "agent.sock";
+  private static final Duration DEFAULT_AGENT_IDLE_TIMEOUT = Duration.ofMinutes(15);
+  private static final int SEARCH_RESULT_LIMIT = 20;
+  private static final String USAGE =
+      String.join(
+          System.lineSeparator(),
+          "Usage: [--config <directory>] <command> [<argument>...]",
+          "",
+          "  list                         Lists the libraries in the data directory.",
+          "  list <library>               Lists the entries of a library.",
+          "  get <library> <entry>        Prints the password of an entry.",
+          "  search <query>               Finds entries by name or description in every library",
+          "                               the password unlocks.",
+          "  add <library> <entry> [<description>]",
+          "                               Adds an entry, or changes its password, reading the",
+          "                               password from the next line of input.",
+          "  import <library> <file>      Adds the entries of an exported library, or of a .csv",
+          "                               or .jsonl file, skipping names already taken.",
+          "  export <library> <file>      Writes a library as unencrypted JSON, - for output, or",
+          "                               as .csv or .jsonl by the name of the file.",
+          "  verify [<library>...]        Decrypts every secret of the libraries, or all of them.",
+          "  check [<library>...]         Checks the libraries, or every library file in the data",
+          "                               directory, against their checksums without decrypting",
+          "                               them, telling damage apart from another password.",
+          "  benchmark [<library>]        Times deriving the key, and reading a library.",
+          "  batch                        Runs commands from the input, one per line.",
+          "  agent [<idle minutes>]       Runs an agent that keeps libraries unlocked until they",
+          "                               have been idle for the given minutes, 15 by default.",
+          "  agent lock                   Locks every library held by the running agent.",
+          "  agent stop                   Stops the running agent.",
+          "  agent metrics                Prints how long the running agent's operations took.",
+          "  metrics                      Prints how long each kind of operation took, such as",
+          "                               deriving keys or reading libraries, over the commands",
+          "                               run so far. Most useful at the end of a batch.",
+          "  help                         Prints this message.");
+
+  private final BufferedReader input;
+  private final PrintStream output;
+  private final PrintStream errors;
+  private final Options options;
+  private final Supplier<Optional<String>> passwordSource;
+  private final Path agentSocket;
+  private final DerivedKeyCache derivedKeyCache;
+  private final Map<File, OpenedLibrary> openedLibraries;
+  private final PasswordLibrarySearchService<String> searchService;
+  private String password;
+  private Optional<PasswordLibraryAgentClient> agent;
+
+  PasswordManagerCli(
+      BufferedReader input,
+      PrintStream output,
+      PrintStream errors,
+      Options options,
+      Supplier<Optional<String>> passwordSource,
+      Path agentSocket) {
+    this.input = input;
+    this.output = output;
+    this.errors = errors;
+    this.options = options;
+    this.passwordSource = passwordSource;
+    this.agentSocket = agentSocket;
+    this.derivedKeyCache = new DerivedKeyCache(DERIVED_KEY_TIME_TO_LIVE);
+    this.openedLibraries = new HashMap<>();
+    this.searchService = new PasswordLibrarySearchService<>();
+  }
+
+  public static void main(String[] args) {
+    List<String> arguments = Arrays.asList(args);
+    String configPath = DEFAULT_CONFIG_PATH;
+    if (arguments.size() >= 2 && arguments.get(0).equals("--config")) {
+      configPath = arguments.get(1);
+      arguments = arguments.subList(2, arguments.size());
+    }
+    String agentSocket = System.getenv(AGENT_VARIABLE);
+    PasswordManagerCli cli =
+        new PasswordManagerCli(
+            new BufferedReader(new InputStreamReader(System.in)),
+            System.out,
+            System.err,
+            loadOptions(configPath),
+            PasswordManagerCli::readPassword,
+            agentSocket != null
+                ? Paths.get(agentSocket)
+                : Paths.get(configPath, AGENT_DIRECTORY_NAME, AGENT_SOCKET_FILE_NAME));
+    int status = cli.run(arguments);
+    System.out.flush();
+    System.exit(status);
+  }
+
+  private static Options loadOptions(String configPath) {
+    OptionsService optionsService = new OptionsService(configPath);
+    try {
+      return optionsService.loadOptionsFromDisk();
+    } catch (IOException e) {
+      // As in the application, the defaults stand in until options are saved.
+      return optionsService.loadDefaultOptions();
+    }
+  }
+
+  private static Optional<String> readPassword() {
+    String password = System.getenv(PASSWORD_VARIABLE);
+    if (password != null) {
+      return Optional.of(password);
+    }
+    Console console = System.console();
+    if (console == null) {
+      return Optional.empty();
+    }
+    char[] passwordChars = console.readPassword("Password: ");
+    return passwordChars == null ? Optional.empty() : Optional.of(new String(passwordChars));
+  }
+
+  /** Runs the command, returning the status to exit with. */
+  int run(List<String> arguments) {
+    try {
+      if (arguments.size() == 1 && arguments.get(0).equals("batch")) {
+        return runBatch();
+      }
+      return runCommand(arguments);
+    } finally {
+      disconnectFromAgent();
+    }
+  }
+
+  /**
+   * Runs each line of input as a command, carrying on past those that fail, and returns the worst
+   * status of them all. Blank lines, and lines starting with #, are skipped.
+   */
+  private int runBatch() {
+    int status = SUCCESS;
+    try {
+      for (String line = input.readLine(); line != null; line = input.readLine()) {
+        List<String> arguments;
+        try {
+          arguments = tokenize(line);
+        } catch (UsageException e) {
+          errors.println("error: " + e.getMessage());
+          status = Math.max(status, USAGE_ERROR);
+          continue;
+        }
+        if (!arguments.isEmpty()) {
+          status = Math.max(status, runCommand(arguments));
+          output.flush();
+        }
+      }
+    } catch (IOException e) {
+      errors.println("error: Failed to read commands. Reason: " + e.getMessage());
+      status = Math.max(status, FAILURE);
+    }
+    return status;
+  }
+
+  private int runCommand(List<String> arguments) {
+    try {
+      if (arguments.isEmpty()) {
+        throw new UsageException("No command was given. Try help.");
+      }
+      String command = arguments.get(0);
+      List<String> parameters = arguments.subList(1, arguments.size());
+      switch (command) {
+        case "list":
+          return list(parameters);
+        case "get":
+          return get(parameters);
+        case "search":
+          return search(parameters);
+        case "add":
+          return add(parameters);
+        case "import":
+          return importEntries(parameters);
+        case "export":
+          return export(parameters);
+        case "verify":
+          return verify(parameters);
+        case "check":
+          return check(parameters);
+        case "benchmark":
+          return benchmark(parameters);
+        case "agent":
+          return agent(parameters);
+        case "metrics":
+          return metrics(parameters);
+        case "batch":
+          throw new UsageException("A batch cannot run another batch.");
+        case "help":
+          output.println(USAGE);
+          return SUCCESS;
+        default:
+          throw new UsageException("Unknown command " + command + ". Try help.");
+      }
+    } catch (UsageException e) {
+      errors.println("error: " + e.getMessage());
+      return USAGE_ERROR;
+    } catch (PasswordMismatchException e) {
+      errors.println("error: The password does not unlock that library.");
+      return FAILURE;
+    } catch (IOException | JsonException | IllegalStateException e) {
+      errors.println("error: " + e.getMessage());
+      return FAILURE;
+    }
+  }
+
+  /**
+   * Splits a line into words at whitespace. Quotes group words together, and a backslash escapes
+   * the character after it, except inside single quotes. A # at the start of a word ends the line.
+   */
+  static List<String> tokenize(String line) throws UsageException {
+    List<String> tokens = new ArrayList<>();
+    StringBuilder token = null;
+    char quote = 0;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (quote == 0 && Character.isWhitespace(c)) {
+        if (token != null) {
+          tokens.add(token.toString());
+          token = null;
+        }
+        continue;
+      }
+      if (token == null) {
+        if (c == '#') {
+          break;
+        }
+        token = new StringBuilder();
+      }
+      if (quote != 0 && c == quote) {
+        quote = 0;
+      } else if (quote == 0 && (c == '"' || c == '\'')) {
+        quote = c;
+      } else if (quote != '\'' && c == '\\') {
+        if (++i == line.length()) {
+          throw new UsageException("The line ends with an unfinished escape.");
+        }
+        token.append(line.charAt(i));
+      } else {
+        token.append(c);
+      }
+    }
+    if (quote != 0) {
+      throw new UsageException("The line ends inside a quote.");
+    }
+    if (token != null) {
+      tokens.add(token.toString());
+    }
+    return tokens;
+  }
+
+  private static void expectParameters(List<String> parameters, int minimum, int maximum)
+      throws UsageException {
+    if (parameters.size() < minimum || parameters.size() > maximum) {
+      throw new UsageException("Wrong number of arguments. Try help.");
+    }
+  }
+
+  private int list(List<String> parameters)
+      throws UsageException, IOException, PasswordMismatchException {
+    expectParameters(parameters, 0, 1);
+    if (parameters.isEmpty()) {
+      for (LibraryFiles libraryFiles : listLibraries()) {
+        output.println(
+            String.join(
+                "\t",
+                libraryFiles.getName(),
+                libraryFiles
+                    .getEntry()
+                    .map(entry -> Integer.toString(entry.getEntryCount()))
+                    .orElse("?"),
+                libraryFiles.getNewestFile().getName()));
+      }
+      return SUCCESS;
+    }
+    File file = findLibraryFile(parameters.get(0));
+    Optional<PasswordLibraryAgentClient> agent = agentHolding(file);
+    if (agent.isPresent()) {
+      agent
+          .get()
+          .listEntries(file)
+          .orElseThrow(() -> new IOException("The agent locked " + file.getName() + " again."))
+          .forEach(output::println);
+      return SUCCESS;
+    }
+    open(file)
+        .getPasswordLibrary()
+        .getEntries()
+        .stream()
+        .map(PasswordEntry::getName)
+        .sorted()
+        .forEach(output::println);
+    return SUCCESS;
+  }
+
+  private int get(List<String> parameters)
+      throws UsageException, IOException, PasswordMismatchException {
+    expectParameters(parameters, 2, 2);
+    String libraryName = parameters.get(0);
+    String entryName = parameters.get(1);
+    File file = findLibraryFile(libraryName);
+    Optional<PasswordLibraryAgentClient> agent = agentHolding(file);
+    if (agent.isPresent()) {
+      output.println(
+          agent
+              .get()
+              .getPassword(file, entryName)
+              .orElseThrow(
+                  () ->
+                      new UsageException(libraryName + " has no entry called " + entryName + ".")));
+      return SUCCESS;
+    }
+    PasswordLibrary passwordLibrary = open(file).getPasswordLibrary();
+    PasswordEntry passwordEntry = getEntry(passwordLibrary, entryName);
+    output.println(passwordEntry.getPassword());
+    return SUCCESS;
+  }
+
+  /**
+   * Searches every library in the data directory at once. Through an agent, libraries it does not
+   * hold yet are unlocked in it first. Otherwise, libraries opened earlier in the run are searched
+   * again without being rebuilt, and results are reused until one of them changes. Libraries the
+   * password does not unlock are skipped.
+   */
+  private int search(List<String> parameters) throws UsageException, IOException {
+    expectParameters(parameters, 1, 1);
+    String query = parameters.get(0);
+    List<LibraryFiles> libraries = listLibraries();
+    Optional<PasswordLibraryAgentClient> agent = agent();
+    if (agent.isPresent()) {
+      Map<String, String> libraryNames = new HashMap<>();
+      Set<String> unlockedPaths = new HashSet<>(agent.get().listUnlocked());
+      for (LibraryFiles libraryFiles : libraries) {
+        File file = libraryFiles.getNewestFile();
+        libraryNames.put(file.getCanonicalPath(), libraryFiles.getName());
+        if (!unlockedPaths.contains(file.getCanonicalPath())) {
+          try {
+            agent.get().unlock(file, password());
+          } catch (PasswordMismatchException e) {
+            errors.println(
+                "Skipping " + libraryFiles.getName() + ", which the password does not unlock.");
+          }
+        }
+      }
+      for (PasswordLibraryAgentClient.SearchResult result :
+          agent.get().search(query, SEARCH_RESULT_LIMIT)) {
+        output.println(
+            libraryNames.getOrDefault(result.getPath(), new File(result.getPath()).getName())
+                + "\t"
+                + result.getEntryName());
+      }
+      return SUCCESS;
+    }
+
+    Map<String, PasswordLibrary> passwordLibraries = new HashMap<>();
+    for (LibraryFiles libraryFiles : libraries) {
+      try {
+        passwordLibraries.put(
+            libraryFiles.getName(), open(libraryFiles.getNewestFile()).getPasswordLibrary());
+      } catch (PasswordMismatchException e) {
+        errors.println(
+            "Skipping " + libraryFiles.getName() + ", which the password does not unlock.");
+      }
+    }
+    searchService.sync(passwordLibraries);
+    for (PasswordLibrarySearchService.Result<String> result :
+        searchService.search(query, SEARCH_RESULT_LIMIT)) {
+      output.println(result.getLibraryKey() + "\t" + result.getPasswordEntry().getName());
+    }
+    return SUCCESS;
+  }
+
+  /** Runs an agent until it is stopped, or controls the one that is already running. */
+  private int agent(List<String> parameters) throws UsageException, IOException {
+    expectParameters(parameters, 0, 1);
+    String parameter = parameters.isEmpty() ? "" : parameters.get(0);
+    if (parameter.equals("lock") || parameter.equals("stop") || parameter.equals("metrics")) {
+      PasswordLibraryAgentClient agent =
+          agent()
+              .orElseThrow(() -> new UsageException("No agent is running at " + agentSocket + "."));
+      if (parameter.equals("lock")) {
+        agent.lockAll();
+        output.println("Locked every library in the agent.");
+      } else if (parameter.equals("metrics")) {
+        agent.metrics().forEach(output::println);
+      } else {
+        agent.stop();
+        this.agent = Optional.empty();
+        output.println("Stopped the agent.");
+      }
+      return SUCCESS;
+    }
+
+    Duration idleTimeout = DEFAULT_AGENT_IDLE_TIMEOUT;
+    if (!parameter.isEmpty()) {
+      try {
+        idleTimeout = Duration.ofMinutes(Long.parseLong(parameter));
+      } catch (NumberFormatException e) {
+        throw new UsageException(parameter + " is not a number of minutes.");
+      }
+      if (idleTimeout.isNegative() || idleTimeout.isZero()) {
+        throw new UsageException("The idle timeout must be at least a minute.");
+      }
+    }
+    AgentTransport transport =
+        AgentTransport.unixDomain()
+            .orElseThrow(() -> new UsageException("The agent needs Java 17 or later."));
+    PasswordLibraryAgent agent =
+        PasswordLibraryAgent.start(transport, agentSocket, options.getSalt(), idleTimeout);
+    Thread shutdownHook =
+        new Thread(
+            () -> {
+              try {
+                agent.close();
+              } catch (IOException ignored) {
+                // Exiting anyway, and the next agent replaces a socket left behind.
+              }
+            });
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+    output.println("The agent is listening at " + agentSocket + ".");
+    output.flush();
+    try {
+      agent.awaitStop();
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IllegalStateException e) {
+      // Already shutting down, and the hook is closing the agent.
+    } finally {
+      agent.close();
+    }
+    return SUCCESS;
+  }
+
+  /** The running agent, connected to on first use, or empty if there is none. */
+  private Optional<PasswordLibraryAgentClient> agent() {
+    if (agent == null) {
+      agent = PasswordLibraryAgentClient.connect(agentSocket);
+    }
+    return agent;
+  }
+
+  /**
+   * The running agent, with the library unlocked in it, or empty if there is no agent. The password
+   * is only needed if the agent does not already hold the library.
+   */
+  private Optional<PasswordLibraryAgentClient> agentHolding(File file)
+      throws UsageException, IOException, PasswordMismatchException {
+    Optional<PasswordLibraryAgentClient> agent = agent();
+    if (agent.isPresent() && !agent.get().isUnlocked(file)) {
+      agent.get().unlock(file, password());
+    }
+    return agent;
+  }
+
+  private void disconnectFromAgent() {
+    if (agent != null && agent.isPresent()) {
+      try {
+        agent.get().close();
+      } catch (IOException ignored) {
+        // Nothing is lost, as the agent keeps nothing for a connection.
+      }
+    }
+    agent = null;
+  }
+
+  private int add(List<String> parameters)
+      throws UsageException, IOException, PasswordMismatchException {
+    expectParameters(parameters, 2, 3);
+    String libraryName = parameters.get(0);
+    String entryName = parameters.get(1);
+    String newPassword = input.readLine();
+    if (newPassword == null) {
+      throw new UsageException("Expected the password on the next line of input.");
+    }
+    Optional<OpenedLibrary> openedLibrary = openIfSaved(libraryName);
+    PasswordLibrary passwordLibrary =
+        openedLibrary.isPresent()
+            ? openedLibrary.get().getPasswordLibrary()
+            : PasswordLibrary.fromPassword(libraryName, "", password(), options.getSalt());
+    Optional<PasswordEntry> oldPasswordEntry = passwordLibrary.getEntry(entryName);
+    String description =
+        parameters.size() > 2
+            ? parameters.get(2)
+            : oldPasswordEntry.map(PasswordEntry::getDescription).orElse("");
+    if (oldPasswordEntry.isPresent()
+        && oldPasswordEntry.get().getPassword().equals(newPassword)
+        && oldPasswordEntry.get().getDescription().equals(description)) {
+      output.println(entryName + " in " + libraryName + " is unchanged.");
+      return SUCCESS;
+    }
+
+    LocalDateTime now = LocalDateTime.now();
+    PasswordLibrary updatedPasswordLibrary;
+    if (oldPasswordEntry.isPresent()) {
+      Map<LocalDateTime, String> oldPasswords =
+          new TreeMap<>(oldPasswordEntry.get().getOldPasswords());
+      oldPasswords.put(
+          oldPasswordEntry.get().getDateTimeOfCreation(), oldPasswordEntry.get().getPassword());
+      PasswordEntry passwordEntry =
+          new PasswordEntry(entryName, description, newPassword, now, oldPasswords)
+              .withHistoryCompactedBy(options.getHistoryPolicy(), now);
+      updatedPasswordLibrary = passwordLibrary.replaceEntry(entryName, passwordEntry);
+    } else {
+      updatedPasswordLibrary =
+          passwordLibrary.addEntry(
+              new PasswordEntry(entryName, description, newPassword, now, Collections.emptyMap()));
+    }
+    save(openedLibrary, updatedPasswordLibrary);
+    output.println(
+        (oldPasswordEntry.isPresent() ? "Changed " : "Added ") + entryName + " in " + libraryName);
+    return SUCCESS;
+  }
+
+  private int importEntries(List<String> parameters)
+      throws UsageException, IOException, PasswordMismatchException, JsonException {
+    expectParameters(parameters, 2, 2);
+    String libraryName = parameters.get(0);
+    Path file = Paths.get(parameters.get(1));
+    Optional<PasswordEntryFileFormat> format =
+        PasswordEntryFileFormat.forFileName(file.getFileName().toString());
+    String description = "";
+    PasswordEntryReader reader;
+    if (format.isPresent()) {
+      reader =
+          format
+              .get()
+              .newReader(
+                  new InputStreamReader(DurableFiles.newInputStream(file), StandardCharsets.UTF_8));
+    } else {
+      PasswordLibrary importedPasswordLibrary;
+      try (InputStream inputStream = DurableFiles.newInputStream(file)) {
+        importedPasswordLibrary =
+            PasswordLibrary.fromAdapter(
+                JsonUtils.fromJson(inputStream, PasswordLibraryJsonAdapter.class));
+      }
+      description = importedPasswordLibrary.getDescription();
+      reader = readerOf(importedPasswordLibrary.getEntries());
+    }
+    PasswordEntryImporter.Report report;
+    Optional<OpenedLibrary> openedLibrary;
+    try (PasswordEntryReader entryReader = reader) {
+      openedLibrary = openIfSaved(libraryName);
+      PasswordLibrary passwordLibrary =
+          openedLibrary.isPresent()
+              ? openedLibrary.get().getPasswordLibrary()
+              : PasswordLibrary.fromPassword(
+                  libraryName, description, password(), options.getSalt());
+      report =
+          new PasswordEntryImporter(PasswordEntryImporter.DuplicatePolicy.SKIP)
+              .importInto(passwordLibrary, entryReader);
+    }
+    if (report.hasChanges() || !openedLibrary.isPresent()) {
+      save(openedLibrary, report.getPasswordLibrary());
+    }
+    for (MalformedEntryException reject : report.getRejects()) {
+      errors.println("Rejected " + file + ": " + reject.getMessage());
+    }
+    output.printf(
+        "Imported %d entries into %s, skipping %d that already exist.%n",
+        report.getImportedCount(), libraryName, report.getSkippedCount());
+    if (report.getRejectedCount() > 0) {
+      output.printf("Rejected %d rows that are not entries.%n", report.getRejectedCount());
+    }
+    output.printf(
+        "Read %d rows in %d ms, at %.0f rows per second.%n",
+        report.getRowCount(), report.getElapsed().toMillis(), report.getRowsPerSecond());
+    return SUCCESS;
+  }
+
+  private static PasswordEntryReader readerOf(Collection<PasswordEntry> passwordEntries) {
+    Iterator<PasswordEntry> iterator = passwordEntries.iterator();
+    return new PasswordEntryReader() {
+      @Override
+      public Optional<PasswordEntry> read() {
+        return iterator.hasNext() ? Optional.of(iterator.next()) : Optional.empty();
+      }
+
+      @Override
+      public void close() {}
+    };
+  }
+
+  private int export(List<String> parameters)
+      throws UsageException, IOException, PasswordMismatchException, JsonException {
+    expectParameters(parameters, 2, 2);
+    PasswordLibrary passwordLibrary = open(parameters.get(0)).getPasswordLibrary();
+    if (parameters.get(1).equals("-")) {
+      JsonUtils.toJson(passwordLibrary.toAdapter(), output);
+      output.println();
+      return SUCCESS;
+    }
+    Path file = Paths.get(parameters.get(1));
+    Optional<PasswordEntryFileFormat> format =
+        PasswordEntryFileFormat.forFileName(file.getFileName().toString());
+    DurableFiles.write(
+        file,
+        outputStream -> {
+          if (format.isPresent()) {
+            try (PasswordEntryWriter writer =
+                format
+                    .get()
+                    .newWriter(
+                        new BufferedWriter(
+                            new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)))) {
+              PasswordEntryExporter.export(passwordLibrary, writer);
+            }
+            return;
+          }
+          try {
+            JsonUtils.toJson(passwordLibrary.toAdapter(), outputStream);
+          } catch (JsonException e) {
+            throw new IOException(e.getMessage(), e);
+          }
+        });
+    output.printf(
+        "Exported %d entries from %s to %s, unencrypted.%n",
+        passwordLibrary.getEntries().size(), passwordLibrary.getName(), file);
+    return SUCCESS;
+  }
+
+  /**
+   * Reads each library afresh and decrypts every password and every old password in it, so that
+   * damage anywhere in a file is found. The libraries are read at once, and one failing does not
+   * stop the others.
+   */
+  private int verify(List<String> parameters) throws UsageException, IOException {
+    List<File> files = new ArrayList<>();
+    if (parameters.isEmpty()) {
+      for (LibraryFiles libraryFiles : listLibraries()) {
+        files.add(libraryFiles.getNewestFile());
+      }
+    } else {
+      for (String libraryName : parameters) {
+        files.add(findLibraryFile(libraryName));
+      }
+    }
+    String password = password();
+    List<PasswordLibraryLoader.Outcome> outcomes;
+    try {
+      outcomes =
+          new PasswordLibraryLoader(derivedKeyCache)
+              .verifyEach(files, password, options.getSalt(), outcome -> {});
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while verifying.", e);
+    }
+    int status = SUCCESS;
+    for (PasswordLibraryLoader.Outcome outcome : outcomes) {
+      String fileName = outcome.getFile().getName();
+      Optional<PasswordLibrary> passwordLibrary = outcome.getPasswordLibrary();
+      if (passwordLibrary.isPresent()) {
+        output.printf(
+            "OK\t%s\t%d entries\t%s%n",
+            fileName,
+            passwordLibrary.get().getEntries().size(),
+            formatNanos(outcome.getElapsed().toNanos()));
+      } else if (outcome.getFailure().get() instanceof PasswordMismatchException) {
+        output.printf("FAILED\t%s\tThe password does not unlock it.%n", fileName);
+        status = FAILURE;
+      } else {
+        output.printf("FAILED\t%s\t%s%n", fileName, outcome.getFailure().get().getMessage());
+        status = FAILURE;
+      }
+    }
+    return status;
+  }
+
+  /**
+   * Checks library files against their recorded checksums, every snapshot of every library unless
+   * libraries are named. Only damaged or unreadable files fail the check, as snapshots kept from
+   * before a password change are expected to be under another password.
+   */
+  private int check(List<String> parameters) throws UsageException, IOException {
+    List<File> files = new ArrayList<>();
+    if (parameters.isEmpty()) {
+      Path dataDirectory = Paths.get(options.getDataPath());
+      if (Files.isDirectory(dataDirectory)) {
+        files.addAll(PasswordLibraryDirectoryIndex.scan(dataDirectory));
+      }
+    } else {
+      for (String libraryName : parameters) {
+        files.add(findLibraryFile(libraryName));
+      }
+    }
+    String password = password();
+    PasswordLibraryIntegrityJob.Report report;
+    try {
+      report =
+          new PasswordLibraryIntegrityJob(derivedKeyCache)
+              .run(files, password, options.getSalt(), result -> {});
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while checking.", e);
+    }
+    for (PasswordLibraryIntegrityJob.Result result : report.getResults()) {
+      output.printf(
+          "%s\t%s\t%s\t%s%n",
+          result.getStatus(),
+          result.getFile().getName(),
+          describe(result),
+          formatNanos(result.getElapsed().toNanos()));
+    }
+    output.printf(
+        "Checked %d files, %d bytes, in %s%n",
+        files.size(), report.getCheckedBytes(), formatNanos(report.getElapsed().toNanos()));
+    return report.hasFailures() ? FAILURE : SUCCESS;
+  }
+
+  private static String describe(PasswordLibraryIntegrityJob.Result result) {
+    switch (result.getStatus()) {
+      case INTACT:
+        return result.getSize() + " bytes";
+      case CORRUPT:
+        return "The file has changed since it was written.";
+      case STALE:
+        return "The file has grown since its checksum was recorded, but is otherwise intact.";
+      case WRONG_PASSWORD:
+        return "The password does not unlock it.";
+      case UNRECORDED:
+        return "No checksum was recorded for it.";
+      default:
+        return result.getFailure().map(IOException::getMessage).orElse("It could not be read.");
+    }
+  }
+
+  /** Times each step of reading a library, from deriving the key to decrypting its secrets. */
+  private int benchmark(List<String> parameters)
+      throws UsageException, IOException, PasswordMismatchException {
+    expectParameters(parameters, 0, 1);
+    String password = password();
+    long startTime = System.nanoTime();
+    PasswordLibrary.unlock(password, options.getSalt(), new DerivedKeyCache(Duration.ZERO));
+    output.println("Deriving the key\t" + formatNanos(System.nanoTime() - startTime));
+    if (parameters.isEmpty()) {
+      return SUCCESS;
+    }
+
+    File file = findLibraryFile(parameters.get(0));
+    PasswordLibrary.unlock(password, options.getSalt(), derivedKeyCache);
+    startTime = System.nanoTime();
+    PasswordLibrary passwordLibrary =
+        PasswordLibrary.readFromEncryptedFile(file, password, options.getSalt(), derivedKeyCache);
+    output.println("Reading " + file.getName() + "\t" + formatNanos(System.nanoTime() - startTime));
+    startTime = System.nanoTime();
+    passwordLibrary.getEntries().forEach(PasswordEntry::getPassword);
+    output.println("Decrypting passwords\t" + formatNanos(System.nanoTime() - startTime));
+    startTime = System.nanoTime();
+    passwordLibrary.getEntries().forEach(PasswordEntry::getOldPasswords);
+    output.println("Decrypting old passwords\t" + formatNanos(System.nanoTime() - startTime));
+    return SUCCESS;
+  }
+
+  /**
+   * Prints the timers and counters of this process, so covering the commands run before it in the
+   * same batch.
+   */
+  private int metrics(List<String> parameters) throws UsageException {
+    expectParameters(parameters, 0, 0);
+    Metrics.snapshot().format().forEach(output::println);
+    return SUCCESS;
+  }
+
+  private static String formatNanos(long nanos) {
+    return String.format("%.1f ms", nanos / 1e6);
+  }
+
+  private String password() throws UsageException {
+    if (password == null) {
+      password =
+          passwordSource
+              .get()
+              .orElseThrow(
+                  () ->
+                      new UsageException(
+                          "No password was given. Set "
+                              + PASSWORD_VARIABLE
+                              + ", or run from a terminal."));
+    }
+    return password;
+  }
+
+  private static PasswordEntry getEntry(PasswordLibrary passwordLibrary, String entryName)
+      throws UsageException {
+    return passwordLibrary
+        .getEntry(entryName)
+        .orElseThrow(
+            () ->
+                new UsageException(
+                    passwordLibrary.getName() + " has no entry called " + entryName + "."));
+  }
+
+  /** The libraries in the data directory, by name, each with its snapshots newest first. */
+  private List<LibraryFiles> listLibraries() throws IOException {
+    Path dataDirectory = Paths.get(options.getDataPath());
+    if (!Files.isDirectory(dataDirectory)) {
+      return Collections.emptyList();
+    }
+    Map<File, PasswordLibraryCatalog> catalogs = new HashMap<>();
+    List<LibraryFiles> libraries = new ArrayList<>();
+    for (List<File> snapshots :
+        PasswordLibraryCatalog.groupSnapshots(
+            PasswordLibraryDirectoryIndex.scan(dataDirectory),
+            file ->
+                catalogs
+                    .computeIfAbsent(
+                        file.getAbsoluteFile().getParentFile(), PasswordLibraryCatalog::read)
+                    .get(file))) {
+      File newestFile = snapshots.get(0);
+      libraries.add(
+          new LibraryFiles(
+              newestFile,
+              catalogs.get(newestFile.getAbsoluteFile().getParentFile()).get(newestFile)));
+    }
+    return libraries;
+  }
+
+  /**
+   * The newest snapshot of the named library. A path to a library file may be given instead of a
+   * name.
+   */
+  private File findLibraryFile(String libraryName) throws UsageException, IOException {
+    return findLibraryFileIfSaved(libraryName)
+        .orElseThrow(() -> new UsageException("There is no library called " + libraryName + "."));
+  }
+
+  private Optional<File> findLibraryFileIfSaved(String libraryName) throws IOException {
+    File file = new File(libraryName);
+    if (libraryName.endsWith(PasswordLibrary.FILE_SUFFIX) && file.isFile()) {
+      return Optional.of(file);
+    }
+    String key = PasswordLibraryCatalog.sanitize(libraryName);
+    return listLibraries()
+        .stream()
+        .filter(
+            libraryFiles ->
+                libraryFiles.getName().equals(libraryName) || libraryFiles.getKey().equals(key))
+        .findFirst()
+        .map(LibraryFiles::getNewestFile);
+  }
+
+  private OpenedLibrary open(String libraryName)
+      throws UsageException, IOException, PasswordMismatchException {
+    return open(findLibraryFile(libraryName));
+  }
+
+  private Optional<OpenedLibrary> openIfSaved(String libraryName)
+      throws UsageException, IOException, PasswordMismatchException {
+    Optional<File> file = findLibraryFileIfSaved(libraryName);
+    return file.isPresent() ? Optional.of(open(file.get())) : Optional.empty();
+  }
+
+  /**
+   * Reads the library at the file, or returns the copy read earlier in this run if the file has not
+   * changed since.
+   */
+  private OpenedLibrary open(File file)
+      throws UsageException, IOException, PasswordMismatchException {
+    OpenedLibrary openedLibrary = openedLibraries.get(file);
+    if (openedLibrary != null && openedLibrary.isCurrent()) {
+      return openedLibrary;
+    }
+    String salt = options.getSalt();
+    if (options.getStorageMode() == StorageMode.APPEND) {
+      PasswordLibraryJournal journal =
+          PasswordLibraryJournal.open(
+              file, password(), salt, derivedKeyCache, MoreExecutors.directExecutor());
+      openedLibrary = new OpenedLibrary(file, journal.getPasswordLibrary(), journal);
+    } else {
+      openedLibrary =
+          new OpenedLibrary(
+              file,
+              PasswordLibrary.readFromEncryptedFile(file, password(), salt, derivedKeyCache),
+              null);
+    }
+    openedLibraries.put(file, openedLibrary);
+    return openedLibrary;
+  }
+
+  /**
+   * Saves the library as the application would: appended to its journal in append mode, or as a new
+   * snapshot otherwise.
+   */
+  private void save(Optional<OpenedLibrary> openedLibrary, PasswordLibrary passwordLibrary)
+      throws IOException {
+    if (openedLibrary.isPresent() && openedLibrary.get().getJournal() != null) {
+      openedLibrary.get().getJournal().save(passwordLibrary);
+      openedLibrary.get().update(passwordLibrary);
+      return;
+    }
+    File dataDirectory = new File(options.getDataPath());
+    Files.createDirectories(dataDirectory.toPath());
+    File file =
+        PasswordLibraryCatalog.createSnapshotFile(
+            dataDirectory,
+            passwordLibrary,
+            LocalDateTime.now().toString().replaceAll("[-:.]", "_"));
+    PasswordLibraryJournal journal = null;
+    try {
+      if (options.getStorageMode() == StorageMode.APPEND) {
+        journal =
+            PasswordLibraryJournal.create(
+                file,
+                passwordLibrary,
+                options.getSalt(),
+                derivedKeyCache,
+                MoreExecutors.directExecutor());
+      } else {
+        passwordLibrary.writeToEncryptedFile(file, options.getSalt(), derivedKeyCache);
+      }
+    } catch (IOException e) {
+      Files.deleteIfExists(file.toPath());
+      throw e;
+    }
+    openedLibraries.put(file, new OpenedLibrary(file, passwordLibrary, journal));
+  }
+
+  private static class LibraryFiles {
+    private final File newestFile;
+    private final Optional<PasswordLibraryCatalog.Entry> entry;
+
+    private LibraryFiles(File newestFile, Optional<PasswordLibraryCatalog.Entry> entry) {
+      this.newestFile = newestFile;
+      this.entry = entry;
+    }
+
+    private File getNewestFile() {
+      return newestFile;
+    }
+
+    private Optional<PasswordLibraryCatalog.Entry> getEntry() {
+      return entry;
+    }
+
+    private String getKey() {
+      return PasswordLibraryCatalog.sanitize(getName());
+    }
+
+    private String getName() {
+      return PasswordLibraryCatalog.libraryNameOf(newestFile, entry);
+    }
+  }
+
+  /** A library read in this run, with what its file looked like when it was last read or saved. */
+  private static class OpenedLibrary {
+    private final File file;
+    private final PasswordLibraryJournal journal;
+    private PasswordLibrary passwordLibrary;
+    private long lastModified;
+    private long length;
+
+    private OpenedLibrary(
+        File file, PasswordLibrary passwordLibrary, PasswordLibraryJournal journal) {
+      this.file = file;
+      this.journal = journal;
+      update(passwordLibrary);
+    }
+
+    private void update(PasswordLibrary passwordLibrary) {
+      this.passwordLibrary = passwordLibrary;
+      this.lastModified = file.lastModified();
+      this.length = file.length();
+    }
+
+    private boolean isCurrent() {
+      return file.lastModified() == lastModified && file.length() == length;
+    }
+
+    private PasswordLibrary getPasswordLibrary() {
+      return passwordLibrary;
+    }
+
+    private PasswordLibraryJournal getJournal() {
+      return journal;
+    }
+  }
+}
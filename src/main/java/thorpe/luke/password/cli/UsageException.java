@@ -0,0 +1,8 @@
+package thorpe.luke.password.cli;
+
+/** Thrown when a command is malformed, or names something that does not exist. */
+class UsageException extends Exception {
+  UsageException(String message) {
+    super(message);
+  }
+}
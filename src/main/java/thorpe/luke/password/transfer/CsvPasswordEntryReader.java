@@ -0,0 +1,237 @@
+package thorpe.luke.password.transfer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import thorpe.luke.password.PasswordEntry;
+
+/**
+ * Reads entries from comma-separated values as in RFC 4180, where fields may be quoted, quotes are
+ * escaped by doubling them, and quoted fields may span lines. The first row names the columns, in
+ * any order and case. Columns are matched by the names this application and other common password
+ * managers export under, and columns with other names are ignored:
+ *
+ * <ul>
+ *   <li>name or title, which is required;
+ *   <li>password or login_password, which is required;
+ *   <li>description, notes or extra;
+ *   <li>username or login_username, and url or login_uri, which are added to the description;
+ *   <li>created, an ISO date and time that defaults to when the reader was created.
+ * </ul>
+ *
+ * <p>Only one row is held at a time, however long the input.
+ */
+public class CsvPasswordEntryReader implements PasswordEntryReader {
+  private static final int BUFFER_SIZE = 8192;
+  private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+  private static final List<String> NAME_COLUMNS = Arrays.asList("name", "title");
+  private static final List<String> PASSWORD_COLUMNS = Arrays.asList("password", "login_password");
+  private static final List<String> DESCRIPTION_COLUMNS =
+      Arrays.asList("description", "notes", "extra");
+  private static final List<String> USERNAME_COLUMNS = Arrays.asList("username", "login_username");
+  private static final List<String> URL_COLUMNS = Arrays.asList("url", "login_uri");
+  private static final List<String> CREATED_COLUMNS = Collections.singletonList("created");
+
+  private final Reader reader;
+  private final char[] buffer;
+  private final StringBuilder field;
+  private final LocalDateTime defaultDateTimeOfCreation;
+  private int bufferPosition;
+  private int bufferLimit;
+  private long lineNumber;
+  private int columnCount;
+  private int nameColumn;
+  private int passwordColumn;
+  private int descriptionColumn;
+  private int usernameColumn;
+  private int urlColumn;
+  private int createdColumn;
+
+  public CsvPasswordEntryReader(Reader reader) {
+    this.reader = reader;
+    this.buffer = new char[BUFFER_SIZE];
+    this.field = new StringBuilder();
+    this.defaultDateTimeOfCreation = LocalDateTime.now();
+    this.lineNumber = 1;
+    this.columnCount = -1;
+  }
+
+  @Override
+  public Optional<PasswordEntry> read() throws IOException, MalformedEntryException {
+    if (columnCount < 0) {
+      readHeader();
+    }
+    List<String> fields;
+    long recordLineNumber;
+    do {
+      recordLineNumber = lineNumber;
+      fields = readRecord();
+      if (fields == null) {
+        return Optional.empty();
+      }
+    } while (fields.size() == 1 && fields.get(0).isEmpty());
+
+    if (fields.size() != columnCount) {
+      throw new MalformedEntryException(
+          recordLineNumber,
+          "Expected " + columnCount + " fields, but there are " + fields.size() + ".");
+    }
+    String name = fields.get(nameColumn);
+    if (name.isEmpty()) {
+      throw new MalformedEntryException(recordLineNumber, "The entry has no name.");
+    }
+    String password = fields.get(passwordColumn);
+    if (password.isEmpty()) {
+      throw new MalformedEntryException(recordLineNumber, name + " has no password.");
+    }
+    LocalDateTime dateTimeOfCreation = defaultDateTimeOfCreation;
+    if (createdColumn >= 0 && !fields.get(createdColumn).isEmpty()) {
+      try {
+        dateTimeOfCreation = LocalDateTime.parse(fields.get(createdColumn));
+      } catch (DateTimeParseException e) {
+        throw new MalformedEntryException(
+            recordLineNumber, fields.get(createdColumn) + " is not an ISO date and time.");
+      }
+    }
+    return Optional.of(
+        new PasswordEntry(
+            name, describe(fields), password, dateTimeOfCreation, Collections.emptyMap()));
+  }
+
+  private String describe(List<String> fields) {
+    StringBuilder description = new StringBuilder();
+    if (usernameColumn >= 0 && !fields.get(usernameColumn).isEmpty()) {
+      description.append("Username: ").append(fields.get(usernameColumn));
+    }
+    if (urlColumn >= 0 && !fields.get(urlColumn).isEmpty()) {
+      if (description.length() > 0) {
+        description.append('\n');
+      }
+      description.append("URL: ").append(fields.get(urlColumn));
+    }
+    if (descriptionColumn >= 0 && !fields.get(descriptionColumn).isEmpty()) {
+      if (description.length() > 0) {
+        description.append('\n');
+      }
+      description.append(fields.get(descriptionColumn));
+    }
+    return description.toString();
+  }
+
+  private void readHeader() throws IOException {
+    List<String> header = readRecord();
+    if (header == null) {
+      header = Collections.emptyList();
+    }
+    if (!header.isEmpty()
+        && !header.get(0).isEmpty()
+        && header.get(0).charAt(0) == BYTE_ORDER_MARK) {
+      header.set(0, header.get(0).substring(1));
+    }
+    Map<String, Integer> columns = new HashMap<>();
+    for (int i = header.size() - 1; i >= 0; i--) {
+      columns.put(header.get(i).trim().toLowerCase(Locale.ROOT), i);
+    }
+    nameColumn = columnOf(columns, NAME_COLUMNS);
+    passwordColumn = columnOf(columns, PASSWORD_COLUMNS);
+    if (nameColumn < 0 || passwordColumn < 0) {
+      throw new IOException("The first row must name a name column and a password column.");
+    }
+    descriptionColumn = columnOf(columns, DESCRIPTION_COLUMNS);
+    usernameColumn = columnOf(columns, USERNAME_COLUMNS);
+    urlColumn = columnOf(columns, URL_COLUMNS);
+    createdColumn = columnOf(columns, CREATED_COLUMNS);
+    columnCount = header.size();
+  }
+
+  private static int columnOf(Map<String, Integer> columns, List<String> names) {
+    for (String name : names) {
+      Integer column = columns.get(name);
+      if (column != null) {
+        return column;
+      }
+    }
+    return -1;
+  }
+
+  /** The fields of the next row, or null at the end of the input. */
+  private List<String> readRecord() throws IOException {
+    int c = nextChar();
+    if (c < 0) {
+      return null;
+    }
+    List<String> fields = new ArrayList<>(Math.max(columnCount, 4));
+    field.setLength(0);
+    boolean inQuotes = false;
+    boolean quoted = false;
+    while (true) {
+      if (inQuotes) {
+        if (c < 0) {
+          // An unterminated quote swallows the rest of the input, as it would in any reader.
+          fields.add(field.toString());
+          return fields;
+        } else if (c == '"') {
+          if (peekChar() == '"') {
+            nextChar();
+            field.append('"');
+          } else {
+            inQuotes = false;
+          }
+        } else {
+          if (c == '\n') {
+            lineNumber++;
+          }
+          field.append((char) c);
+        }
+      } else if (c == '"' && !quoted && field.length() == 0) {
+        inQuotes = true;
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+        quoted = false;
+      } else if (c == '\n' || c < 0) {
+        fields.add(field.toString());
+        if (c == '\n') {
+          lineNumber++;
+        }
+        return fields;
+      } else if (c != '\r' || peekChar() != '\n') {
+        field.append((char) c);
+      }
+      c = nextChar();
+    }
+  }
+
+  private int nextChar() throws IOException {
+    if (bufferPosition == bufferLimit && !fillBuffer()) {
+      return -1;
+    }
+    return buffer[bufferPosition++];
+  }
+
+  private int peekChar() throws IOException {
+    if (bufferPosition == bufferLimit && !fillBuffer()) {
+      return -1;
+    }
+    return buffer[bufferPosition];
+  }
+
+  private boolean fillBuffer() throws IOException {
+    int count = reader.read(buffer, 0, buffer.length);
+    if (count <= 0) {
+      return false;
+    }
+    bufferPosition = 0;
+    bufferLimit = count;
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+}
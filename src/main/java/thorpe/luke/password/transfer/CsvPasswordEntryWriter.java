@@ -0,0 +1,67 @@
+package thorpe.luke.password.transfer;
+
+import java.io.IOException;
+import java.io.Writer;
+import thorpe.luke.password.PasswordEntry;
+
+/**
+ * Writes entries as comma-separated values that {@link CsvPasswordEntryReader} reads back, under
+ * the columns name, description, password and created. Old passwords are not written, as other
+ * password managers have no column for them.
+ */
+public class CsvPasswordEntryWriter implements PasswordEntryWriter {
+  private static final String HEADER = "name,description,password,created";
+  private static final String LINE_SEPARATOR = "\r\n";
+
+  private final Writer writer;
+  private boolean headerWritten;
+
+  public CsvPasswordEntryWriter(Writer writer) {
+    this.writer = writer;
+  }
+
+  @Override
+  public void write(PasswordEntry passwordEntry) throws IOException {
+    writeHeaderIfNeeded();
+    writeField(passwordEntry.getName());
+    writer.write(',');
+    writeField(passwordEntry.getDescription());
+    writer.write(',');
+    writeField(passwordEntry.getPassword());
+    writer.write(',');
+    writer.write(passwordEntry.getDateTimeOfCreation().toString());
+    writer.write(LINE_SEPARATOR);
+  }
+
+  private void writeHeaderIfNeeded() throws IOException {
+    if (!headerWritten) {
+      writer.write(HEADER);
+      writer.write(LINE_SEPARATOR);
+      headerWritten = true;
+    }
+  }
+
+  private void writeField(String value) throws IOException {
+    boolean quoted = false;
+    for (int i = 0; i < value.length() && !quoted; i++) {
+      char c = value.charAt(i);
+      quoted = c == ',' || c == '"' || c == '\r' || c == '\n';
+    }
+    if (!quoted) {
+      writer.write(value);
+      return;
+    }
+    writer.write('"');
+    writer.write(value.replace("\"", "\"\""));
+    writer.write('"');
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      writeHeaderIfNeeded();
+    } finally {
+      writer.close();
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package thorpe.luke.password.transfer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import thorpe.luke.password.PasswordEntry;
+import thorpe.luke.password.apdater.PasswordEntryJsonAdapter;
+import thorpe.luke.util.JsonException;
+import thorpe.luke.util.JsonUtils;
+
+/**
+ * Reads entries from JSON Lines, one JSON object per line in the form of {@link
+ * PasswordEntryJsonAdapter}, as written by {@link JsonLinesPasswordEntryWriter}. Blank lines are
+ * skipped. An entry without a time of creation is taken to be created when the reader was.
+ */
+public class JsonLinesPasswordEntryReader implements PasswordEntryReader {
+  private final BufferedReader reader;
+  private final LocalDateTime defaultDateTimeOfCreation;
+  private long lineNumber;
+
+  public JsonLinesPasswordEntryReader(Reader reader) {
+    this.reader =
+        reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    this.defaultDateTimeOfCreation = LocalDateTime.now();
+  }
+
+  @Override
+  public Optional<PasswordEntry> read() throws IOException, MalformedEntryException {
+    String line;
+    do {
+      line = reader.readLine();
+      if (line == null) {
+        return Optional.empty();
+      }
+      lineNumber++;
+    } while (line.trim().isEmpty());
+
+    PasswordEntryJsonAdapter passwordEntryJsonAdapter;
+    try {
+      passwordEntryJsonAdapter = JsonUtils.fromJson(line, PasswordEntryJsonAdapter.class);
+    } catch (JsonException e) {
+      throw new MalformedEntryException(lineNumber, "The line is not an entry in JSON.");
+    }
+    String name = passwordEntryJsonAdapter.getName();
+    if (name == null || name.isEmpty()) {
+      throw new MalformedEntryException(lineNumber, "The entry has no name.");
+    }
+    String password = passwordEntryJsonAdapter.getPassword();
+    if (password == null || password.isEmpty()) {
+      throw new MalformedEntryException(lineNumber, name + " has no password.");
+    }
+    return Optional.of(
+        new PasswordEntry(
+            name,
+            passwordEntryJsonAdapter.getDescription() == null
+                ? ""
+                : passwordEntryJsonAdapter.getDescription(),
+            password,
+            passwordEntryJsonAdapter.getDateTimeOfCreation() == null
+                ? defaultDateTimeOfCreation
+                : passwordEntryJsonAdapter.getDateTimeOfCreation(),
+            passwordEntryJsonAdapter.getOldPasswords()));
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+}
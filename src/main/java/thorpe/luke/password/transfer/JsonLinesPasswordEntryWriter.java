@@ -0,0 +1,31 @@
+package thorpe.luke.password.transfer;
+
+import java.io.IOException;
+import java.io.Writer;
+import thorpe.luke.password.PasswordEntry;
+import thorpe.luke.util.JsonException;
+import thorpe.luke.util.JsonUtils;
+
+/** Writes entries as JSON Lines, including their old passwords. */
+public class JsonLinesPasswordEntryWriter implements PasswordEntryWriter {
+  private final Writer writer;
+
+  public JsonLinesPasswordEntryWriter(Writer writer) {
+    this.writer = writer;
+  }
+
+  @Override
+  public void write(PasswordEntry passwordEntry) throws IOException {
+    try {
+      writer.write(JsonUtils.toSingleLineJson(passwordEntry.toAdapter()));
+    } catch (JsonException e) {
+      throw new IOException("Failed to write " + passwordEntry.getName() + " as JSON.", e);
+    }
+    writer.write('\n');
+  }
+
+  @Override
+  public void close() throws IOException {
+    writer.close();
+  }
+}
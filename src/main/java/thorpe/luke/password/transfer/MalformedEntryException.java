@@ -0,0 +1,16 @@
+package thorpe.luke.password.transfer;
+
+/** Thrown for a row of a dump that cannot be made into an entry. */
+public class MalformedEntryException extends Exception {
+  private final long lineNumber;
+
+  public MalformedEntryException(long lineNumber, String reason) {
+    super("Line " + lineNumber + ": " + reason);
+    this.lineNumber = lineNumber;
+  }
+
+  /** The line the row starts on, counting from one. */
+  public long getLineNumber() {
+    return lineNumber;
+  }
+}
@@ -0,0 +1,23 @@
+package thorpe.luke.password.transfer;
+
+import java.io.IOException;
+import thorpe.luke.password.PasswordEntry;
+import thorpe.luke.password.PasswordLibrary;
+
+public class PasswordEntryExporter {
+  private PasswordEntryExporter() {}
+
+  /**
+   * Writes every entry of the library in turn, without gathering them anywhere first, and returns
+   * how many were written. The writer is left open.
+   */
+  public static int export(PasswordLibrary passwordLibrary, PasswordEntryWriter writer)
+      throws IOException {
+    int exportedCount = 0;
+    for (PasswordEntry passwordEntry : passwordLibrary.getEntries()) {
+      writer.write(passwordEntry);
+      exportedCount++;
+    }
+    return exportedCount;
+  }
+}
@@ -0,0 +1,55 @@
+package thorpe.luke.password.transfer;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+/** The kinds of dump that entries can be imported from and exported to, known by file extension. */
+public enum PasswordEntryFileFormat {
+  CSV(".csv") {
+    @Override
+    public PasswordEntryReader newReader(Reader reader) {
+      return new CsvPasswordEntryReader(reader);
+    }
+
+    @Override
+    public PasswordEntryWriter newWriter(Writer writer) {
+      return new CsvPasswordEntryWriter(writer);
+    }
+  },
+  JSON_LINES(".jsonl", ".ndjson") {
+    @Override
+    public PasswordEntryReader newReader(Reader reader) {
+      return new JsonLinesPasswordEntryReader(reader);
+    }
+
+    @Override
+    public PasswordEntryWriter newWriter(Writer writer) {
+      return new JsonLinesPasswordEntryWriter(writer);
+    }
+  };
+
+  private final List<String> extensions;
+
+  PasswordEntryFileFormat(String... extensions) {
+    this.extensions = Arrays.asList(extensions);
+  }
+
+  public abstract PasswordEntryReader newReader(Reader reader);
+
+  public abstract PasswordEntryWriter newWriter(Writer writer);
+
+  public List<String> getExtensions() {
+    return extensions;
+  }
+
+  public static Optional<PasswordEntryFileFormat> forFileName(String fileName) {
+    String lowerCaseFileName = fileName.toLowerCase(Locale.ROOT);
+    return Arrays.stream(values())
+        .filter(format -> format.extensions.stream().anyMatch(lowerCaseFileName::endsWith))
+        .findFirst();
+  }
+}
@@ -0,0 +1,152 @@
+package thorpe.luke.password.transfer;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import thorpe.luke.password.PasswordEntry;
+import thorpe.luke.password.PasswordLibrary;
+
+/**
+ * Streams entries from a dump into a library, one row at a time, through a {@link
+ * PasswordLibrary.Builder}. Entries are de-duplicated by name, against both the library and earlier
+ * rows of the dump. Rows that cannot be read are counted and skipped, and the first few are kept to
+ * report, so memory does not grow with the size of the dump beyond the entries themselves.
+ */
+public class PasswordEntryImporter {
+  /** What to do with an entry whose name is already taken. */
+  public enum DuplicatePolicy {
+    /** Keep the entry that was there first. */
+    SKIP,
+    /** Replace it with the one being imported. */
+    REPLACE
+  }
+
+  private static final int MAXIMUM_REPORTED_REJECTS = 100;
+
+  private final DuplicatePolicy duplicatePolicy;
+
+  public PasswordEntryImporter(DuplicatePolicy duplicatePolicy) {
+    this.duplicatePolicy = duplicatePolicy;
+  }
+
+  /** Reads the dump to the end, leaving the reader open. */
+  public Report importInto(PasswordLibrary passwordLibrary, PasswordEntryReader reader)
+      throws IOException {
+    long startTime = System.nanoTime();
+    PasswordLibrary.Builder builder = passwordLibrary.toBuilder();
+    int importedCount = 0;
+    int replacedCount = 0;
+    int skippedCount = 0;
+    int rejectedCount = 0;
+    List<MalformedEntryException> rejects = new ArrayList<>();
+    while (true) {
+      Optional<PasswordEntry> passwordEntry;
+      try {
+        passwordEntry = reader.read();
+      } catch (MalformedEntryException e) {
+        rejectedCount++;
+        if (rejects.size() < MAXIMUM_REPORTED_REJECTS) {
+          rejects.add(e);
+        }
+        continue;
+      }
+      if (!passwordEntry.isPresent()) {
+        break;
+      }
+      if (!builder.containsEntry(passwordEntry.get().getName())) {
+        importedCount++;
+      } else if (duplicatePolicy == DuplicatePolicy.REPLACE) {
+        replacedCount++;
+      } else {
+        skippedCount++;
+        continue;
+      }
+      builder.putEntry(passwordEntry.get());
+    }
+    return new Report(
+        builder.build(),
+        importedCount,
+        replacedCount,
+        skippedCount,
+        rejectedCount,
+        rejects,
+        Duration.ofNanos(System.nanoTime() - startTime));
+  }
+
+  public static class Report {
+    private final PasswordLibrary passwordLibrary;
+    private final int importedCount;
+    private final int replacedCount;
+    private final int skippedCount;
+    private final int rejectedCount;
+    private final List<MalformedEntryException> rejects;
+    private final Duration elapsed;
+
+    private Report(
+        PasswordLibrary passwordLibrary,
+        int importedCount,
+        int replacedCount,
+        int skippedCount,
+        int rejectedCount,
+        List<MalformedEntryException> rejects,
+        Duration elapsed) {
+      this.passwordLibrary = passwordLibrary;
+      this.importedCount = importedCount;
+      this.replacedCount = replacedCount;
+      this.skippedCount = skippedCount;
+      this.rejectedCount = rejectedCount;
+      this.rejects = Collections.unmodifiableList(rejects);
+      this.elapsed = elapsed;
+    }
+
+    /** The library with the imported entries. */
+    public PasswordLibrary getPasswordLibrary() {
+      return passwordLibrary;
+    }
+
+    /** Entries added under names that were not taken. */
+    public int getImportedCount() {
+      return importedCount;
+    }
+
+    /** Entries that replaced another of the same name. */
+    public int getReplacedCount() {
+      return replacedCount;
+    }
+
+    /** Entries left out because their name was taken. */
+    public int getSkippedCount() {
+      return skippedCount;
+    }
+
+    /** Rows that could not be made into entries. */
+    public int getRejectedCount() {
+      return rejectedCount;
+    }
+
+    /** The first of the rejected rows, with the reason for each. */
+    public List<MalformedEntryException> getRejects() {
+      return rejects;
+    }
+
+    public Duration getElapsed() {
+      return elapsed;
+    }
+
+    public int getRowCount() {
+      return importedCount + replacedCount + skippedCount + rejectedCount;
+    }
+
+    public double getRowsPerSecond() {
+      return getRowCount() / Math.max(elapsed.toNanos() / 1e9, Double.MIN_NORMAL);
+    }
+
+    /** Whether the import changed the library at all. */
+    public boolean hasChanges() {
+      return importedCount + replacedCount > 0;
+    }
+  }
+}
@@ -0,0 +1,18 @@
+package thorpe.luke.password.transfer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Optional;
+import thorpe.luke.password.PasswordEntry;
+
+/** Reads entries one at a time from a dump, such as one exported from another password manager. */
+public interface PasswordEntryReader extends Closeable {
+  /**
+   * Reads the next entry, or returns empty at the end of the dump.
+   *
+   * @throws MalformedEntryException if the next row cannot be made into an entry. The row is
+   *     skipped, so reading can carry on with the one after it.
+   * @throws IOException if the dump cannot be read any further.
+   */
+  Optional<PasswordEntry> read() throws IOException, MalformedEntryException;
+}
@@ -0,0 +1,10 @@
+package thorpe.luke.password.transfer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import thorpe.luke.password.PasswordEntry;
+
+/** Writes entries one at a time to a dump, unencrypted. */
+public interface PasswordEntryWriter extends Closeable {
+  void write(PasswordEntry passwordEntry) throws IOException;
+}
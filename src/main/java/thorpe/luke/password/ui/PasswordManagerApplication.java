@@ -1,14 +1,25 @@
 package thorpe.luke.password.ui;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.FormatStyle;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -24,14 +35,36 @@ import javafx.scene.layout.GridPane;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.StackPane;
 import javafx.stage.DirectoryChooser;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.util.Pair;
+import thorpe.luke.cryptography.DerivedKeyCache;
+import thorpe.luke.metrics.LatencySnapshot;
+import thorpe.luke.metrics.Metrics;
+import thorpe.luke.metrics.MetricsSnapshot;
 import thorpe.luke.password.PasswordEntry;
+import thorpe.luke.password.PasswordEntrySearchIndex;
+import thorpe.luke.password.PasswordHistoryPolicy;
 import thorpe.luke.password.PasswordLibrary;
+import thorpe.luke.password.PasswordLibraryCatalog;
+import thorpe.luke.password.PasswordLibraryDirectoryIndex;
+import thorpe.luke.password.PasswordLibraryJournal;
+import thorpe.luke.password.PasswordLibraryLoader;
+import thorpe.luke.password.PasswordLibraryRekeyJob;
 import thorpe.luke.password.PasswordMismatchException;
+import thorpe.luke.password.SnapshotRetentionEngine;
+import thorpe.luke.password.SnapshotRetentionPolicy;
+import thorpe.luke.password.transfer.MalformedEntryException;
+import thorpe.luke.password.transfer.PasswordEntryFileFormat;
+import thorpe.luke.password.transfer.PasswordEntryImporter;
+import thorpe.luke.password.transfer.PasswordEntryReader;
 import thorpe.luke.password.ui.model.Options;
+import thorpe.luke.password.ui.model.StorageMode;
 import thorpe.luke.password.ui.model.Style;
 import thorpe.luke.password.ui.service.MediaService;
 import thorpe.luke.password.ui.service.OptionsService;
+import thorpe.luke.password.ui.service.TaskService;
+import thorpe.luke.util.DurableFiles;
 import thorpe.luke.util.Mutable;
 
 public class PasswordManagerApplication extends Application {
@@ -58,9 +91,28 @@ public class PasswordManagerApplication extends Application {
 
   private static final String PASSWORD_MANAGER_ASSETS_PATH = "./.assets/";
   private static final String PASSWORD_MANAGER_CONFIG_PATH = "./.config/";
+  private static final Duration DERIVED_KEY_TIME_TO_LIVE = Duration.ofMinutes(5);
+  private static final int SEARCH_RESULT_LIMIT = 100;
+  private static final Duration SNAPSHOT_RETENTION_INITIAL_DELAY = Duration.ofMinutes(1);
+  private static final Duration SNAPSHOT_RETENTION_INTERVAL = Duration.ofHours(1);
 
   private final MediaService mediaService = new MediaService(PASSWORD_MANAGER_ASSETS_PATH);
   private final OptionsService optionsService = new OptionsService(PASSWORD_MANAGER_CONFIG_PATH);
+  private final DerivedKeyCache derivedKeyCache = new DerivedKeyCache(DERIVED_KEY_TIME_TO_LIVE);
+  private final ExecutorService compactionExecutor =
+      Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat("password-library-compaction-%d")
+              .setDaemon(true)
+              .build());
+  private final ScheduledExecutorService snapshotRetentionExecutor =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat("password-library-retention-%d")
+              .setDaemon(true)
+              .build());
+  private final SnapshotRetentionEngine snapshotRetentionEngine = new SnapshotRetentionEngine();
+  private final TaskService taskService = new TaskService();
 
   private final Image titleLogo = mediaService.loadImage("title_logo.png");
   private final Image optionsLogo = mediaService.loadImage("options_logo_small.png");
@@ -70,6 +122,16 @@ public class PasswordManagerApplication extends Application {
   private final Scene scene;
   private final ListView<String> console;
   private final ListView<File> passwordLibraryData;
+  private final List<File> passwordLibraryFiles = new ArrayList<>();
+  private final Map<File, PasswordLibraryCatalog> passwordLibraryCatalogs =
+      new ConcurrentHashMap<>();
+  private final Map<File, Integer> olderSnapshotCounts = new HashMap<>();
+  private final CheckBox showOlderSnapshotsCheckBox;
+  private final GridPane taskProgressPane;
+  private final ProgressBar taskProgressBar;
+  private final Label taskProgressLabel;
+  private TaskService.Task currentTask;
+  private volatile PasswordLibraryDirectoryIndex passwordLibraryDirectoryIndex;
   private Mutable<Options> optionsMutable;
   private Stage launcherStage;
 
@@ -78,6 +140,10 @@ public class PasswordManagerApplication extends Application {
     this.scene = new Scene(root);
     this.console = new ListView<>();
     this.passwordLibraryData = new ListView<>();
+    this.showOlderSnapshotsCheckBox = new CheckBox("Show older snapshots");
+    this.taskProgressPane = new GridPane();
+    this.taskProgressBar = new ProgressBar();
+    this.taskProgressLabel = new Label();
     this.optionsMutable = new Mutable<>(optionsService.loadDefaultOptions());
   }
 
@@ -100,7 +166,13 @@ public class PasswordManagerApplication extends Application {
     consoleGreen("Welcome to the Steadfast Password Manager!");
     loadOptionsFromDisk();
     loadPasswordLibraryDataFromDisk();
+    optionsMutable.addUpdateListener(options -> derivedKeyCache.lockAll());
     optionsMutable.addUpdateListener(options -> loadPasswordLibraryDataFromDisk());
+    snapshotRetentionExecutor.scheduleWithFixedDelay(
+        this::collectExpiredSnapshots,
+        SNAPSHOT_RETENTION_INITIAL_DELAY.toMillis(),
+        SNAPSHOT_RETENTION_INTERVAL.toMillis(),
+        TimeUnit.MILLISECONDS);
 
     showLauncher();
   }
@@ -108,6 +180,13 @@ public class PasswordManagerApplication extends Application {
   @Override
   public void stop() throws Exception {
     super.stop();
+    // Saves finish before the key is locked, and the compactions they start after them.
+    taskService.shutdown();
+    closePasswordLibraryDirectoryIndex();
+    compactionExecutor.shutdown();
+    compactionExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    snapshotRetentionExecutor.shutdownNow();
+    derivedKeyCache.lockAll();
     try {
       optionsService.writeOptionsFileToDisk(optionsMutable.get());
     } catch (IOException ignored) {
@@ -193,7 +272,7 @@ public class PasswordManagerApplication extends Application {
               @Override
               protected void updateItem(File file, boolean empty) {
                 super.updateItem(file, empty);
-                setText(empty ? null : file.getName());
+                setText(empty ? null : describePasswordLibraryFile(file));
               }
             });
     passwordLibraryData.setPrefWidth(WINDOW_WIDTH >> 1);
@@ -201,6 +280,9 @@ public class PasswordManagerApplication extends Application {
     passwordLibraryData.setEditable(false);
     pane.add(passwordLibraryData, 0, 0);
 
+    showOlderSnapshotsCheckBox.setOnAction(actionEvent -> updatePasswordLibraryData());
+    pane.add(showOlderSnapshotsCheckBox, 0, 1);
+
     GridPane buttonPane = new GridPane();
     buttonPane.setHgap(5);
     buttonPane.setVgap(5);
@@ -209,27 +291,41 @@ public class PasswordManagerApplication extends Application {
 
     Consumer<PasswordLibrary> savePasswordLibraryToFile =
         passwordLibrary -> {
-          String fileName =
-              LocalDateTime.now().toString().replaceAll("[-:.]", "_")
-                  + "___"
-                  + passwordLibrary.getName().replaceAll("[^a-zA-Z0-9]", "")
-                  + PasswordLibrary.FILE_SUFFIX;
-          File file = new File(new File(optionsMutable.get().getDataPath()), fileName);
-          try {
-            if (!file.createNewFile()) {
-              throw new IOException("Couldn't create file " + file.getName());
-            }
-          } catch (IOException e) {
-            consoleError("Failed to write password library to file. Reason: %s.", e.getMessage());
-            return;
-          }
-          try {
-            passwordLibrary.writeToEncryptedFile(file, optionsMutable.get().getSalt());
-          } catch (IOException e) {
-            consoleError("Failed to write password library to file. Reason: %s.", e.getMessage());
-            return;
-          }
-          loadPasswordLibraryDataFromDisk();
+          String timestamp = LocalDateTime.now().toString().replaceAll("[-:.]", "_");
+          Options options = optionsMutable.get();
+          runWriteInBackground(
+              progress -> {
+                progress.update(0, "Deriving the key for " + passwordLibrary.getName() + ".");
+                passwordLibrary.unlock(options.getSalt(), derivedKeyCache);
+                File file =
+                    PasswordLibraryCatalog.createSnapshotFile(
+                        new File(options.getDataPath()), passwordLibrary, timestamp);
+                progress.update(0.5, "Writing " + file.getName() + ".");
+                progress.beginWriting();
+                try {
+                  if (options.getStorageMode() == StorageMode.APPEND) {
+                    PasswordLibraryJournal.create(
+                        file,
+                        passwordLibrary,
+                        options.getSalt(),
+                        derivedKeyCache,
+                        compactionExecutor);
+                  } else {
+                    passwordLibrary.writeToEncryptedFile(file, options.getSalt(), derivedKeyCache);
+                  }
+                } catch (IOException e) {
+                  Files.deleteIfExists(file.toPath());
+                  throw e;
+                }
+                return file;
+              },
+              savedFile -> {
+                consoleGreen("Successfully saved password library to %s!", savedFile.getName());
+                refreshPasswordLibraryData(savedFile);
+              },
+              e ->
+                  consoleError(
+                      "Failed to write password library to file. Reason: %s.", e.getMessage()));
         };
 
     Button addButton = new Button("Add");
@@ -252,36 +348,114 @@ public class PasswordManagerApplication extends Application {
           loadPasswordFromDialog("Please enter the password to unlock " + file.getName() + ":")
               .ifPresent(
                   password -> {
-                    PasswordLibrary passwordLibrary;
-                    try {
-                      consoleLog("Reading password library %s from disk.", file.getName());
-                      passwordLibrary =
-                          PasswordLibrary.readFromEncryptedFile(
-                              file, password, optionsMutable.get().getSalt());
-                    } catch (IOException e) {
-                      consoleError(
-                          "Failed to read password library from disk. Reason: %s.", e.getMessage());
-                      return;
-                    } catch (PasswordMismatchException e) {
-                      consoleError("Incorrect password.");
+                    if (optionsMutable.get().getStorageMode() == StorageMode.APPEND) {
+                      editPasswordLibraryJournal(file, password);
                       return;
                     }
-                    loadPasswordLibraryFromDialog(
-                            passwordLibrary.getName(),
-                            passwordLibrary.getDescription(),
-                            password,
-                            passwordLibrary.getEntries())
-                        .ifPresent(savePasswordLibraryToFile);
+                    String salt = optionsMutable.get().getSalt();
+                    runInBackground(
+                        progress -> {
+                          progress.update(0, "Deriving the key for " + file.getName() + ".");
+                          PasswordLibrary.unlock(password, salt, derivedKeyCache);
+                          progress.update(0.5, "Reading " + file.getName() + ".");
+                          return PasswordLibrary.readFromEncryptedFile(
+                              file, password, salt, derivedKeyCache);
+                        },
+                        passwordLibrary ->
+                            loadPasswordLibraryFromDialog(
+                                    passwordLibrary.getName(),
+                                    passwordLibrary.getDescription(),
+                                    password,
+                                    passwordLibrary.getEntries())
+                                .ifPresent(savePasswordLibraryToFile),
+                        this::consoleReadError);
                   });
         });
     buttonPane.add(editButton, 1, 0);
 
-    pane.add(buttonPane, 0, 1);
+    Button rotatePasswordButton = new Button("Change Password of All Libraries");
+    rotatePasswordButton.setMaxWidth(Double.MAX_VALUE);
+    rotatePasswordButton.setOnAction(
+        actionEvent ->
+            loadPasswordRotationFromDialog()
+                .ifPresent(
+                    passwords -> {
+                      String salt = optionsMutable.get().getSalt();
+                      rekeyPasswordLibraries(passwords.getKey(), salt, passwords.getValue(), salt);
+                    }));
+    buttonPane.add(rotatePasswordButton, 0, 1, 2, 1);
+
+    Button verifyButton = new Button("Verify All Libraries");
+    verifyButton.setMaxWidth(Double.MAX_VALUE);
+    verifyButton.setOnAction(
+        actionEvent ->
+            loadPasswordFromDialog("Please enter the password of the libraries to verify:")
+                .ifPresent(this::verifyPasswordLibraries));
+    buttonPane.add(verifyButton, 0, 2, 2, 1);
+
+    pane.add(buttonPane, 0, 2);
+
+    taskProgressPane.setHgap(10);
+    taskProgressPane.setAlignment(Pos.CENTER);
+    taskProgressBar.setPrefWidth(buttonWidth);
+    taskProgressPane.add(taskProgressBar, 0, 0);
+    taskProgressPane.add(taskProgressLabel, 1, 0);
+    Button cancelButton = new Button("Cancel");
+    cancelButton.setOnAction(actionEvent -> cancelCurrentTask());
+    taskProgressPane.add(cancelButton, 2, 0);
+    taskProgressPane.setVisible(false);
+    pane.add(taskProgressPane, 0, 3);
 
     pane.setAlignment(Pos.CENTER);
     root.getChildren().add(pane);
   }
 
+  private void editPasswordLibraryJournal(File file, String password) {
+    String salt = optionsMutable.get().getSalt();
+    runInBackground(
+        progress -> {
+          progress.update(0, "Deriving the key for " + file.getName() + ".");
+          PasswordLibrary.unlock(password, salt, derivedKeyCache);
+          progress.update(0.5, "Reading " + file.getName() + ".");
+          return PasswordLibraryJournal.open(
+              file, password, salt, derivedKeyCache, compactionExecutor);
+        },
+        journal -> {
+          PasswordLibrary passwordLibrary = journal.getPasswordLibrary();
+          loadPasswordLibraryFromDialog(
+                  passwordLibrary.getName(),
+                  passwordLibrary.getDescription(),
+                  password,
+                  passwordLibrary.getEntries())
+              .ifPresent(
+                  updatedPasswordLibrary ->
+                      runWriteInBackground(
+                          progress -> {
+                            progress.update(-1, "Saving changes to " + file.getName() + ".");
+                            progress.beginWriting();
+                            journal.save(updatedPasswordLibrary);
+                            return file;
+                          },
+                          savedFile -> {
+                            consoleGreen("Successfully saved changes to %s!", savedFile.getName());
+                            refreshPasswordLibraryData(savedFile);
+                          },
+                          e ->
+                              consoleError(
+                                  "Failed to write password library to file. Reason: %s.",
+                                  e.getMessage())));
+        },
+        this::consoleReadError);
+  }
+
+  private void consoleReadError(Exception e) {
+    if (e instanceof PasswordMismatchException) {
+      consoleError("Incorrect password.");
+    } else {
+      consoleError("Failed to read password library from disk. Reason: %s.", e.getMessage());
+    }
+  }
+
   private Optional<PasswordLibrary> loadPasswordLibraryFromDialog(
       String name, String description, String password, Collection<PasswordEntry> passwordEntries) {
     Dialog<PasswordLibrary> passwordLibraryDialog = new Dialog<>();
@@ -331,8 +505,27 @@ public class PasswordManagerApplication extends Application {
                 }
               }
             });
-    passwordEntryListView.getItems().addAll(passwordEntries);
-    pane.add(passwordEntryListView, 0, 1);
+    List<PasswordEntry> allPasswordEntries = new ArrayList<>(passwordEntries);
+    PasswordEntrySearchIndex passwordEntrySearchIndex =
+        PasswordEntrySearchIndex.fromEntries(allPasswordEntries);
+    TextField searchTextField = new TextField();
+    searchTextField.setPromptText("Search by name or description");
+    Runnable refreshPasswordEntryListView =
+        () -> {
+          String query = searchTextField.getText();
+          passwordEntryListView
+              .getItems()
+              .setAll(
+                  query.isEmpty()
+                      ? allPasswordEntries
+                      : passwordEntrySearchIndex.search(query, SEARCH_RESULT_LIMIT));
+        };
+    searchTextField
+        .textProperty()
+        .addListener((observable, oldQuery, query) -> refreshPasswordEntryListView.run());
+    refreshPasswordEntryListView.run();
+    pane.add(searchTextField, 0, 1);
+    pane.add(passwordEntryListView, 0, 2);
 
     GridPane buttonPane = new GridPane();
     buttonPane.setHgap(10);
@@ -348,9 +541,20 @@ public class PasswordManagerApplication extends Application {
         actionEvent ->
             loadPasswordEntryFromDialog("", "", null, LocalDateTime.now(), new HashMap<>())
                 .ifPresent(
-                    passwordEntry ->
-                        Platform.runLater(
-                            () -> passwordEntryListView.getItems().add(passwordEntry))));
+                    passwordEntry -> {
+                      if (isEntryNameTaken(allPasswordEntries, passwordEntry.getName(), null)) {
+                        consoleError(
+                            "There is already a password entry called %s.",
+                            passwordEntry.getName());
+                        return;
+                      }
+                      Platform.runLater(
+                          () -> {
+                            allPasswordEntries.add(passwordEntry);
+                            passwordEntrySearchIndex.add(passwordEntry);
+                            refreshPasswordEntryListView.run();
+                          });
+                    }));
     buttonPane.add(addButton, 0, 0);
 
     Button editButton = new Button("Edit");
@@ -358,21 +562,46 @@ public class PasswordManagerApplication extends Application {
     editButton.setOnAction(
         actionEvent -> {
           PasswordEntry oldPasswordEntry = currentPasswordEntrySupplier.get();
-          if (oldPasswordEntry != null) {
-            loadPasswordEntryFromDialog(
-                    oldPasswordEntry.getName(),
-                    oldPasswordEntry.getDescription(),
-                    oldPasswordEntry.getPassword(),
-                    oldPasswordEntry.getDateTimeOfCreation(),
-                    oldPasswordEntry.getOldPasswords())
-                .ifPresent(
-                    passwordEntry ->
-                        Platform.runLater(
-                            () -> {
-                              passwordEntryListView.getItems().remove(oldPasswordEntry);
-                              passwordEntryListView.getItems().add(passwordEntry);
-                            }));
+          if (oldPasswordEntry == null) {
+            return;
           }
+          // Secrets are decrypted lazily, which derives the key again once it has been locked, so
+          // they are decrypted in the background rather than holding up the application thread.
+          runInBackground(
+              progress -> {
+                progress.update(-1, "Decrypting " + oldPasswordEntry.getName() + ".");
+                oldPasswordEntry.getPassword();
+                oldPasswordEntry.getOldPasswords();
+                return oldPasswordEntry;
+              },
+              decryptedPasswordEntry ->
+                  loadPasswordEntryFromDialog(
+                          decryptedPasswordEntry.getName(),
+                          decryptedPasswordEntry.getDescription(),
+                          decryptedPasswordEntry.getPassword(),
+                          decryptedPasswordEntry.getDateTimeOfCreation(),
+                          decryptedPasswordEntry.getOldPasswords())
+                      .ifPresent(
+                          passwordEntry -> {
+                            if (isEntryNameTaken(
+                                allPasswordEntries, passwordEntry.getName(), oldPasswordEntry)) {
+                              consoleError(
+                                  "There is already a password entry called %s.",
+                                  passwordEntry.getName());
+                              return;
+                            }
+                            Platform.runLater(
+                                () -> {
+                                  allPasswordEntries.remove(oldPasswordEntry);
+                                  allPasswordEntries.add(passwordEntry);
+                                  passwordEntrySearchIndex.replace(oldPasswordEntry, passwordEntry);
+                                  refreshPasswordEntryListView.run();
+                                });
+                          }),
+              e ->
+                  consoleError(
+                      "Failed to decrypt %s. Reason: %s.",
+                      oldPasswordEntry.getName(), e.getMessage()));
         });
     buttonPane.add(editButton, 1, 0);
 
@@ -386,13 +615,91 @@ public class PasswordManagerApplication extends Application {
                   "Are you sure you want to delete the password entry called "
                       + currentPasswordEntry.getName()
                       + "?")) {
-            Platform.runLater(() -> passwordEntryListView.getItems().remove(currentPasswordEntry));
+            Platform.runLater(
+                () -> {
+                  allPasswordEntries.remove(currentPasswordEntry);
+                  passwordEntrySearchIndex.remove(currentPasswordEntry);
+                  refreshPasswordEntryListView.run();
+                });
           }
         });
     buttonPane.add(deleteButton, 2, 0);
 
-    pane.add(buttonPane, 0, 2);
-    pane.add(new Separator(), 0, 3);
+    FileChooser importFileChooser = new FileChooser();
+    importFileChooser.setTitle("Import Password Entries");
+    for (PasswordEntryFileFormat format : PasswordEntryFileFormat.values()) {
+      importFileChooser
+          .getExtensionFilters()
+          .add(
+              new FileChooser.ExtensionFilter(
+                  format.name(),
+                  format
+                      .getExtensions()
+                      .stream()
+                      .map(extension -> "*" + extension)
+                      .toArray(String[]::new)));
+    }
+    Button importButton = new Button("Import");
+    importButton.setPrefWidth(buttonWidth);
+    importButton.setOnAction(
+        actionEvent -> {
+          File file = importFileChooser.showOpenDialog(stage);
+          if (file == null) {
+            return;
+          }
+          Optional<PasswordEntryFileFormat> format =
+              PasswordEntryFileFormat.forFileName(file.getName());
+          if (!format.isPresent()) {
+            consoleError("%s is neither CSV nor JSON Lines.", file.getName());
+            return;
+          }
+          PasswordLibrary passwordLibrary =
+              PasswordLibrary.fromPassword(
+                  nameTextField.getText(),
+                  descriptionTextArea.getText(),
+                  passwordTextField.getText(),
+                  optionsMutable.get().getSalt(),
+                  allPasswordEntries);
+          runInBackground(
+              progress -> {
+                progress.update(0, "Importing " + file.getName() + ".");
+                try (PasswordEntryReader reader =
+                    format
+                        .get()
+                        .newReader(
+                            new InputStreamReader(
+                                DurableFiles.newInputStream(file.toPath()),
+                                StandardCharsets.UTF_8))) {
+                  return new PasswordEntryImporter(PasswordEntryImporter.DuplicatePolicy.SKIP)
+                      .importInto(passwordLibrary, reader);
+                }
+              },
+              report -> {
+                for (PasswordEntry passwordEntry : report.getPasswordLibrary().getEntries()) {
+                  if (!passwordLibrary.getEntry(passwordEntry.getName()).isPresent()) {
+                    allPasswordEntries.add(passwordEntry);
+                    passwordEntrySearchIndex.add(passwordEntry);
+                  }
+                }
+                refreshPasswordEntryListView.run();
+                for (MalformedEntryException reject : report.getRejects()) {
+                  consoleError("Rejected %s: %s", file.getName(), reject.getMessage());
+                }
+                consoleGreen(
+                    "Imported %d entries from %s in %d ms, skipping %d that already exist and"
+                        + " rejecting %d.",
+                    report.getImportedCount(),
+                    file.getName(),
+                    report.getElapsed().toMillis(),
+                    report.getSkippedCount(),
+                    report.getRejectedCount());
+              },
+              e -> consoleError("Failed to import %s: %s", file.getName(), e.getMessage()));
+        });
+    buttonPane.add(importButton, 3, 0);
+
+    pane.add(buttonPane, 0, 3);
+    pane.add(new Separator(), 0, 4);
 
     passwordLibraryDialog
         .getDialogPane()
@@ -407,7 +714,7 @@ public class PasswordManagerApplication extends Application {
                 descriptionTextArea.getText(),
                 passwordTextField.getText(),
                 optionsMutable.get().getSalt(),
-                passwordEntryListView.getItems());
+                allPasswordEntries);
           }
           return null;
         });
@@ -417,6 +724,13 @@ public class PasswordManagerApplication extends Application {
     return passwordLibraryDialog.showAndWait();
   }
 
+  private static boolean isEntryNameTaken(
+      Collection<PasswordEntry> passwordEntries, String name, PasswordEntry excludedEntry) {
+    return passwordEntries
+        .stream()
+        .anyMatch(entry -> entry != excludedEntry && entry.getName().equals(name));
+  }
+
   private Optional<String> loadPasswordFromDialog(String title) {
     Dialog<String> passwordDialog = new Dialog<>();
 
@@ -450,6 +764,161 @@ public class PasswordManagerApplication extends Application {
     return passwordDialog.showAndWait();
   }
 
+  /** Asks for the current and new password, returned in that order. */
+  private Optional<Pair<String, String>> loadPasswordRotationFromDialog() {
+    Dialog<Pair<String, String>> passwordRotationDialog = new Dialog<>();
+
+    ButtonType changeButtonType = new ButtonType("Change", ButtonBar.ButtonData.OK_DONE);
+
+    Stage stage = (Stage) passwordRotationDialog.getDialogPane().getScene().getWindow();
+    passwordRotationDialog.setTitle("Change Password");
+    stage.getIcons().add(titleLogo);
+
+    GridPane pane = new GridPane();
+    pane.setHgap(10);
+    pane.setVgap(10);
+    pane.setAlignment(Pos.CENTER);
+
+    TextField oldPasswordTextField = new PasswordField();
+    pane.add(new Label("Current Password:"), 0, 0);
+    pane.add(oldPasswordTextField, 1, 0);
+
+    TextField newPasswordTextField = new PasswordField();
+    pane.add(new Label("New Password:"), 0, 1);
+    pane.add(newPasswordTextField, 1, 1);
+
+    TextField confirmPasswordTextField = new PasswordField();
+    pane.add(new Label("Confirm New Password:"), 0, 2);
+    pane.add(confirmPasswordTextField, 1, 2);
+
+    passwordRotationDialog
+        .getDialogPane()
+        .getButtonTypes()
+        .addAll(changeButtonType, ButtonType.CANCEL);
+
+    passwordRotationDialog.setResultConverter(
+        buttonType -> {
+          if (buttonType != changeButtonType) {
+            return null;
+          }
+          if (!newPasswordTextField.getText().equals(confirmPasswordTextField.getText())) {
+            consoleError("The new passwords do not match.");
+            return null;
+          }
+          if (newPasswordTextField.getText().equals(oldPasswordTextField.getText())) {
+            consoleError("The new password is the same as the current one.");
+            return null;
+          }
+          return new Pair<>(oldPasswordTextField.getText(), newPasswordTextField.getText());
+        });
+
+    passwordRotationDialog.getDialogPane().setContent(pane);
+
+    return passwordRotationDialog.showAndWait();
+  }
+
+  /**
+   * Re-encrypts every library under the old credentials with the new ones, in the background.
+   * Libraries under other passwords are left alone, and the job can simply be run again if it is
+   * cancelled or the application closes part way through.
+   */
+  private void rekeyPasswordLibraries(
+      String oldPassword, String oldSalt, String newPassword, String newSalt) {
+    List<File> files = new ArrayList<>(passwordLibraryFiles);
+    if (files.isEmpty()) {
+      return;
+    }
+    PasswordLibraryRekeyJob job =
+        new PasswordLibraryRekeyJob(
+            oldPassword,
+            oldSalt,
+            newPassword,
+            newSalt,
+            derivedKeyCache,
+            Runtime.getRuntime().availableProcessors());
+    consoleLog("Re-encrypting %d password libraries.", files.size());
+    runWriteInBackground(
+        progress ->
+            job.run(
+                files,
+                (file, outcome, finishedCount, totalCount) ->
+                    progress.update(
+                        (double) finishedCount / totalCount,
+                        "Re-encrypted " + finishedCount + " of " + totalCount + " libraries.")),
+        report -> {
+          report
+              .getFailures()
+              .forEach(
+                  (file, e) ->
+                      consoleError(
+                          "Failed to re-encrypt %s. Reason: %s.",
+                          file.getName(),
+                          e instanceof PasswordMismatchException
+                              ? "it has a different password"
+                              : e.getMessage()));
+          consoleGreen(
+              "Re-encrypted %d password libraries in %d ms (%.1f libraries/s, %s/s). %d were already done and %d failed.",
+              report.getRekeyedFiles().size(),
+              report.getElapsed().toMillis(),
+              report.getFilesPerSecond(),
+              formatByteCount((long) report.getBytesPerSecond()),
+              report.getAlreadyRekeyedFiles().size(),
+              report.getFailures().size());
+        },
+        e ->
+            consoleError(
+                "Failed to re-encrypt password libraries. Reason: %s. Changing the password again will pick up where this left off.",
+                e.getMessage()));
+  }
+
+  /**
+   * Reads every library at once and decrypts all of their secrets, reporting each library that
+   * fails, such as one with a different password or a damaged file.
+   */
+  private void verifyPasswordLibraries(String password) {
+    List<File> files = new ArrayList<>(passwordLibraryFiles);
+    if (files.isEmpty()) {
+      return;
+    }
+    String salt = optionsMutable.get().getSalt();
+    PasswordLibraryLoader loader = new PasswordLibraryLoader(derivedKeyCache);
+    consoleLog("Verifying %d password libraries.", files.size());
+    long startTime = System.nanoTime();
+    runInBackground(
+        progress -> {
+          int[] verifiedCount = {0};
+          return loader.verifyEach(
+              files,
+              password,
+              salt,
+              outcome ->
+                  progress.update(
+                      (double) ++verifiedCount[0] / files.size(),
+                      "Verified " + verifiedCount[0] + " of " + files.size() + " libraries."));
+        },
+        outcomes -> {
+          int failedCount = 0;
+          for (PasswordLibraryLoader.Outcome outcome : outcomes) {
+            Optional<Exception> failure = outcome.getFailure();
+            if (failure.isPresent()) {
+              failedCount++;
+              consoleError(
+                  "Failed to verify %s. Reason: %s.",
+                  outcome.getFile().getName(),
+                  failure.get() instanceof PasswordMismatchException
+                      ? "it has a different password"
+                      : failure.get().getMessage());
+            }
+          }
+          consoleGreen(
+              "Verified %d password libraries in %d ms. %d failed.",
+              outcomes.size() - failedCount,
+              Duration.ofNanos(System.nanoTime() - startTime).toMillis(),
+              failedCount);
+        },
+        e -> consoleError("Failed to verify password libraries. Reason: %s.", e.getMessage()));
+  }
+
   private Optional<PasswordEntry> loadPasswordEntryFromDialog(
       String name,
       String description,
@@ -527,15 +996,18 @@ public class PasswordManagerApplication extends Application {
         buttonType -> {
           if (buttonType == saveButtonType
               && !Objects.equals(passwordTextField.getText(), password)) {
+            Map<LocalDateTime, String> newOldPasswords = new TreeMap<>(oldPasswords);
             if (password != null) {
-              oldPasswords.put(dateTimeOfCreation, password);
+              newOldPasswords.put(dateTimeOfCreation, password);
             }
+            LocalDateTime now = LocalDateTime.now();
             return new PasswordEntry(
-                nameTextField.getText(),
-                descriptionTextArea.getText(),
-                passwordTextField.getText(),
-                LocalDateTime.now(),
-                oldPasswords);
+                    nameTextField.getText(),
+                    descriptionTextArea.getText(),
+                    passwordTextField.getText(),
+                    now,
+                    newOldPasswords)
+                .withHistoryCompactedBy(optionsMutable.get().getHistoryPolicy(), now);
           }
           return null;
         });
@@ -552,7 +1024,33 @@ public class PasswordManagerApplication extends Application {
     StackPane.setMargin(optionsButton, new Insets(10));
 
     optionsButton.setOnAction(
-        actionEvent -> loadOptionsFromDialog().ifPresent(optionsMutable::set));
+        actionEvent ->
+            loadOptionsFromDialog()
+                .ifPresent(
+                    options -> {
+                      String oldSalt = optionsMutable.get().getSalt();
+                      if (!options.getSalt().equals(oldSalt)) {
+                        // Libraries re-encrypted under a salt that was never saved could not be
+                        // read after a restart, so the salt is saved before anything else.
+                        try {
+                          optionsService.writeOptionsFileToDisk(options);
+                        } catch (IOException e) {
+                          consoleError(
+                              "Failed to save the new salt, so it has not been changed. Reason: %s.",
+                              e.getMessage());
+                          return;
+                        }
+                      }
+                      optionsMutable.set(options);
+                      if (!options.getSalt().equals(oldSalt)) {
+                        loadPasswordFromDialog(
+                                "The salt has changed. Please enter the password of the libraries to re-encrypt with the new salt:")
+                            .ifPresent(
+                                password ->
+                                    rekeyPasswordLibraries(
+                                        password, oldSalt, password, options.getSalt()));
+                      }
+                    }));
 
     root.getChildren().add(optionsButton);
   }
@@ -611,6 +1109,56 @@ public class PasswordManagerApplication extends Application {
     pane.add(new Label("Salt:"), 0, 1);
     pane.add(saltTextField, 2, 1);
 
+    ChoiceBox<StorageMode> storageModeChoiceBox = new ChoiceBox<>();
+    storageModeChoiceBox.getItems().addAll(StorageMode.values());
+    storageModeChoiceBox.setValue(optionsMutable.get().getStorageMode());
+    pane.add(new Label("Storage Mode:"), 0, 2);
+    pane.add(storageModeChoiceBox, 2, 2);
+
+    SnapshotRetentionPolicy retentionPolicy = optionsMutable.get().getRetentionPolicy();
+    Spinner<Integer> keepLastSpinner =
+        new Spinner<>(0, Integer.MAX_VALUE, retentionPolicy.getKeepLast());
+    keepLastSpinner.setEditable(true);
+    pane.add(new Label("Snapshots Kept:"), 0, 3);
+    pane.add(keepLastSpinner, 2, 3);
+
+    Spinner<Integer> keepDailySpinner =
+        new Spinner<>(0, Integer.MAX_VALUE, retentionPolicy.getKeepDaily());
+    keepDailySpinner.setEditable(true);
+    pane.add(new Label("Daily Snapshots Kept:"), 0, 4);
+    pane.add(keepDailySpinner, 2, 4);
+
+    Spinner<Integer> keepWeeklySpinner =
+        new Spinner<>(0, Integer.MAX_VALUE, retentionPolicy.getKeepWeekly());
+    keepWeeklySpinner.setEditable(true);
+    pane.add(new Label("Weekly Snapshots Kept:"), 0, 5);
+    pane.add(keepWeeklySpinner, 2, 5);
+
+    int maximumTotalMegabytes = toMegabytes(retentionPolicy.getMaximumTotalBytes());
+    Spinner<Integer> maximumTotalMegabytesSpinner =
+        new Spinner<>(0, Integer.MAX_VALUE, maximumTotalMegabytes);
+    maximumTotalMegabytesSpinner.setEditable(true);
+    pane.add(new Label("Maximum Total Size (MB, 0 for none):"), 0, 6);
+    pane.add(maximumTotalMegabytesSpinner, 2, 6);
+
+    CheckBox retentionDryRunCheckBox = new CheckBox("Only report expired snapshots");
+    retentionDryRunCheckBox.setSelected(optionsMutable.get().isRetentionDryRun());
+    pane.add(new Label("Snapshot Clean Up:"), 0, 7);
+    pane.add(retentionDryRunCheckBox, 2, 7);
+
+    PasswordHistoryPolicy historyPolicy = optionsMutable.get().getHistoryPolicy();
+    Spinner<Integer> historyMaximumCountSpinner =
+        new Spinner<>(0, Integer.MAX_VALUE, historyPolicy.getMaximumCount());
+    historyMaximumCountSpinner.setEditable(true);
+    pane.add(new Label("Old Passwords Kept (0 for all):"), 0, 8);
+    pane.add(historyMaximumCountSpinner, 2, 8);
+
+    Spinner<Integer> historyMaximumAgeDaysSpinner =
+        new Spinner<>(0, Integer.MAX_VALUE, (int) historyPolicy.getMaximumAge().toDays());
+    historyMaximumAgeDaysSpinner.setEditable(true);
+    pane.add(new Label("Old Passwords Kept For (days, 0 for ever):"), 0, 9);
+    pane.add(historyMaximumAgeDaysSpinner, 2, 9);
+
     optionsDialog.getDialogPane().getButtonTypes().addAll(applyButtonType, ButtonType.CANCEL);
 
     optionsDialog.setResultConverter(
@@ -619,6 +1167,25 @@ public class PasswordManagerApplication extends Application {
             return Options.where()
                 .dataPathIsSetTo(dataPathLabel.getText())
                 .saltIsSetTo(saltTextField.getText())
+                .storageModeIsSetTo(storageModeChoiceBox.getValue())
+                .retentionPolicyIsSetTo(
+                    SnapshotRetentionPolicy.where()
+                        .keepLastIsSetTo(keepLastSpinner.getValue())
+                        .keepDailyIsSetTo(keepDailySpinner.getValue())
+                        .keepWeeklyIsSetTo(keepWeeklySpinner.getValue())
+                        .maximumTotalBytesIsSetTo(
+                            // A limit that was not a whole number of megabytes is kept as it was,
+                            // unless it is changed.
+                            maximumTotalMegabytesSpinner.getValue() == maximumTotalMegabytes
+                                ? retentionPolicy.getMaximumTotalBytes()
+                                : (long) maximumTotalMegabytesSpinner.getValue() << 20)
+                        .build())
+                .retentionDryRunIsSetTo(retentionDryRunCheckBox.isSelected())
+                .historyPolicyIsSetTo(
+                    PasswordHistoryPolicy.where()
+                        .maximumCountIsSetTo(historyMaximumCountSpinner.getValue())
+                        .maximumAgeIsSetTo(Duration.ofDays(historyMaximumAgeDaysSpinner.getValue()))
+                        .build())
                 .build();
           }
           return null;
@@ -629,9 +1196,46 @@ public class PasswordManagerApplication extends Application {
     return optionsDialog.showAndWait();
   }
 
+  /**
+   * Indexes the data directory in the background, after which the library list follows changes to
+   * the directory as they happen rather than being reloaded.
+   */
   private void loadPasswordLibraryDataFromDisk() {
-    consoleLog("Loading password library data from disk.");
     File passwordLibraryDataDirectory = new File(optionsMutable.get().getDataPath());
+    closePasswordLibraryDirectoryIndex();
+    runInBackground(
+        progress -> {
+          progress.update(-1, "Scanning " + passwordLibraryDataDirectory + ".");
+          Optional<PasswordLibraryDirectoryIndex> index =
+              indexPasswordLibraryData(passwordLibraryDataDirectory);
+          if (index.isPresent()) {
+            try {
+              progress.checkCancelled();
+            } catch (CancellationException e) {
+              index.get().close();
+              throw e;
+            }
+          }
+          return index;
+        },
+        index ->
+            index.ifPresent(
+                openedIndex -> {
+                  closePasswordLibraryDirectoryIndex();
+                  passwordLibraryDirectoryIndex = openedIndex;
+                  passwordLibraryFiles.clear();
+                  passwordLibraryFiles.addAll(openedIndex.getFiles());
+                  updatePasswordLibraryData();
+                  consoleGreen("Successfully loaded password library data!");
+                }),
+        e ->
+            consoleError(
+                "Failed to load password library data from disk. Reason: %s.", e.getMessage()));
+  }
+
+  private Optional<PasswordLibraryDirectoryIndex> indexPasswordLibraryData(
+      File passwordLibraryDataDirectory) throws IOException {
+    consoleLog("Loading password library data from disk.");
     if (!passwordLibraryDataDirectory.exists()) {
       consoleError(
           "Failed to load password library data from disk. Reason: no directory at %s.",
@@ -640,7 +1244,7 @@ public class PasswordManagerApplication extends Application {
       if (!passwordLibraryDataDirectory.mkdirs()) {
         consoleError(
             "Failed to write new password library directory to disk. Please update the data path using the options menu.");
-        return;
+        return Optional.empty();
       }
       consoleGreen("Successfully setup new password library directory!");
     }
@@ -648,29 +1252,276 @@ public class PasswordManagerApplication extends Application {
     if (!passwordLibraryDataDirectory.isDirectory()) {
       consoleError(
           "Password library data path does not point to a directory. Please update the data path using the options menu.");
+      return Optional.empty();
+    }
+
+    AtomicReference<PasswordLibraryDirectoryIndex> index = new AtomicReference<>();
+    index.set(
+        PasswordLibraryDirectoryIndex.open(
+            passwordLibraryDataDirectory.toPath(),
+            delta -> {
+              readPasswordLibraryCatalogs(delta.getAdded());
+              readPasswordLibraryCatalogs(delta.getModified());
+              Platform.runLater(
+                  () -> {
+                    if (passwordLibraryDirectoryIndex == index.get()) {
+                      applyPasswordLibraryDataDelta(delta);
+                    }
+                  });
+            }));
+    passwordLibraryCatalogs.clear();
+    readPasswordLibraryCatalogs(index.get().getFiles());
+    return Optional.of(index.get());
+  }
+
+  /** Reads the catalogs of the directories holding the files, one read per directory. */
+  private void readPasswordLibraryCatalogs(Collection<File> files) {
+    files
+        .stream()
+        .map(file -> file.getAbsoluteFile().getParentFile())
+        .distinct()
+        .forEach(
+            directory ->
+                passwordLibraryCatalogs.put(directory, PasswordLibraryCatalog.read(directory)));
+  }
+
+  private Optional<PasswordLibraryCatalog.Entry> getPasswordLibraryCatalogEntry(File file) {
+    return passwordLibraryCatalogs
+        .getOrDefault(file.getAbsoluteFile().getParentFile(), PasswordLibraryCatalog.empty())
+        .get(file);
+  }
+
+  private String describePasswordLibraryFile(File file) {
+    String description =
+        getPasswordLibraryCatalogEntry(file)
+            .map(
+                entry ->
+                    String.format(
+                        "%s (%d entries, saved %s)",
+                        entry.getLibraryName(),
+                        entry.getEntryCount(),
+                        LocalDateTime.ofInstant(entry.getLastModified(), ZoneId.systemDefault())
+                            .format(DateTimeFormatter.ofLocalizedDateTime(FormatStyle.SHORT))))
+            .orElseGet(file::getName);
+    int olderSnapshotCount = olderSnapshotCounts.getOrDefault(file, 0);
+    return olderSnapshotCount == 0
+        ? description
+        : String.format("%s, +%d older", description, olderSnapshotCount);
+  }
+
+  /**
+   * Lists the newest snapshot of each library, or every snapshot when asked to, using only what the
+   * catalogs recorded about each file.
+   */
+  private void updatePasswordLibraryData() {
+    olderSnapshotCounts.clear();
+    if (showOlderSnapshotsCheckBox.isSelected()) {
+      passwordLibraryData.getItems().setAll(passwordLibraryFiles);
       return;
     }
+    List<File> newestSnapshots = new ArrayList<>();
+    for (List<File> snapshots :
+        PasswordLibraryCatalog.groupSnapshots(
+            passwordLibraryFiles, this::getPasswordLibraryCatalogEntry)) {
+      newestSnapshots.add(snapshots.get(0));
+      olderSnapshotCounts.put(snapshots.get(0), snapshots.size() - 1);
+    }
+    passwordLibraryData.getItems().setAll(newestSnapshots);
+  }
 
-    List<File> passwordLibraryData;
-    try {
-      passwordLibraryData =
-          Files.walk(passwordLibraryDataDirectory.toPath())
-              .map(Path::toFile)
-              .filter(File::isFile)
-              .filter(file -> file.getName().endsWith(PasswordLibrary.FILE_SUFFIX))
-              .sorted(Comparator.comparing(File::getName))
-              .collect(Collectors.toList());
-    } catch (IOException e) {
-      consoleError("Failed to load password library data from disk. Reason: %s.", e.getMessage());
+  /**
+   * Applies a delta to the sorted library list. Deltas may overlap with the snapshot the list was
+   * filled from, so adding a file that is already listed, or removing one that is not, does
+   * nothing.
+   */
+  private void applyPasswordLibraryDataDelta(PasswordLibraryDirectoryIndex.Delta delta) {
+    List<File> files = passwordLibraryFiles;
+    for (File file : delta.getRemoved()) {
+      int position = Collections.binarySearch(files, file, PasswordLibraryDirectoryIndex.ORDER);
+      if (position >= 0) {
+        files.remove(position);
+      }
+    }
+    for (File file : delta.getAdded()) {
+      int position = Collections.binarySearch(files, file, PasswordLibraryDirectoryIndex.ORDER);
+      if (position < 0) {
+        files.add(-position - 1, file);
+      }
+    }
+    updatePasswordLibraryData();
+  }
+
+  private void refreshPasswordLibraryData(File file) {
+    if (passwordLibraryDirectoryIndex != null) {
+      passwordLibraryDirectoryIndex.refresh(file);
+    }
+  }
+
+  /**
+   * Applies the retention policy to the indexed libraries. This runs on its own schedule, so it
+   * only reports to the console when there was something to clean up.
+   */
+  private void collectExpiredSnapshots() {
+    PasswordLibraryDirectoryIndex index = passwordLibraryDirectoryIndex;
+    if (index == null) {
       return;
     }
-    consoleGreen("Successfully loaded password library data!");
+    Options options = optionsMutable.get();
+    SnapshotRetentionEngine.Report report =
+        snapshotRetentionEngine.run(
+            index.getFiles(), options.getRetentionPolicy(), options.isRetentionDryRun());
+    if (report.getExpiredFiles().isEmpty() && report.getFailedFileCount() == 0) {
+      return;
+    }
+    if (report.isDryRun()) {
+      consoleLog(
+          "%d of %d snapshots have expired, and deleting them would reclaim %s. Turn off reporting only in the options menu to clean them up.",
+          report.getExpiredFiles().size(),
+          report.getExaminedFileCount(),
+          formatByteCount(report.getReclaimedBytes()));
+    } else {
+      consoleGreen(
+          "Deleted %d of %d snapshots in %d ms, reclaiming %s (%s this session).",
+          report.getExpiredFiles().size(),
+          report.getExaminedFileCount(),
+          report.getElapsed().toMillis(),
+          formatByteCount(report.getReclaimedBytes()),
+          formatByteCount(snapshotRetentionEngine.getReclaimedBytes()));
+    }
+    if (report.getFailedFileCount() > 0) {
+      consoleError("Failed to delete %d expired snapshots.", report.getFailedFileCount());
+    }
+  }
 
-    Platform.runLater(
-        () -> {
-          this.passwordLibraryData.getItems().clear();
-          this.passwordLibraryData.getItems().addAll(passwordLibraryData);
-        });
+  /**
+   * A size limit in whole megabytes, rounded up, so that a limit below a megabyte is not shown as
+   * no limit at all, and capped at what a spinner holds.
+   */
+  private static int toMegabytes(long byteCount) {
+    long megabytes = (byteCount >> 20) + ((byteCount & ((1 << 20) - 1)) == 0 ? 0 : 1);
+    return (int) Math.min(megabytes, Integer.MAX_VALUE);
+  }
+
+  private static String formatByteCount(long byteCount) {
+    if (byteCount < 1024) {
+      return byteCount + " B";
+    }
+    int exponent = (63 - Long.numberOfLeadingZeros(byteCount)) / 10;
+    return String.format(
+        "%.1f %sB", (double) byteCount / (1L << (10 * exponent)), "KMGTPE".charAt(exponent - 1));
+  }
+
+  private void closePasswordLibraryDirectoryIndex() {
+    if (passwordLibraryDirectoryIndex != null) {
+      try {
+        passwordLibraryDirectoryIndex.close();
+      } catch (IOException ignored) {
+      }
+      passwordLibraryDirectoryIndex = null;
+    }
+  }
+
+  /**
+   * Runs work that only reads on the task service, showing its progress until it finishes or is
+   * cancelled. The callbacks are run on the application thread, and then where the time went is
+   * logged.
+   */
+  private <T> void runInBackground(
+      TaskService.Work<T> work, Consumer<T> onSuccess, Consumer<Exception> onFailure) {
+    runInBackground(false, work, onSuccess, onFailure);
+  }
+
+  /** Runs work that writes, like {@link #runInBackground}, but without ever interrupting it. */
+  private <T> void runWriteInBackground(
+      TaskService.Work<T> work, Consumer<T> onSuccess, Consumer<Exception> onFailure) {
+    runInBackground(true, work, onSuccess, onFailure);
+  }
+
+  private <T> void runInBackground(
+      boolean writes,
+      TaskService.Work<T> work,
+      Consumer<T> onSuccess,
+      Consumer<Exception> onFailure) {
+    AtomicReference<TaskService.Task> task = new AtomicReference<>();
+    MetricsSnapshot metricsBefore = Metrics.snapshot();
+    long startTime = System.nanoTime();
+    TaskService.ProgressListener progressListener =
+        (fraction, message) -> {
+          if (currentTask == task.get()) {
+            taskProgressBar.setProgress(fraction);
+            taskProgressLabel.setText(message);
+          }
+        };
+    Consumer<T> onTaskSuccess =
+        result -> {
+          finishTask(task.get());
+          onSuccess.accept(result);
+          consoleBreakdown(startTime, metricsBefore);
+        };
+    Consumer<Exception> onTaskFailure =
+        e -> {
+          finishTask(task.get());
+          onFailure.accept(e);
+          consoleBreakdown(startTime, metricsBefore);
+        };
+    task.set(
+        writes
+            ? taskService.submitWrite(work, progressListener, onTaskSuccess, onTaskFailure)
+            : taskService.submit(work, progressListener, onTaskSuccess, onTaskFailure));
+    currentTask = task.get();
+    taskProgressPane.setVisible(true);
+  }
+
+  private void finishTask(TaskService.Task task) {
+    if (currentTask == task) {
+      currentTask = null;
+      taskProgressPane.setVisible(false);
+    }
+  }
+
+  private void cancelCurrentTask() {
+    if (currentTask != null) {
+      if (!currentTask.cancel()) {
+        consoleLog(
+            "The task in progress can no longer be cancelled, so it will be left to finish.");
+        return;
+      }
+      currentTask = null;
+      taskProgressPane.setVisible(false);
+      consoleLog("Cancelled the task in progress.");
+    }
+  }
+
+  /**
+   * Logs how long a task took, and the operations it spent the most time on. Operations include
+   * those they call, and any others running at the same time, such as a compaction, are counted
+   * too.
+   */
+  private void consoleBreakdown(long startTime, MetricsSnapshot metricsBefore) {
+    long elapsedNanos = System.nanoTime() - startTime;
+    MetricsSnapshot metrics = Metrics.snapshot().since(metricsBefore);
+    String breakdown =
+        metrics
+            .getLatencies()
+            .entrySet()
+            .stream()
+            .filter(latency -> latency.getValue().getCount() > 0)
+            .sorted(
+                Comparator.comparingLong(
+                        (Map.Entry<String, LatencySnapshot> latency) ->
+                            latency.getValue().getTotalNanos())
+                    .reversed())
+            .map(
+                latency ->
+                    String.format(
+                        "%s %.1f ms (%d)",
+                        metrics.getDescription(latency.getKey()),
+                        latency.getValue().getTotalNanos() / 1e6,
+                        latency.getValue().getCount()))
+            .collect(Collectors.joining(", "));
+    if (!breakdown.isEmpty()) {
+      consoleLog("Took %.1f ms: %s.", elapsedNanos / 1e6, breakdown);
+    }
   }
 
   private void consoleWrite(char symbol, String message, Object... arguments) {
@@ -1,7 +1,14 @@
 package thorpe.luke.password.ui;
 
+import thorpe.luke.password.cli.PasswordManagerCli;
+
 public class PasswordManagerApplicationWrapper {
   public static void main(String[] args) {
-    PasswordManagerApplication.main(args);
+    if (args.length > 0) {
+      // Commands run headless, without loading any of JavaFX.
+      PasswordManagerCli.main(args);
+    } else {
+      PasswordManagerApplication.main(args);
+    }
   }
 }
@@ -1,20 +1,44 @@
 package thorpe.luke.password.ui.model;
 
 import java.util.Objects;
+import thorpe.luke.password.PasswordHistoryPolicy;
+import thorpe.luke.password.SnapshotRetentionPolicy;
 
 public class Options {
 
   public enum Field {
     DATA_PATH,
-    SALT;
+    SALT,
+    STORAGE_MODE,
+    RETENTION_KEEP_LAST,
+    RETENTION_KEEP_DAILY,
+    RETENTION_KEEP_WEEKLY,
+    RETENTION_MAXIMUM_TOTAL_BYTES,
+    RETENTION_DRY_RUN,
+    HISTORY_MAXIMUM_COUNT,
+    HISTORY_MAXIMUM_AGE_DAYS;
   }
 
   private final String dataPath;
   private final String salt;
+  private final StorageMode storageMode;
+  private final SnapshotRetentionPolicy retentionPolicy;
+  private final boolean retentionDryRun;
+  private final PasswordHistoryPolicy historyPolicy;
 
-  public Options(String dataPath, String salt) {
+  public Options(
+      String dataPath,
+      String salt,
+      StorageMode storageMode,
+      SnapshotRetentionPolicy retentionPolicy,
+      boolean retentionDryRun,
+      PasswordHistoryPolicy historyPolicy) {
     this.dataPath = dataPath;
     this.salt = salt;
+    this.storageMode = storageMode;
+    this.retentionPolicy = retentionPolicy;
+    this.retentionDryRun = retentionDryRun;
+    this.historyPolicy = historyPolicy;
   }
 
   public String getDataPath() {
@@ -25,6 +49,23 @@ public class Options {
     return salt;
   }
 
+  public StorageMode getStorageMode() {
+    return storageMode;
+  }
+
+  public SnapshotRetentionPolicy getRetentionPolicy() {
+    return retentionPolicy;
+  }
+
+  /** Whether old snapshots are only reported on, rather than deleted. */
+  public boolean isRetentionDryRun() {
+    return retentionDryRun;
+  }
+
+  public PasswordHistoryPolicy getHistoryPolicy() {
+    return historyPolicy;
+  }
+
   public static OptionsBuilder where() {
     return new OptionsBuilder();
   }
@@ -33,6 +74,10 @@ public class Options {
 
     private String dataPath;
     private String salt;
+    private StorageMode storageMode;
+    private SnapshotRetentionPolicy retentionPolicy = SnapshotRetentionPolicy.KEEP_EVERYTHING;
+    private boolean retentionDryRun = true;
+    private PasswordHistoryPolicy historyPolicy = PasswordHistoryPolicy.KEEP_EVERYTHING;
 
     public OptionsBuilder dataPathIsSetTo(String dataPath) {
       this.dataPath = dataPath;
@@ -44,14 +89,36 @@ public class Options {
       return this;
     }
 
+    public OptionsBuilder storageModeIsSetTo(StorageMode storageMode) {
+      this.storageMode = storageMode;
+      return this;
+    }
+
+    public OptionsBuilder retentionPolicyIsSetTo(SnapshotRetentionPolicy retentionPolicy) {
+      this.retentionPolicy = retentionPolicy;
+      return this;
+    }
+
+    public OptionsBuilder retentionDryRunIsSetTo(boolean retentionDryRun) {
+      this.retentionDryRun = retentionDryRun;
+      return this;
+    }
+
+    public OptionsBuilder historyPolicyIsSetTo(PasswordHistoryPolicy historyPolicy) {
+      this.historyPolicy = historyPolicy;
+      return this;
+    }
+
     public Options build() {
-      return new Options(dataPath, salt);
+      return new Options(
+          dataPath, salt, storageMode, retentionPolicy, retentionDryRun, historyPolicy);
     }
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(dataPath, salt);
+    return Objects.hash(
+        dataPath, salt, storageMode, retentionPolicy, retentionDryRun, historyPolicy);
   }
 
   @Override
@@ -60,7 +127,12 @@ public class Options {
       return true;
     } else if (object instanceof Options) {
       Options that = (Options) object;
-      return this.dataPath.equals(that.dataPath) && this.salt.equals(that.salt);
+      return this.dataPath.equals(that.dataPath)
+          && this.salt.equals(that.salt)
+          && this.storageMode == that.storageMode
+          && this.retentionPolicy.equals(that.retentionPolicy)
+          && this.retentionDryRun == that.retentionDryRun
+          && this.historyPolicy.equals(that.historyPolicy);
     }
     return false;
   }
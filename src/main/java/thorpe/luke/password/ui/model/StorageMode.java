@@ -0,0 +1,19 @@
+package thorpe.luke.password.ui.model;
+
+public enum StorageMode {
+  /** Every save writes the whole library to a new timestamped file. */
+  SNAPSHOT("New file per save"),
+  /** Every save appends the changes to the library's existing file. */
+  APPEND("Append to one file per library");
+
+  StorageMode(String description) {
+    this.description = description;
+  }
+
+  private final String description;
+
+  @Override
+  public String toString() {
+    return description;
+  }
+}
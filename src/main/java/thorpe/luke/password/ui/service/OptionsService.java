@@ -1,15 +1,40 @@
 package thorpe.luke.password.ui.service;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Properties;
+import thorpe.luke.password.PasswordHistoryPolicy;
+import thorpe.luke.password.SnapshotRetentionPolicy;
 import thorpe.luke.password.ui.model.Options;
+import thorpe.luke.password.ui.model.StorageMode;
+import thorpe.luke.util.DurableFiles;
 
 public class OptionsService {
   private static final String DEFAULT_DATA_PATH = "./.data/";
   private static final String DEFAULT_SALT = "s0me_$4Lt";
+  private static final StorageMode DEFAULT_STORAGE_MODE = StorageMode.SNAPSHOT;
+  private static final SnapshotRetentionPolicy DEFAULT_RETENTION_POLICY =
+      SnapshotRetentionPolicy.where()
+          .keepLastIsSetTo(10)
+          .keepDailyIsSetTo(7)
+          .keepWeeklyIsSetTo(4)
+          .build();
+  private static final boolean DEFAULT_RETENTION_DRY_RUN = true;
+  private static final PasswordHistoryPolicy DEFAULT_HISTORY_POLICY =
+      PasswordHistoryPolicy.where().maximumCountIsSetTo(50).build();
 
   private static final Options DEFAULT_OPTIONS =
-      Options.where().dataPathIsSetTo(DEFAULT_DATA_PATH).saltIsSetTo(DEFAULT_SALT).build();
+      Options.where()
+          .dataPathIsSetTo(DEFAULT_DATA_PATH)
+          .saltIsSetTo(DEFAULT_SALT)
+          .storageModeIsSetTo(DEFAULT_STORAGE_MODE)
+          .retentionPolicyIsSetTo(DEFAULT_RETENTION_POLICY)
+          .retentionDryRunIsSetTo(DEFAULT_RETENTION_DRY_RUN)
+          .historyPolicyIsSetTo(DEFAULT_HISTORY_POLICY)
+          .build();
 
   private final String optionsPath;
 
@@ -24,8 +49,19 @@ public class OptionsService {
 
     String dataPath = parseDataPathFrom(properties);
     String salt = parseSaltFrom(properties);
+    StorageMode storageMode = parseStorageModeFrom(properties);
+    SnapshotRetentionPolicy retentionPolicy = parseRetentionPolicyFrom(properties);
+    boolean retentionDryRun = parseRetentionDryRunFrom(properties);
+    PasswordHistoryPolicy historyPolicy = parseHistoryPolicyFrom(properties);
 
-    return Options.where().dataPathIsSetTo(dataPath).saltIsSetTo(salt).build();
+    return Options.where()
+        .dataPathIsSetTo(dataPath)
+        .saltIsSetTo(salt)
+        .storageModeIsSetTo(storageMode)
+        .retentionPolicyIsSetTo(retentionPolicy)
+        .retentionDryRunIsSetTo(retentionDryRun)
+        .historyPolicyIsSetTo(historyPolicy)
+        .build();
   }
 
   private String parseDataPathFrom(Properties properties) {
@@ -36,21 +72,129 @@ public class OptionsService {
     return properties.getProperty(Options.Field.SALT.name(), DEFAULT_OPTIONS.getSalt());
   }
 
+  private StorageMode parseStorageModeFrom(Properties properties) {
+    String storageMode = properties.getProperty(Options.Field.STORAGE_MODE.name());
+    try {
+      return storageMode != null
+          ? StorageMode.valueOf(storageMode)
+          : DEFAULT_OPTIONS.getStorageMode();
+    } catch (IllegalArgumentException e) {
+      return DEFAULT_OPTIONS.getStorageMode();
+    }
+  }
+
+  private SnapshotRetentionPolicy parseRetentionPolicyFrom(Properties properties) {
+    SnapshotRetentionPolicy defaultRetentionPolicy = DEFAULT_OPTIONS.getRetentionPolicy();
+    return SnapshotRetentionPolicy.where()
+        .keepLastIsSetTo(
+            (int)
+                parseNonNegativeFrom(
+                    properties,
+                    Options.Field.RETENTION_KEEP_LAST,
+                    defaultRetentionPolicy.getKeepLast(),
+                    Integer.MAX_VALUE))
+        .keepDailyIsSetTo(
+            (int)
+                parseNonNegativeFrom(
+                    properties,
+                    Options.Field.RETENTION_KEEP_DAILY,
+                    defaultRetentionPolicy.getKeepDaily(),
+                    Integer.MAX_VALUE))
+        .keepWeeklyIsSetTo(
+            (int)
+                parseNonNegativeFrom(
+                    properties,
+                    Options.Field.RETENTION_KEEP_WEEKLY,
+                    defaultRetentionPolicy.getKeepWeekly(),
+                    Integer.MAX_VALUE))
+        .maximumTotalBytesIsSetTo(
+            parseNonNegativeFrom(
+                properties,
+                Options.Field.RETENTION_MAXIMUM_TOTAL_BYTES,
+                defaultRetentionPolicy.getMaximumTotalBytes(),
+                Long.MAX_VALUE))
+        .build();
+  }
+
+  private PasswordHistoryPolicy parseHistoryPolicyFrom(Properties properties) {
+    PasswordHistoryPolicy defaultHistoryPolicy = DEFAULT_OPTIONS.getHistoryPolicy();
+    return PasswordHistoryPolicy.where()
+        .maximumCountIsSetTo(
+            (int)
+                parseNonNegativeFrom(
+                    properties,
+                    Options.Field.HISTORY_MAXIMUM_COUNT,
+                    defaultHistoryPolicy.getMaximumCount(),
+                    Integer.MAX_VALUE))
+        .maximumAgeIsSetTo(
+            Duration.ofDays(
+                parseNonNegativeFrom(
+                    properties,
+                    Options.Field.HISTORY_MAXIMUM_AGE_DAYS,
+                    defaultHistoryPolicy.getMaximumAge().toDays(),
+                    Integer.MAX_VALUE)))
+        .build();
+  }
+
+  private long parseNonNegativeFrom(
+      Properties properties, Options.Field field, long defaultValue, long maximumValue) {
+    String value = properties.getProperty(field.name());
+    try {
+      long parsedValue = value != null ? Long.parseLong(value) : defaultValue;
+      return parsedValue >= 0 && parsedValue <= maximumValue ? parsedValue : defaultValue;
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  private boolean parseRetentionDryRunFrom(Properties properties) {
+    String retentionDryRun = properties.getProperty(Options.Field.RETENTION_DRY_RUN.name());
+    return retentionDryRun != null
+        ? Boolean.parseBoolean(retentionDryRun)
+        : DEFAULT_OPTIONS.isRetentionDryRun();
+  }
+
   public Options loadDefaultOptions() {
     return DEFAULT_OPTIONS;
   }
 
+  /**
+   * Writes the options in one step, so that a crash leaves either the old file or the new. The salt
+   * in particular must never be lost, since libraries re-encrypted under it cannot be read without
+   * it.
+   */
   public void writeOptionsFileToDisk(Options options) throws IOException {
-    File file = new File(optionsPath);
-    if (!file.exists() && !(file.getParentFile().mkdirs() && file.createNewFile())) {
-      throw new IOException("Failed to create new file at " + file.getPath());
-    }
-    OutputStream outputStream = new FileOutputStream(file);
+    Path file = Paths.get(optionsPath);
+    Files.createDirectories(file.toAbsolutePath().getParent());
     Properties properties = new Properties();
 
     properties.setProperty(Options.Field.DATA_PATH.name(), options.getDataPath());
+    properties.setProperty(Options.Field.SALT.name(), options.getSalt());
+    properties.setProperty(Options.Field.STORAGE_MODE.name(), options.getStorageMode().name());
+    SnapshotRetentionPolicy retentionPolicy = options.getRetentionPolicy();
+    properties.setProperty(
+        Options.Field.RETENTION_KEEP_LAST.name(), Integer.toString(retentionPolicy.getKeepLast()));
+    properties.setProperty(
+        Options.Field.RETENTION_KEEP_DAILY.name(),
+        Integer.toString(retentionPolicy.getKeepDaily()));
+    properties.setProperty(
+        Options.Field.RETENTION_KEEP_WEEKLY.name(),
+        Integer.toString(retentionPolicy.getKeepWeekly()));
+    properties.setProperty(
+        Options.Field.RETENTION_MAXIMUM_TOTAL_BYTES.name(),
+        Long.toString(retentionPolicy.getMaximumTotalBytes()));
+    properties.setProperty(
+        Options.Field.RETENTION_DRY_RUN.name(), Boolean.toString(options.isRetentionDryRun()));
+    PasswordHistoryPolicy historyPolicy = options.getHistoryPolicy();
+    properties.setProperty(
+        Options.Field.HISTORY_MAXIMUM_COUNT.name(),
+        Integer.toString(historyPolicy.getMaximumCount()));
+    properties.setProperty(
+        Options.Field.HISTORY_MAXIMUM_AGE_DAYS.name(),
+        Long.toString(historyPolicy.getMaximumAge().toDays()));
 
-    properties.store(outputStream, "Password Manager options file.");
+    DurableFiles.write(
+        file, outputStream -> properties.store(outputStream, "Password Manager options file."));
   }
 
   public Options writeNewOptionsFileToDisk() throws IOException {
@@ -0,0 +1,210 @@
+package thorpe.luke.password.ui.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+import javafx.application.Platform;
+
+/**
+ * Runs slow work, such as key derivation and file access, on background threads so that the
+ * application thread stays responsive. Progress, results and failures are all handed back through
+ * the callback executor, which is {@link Platform#runLater} unless told otherwise.
+ *
+ * <p>Work that only reads is interrupted when cancelled. Work that writes is never interrupted,
+ * since an interrupt closes the file being written part way through a write, so it only stops at
+ * its own checks, and once it has begun writing it can no longer be cancelled at all.
+ */
+public class TaskService {
+  private static final int THREAD_COUNT = 2;
+
+  private final ExecutorService executorService;
+  private final Executor callbackExecutor;
+  private final Set<Task> tasks = ConcurrentHashMap.newKeySet();
+
+  public TaskService() {
+    this(
+        Executors.newFixedThreadPool(
+            THREAD_COUNT,
+            new ThreadFactoryBuilder()
+                .setNameFormat("password-manager-task-%d")
+                .setDaemon(true)
+                .build()),
+        Platform::runLater);
+  }
+
+  TaskService(ExecutorService executorService, Executor callbackExecutor) {
+    this.executorService = executorService;
+    this.callbackExecutor = callbackExecutor;
+  }
+
+  /** Work that can report its progress, and should check for cancellation between steps. */
+  public interface Work<T> {
+    T run(Progress progress) throws Exception;
+  }
+
+  /** Receives progress on the callback executor. A fraction below zero means indeterminate. */
+  public interface ProgressListener {
+    void onProgress(double fraction, String message);
+  }
+
+  public class Progress {
+    private final ProgressListener progressListener;
+    private volatile boolean cancelled;
+    private boolean writing;
+
+    private Progress(ProgressListener progressListener) {
+      this.progressListener = progressListener;
+      this.cancelled = false;
+      this.writing = false;
+    }
+
+    /** Reports progress, first throwing if the task has been cancelled. */
+    public void update(double fraction, String message) {
+      checkCancelled();
+      callbackExecutor.execute(() -> progressListener.onProgress(fraction, message));
+    }
+
+    public void checkCancelled() {
+      if (cancelled) {
+        throw new CancellationException();
+      }
+    }
+
+    /**
+     * Marks the point from which the work writes, first throwing if the task has been cancelled.
+     * From then on the task can no longer be cancelled, and its result is always handed back.
+     */
+    public synchronized void beginWriting() {
+      checkCancelled();
+      writing = true;
+    }
+
+    private synchronized boolean cancelUnlessWriting() {
+      if (!writing) {
+        cancelled = true;
+      }
+      return cancelled;
+    }
+  }
+
+  public static class Task {
+    private final Progress progress;
+    private final boolean interruptible;
+    private Future<?> future;
+
+    private Task(Progress progress, boolean interruptible) {
+      this.progress = progress;
+      this.interruptible = interruptible;
+    }
+
+    /**
+     * Cancels the task, unless it has finished or begun writing. Work that only reads is
+     * interrupted, and any other work stops at its next check, and either way its result is
+     * discarded whether or not the work stops in time.
+     *
+     * @return whether the task was cancelled.
+     */
+    public boolean cancel() {
+      if (future.isDone() || !progress.cancelUnlessWriting()) {
+        return false;
+      }
+      future.cancel(interruptible);
+      return true;
+    }
+
+    public boolean isCancelled() {
+      return progress.cancelled;
+    }
+
+    public boolean isDone() {
+      return future.isDone();
+    }
+  }
+
+  /** Submits work that only reads, and so is interrupted if it is cancelled. */
+  public <T> Task submit(
+      Work<T> work,
+      ProgressListener progressListener,
+      Consumer<T> onSuccess,
+      Consumer<Exception> onFailure) {
+    return submit(work, true, progressListener, onSuccess, onFailure);
+  }
+
+  /**
+   * Submits work that writes, which is never interrupted, and should call {@link
+   * Progress#beginWriting} before it writes anything.
+   */
+  public <T> Task submitWrite(
+      Work<T> work,
+      ProgressListener progressListener,
+      Consumer<T> onSuccess,
+      Consumer<Exception> onFailure) {
+    return submit(work, false, progressListener, onSuccess, onFailure);
+  }
+
+  private <T> Task submit(
+      Work<T> work,
+      boolean interruptible,
+      ProgressListener progressListener,
+      Consumer<T> onSuccess,
+      Consumer<Exception> onFailure) {
+    Progress progress = new Progress(progressListener);
+    Task task = new Task(progress, interruptible);
+    FutureTask<Void> future =
+        new FutureTask<>(
+            () -> {
+              T result;
+              try {
+                result = work.run(progress);
+              } catch (Exception e) {
+                callbackExecutor.execute(
+                    () -> {
+                      if (!progress.cancelled) {
+                        onFailure.accept(e);
+                      }
+                    });
+                return;
+              } finally {
+                tasks.remove(task);
+              }
+              callbackExecutor.execute(
+                  () -> {
+                    if (!progress.cancelled) {
+                      onSuccess.accept(result);
+                    }
+                  });
+            },
+            null);
+    task.future = future;
+    tasks.add(task);
+    executorService.execute(future);
+    return task;
+  }
+
+  /**
+   * Cancels every task that can still be cancelled, then waits for those that are writing to
+   * finish, since the task threads would not outlive the application and a write cut short loses
+   * the changes being saved.
+   */
+  public void shutdown() throws InterruptedException {
+    executorService.shutdown();
+    tasks.forEach(Task::cancel);
+    for (Task task : tasks) {
+      if (!task.isCancelled()) {
+        try {
+          task.future.get();
+        } catch (CancellationException | ExecutionException ignored) {
+          // Finished all the same, and failures are handed to the failure callback.
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package thorpe.luke.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Decodes values in either the binary or the JSON encoding, telling them apart by their first byte,
+ * and encodes values in whichever of the two it prefers.
+ */
+public class AutoDetectingCodec<T> implements Codec<T> {
+  private final BinaryCodec<T> binaryCodec;
+  private final JsonCodec<T> jsonCodec;
+  private final Codec<T> preferredCodec;
+
+  private AutoDetectingCodec(
+      BinaryCodec<T> binaryCodec, JsonCodec<T> jsonCodec, Codec<T> preferredCodec) {
+    this.binaryCodec = binaryCodec;
+    this.jsonCodec = jsonCodec;
+    this.preferredCodec = preferredCodec;
+  }
+
+  public static <T> AutoDetectingCodec<T> preferringBinary(
+      BinaryCodec<T> binaryCodec, JsonCodec<T> jsonCodec) {
+    return new AutoDetectingCodec<>(binaryCodec, jsonCodec, binaryCodec);
+  }
+
+  public static <T> AutoDetectingCodec<T> preferringJson(
+      BinaryCodec<T> binaryCodec, JsonCodec<T> jsonCodec) {
+    return new AutoDetectingCodec<>(binaryCodec, jsonCodec, jsonCodec);
+  }
+
+  @Override
+  public void encode(T value, OutputStream outputStream) throws IOException, CodecException {
+    preferredCodec.encode(value, outputStream);
+  }
+
+  @Override
+  public T decode(InputStream inputStream) throws IOException, CodecException {
+    // Buffering a stream that cannot be marked may read past the end of the value, which is fine for
+    // the whole-stream values this is used for.
+    if (!inputStream.markSupported()) {
+      inputStream = new BufferedInputStream(inputStream);
+    }
+    inputStream.mark(1);
+    int firstByte = inputStream.read();
+    inputStream.reset();
+    return firstByte == BinaryCodec.MAGIC
+        ? binaryCodec.decode(inputStream)
+        : jsonCodec.decode(inputStream);
+  }
+}
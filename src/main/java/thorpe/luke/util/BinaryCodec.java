@@ -0,0 +1,148 @@
+package thorpe.luke.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A compact binary encoding. Strings are length-prefixed UTF-8, counts and lengths are unsigned
+ * varints, and timestamps are a zig-zag varint of epoch seconds followed by a varint of
+ * nanoseconds. Every value opens with {@link #MAGIC}, which can never open a JSON document, so the
+ * two encodings can be told apart by their first byte.
+ *
+ * <p>Nullable strings and maps store their length or size plus one, leaving zero to mean null.
+ */
+public abstract class BinaryCodec<T> implements Codec<T> {
+  public static final int MAGIC = 0x00;
+
+  private static final int MAXIMUM_VARINT_BYTES = 10;
+
+  /** Writes the value without the leading magic byte, so that it can be nested in another value. */
+  public abstract void write(T value, OutputStream outputStream) throws IOException;
+
+  /** Reads a value written by {@link #write(Object, OutputStream)}. */
+  public abstract T read(InputStream inputStream) throws IOException, CodecException;
+
+  @Override
+  public void encode(T value, OutputStream outputStream) throws IOException {
+    outputStream.write(MAGIC);
+    write(value, outputStream);
+  }
+
+  @Override
+  public T decode(InputStream inputStream) throws IOException, CodecException {
+    if (readByte(inputStream) != MAGIC) {
+      throw new CodecException("Value is not binary encoded.");
+    }
+    return read(inputStream);
+  }
+
+  protected static void writeVarLong(long value, OutputStream outputStream) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      outputStream.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    outputStream.write((int) value);
+  }
+
+  protected static long readVarLong(InputStream inputStream) throws IOException, CodecException {
+    long value = 0;
+    for (int i = 0; i < MAXIMUM_VARINT_BYTES; i++) {
+      int b = readByte(inputStream);
+      value |= (long) (b & 0x7F) << (7 * i);
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new CodecException("Malformed varint.");
+  }
+
+  protected static int readVarInt(InputStream inputStream) throws IOException, CodecException {
+    long value = readVarLong(inputStream);
+    if (value < 0 || value > Integer.MAX_VALUE) {
+      throw new CodecException("Varint is out of range.");
+    }
+    return (int) value;
+  }
+
+  protected static void writeString(String value, OutputStream outputStream) throws IOException {
+    if (value == null) {
+      writeVarLong(0, outputStream);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarLong(bytes.length + 1L, outputStream);
+    outputStream.write(bytes);
+  }
+
+  protected static String readString(InputStream inputStream) throws IOException, CodecException {
+    int length = readVarInt(inputStream);
+    if (length == 0) {
+      return null;
+    }
+    // Reads in chunks, so a corrupt length fails on the end of the stream rather than on allocation.
+    byte[] bytes = inputStream.readNBytes(length - 1);
+    if (bytes.length != length - 1) {
+      throw new CodecException("Truncated string.");
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  protected static void writeDateTime(LocalDateTime value, OutputStream outputStream)
+      throws IOException {
+    long epochSecond = value.toEpochSecond(ZoneOffset.UTC);
+    writeVarLong((epochSecond << 1) ^ (epochSecond >> 63), outputStream);
+    writeVarLong(value.getNano(), outputStream);
+  }
+
+  protected static LocalDateTime readDateTime(InputStream inputStream)
+      throws IOException, CodecException {
+    long zigZagEpochSecond = readVarLong(inputStream);
+    long epochSecond = (zigZagEpochSecond >>> 1) ^ -(zigZagEpochSecond & 1);
+    int nano = readVarInt(inputStream);
+    try {
+      return LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC);
+    } catch (RuntimeException e) {
+      throw new CodecException(e);
+    }
+  }
+
+  protected static void writeDateTimeToStringMap(
+      Map<LocalDateTime, String> value, OutputStream outputStream) throws IOException {
+    if (value == null) {
+      writeVarLong(0, outputStream);
+      return;
+    }
+    writeVarLong(value.size() + 1L, outputStream);
+    for (Map.Entry<LocalDateTime, String> entry : value.entrySet()) {
+      writeDateTime(entry.getKey(), outputStream);
+      writeString(entry.getValue(), outputStream);
+    }
+  }
+
+  protected static Map<LocalDateTime, String> readDateTimeToStringMap(InputStream inputStream)
+      throws IOException, CodecException {
+    int size = readVarInt(inputStream);
+    if (size == 0) {
+      return null;
+    }
+    Map<LocalDateTime, String> value = new LinkedHashMap<>();
+    for (int i = 0; i < size - 1; i++) {
+      value.put(readDateTime(inputStream), readString(inputStream));
+    }
+    return value;
+  }
+
+  private static int readByte(InputStream inputStream) throws IOException, CodecException {
+    int b = inputStream.read();
+    if (b == -1) {
+      throw new CodecException("Truncated binary value.");
+    }
+    return b;
+  }
+}
@@ -0,0 +1,36 @@
+package thorpe.luke.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/** Turns values of one type into bytes and back again. */
+public interface Codec<T> {
+
+  /** Writes the encoded value to the output stream, which is left open. */
+  void encode(T value, OutputStream outputStream) throws IOException, CodecException;
+
+  /** Reads one encoded value from the input stream, which is left open. */
+  T decode(InputStream inputStream) throws IOException, CodecException;
+
+  default byte[] encode(T value) throws CodecException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try {
+      encode(value, outputStream);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return outputStream.toByteArray();
+  }
+
+  default T decode(byte[] bytes) throws CodecException {
+    try {
+      return decode(new ByteArrayInputStream(bytes));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,11 @@
+package thorpe.luke.util;
+
+public class CodecException extends Exception {
+  public CodecException(String message) {
+    super(message);
+  }
+
+  public CodecException(Exception e) {
+    super(e);
+  }
+}
@@ -0,0 +1,135 @@
+package thorpe.luke.util;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Writes files so that a crash leaves either the old contents or the new, never a mix, and reads
+ * them back without copying large files onto the heap first.
+ *
+ * <p>New contents go to a temporary file alongside the target, which is forced to disk and then
+ * moved over the target in one step. The directory is forced too, where the platform allows, so
+ * that the move itself survives a crash.
+ */
+public class DurableFiles {
+  /** Files at least this big are memory-mapped when read, rather than read through a buffer. */
+  public static final long MAPPING_THRESHOLD = 64 * 1024;
+
+  /**
+   * Whether files are memory-mapped at all. A mapping lasts until it is garbage collected, and
+   * Windows refuses to replace or delete a file while any mapping of it remains, which would break
+   * every write or deletion that follows a read. There files are read through a buffer instead.
+   */
+  public static final boolean MAPPING_ENABLED =
+      !System.getProperty("os.name", "").startsWith("Windows");
+
+  /**
+   * How long a temporary file must have gone unmodified before it is taken to be left behind. A
+   * write in progress touches its file far more often than this.
+   */
+  public static final Duration STALE_TEMPORARY_FILE_AGE = Duration.ofHours(1);
+
+  private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+  private DurableFiles() {}
+
+  public interface ContentWriter {
+    /** Writes the new contents. The stream may be closed, but need not be. */
+    void writeTo(OutputStream outputStream) throws IOException;
+  }
+
+  public static void write(Path file, ContentWriter contentWriter) throws IOException {
+    Path directory = file.toAbsolutePath().getParent();
+    Path temporaryFile =
+        Files.createTempFile(directory, file.getFileName().toString() + ".", TEMPORARY_FILE_SUFFIX);
+    try {
+      try (FileChannel fileChannel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+        OutputStream outputStream =
+            new BufferedOutputStream(
+                new FilterOutputStream(Channels.newOutputStream(fileChannel)) {
+                  @Override
+                  public void write(byte[] bytes, int offset, int length) throws IOException {
+                    out.write(bytes, offset, length);
+                  }
+
+                  @Override
+                  public void close() throws IOException {
+                    // The channel is still needed to force the contents to disk.
+                    flush();
+                  }
+                });
+        contentWriter.writeTo(outputStream);
+        outputStream.flush();
+        fileChannel.force(true);
+      }
+      try {
+        Files.move(
+            temporaryFile,
+            file,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+      forceDirectory(directory);
+    } finally {
+      Files.deleteIfExists(temporaryFile);
+    }
+  }
+
+  private static void forceDirectory(Path directory) {
+    try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      directoryChannel.force(true);
+    } catch (IOException ignored) {
+      // Not every platform can open a directory, and those that cannot make the move durable.
+    }
+  }
+
+  /**
+   * Deletes the temporary files left behind by writes to the file that were cut short. Only files
+   * unmodified for {@link #STALE_TEMPORARY_FILE_AGE} are deleted, so that a write still in
+   * progress, in this process or another, keeps its temporary file.
+   */
+  public static void deleteTemporaryFiles(Path file) throws IOException {
+    Instant staleBefore = Instant.now().minus(STALE_TEMPORARY_FILE_AGE);
+    String prefix = file.getFileName().toString() + ".";
+    try (DirectoryStream<Path> temporaryFiles =
+        Files.newDirectoryStream(
+            file.toAbsolutePath().getParent(),
+            path -> {
+              String name = path.getFileName().toString();
+              return name.startsWith(prefix) && name.endsWith(TEMPORARY_FILE_SUFFIX);
+            })) {
+      for (Path temporaryFile : temporaryFiles) {
+        try {
+          if (Files.getLastModifiedTime(temporaryFile).toInstant().isBefore(staleBefore)) {
+            Files.deleteIfExists(temporaryFile);
+          }
+        } catch (NoSuchFileException e) {
+          // Moved into place or deleted by its own write meanwhile.
+        }
+      }
+    }
+  }
+
+  /**
+   * Opens the file for reading, with support for marking. Where {@link #MAPPING_ENABLED}, files of
+   * at least {@link #MAPPING_THRESHOLD} bytes are memory-mapped, so readers take bytes straight
+   * from the page cache.
+   */
+  public static InputStream newInputStream(Path file) throws IOException {
+    try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = fileChannel.size();
+      if (MAPPING_ENABLED && size >= MAPPING_THRESHOLD && size <= Integer.MAX_VALUE) {
+        // The mapping stays valid after the channel is closed.
+        return new ByteBufferInputStream(fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+      }
+    }
+    return new BufferedInputStream(
+        Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ)));
+  }
+}
@@ -0,0 +1,24 @@
+package thorpe.luke.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/** Encodes values as the pretty-printed JSON produced by {@link JsonUtils}. */
+public class JsonCodec<T> implements Codec<T> {
+  private final Class<T> clazz;
+
+  public JsonCodec(Class<T> clazz) {
+    this.clazz = clazz;
+  }
+
+  @Override
+  public void encode(T value, OutputStream outputStream) throws IOException, JsonException {
+    JsonUtils.toJson(value, outputStream);
+  }
+
+  @Override
+  public T decode(InputStream inputStream) throws IOException, JsonException {
+    return JsonUtils.fromJson(inputStream, clazz);
+  }
+}
@@ -1,5 +1,7 @@
 package thorpe.luke.util;
 
-public class JsonException extends Exception {
-  public JsonException(Exception e) {}
+public class JsonException extends CodecException {
+  public JsonException(Exception e) {
+    super(e);
+  }
 }
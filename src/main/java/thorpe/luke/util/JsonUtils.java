@@ -1,28 +1,88 @@
 package thorpe.luke.util;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.ObjectWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import thorpe.luke.metrics.Metrics;
+import thorpe.luke.metrics.OperationTimer;
 
 public class JsonUtils {
-  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper().findAndRegisterModules();
+  private static final OperationTimer WRITE_TIMER = Metrics.timer("json.write", "writing JSON");
+  private static final OperationTimer READ_TIMER = Metrics.timer("json.read", "reading JSON");
+
+  private static final ObjectMapper OBJECT_MAPPER =
+      new ObjectMapper()
+          .findAndRegisterModules()
+          .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+          .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
 
   public static String toJson(Object object) throws JsonException {
     ObjectWriter objectWriter = OBJECT_MAPPER.writer().withDefaultPrettyPrinter();
+    long startTime = WRITE_TIMER.start();
     try {
       return objectWriter.writeValueAsString(object);
     } catch (JsonProcessingException e) {
       throw new JsonException(e);
+    } finally {
+      WRITE_TIMER.stop(startTime);
+    }
+  }
+
+  /** The JSON form of the object on a single line, as in JSON Lines. */
+  public static String toSingleLineJson(Object object) throws JsonException {
+    long startTime = WRITE_TIMER.start();
+    try {
+      return OBJECT_MAPPER.writeValueAsString(object);
+    } catch (JsonProcessingException e) {
+      throw new JsonException(e);
+    } finally {
+      WRITE_TIMER.stop(startTime);
     }
   }
 
   public static <T> T fromJson(String json, Class<T> clazz) throws JsonException {
     ObjectReader objectReader = OBJECT_MAPPER.reader().forType(clazz);
+    long startTime = READ_TIMER.start();
     try {
       return objectReader.readValue(json);
     } catch (JsonProcessingException e) {
       throw new JsonException(e);
+    } finally {
+      READ_TIMER.stop(startTime);
+    }
+  }
+
+  /** Streams the JSON form of the object to the output stream, which is left open. */
+  public static void toJson(Object object, OutputStream outputStream)
+      throws IOException, JsonException {
+    ObjectWriter objectWriter = OBJECT_MAPPER.writer().withDefaultPrettyPrinter();
+    long startTime = WRITE_TIMER.start();
+    try {
+      objectWriter.writeValue(outputStream, object);
+    } catch (JsonProcessingException e) {
+      throw new JsonException(e);
+    } finally {
+      WRITE_TIMER.stop(startTime);
+    }
+  }
+
+  /** Parses a value from the input stream token by token, leaving the stream open. */
+  public static <T> T fromJson(InputStream inputStream, Class<T> clazz)
+      throws IOException, JsonException {
+    ObjectReader objectReader = OBJECT_MAPPER.reader().forType(clazz);
+    long startTime = READ_TIMER.start();
+    try {
+      return objectReader.readValue(inputStream);
+    } catch (JsonProcessingException e) {
+      throw new JsonException(e);
+    } finally {
+      READ_TIMER.stop(startTime);
     }
   }
 }
@@ -0,0 +1,515 @@
+package thorpe.luke.util;
+
+import java.util.*;
+
+/**
+ * An immutable hash map in which every update returns a new map that shares all but O(log n) of its
+ * structure with the old one, implemented as a hash array mapped trie. Null keys and values are not
+ * supported.
+ */
+public final class PersistentHashMap<K, V> implements Iterable<Map.Entry<K, V>> {
+  private static final int BITS_PER_LEVEL = 5;
+  private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+  // Enough for every level of a 32 bit hash, plus a collision node at the bottom.
+  private static final int MAXIMUM_DEPTH = (Integer.SIZE + BITS_PER_LEVEL - 1) / BITS_PER_LEVEL + 1;
+
+  private static final PersistentHashMap<?, ?> EMPTY =
+      new PersistentHashMap<>(BitmapIndexedNode.EMPTY, 0);
+
+  private final Node root;
+  private final int size;
+
+  private PersistentHashMap(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <K, V> PersistentHashMap<K, V> empty() {
+    return (PersistentHashMap<K, V>) EMPTY;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  public V get(Object key) {
+    return (V) root.get(0, key.hashCode(), key);
+  }
+
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  /** Returns a map with the key mapped to the value, replacing any existing mapping. */
+  public PersistentHashMap<K, V> plus(K key, V value) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(value);
+    boolean[] addedLeaf = new boolean[1];
+    Node updatedRoot = root.put(0, key.hashCode(), key, value, addedLeaf);
+    if (updatedRoot == root) {
+      return this;
+    }
+    return new PersistentHashMap<>(updatedRoot, addedLeaf[0] ? size + 1 : size);
+  }
+
+  /** Returns a map without the key, or this map if it does not contain the key. */
+  public PersistentHashMap<K, V> minus(Object key) {
+    Node updatedRoot = root.remove(0, key.hashCode(), key);
+    if (updatedRoot == root) {
+      return this;
+    } else if (updatedRoot == null) {
+      return empty();
+    }
+    return new PersistentHashMap<>(updatedRoot, size - 1);
+  }
+
+  @Override
+  public Iterator<Map.Entry<K, V>> iterator() {
+    return new EntryIterator<>(root);
+  }
+
+  public static <K, V> Builder<K, V> builder() {
+    return PersistentHashMap.<K, V>empty().toBuilder();
+  }
+
+  /** Starts a builder from this map, which is left unchanged by it. */
+  public Builder<K, V> toBuilder() {
+    return new Builder<>(root, size);
+  }
+
+  /**
+   * Puts many mappings at once. Where {@link #plus} copies every node on the path to the key, the
+   * builder copies each node at most once and then updates its copy in place, so building a map of
+   * n keys allocates O(n) rather than O(n log n). Nodes shared with the map the builder started
+   * from are never changed.
+   *
+   * <p>A builder must only be used by one thread at a time, and a built map must be handed to other
+   * threads safely, such as through a concurrent collection, as the nodes it updated in place do
+   * not have the guarantees of final fields.
+   */
+  public static final class Builder<K, V> {
+    private Object edit;
+    private Node root;
+    private int size;
+
+    private Builder(Node root, int size) {
+      this.edit = new Object();
+      this.root = root;
+      this.size = size;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+      return (V) root.get(0, key.hashCode(), key);
+    }
+
+    public boolean containsKey(Object key) {
+      return get(key) != null;
+    }
+
+    /** Maps the key to the value, replacing any existing mapping. */
+    public Builder<K, V> put(K key, V value) {
+      Objects.requireNonNull(key);
+      Objects.requireNonNull(value);
+      boolean[] addedLeaf = new boolean[1];
+      root = root.putInPlace(edit, 0, key.hashCode(), key, value, addedLeaf);
+      if (addedLeaf[0]) {
+        size++;
+      }
+      return this;
+    }
+
+    /**
+     * Returns a map of everything put so far. The builder may carry on being used, but no longer
+     * updates the nodes of the returned map in place.
+     */
+    public PersistentHashMap<K, V> build() {
+      if (size == 0) {
+        return empty();
+      }
+      edit = new Object();
+      return new PersistentHashMap<>(root, size);
+    }
+  }
+
+  /** An unmodifiable view of this map, which costs nothing to create. */
+  public Map<K, V> asMap() {
+    return new AbstractMap<>() {
+      @Override
+      public V get(Object key) {
+        return PersistentHashMap.this.get(key);
+      }
+
+      @Override
+      public boolean containsKey(Object key) {
+        return PersistentHashMap.this.containsKey(key);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+
+      @Override
+      public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+          @Override
+          public Iterator<Entry<K, V>> iterator() {
+            return PersistentHashMap.this.iterator();
+          }
+
+          @Override
+          public int size() {
+            return size;
+          }
+        };
+      }
+    };
+  }
+
+  @Override
+  public int hashCode() {
+    return asMap().hashCode();
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (this == object) {
+      return true;
+    } else if (object instanceof PersistentHashMap) {
+      PersistentHashMap<?, ?> that = (PersistentHashMap<?, ?>) object;
+      return this.asMap().equals(that.asMap());
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return asMap().toString();
+  }
+
+  private static int bitFor(int hash, int shift) {
+    return 1 << ((hash >>> shift) & LEVEL_MASK);
+  }
+
+  private static Object[] copyAndSet(Object[] array, int index, Object value) {
+    Object[] copy = array.clone();
+    copy[index] = value;
+    return copy;
+  }
+
+  private static Object[] copyAndRemovePair(Object[] array, int pairIndex) {
+    Object[] copy = new Object[array.length - 2];
+    System.arraycopy(array, 0, copy, 0, 2 * pairIndex);
+    System.arraycopy(array, 2 * (pairIndex + 1), copy, 2 * pairIndex, copy.length - 2 * pairIndex);
+    return copy;
+  }
+
+  /**
+   * A node of the trie. Every node stores its children as an array of pairs, where a pair is either
+   * a key and its value, or null and a child node.
+   */
+  private interface Node {
+    Object get(int shift, int hash, Object key);
+
+    Node put(int shift, int hash, Object key, Object value, boolean[] addedLeaf);
+
+    /** Like {@link #put}, but updates the nodes owned by the edit in place rather than copying. */
+    Node putInPlace(
+        Object edit, int shift, int hash, Object key, Object value, boolean[] addedLeaf);
+
+    /** Returns the node without the key, or null if nothing would be left in it. */
+    Node remove(int shift, int hash, Object key);
+
+    Object[] pairs();
+  }
+
+  private static Node nodeOf(
+      int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+    int hash1 = key1.hashCode();
+    if (hash1 == hash2) {
+      return new CollisionNode(hash1, new Object[] {key1, value1, key2, value2});
+    }
+    boolean[] addedLeaf = new boolean[1];
+    return BitmapIndexedNode.EMPTY
+        .put(shift, hash1, key1, value1, addedLeaf)
+        .put(shift, hash2, key2, value2, addedLeaf);
+  }
+
+  private static final class BitmapIndexedNode implements Node {
+    private static final BitmapIndexedNode EMPTY = new BitmapIndexedNode(0, new Object[0]);
+
+    // The builder that may update this node in place, or null once the node is in a built map.
+    private final Object edit;
+    private int bitmap;
+    private Object[] pairs;
+
+    private BitmapIndexedNode(int bitmap, Object[] pairs) {
+      this(null, bitmap, pairs);
+    }
+
+    private BitmapIndexedNode(Object edit, int bitmap, Object[] pairs) {
+      this.edit = edit;
+      this.bitmap = bitmap;
+      this.pairs = pairs;
+    }
+
+    private int pairIndexOf(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override
+    public Object get(int shift, int hash, Object key) {
+      int bit = bitFor(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return null;
+      }
+      int pairIndex = pairIndexOf(bit);
+      Object pairKey = pairs[2 * pairIndex];
+      Object pairValue = pairs[2 * pairIndex + 1];
+      if (pairKey == null) {
+        return ((Node) pairValue).get(shift + BITS_PER_LEVEL, hash, key);
+      }
+      return key.equals(pairKey) ? pairValue : null;
+    }
+
+    @Override
+    public Node put(int shift, int hash, Object key, Object value, boolean[] addedLeaf) {
+      int bit = bitFor(hash, shift);
+      int pairIndex = pairIndexOf(bit);
+      if ((bitmap & bit) == 0) {
+        Object[] updatedPairs = new Object[pairs.length + 2];
+        System.arraycopy(pairs, 0, updatedPairs, 0, 2 * pairIndex);
+        updatedPairs[2 * pairIndex] = key;
+        updatedPairs[2 * pairIndex + 1] = value;
+        System.arraycopy(
+            pairs, 2 * pairIndex, updatedPairs, 2 * (pairIndex + 1), pairs.length - 2 * pairIndex);
+        addedLeaf[0] = true;
+        return new BitmapIndexedNode(bitmap | bit, updatedPairs);
+      }
+      Object pairKey = pairs[2 * pairIndex];
+      Object pairValue = pairs[2 * pairIndex + 1];
+      if (pairKey == null) {
+        Node child = (Node) pairValue;
+        Node updatedChild = child.put(shift + BITS_PER_LEVEL, hash, key, value, addedLeaf);
+        return updatedChild == child
+            ? this
+            : new BitmapIndexedNode(bitmap, copyAndSet(pairs, 2 * pairIndex + 1, updatedChild));
+      } else if (key.equals(pairKey)) {
+        return value == pairValue
+            ? this
+            : new BitmapIndexedNode(bitmap, copyAndSet(pairs, 2 * pairIndex + 1, value));
+      }
+      addedLeaf[0] = true;
+      Object[] updatedPairs = pairs.clone();
+      updatedPairs[2 * pairIndex] = null;
+      updatedPairs[2 * pairIndex + 1] =
+          nodeOf(shift + BITS_PER_LEVEL, pairKey, pairValue, hash, key, value);
+      return new BitmapIndexedNode(bitmap, updatedPairs);
+    }
+
+    @Override
+    public Node putInPlace(
+        Object edit, int shift, int hash, Object key, Object value, boolean[] addedLeaf) {
+      int bit = bitFor(hash, shift);
+      int pairIndex = pairIndexOf(bit);
+      if ((bitmap & bit) == 0) {
+        Object[] updatedPairs = new Object[pairs.length + 2];
+        System.arraycopy(pairs, 0, updatedPairs, 0, 2 * pairIndex);
+        updatedPairs[2 * pairIndex] = key;
+        updatedPairs[2 * pairIndex + 1] = value;
+        System.arraycopy(
+            pairs, 2 * pairIndex, updatedPairs, 2 * (pairIndex + 1), pairs.length - 2 * pairIndex);
+        addedLeaf[0] = true;
+        if (this.edit != edit) {
+          return new BitmapIndexedNode(edit, bitmap | bit, updatedPairs);
+        }
+        bitmap |= bit;
+        pairs = updatedPairs;
+        return this;
+      }
+      Object pairKey = pairs[2 * pairIndex];
+      Object pairValue = pairs[2 * pairIndex + 1];
+      Object updatedPairKey = pairKey;
+      Object updatedPairValue;
+      if (pairKey == null) {
+        Node child = (Node) pairValue;
+        updatedPairValue =
+            child.putInPlace(edit, shift + BITS_PER_LEVEL, hash, key, value, addedLeaf);
+      } else if (key.equals(pairKey)) {
+        updatedPairValue = value;
+      } else {
+        addedLeaf[0] = true;
+        updatedPairKey = null;
+        updatedPairValue = nodeOf(shift + BITS_PER_LEVEL, pairKey, pairValue, hash, key, value);
+      }
+      if (updatedPairKey == pairKey && updatedPairValue == pairValue) {
+        return this;
+      }
+      BitmapIndexedNode node =
+          this.edit == edit ? this : new BitmapIndexedNode(edit, bitmap, pairs.clone());
+      node.pairs[2 * pairIndex] = updatedPairKey;
+      node.pairs[2 * pairIndex + 1] = updatedPairValue;
+      return node;
+    }
+
+    @Override
+    public Node remove(int shift, int hash, Object key) {
+      int bit = bitFor(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return this;
+      }
+      int pairIndex = pairIndexOf(bit);
+      Object pairKey = pairs[2 * pairIndex];
+      Object pairValue = pairs[2 * pairIndex + 1];
+      if (pairKey == null) {
+        Node child = (Node) pairValue;
+        Node updatedChild = child.remove(shift + BITS_PER_LEVEL, hash, key);
+        if (updatedChild == child) {
+          return this;
+        } else if (updatedChild != null) {
+          return new BitmapIndexedNode(bitmap, copyAndSet(pairs, 2 * pairIndex + 1, updatedChild));
+        }
+      } else if (!key.equals(pairKey)) {
+        return this;
+      }
+      return bitmap == bit
+          ? null
+          : new BitmapIndexedNode(bitmap ^ bit, copyAndRemovePair(pairs, pairIndex));
+    }
+
+    @Override
+    public Object[] pairs() {
+      return pairs;
+    }
+  }
+
+  /** Holds the keys whose hashes are identical, once the trie has run out of bits to split on. */
+  private static final class CollisionNode implements Node {
+    private final int hash;
+    private final Object[] pairs;
+
+    private CollisionNode(int hash, Object[] pairs) {
+      this.hash = hash;
+      this.pairs = pairs;
+    }
+
+    private int pairIndexOf(Object key) {
+      for (int i = 0; i < pairs.length; i += 2) {
+        if (key.equals(pairs[i])) {
+          return i >> 1;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public Object get(int shift, int hash, Object key) {
+      int pairIndex = this.hash == hash ? pairIndexOf(key) : -1;
+      return pairIndex == -1 ? null : pairs[2 * pairIndex + 1];
+    }
+
+    @Override
+    public Node put(int shift, int hash, Object key, Object value, boolean[] addedLeaf) {
+      if (this.hash != hash) {
+        return new BitmapIndexedNode(bitFor(this.hash, shift), new Object[] {null, this})
+            .put(shift, hash, key, value, addedLeaf);
+      }
+      int pairIndex = pairIndexOf(key);
+      if (pairIndex != -1) {
+        return pairs[2 * pairIndex + 1] == value
+            ? this
+            : new CollisionNode(hash, copyAndSet(pairs, 2 * pairIndex + 1, value));
+      }
+      Object[] updatedPairs = Arrays.copyOf(pairs, pairs.length + 2);
+      updatedPairs[pairs.length] = key;
+      updatedPairs[pairs.length + 1] = value;
+      addedLeaf[0] = true;
+      return new CollisionNode(hash, updatedPairs);
+    }
+
+    @Override
+    public Node putInPlace(
+        Object edit, int shift, int hash, Object key, Object value, boolean[] addedLeaf) {
+      // Keys only share a whole hash by rare chance, so these are simply copied.
+      return put(shift, hash, key, value, addedLeaf);
+    }
+
+    @Override
+    public Node remove(int shift, int hash, Object key) {
+      int pairIndex = this.hash == hash ? pairIndexOf(key) : -1;
+      if (pairIndex == -1) {
+        return this;
+      }
+      return pairs.length == 2
+          ? null
+          : new CollisionNode(hash, copyAndRemovePair(pairs, pairIndex));
+    }
+
+    @Override
+    public Object[] pairs() {
+      return pairs;
+    }
+  }
+
+  /** Walks the trie depth first, keeping one position per level rather than copying anything. */
+  private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+    private final Object[][] pairsByDepth = new Object[MAXIMUM_DEPTH][];
+    private final int[] positionsByDepth = new int[MAXIMUM_DEPTH];
+    private int depth;
+    private Map.Entry<K, V> next;
+
+    private EntryIterator(Node root) {
+      this.pairsByDepth[0] = root.pairs();
+      this.depth = 0;
+      this.next = advance();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map.Entry<K, V> advance() {
+      while (depth >= 0) {
+        Object[] pairs = pairsByDepth[depth];
+        int position = positionsByDepth[depth];
+        if (position == pairs.length) {
+          depth--;
+          continue;
+        }
+        positionsByDepth[depth] = position + 2;
+        Object pairKey = pairs[position];
+        Object pairValue = pairs[position + 1];
+        if (pairKey != null) {
+          return new AbstractMap.SimpleImmutableEntry<>((K) pairKey, (V) pairValue);
+        }
+        depth++;
+        pairsByDepth[depth] = ((Node) pairValue).pairs();
+        positionsByDepth[depth] = 0;
+      }
+      return null;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Map.Entry<K, V> next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      Map.Entry<K, V> current = next;
+      next = advance();
+      return current;
+    }
+  }
+}
@@ -0,0 +1,230 @@
+package thorpe.luke.util;
+
+import java.util.*;
+
+/**
+ * A case-insensitive substring index over the text fields of keyed documents. Every three character
+ * window of every field is posted against its document, so a query only has to check the documents
+ * that contain its rarest trigram. Queries shorter than a trigram check every document.
+ *
+ * <p>Results are ranked by the earliest field that matches and then by how well it matches: the
+ * whole field, then a prefix of it, then the start of a word in it, then anywhere in it. Ties go to
+ * the document with the shortest, then alphabetically first, first field. Postings are kept in that
+ * tie-breaking order, so once the results are full of prefix matches on the first field, no later
+ * document can displace them and the search stops early. This keeps broad queries, which match most
+ * of the index, about as fast as narrow ones. The index is not thread-safe.
+ */
+public class TrigramIndex<K> {
+  private static final int GRAM_LENGTH = 3;
+  private static final int MATCH_KINDS = 4;
+
+  // Postings hold the documents themselves, so that checking a candidate needs no further lookup.
+  private final Map<Long, NavigableSet<Document<K>>> postings;
+  private final Map<K, Document<K>> documents;
+  private final NavigableSet<Document<K>> orderedDocuments;
+  private long nextSequenceNumber;
+
+  public TrigramIndex() {
+    this.postings = new HashMap<>();
+    this.documents = new HashMap<>();
+    this.orderedDocuments = new TreeSet<>();
+    this.nextSequenceNumber = 0;
+  }
+
+  private static String normalise(String field) {
+    return field == null ? "" : field.toLowerCase(Locale.ROOT);
+  }
+
+  private static long trigramAt(String text, int i) {
+    return ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+  }
+
+  private static Set<Long> trigramsOf(String text) {
+    Set<Long> trigrams = new HashSet<>();
+    for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+      trigrams.add(trigramAt(text, i));
+    }
+    return trigrams;
+  }
+
+  public int size() {
+    return documents.size();
+  }
+
+  /** Indexes the fields of a document, replacing whatever was indexed under the key before. */
+  public void put(K key, String... fields) {
+    remove(key);
+    String[] normalisedFields = new String[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      normalisedFields[i] = normalise(fields[i]);
+    }
+    Document<K> document = new Document<>(key, normalisedFields, nextSequenceNumber++);
+    for (String field : normalisedFields) {
+      for (long trigram : trigramsOf(field)) {
+        postings.computeIfAbsent(trigram, t -> new TreeSet<>()).add(document);
+      }
+    }
+    documents.put(key, document);
+    orderedDocuments.add(document);
+  }
+
+  public void remove(K key) {
+    Document<K> document = documents.remove(key);
+    if (document == null) {
+      return;
+    }
+    orderedDocuments.remove(document);
+    for (String field : document.fields) {
+      for (long trigram : trigramsOf(field)) {
+        NavigableSet<Document<K>> postedDocuments = postings.get(trigram);
+        if (postedDocuments != null
+            && postedDocuments.remove(document)
+            && postedDocuments.isEmpty()) {
+          postings.remove(trigram);
+        }
+      }
+    }
+  }
+
+  /** Returns the keys of at most the given number of best matching documents, best first. */
+  public List<K> search(String query, int limit) {
+    List<Match<K>> matches = searchMatches(query, limit);
+    List<K> keys = new ArrayList<>(matches.size());
+    for (Match<K> match : matches) {
+      keys.add(match.getKey());
+    }
+    return keys;
+  }
+
+  /**
+   * Returns at most the given number of best matches, best first, each with its rank, so that the
+   * matches of separate indices can be ranked together.
+   */
+  public List<Match<K>> searchMatches(String query, int limit) {
+    String normalisedQuery = normalise(query);
+    if (normalisedQuery.isEmpty() || limit <= 0) {
+      return Collections.emptyList();
+    }
+
+    // The rarest trigram narrows the candidates, and checking each candidate for the whole query
+    // is cheaper than looking it up in the postings of every other trigram.
+    NavigableSet<Document<K>> candidates = orderedDocuments;
+    if (normalisedQuery.length() >= GRAM_LENGTH) {
+      for (long trigram : trigramsOf(normalisedQuery)) {
+        NavigableSet<Document<K>> postedDocuments = postings.get(trigram);
+        if (postedDocuments == null) {
+          return Collections.emptyList();
+        } else if (postedDocuments.size() < candidates.size()) {
+          candidates = postedDocuments;
+        }
+      }
+    }
+
+    // The worst of the best matches so far sits at the head, ready to be displaced.
+    PriorityQueue<Match<K>> bestMatches =
+        new PriorityQueue<>(
+            Math.max(1, Math.min(limit, candidates.size())), Comparator.reverseOrder());
+    for (Document<K> candidate : candidates) {
+      // Only a document whose first field is no longer than the query can match it exactly.
+      int bestRemainingRank = candidate.fields[0].length() > normalisedQuery.length() ? 1 : 0;
+      if (bestMatches.size() == limit && bestMatches.peek().rank <= bestRemainingRank) {
+        break;
+      }
+      int rank = rank(candidate.fields, normalisedQuery);
+      if (rank == -1) {
+        continue;
+      }
+      if (bestMatches.size() < limit) {
+        bestMatches.add(new Match<>(candidate, rank));
+      } else if (rank < bestMatches.peek().rank) {
+        bestMatches.poll();
+        bestMatches.add(new Match<>(candidate, rank));
+      }
+    }
+
+    List<Match<K>> matches = new ArrayList<>(bestMatches);
+    Collections.sort(matches);
+    return matches;
+  }
+
+  private static int rank(String[] fields, String query) {
+    for (int i = 0; i < fields.length; i++) {
+      String field = fields[i];
+      int bestKind = MATCH_KINDS;
+      for (int position = field.indexOf(query);
+          position != -1 && bestKind > 2;
+          position = field.indexOf(query, position + 1)) {
+        int kind;
+        if (field.length() == query.length()) {
+          kind = 0;
+        } else if (position == 0) {
+          kind = 1;
+        } else if (!Character.isLetterOrDigit(field.charAt(position - 1))) {
+          kind = 2;
+        } else {
+          kind = 3;
+        }
+        bestKind = Math.min(bestKind, kind);
+      }
+      if (bestKind < MATCH_KINDS) {
+        return i * MATCH_KINDS + bestKind;
+      }
+    }
+    return -1;
+  }
+
+  /** Ordered by the length of the first field, then the first field, then insertion order. */
+  private static class Document<K> implements Comparable<Document<K>> {
+    private final K key;
+    private final String[] fields;
+    private final long sequenceNumber;
+
+    private Document(K key, String[] fields, long sequenceNumber) {
+      this.key = key;
+      this.fields = fields;
+      this.sequenceNumber = sequenceNumber;
+    }
+
+    @Override
+    public int compareTo(Document<K> that) {
+      if (this.fields[0].length() != that.fields[0].length()) {
+        return Integer.compare(this.fields[0].length(), that.fields[0].length());
+      }
+      int comparison = this.fields[0].compareTo(that.fields[0]);
+      if (comparison != 0) {
+        return comparison;
+      }
+      return Long.compare(this.sequenceNumber, that.sequenceNumber);
+    }
+  }
+
+  /**
+   * A matching document. Lower ranks are better: an exact match, then a match at the start of the
+   * field, then at the start of a word, then anywhere, and then the same in each later field.
+   */
+  public static final class Match<K> implements Comparable<Match<K>> {
+    private final Document<K> document;
+    private final int rank;
+
+    private Match(Document<K> document, int rank) {
+      this.document = document;
+      this.rank = rank;
+    }
+
+    public K getKey() {
+      return document.key;
+    }
+
+    public int getRank() {
+      return rank;
+    }
+
+    @Override
+    public int compareTo(Match<K> that) {
+      if (this.rank != that.rank) {
+        return Integer.compare(this.rank, that.rank);
+      }
+      return this.document.compareTo(that.document);
+    }
+  }
+}
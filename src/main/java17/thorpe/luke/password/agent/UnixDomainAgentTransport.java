@@ -0,0 +1,31 @@
+package thorpe.luke.password.agent;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * Carries the agent's connections over a Unix domain socket, found by {@link
+ * java.util.ServiceLoader}.
+ */
+public class UnixDomainAgentTransport implements AgentTransport {
+  @Override
+  public ServerSocketChannel listen(Path socket) throws IOException {
+    ServerSocketChannel serverSocketChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    try {
+      serverSocketChannel.bind(UnixDomainSocketAddress.of(socket));
+    } catch (IOException e) {
+      serverSocketChannel.close();
+      throw e;
+    }
+    return serverSocketChannel;
+  }
+
+  @Override
+  public SocketChannel connect(Path socket) throws IOException {
+    return SocketChannel.open(UnixDomainSocketAddress.of(socket));
+  }
+}
@@ -0,0 +1,16 @@
+package thorpe.luke.password;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads each file on its own virtual thread, found by {@link java.util.ServiceLoader}. Waiting on
+ * the disk or for a turn at deriving a key then costs no platform thread.
+ */
+public class VirtualLoaderThreads implements LoaderThreads {
+  @Override
+  public ExecutorService newExecutor(int taskCount) {
+    return Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("password-library-loader-", 0).factory());
+  }
+}
@@ -0,0 +1,231 @@
+package thorpe.luke.cryptography;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+public class ChunkedAESGCMEncryptionEngineTest extends EncryptionEngineTest {
+  private static final int HEADER_LENGTH = 44;
+  private static final int TAG_LENGTH = 16;
+  private static final int CHUNK_SIZE = 16;
+
+  private static final ForkJoinPool POOL = new ForkJoinPool(4);
+  private static final DestroyableSecretKey KEY =
+      AES256EncryptionEngine.deriveKey("password", "salt");
+  private static final ChunkedAESGCMEncryptionEngine SMALL_CHUNK_ENGINE =
+      ChunkedAESGCMEncryptionEngine.fromKey(KEY, CHUNK_SIZE, POOL);
+
+  @AfterClass
+  public static void shutDownPool() {
+    POOL.shutdown();
+  }
+
+  @Override
+  protected Collection<EncryptionEngine> getSomeEncryptionEngines() {
+    return Arrays.asList(
+        ChunkedAESGCMEncryptionEngine.fromPassword("password", "salt"),
+        ChunkedAESGCMEncryptionEngine.fromPassword("myP4s$w0rD", "mY$4Lt"),
+        ChunkedAESGCMEncryptionEngine.fromKey(KEY, 1, POOL),
+        ChunkedAESGCMEncryptionEngine.fromKey(KEY, 5, POOL),
+        SMALL_CHUNK_ENGINE);
+  }
+
+  @Override
+  protected boolean isDeterministic() {
+    return false;
+  }
+
+  private static byte[] somePlainBytes(int length) {
+    byte[] plainBytes = new byte[length];
+    new Random(length).nextBytes(plainBytes);
+    return plainBytes;
+  }
+
+  private static int chunkOffset(int chunkNumber) {
+    return HEADER_LENGTH + chunkNumber * (CHUNK_SIZE + TAG_LENGTH);
+  }
+
+  @Test
+  public void testManyChunksRoundTripThroughBytesAndStreams() throws Exception {
+    byte[] plainBytes = somePlainBytes(1 << 20);
+    ChunkedAESGCMEncryptionEngine encryptionEngine =
+        ChunkedAESGCMEncryptionEngine.fromKey(KEY, 4096, POOL);
+
+    assertThat(encryptionEngine.decryptBytes(encryptionEngine.encryptBytes(plainBytes)))
+        .isEqualTo(plainBytes);
+
+    ByteArrayOutputStream cipherTextOutputStream = new ByteArrayOutputStream();
+    try (OutputStream plainOutputStream = encryptionEngine.encryptTo(cipherTextOutputStream)) {
+      plainOutputStream.write(plainBytes, 0, 1000);
+      plainOutputStream.write(plainBytes, 1000, plainBytes.length - 1000);
+    }
+    assertThat(encryptionEngine.decryptBytes(cipherTextOutputStream.toString()))
+        .isEqualTo(plainBytes);
+    try (InputStream plainInputStream =
+        encryptionEngine.decryptFrom(
+            new ByteArrayInputStream(
+                Base64.getEncoder().encode(encryptionEngine.seal(plainBytes))))) {
+      assertThat(plainInputStream.readAllBytes()).isEqualTo(plainBytes);
+    }
+  }
+
+  @Test
+  public void testTamperedChunkIsDetected() {
+    byte[] sealedBytes = SMALL_CHUNK_ENGINE.seal(somePlainBytes(10 * CHUNK_SIZE));
+    sealedBytes[chunkOffset(3) + 5] ^= 1;
+
+    assertThatThrownBy(() -> SMALL_CHUNK_ENGINE.open(sealedBytes))
+        .isInstanceOf(KeyMismatchException.class)
+        .hasMessageContaining("Chunk 3");
+    assertThatThrownBy(
+            () ->
+                SMALL_CHUNK_ENGINE
+                    .decryptFrom(new ByteArrayInputStream(Base64.getEncoder().encode(sealedBytes)))
+                    .readAllBytes())
+        .isInstanceOf(IOException.class)
+        .hasCauseInstanceOf(KeyMismatchException.class);
+  }
+
+  @Test
+  public void testDroppedOrReorderedChunksAreDetected() {
+    byte[] sealedBytes = SMALL_CHUNK_ENGINE.seal(somePlainBytes(4 * CHUNK_SIZE));
+
+    byte[] truncatedBytes = Arrays.copyOf(sealedBytes, chunkOffset(3));
+    assertThatThrownBy(() -> SMALL_CHUNK_ENGINE.open(truncatedBytes))
+        .isInstanceOf(KeyMismatchException.class);
+    assertThatThrownBy(
+            () ->
+                SMALL_CHUNK_ENGINE
+                    .decryptFrom(
+                        new ByteArrayInputStream(Base64.getEncoder().encode(truncatedBytes)))
+                    .readAllBytes())
+        .isInstanceOf(IOException.class)
+        .hasCauseInstanceOf(KeyMismatchException.class);
+
+    byte[] reorderedBytes = sealedBytes.clone();
+    System.arraycopy(
+        sealedBytes,
+        chunkOffset(0),
+        reorderedBytes,
+        chunkOffset(1),
+        chunkOffset(1) - chunkOffset(0));
+    System.arraycopy(
+        sealedBytes,
+        chunkOffset(1),
+        reorderedBytes,
+        chunkOffset(0),
+        chunkOffset(1) - chunkOffset(0));
+    assertThatThrownBy(() -> SMALL_CHUNK_ENGINE.open(reorderedBytes))
+        .isInstanceOf(KeyMismatchException.class);
+  }
+
+  @Test
+  public void testWrongKeyIsAKeyMismatch() {
+    String cipherText = SMALL_CHUNK_ENGINE.encrypt("hello there!");
+
+    assertThatThrownBy(
+            () -> ChunkedAESGCMEncryptionEngine.fromPassword("wrong", "salt").decrypt(cipherText))
+        .isInstanceOf(KeyMismatchException.class);
+  }
+
+  @Test
+  public void testAssociatedDataMustMatch() throws Exception {
+    byte[] plainBytes = somePlainBytes(100);
+    byte[] sealedBytes = SMALL_CHUNK_ENGINE.seal(plainBytes, bytesOf("record 1"));
+
+    assertThat(SMALL_CHUNK_ENGINE.open(sealedBytes, bytesOf("record 1"))).isEqualTo(plainBytes);
+    assertThatThrownBy(() -> SMALL_CHUNK_ENGINE.open(sealedBytes, bytesOf("record 2")))
+        .isInstanceOf(KeyMismatchException.class);
+    assertThatThrownBy(() -> SMALL_CHUNK_ENGINE.open(sealedBytes))
+        .isInstanceOf(KeyMismatchException.class);
+  }
+
+  @Test
+  public void testPartsOpenOneAtATime() throws Exception {
+    List<byte[]> parts = Arrays.asList(bytesOf("index"), new byte[0], somePlainBytes(1000));
+    String cipherText = SMALL_CHUNK_ENGINE.encryptParts(parts, bytesOf("record 1"));
+
+    for (int partNumber = 0; partNumber < parts.size(); partNumber++) {
+      assertThat(SMALL_CHUNK_ENGINE.decryptPart(cipherText, partNumber, bytesOf("record 1")))
+          .isEqualTo(parts.get(partNumber));
+    }
+    assertThat(
+            SMALL_CHUNK_ENGINE.decryptAllParts(
+                Arrays.asList(cipherText, cipherText),
+                2,
+                Arrays.asList(bytesOf("record 1"), bytesOf("record 1"))))
+        .containsExactly(parts.get(2), parts.get(2));
+    assertThatThrownBy(() -> SMALL_CHUNK_ENGINE.decryptPart(cipherText, 0, bytesOf("record 2")))
+        .isInstanceOf(KeyMismatchException.class);
+    assertThatThrownBy(() -> SMALL_CHUNK_ENGINE.decryptPart(cipherText, 3, bytesOf("record 1")))
+        .isInstanceOf(KeyMismatchException.class);
+  }
+
+  @Test
+  public void testTamperedOrTruncatedPartsAreDetected() {
+    List<byte[]> parts = Arrays.asList(bytesOf("index"), bytesOf("secrets"));
+    byte[] sealedBytes =
+        Base64.getDecoder().decode(SMALL_CHUNK_ENGINE.encryptParts(parts, bytesOf("record 1")));
+    byte[] tamperedBytes = sealedBytes.clone();
+    tamperedBytes[tamperedBytes.length - 1] ^= 1;
+    byte[] truncatedBytes = Arrays.copyOf(sealedBytes, sealedBytes.length - 1);
+
+    assertThatThrownBy(
+            () ->
+                SMALL_CHUNK_ENGINE.decryptPart(
+                    Base64.getEncoder().encodeToString(tamperedBytes), 1, bytesOf("record 1")))
+        .isInstanceOf(KeyMismatchException.class);
+    assertThatThrownBy(
+            () ->
+                SMALL_CHUNK_ENGINE.decryptPart(
+                    Base64.getEncoder().encodeToString(truncatedBytes), 0, bytesOf("record 1")))
+        .isInstanceOf(KeyMismatchException.class);
+  }
+
+  @Test
+  public void testMessagesSealedUnderTheEngineKeyStillOpen() throws Exception {
+    byte[] plainBytes = bytesOf("sealed before message keys");
+    byte[] header =
+        ByteBuffer.allocate(12).put((byte) 1).putInt(CHUNK_SIZE).put(new byte[7]).array();
+    byte[] sealedBytes = Arrays.copyOf(header, header.length + 2 * CHUNK_SIZE + 2 * TAG_LENGTH);
+    for (int chunkNumber = 0; chunkNumber < 2; chunkNumber++) {
+      byte[] nonce = ByteBuffer.allocate(12).put(new byte[7]).putInt(chunkNumber).array();
+      nonce[11] = (byte) chunkNumber;
+      Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      cipher.init(Cipher.ENCRYPT_MODE, KEY, new GCMParameterSpec(128, nonce));
+      cipher.updateAAD(header);
+      int offset = chunkNumber * CHUNK_SIZE;
+      int length = Math.min(CHUNK_SIZE, plainBytes.length - offset);
+      cipher.doFinal(
+          plainBytes,
+          offset,
+          length,
+          sealedBytes,
+          header.length + offset + chunkNumber * TAG_LENGTH);
+    }
+    sealedBytes = Arrays.copyOf(sealedBytes, header.length + plainBytes.length + 2 * TAG_LENGTH);
+
+    assertThat(SMALL_CHUNK_ENGINE.open(sealedBytes)).isEqualTo(plainBytes);
+  }
+
+  private static byte[] bytesOf(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,84 @@
+package thorpe.luke.cryptography;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.base.Ticker;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.SecretKey;
+import org.junit.Test;
+
+public class DerivedKeyCacheTest {
+
+  private static final Duration TIME_TO_LIVE = Duration.ofMinutes(5);
+
+  private final AtomicLong nanos = new AtomicLong();
+  private final DerivedKeyCache derivedKeyCache =
+      new DerivedKeyCache(
+          TIME_TO_LIVE,
+          new Ticker() {
+            @Override
+            public long read() {
+              return nanos.get();
+            }
+          });
+
+  @Test
+  public void testRepeatedDerivationsReuseTheSameKey() {
+    SecretKey key = derivedKeyCache.getOrDerive("password", "salt");
+    assertThat(derivedKeyCache.getOrDerive("password", "salt")).isSameAs(key);
+    assertThat(derivedKeyCache.getOrDerive("password", "other_salt")).isNotSameAs(key);
+    assertThat(key.getEncoded())
+        .isEqualTo(AES256EncryptionEngine.deriveKey("password", "salt").getEncoded());
+  }
+
+  @Test
+  public void testLockingDestroysTheKey() {
+    SecretKey key = derivedKeyCache.getOrDerive("password", "salt");
+    SecretKey otherKey = derivedKeyCache.getOrDerive("other_password", "salt");
+    derivedKeyCache.lock("password", "salt");
+    assertThat(key.isDestroyed()).isTrue();
+    assertThat(otherKey.isDestroyed()).isFalse();
+    assertThat(derivedKeyCache.getOrDerive("password", "salt")).isNotSameAs(key);
+    derivedKeyCache.lockAll();
+    assertThat(otherKey.isDestroyed()).isTrue();
+    assertThat(derivedKeyCache.size()).isZero();
+  }
+
+  @Test
+  public void testLeasedKeysAreOnlyDestroyedOnceTheLastLeaseIsClosed() {
+    DerivedKeyCache.Lease lease = derivedKeyCache.acquire("password", "salt");
+    DerivedKeyCache.Lease otherLease = derivedKeyCache.acquireIfPresent("password", "salt").get();
+    SecretKey key = lease.getKey();
+    assertThat(otherLease.getKey()).isSameAs(key);
+    assertThat(derivedKeyCache.getOrDerive("password", "salt")).isSameAs(key);
+
+    derivedKeyCache.lockAll();
+    assertThat(key.isDestroyed()).isFalse();
+    assertThat(derivedKeyCache.acquireIfPresent("password", "salt")).isEmpty();
+    lease.close();
+    lease.close();
+    assertThat(key.isDestroyed()).isFalse();
+    otherLease.close();
+    assertThat(key.isDestroyed()).isTrue();
+
+    try (DerivedKeyCache.Lease newLease = derivedKeyCache.acquire("password", "salt")) {
+      assertThat(newLease.getKey()).isNotSameAs(key);
+      assertThat(newLease.getKey().getEncoded())
+          .isEqualTo(AES256EncryptionEngine.deriveKey("password", "salt").getEncoded());
+    }
+  }
+
+  @Test
+  public void testUnusedKeysExpire() {
+    SecretKey key = derivedKeyCache.getOrDerive("password", "salt");
+    nanos.addAndGet(TIME_TO_LIVE.toNanos() - 1);
+    assertThat(derivedKeyCache.getOrDerive("password", "salt")).isSameAs(key);
+    nanos.addAndGet(TimeUnit.MINUTES.toNanos(1));
+    assertThat(key.isDestroyed()).isFalse();
+    nanos.addAndGet(TIME_TO_LIVE.toNanos());
+    assertThat(derivedKeyCache.size()).isZero();
+    assertThat(key.isDestroyed()).isTrue();
+  }
+}
@@ -3,8 +3,16 @@ package thorpe.luke.cryptography;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Collection;
+import java.util.List;
 import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.junit.Test;
 
@@ -12,6 +20,11 @@ public abstract class EncryptionEngineTest {
 
   protected abstract Collection<EncryptionEngine> getSomeEncryptionEngines();
 
+  /** Whether encrypting the same plain text twice gives the same cipher text. */
+  protected boolean isDeterministic() {
+    return true;
+  }
+
   protected void forManyPlainTexts(BiConsumer<EncryptionEngine, String> test) {
     Stream.of(
             "hello there!",
@@ -41,4 +54,56 @@ public abstract class EncryptionEngineTest {
           assertThat(decryptedCipherText).isEqualTo(plainText);
         }));
   }
+
+  @Test
+  public void testStreamedCipherTextIsEqualToCipherText() {
+    forManyPlainTexts(
+        ((encryptionEngine, plainText) -> {
+          ByteArrayOutputStream cipherTextOutputStream = new ByteArrayOutputStream();
+          String decryptedCipherText;
+          try {
+            try (OutputStream plainTextOutputStream =
+                encryptionEngine.encryptTo(cipherTextOutputStream)) {
+              plainTextOutputStream.write(plainText.getBytes());
+            }
+            if (isDeterministic()) {
+              assertThat(cipherTextOutputStream.toString())
+                  .isEqualTo(encryptionEngine.encrypt(plainText));
+            } else {
+              assertThat(encryptionEngine.decrypt(cipherTextOutputStream.toString()))
+                  .isEqualTo(plainText);
+            }
+            try (InputStream plainTextInputStream =
+                encryptionEngine.decryptFrom(
+                    new ByteArrayInputStream(cipherTextOutputStream.toByteArray()))) {
+              decryptedCipherText = new String(plainTextInputStream.readAllBytes());
+            }
+          } catch (IOException | KeyMismatchException e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+            return;
+          }
+          assertThat(decryptedCipherText).isEqualTo(plainText);
+        }));
+  }
+
+  @Test
+  public void testBatchDecryptedCipherTextsAreEqualToPlainTexts() {
+    List<String> plainTexts =
+        IntStream.range(0, 100).mapToObj(i -> "plain text #" + i).collect(Collectors.toList());
+    getSomeEncryptionEngines()
+        .forEach(
+            encryptionEngine -> {
+              List<String> decryptedCipherTexts;
+              try {
+                decryptedCipherTexts =
+                    encryptionEngine.decryptAll(encryptionEngine.encryptAll(plainTexts));
+              } catch (KeyMismatchException e) {
+                e.printStackTrace();
+                fail(e.getMessage());
+                return;
+              }
+              assertThat(decryptedCipherTexts).isEqualTo(plainTexts);
+            });
+  }
 }
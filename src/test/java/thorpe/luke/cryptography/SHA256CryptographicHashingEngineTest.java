@@ -0,0 +1,65 @@
+package thorpe.luke.cryptography;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.Test;
+
+public class SHA256CryptographicHashingEngineTest {
+  private static final String SALT = "mY_$4Lt!";
+
+  private static final List<String> TEXTS =
+      Arrays.asList(
+          "",
+          "password",
+          "myP4s$w0rD",
+          "pässwörd ✓",
+          "veryyyyyyyyyyyyyyyy_loooooooooooooooooooooooooooooooooooong_P4s$w0rD".repeat(20));
+
+  /** What hashes have always been under UTF-8, before the engine reused its buffers. */
+  private static String expectedHash(String text, String salt) {
+    try {
+      return Base64.getEncoder()
+          .encodeToString(
+              MessageDigest.getInstance("SHA-256")
+                  .digest((text + salt).getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  @Test
+  public void testHashesAreUnchangedByReusingBuffers() {
+    CryptographicHashingEngine hashingEngine = SHA256CryptographicHashingEngine.fromSalt(SALT);
+    for (String text : TEXTS) {
+      assertThat(hashingEngine.hash(text)).isEqualTo(expectedHash(text, SALT));
+      // Again, now that the buffers have been used.
+      assertThat(hashingEngine.hash(text)).isEqualTo(expectedHash(text, SALT));
+    }
+    assertThat(SHA256CryptographicHashingEngine.fromSalt("").hash("password"))
+        .isEqualTo(expectedHash("password", ""));
+  }
+
+  @Test
+  public void testBatchHashesAreEqualToHashes() {
+    CryptographicHashingEngine hashingEngine = SHA256CryptographicHashingEngine.fromSalt(SALT);
+    List<String> texts =
+        IntStream.range(0, 1000).mapToObj(i -> "password #" + i).collect(Collectors.toList());
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      assertThat(hashingEngine.hashAll(texts, pool))
+          .isEqualTo(
+              texts.stream().map(text -> expectedHash(text, SALT)).collect(Collectors.toList()));
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
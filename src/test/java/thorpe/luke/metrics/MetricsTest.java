@@ -0,0 +1,72 @@
+package thorpe.luke.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+import org.junit.Test;
+import thorpe.luke.util.JsonUtils;
+
+public class MetricsTest {
+
+  @Test
+  public void testBucketsHoldEveryDurationToWithinAnEighth() {
+    for (long nanos = 0; nanos < 1 << 20; nanos += 1 + nanos / 64) {
+      int bucket = LatencyHistogram.bucketOf(nanos);
+      assertThat(LatencyHistogram.highestValueOf(bucket)).isBetween(nanos, nanos + nanos / 8);
+      if (bucket > 0) {
+        assertThat(LatencyHistogram.highestValueOf(bucket - 1)).isLessThan(nanos);
+      }
+    }
+    assertThat(LatencyHistogram.bucketOf(Long.MAX_VALUE))
+        .isEqualTo(LatencyHistogram.BUCKET_COUNT - 1);
+    assertThat(LatencyHistogram.highestValueOf(LatencyHistogram.BUCKET_COUNT - 1))
+        .isEqualTo(Long.MAX_VALUE);
+  }
+
+  @Test
+  public void testPercentilesAreTakenFromTheDurationsSinceASnapshot() {
+    OperationTimer timer = Metrics.timer("test.percentiles", "testing percentiles");
+    timer.record(5_000_000_000L);
+    LatencySnapshot before = timer.snapshot();
+    for (long micros = 1; micros <= 1000; micros++) {
+      timer.record(micros * 1000);
+    }
+
+    LatencySnapshot latency = timer.snapshot().since(before);
+    assertThat(latency.getCount()).isEqualTo(1000);
+    assertThat(latency.getTotalNanos()).isEqualTo(500_500_000L);
+    assertThat(latency.getMeanNanos()).isEqualTo(500_500L);
+    assertThat((double) latency.getPercentileNanos(0.5)).isCloseTo(500_000, within(62_500.0));
+    assertThat((double) latency.getPercentileNanos(0.99)).isCloseTo(990_000, within(123_750.0));
+    assertThat((double) latency.getMaxNanos()).isCloseTo(1_000_000, within(125_000.0));
+    assertThat(timer.snapshot().getMaxNanos()).isGreaterThanOrEqualTo(5_000_000_000L);
+  }
+
+  @Test
+  public void testMetricsAreSharedByNameAndRegisteredWithJmx() throws Exception {
+    Counter counter = Metrics.counter("test.shared", "testing sharing");
+    assertThat(Metrics.counter("test.shared", "testing sharing")).isSameAs(counter);
+    counter.add(3);
+
+    assertThat(
+            ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(
+                    new ObjectName(Metrics.JMX_DOMAIN + ":type=Counter,name=test.shared"), "Count"))
+        .isEqualTo(3L);
+  }
+
+  @Test
+  public void testInstrumentedOperationsAreTimed() throws Exception {
+    MetricsSnapshot before = Metrics.snapshot();
+    JsonUtils.fromJson(JsonUtils.toJson(new int[] {1, 2, 3}), int[].class);
+
+    MetricsSnapshot metrics = Metrics.snapshot().since(before);
+    assertThat(metrics.getLatencies().get("json.write").getCount()).isEqualTo(1);
+    assertThat(metrics.getLatencies().get("json.read").getCount()).isEqualTo(1);
+    assertThat(metrics.getDescription("json.read")).isEqualTo("reading JSON");
+    assertThat(metrics.format()).first().isEqualTo("timer\tcount\ttotal\tmean\tp50\tp90\tp99\tmax");
+    assertThat(metrics.format()).anyMatch(line -> line.startsWith("json.read\t1\t"));
+  }
+}
@@ -0,0 +1,56 @@
+package thorpe.luke.password;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class PasswordEntrySearchIndexTest {
+
+  private static PasswordEntry entry(String name, String description) {
+    return new PasswordEntry(
+        name, description, "password", LocalDateTime.now(), Collections.emptyMap());
+  }
+
+  @Test
+  public void testResultsAreRankedByWhereAndHowWellTheyMatch() {
+    PasswordEntry bank = entry("Bank", "Where my money goes.");
+    PasswordEntry bankAccount = entry("Bank Account", "My current account.");
+    PasswordEntry savings = entry("Savings", "The bank keeps these.");
+    PasswordEntry snowbank = entry("Snowbank", "A ski resort.");
+    PasswordEntry email = entry("Email", "Where my spam goes.");
+    PasswordEntrySearchIndex searchIndex =
+        PasswordEntrySearchIndex.fromEntries(
+            Arrays.asList(email, snowbank, savings, bankAccount, bank));
+
+    assertThat(searchIndex.search("BANK", 10))
+        .containsExactly(bank, bankAccount, snowbank, savings);
+    assertThat(searchIndex.search("bank", 2)).containsExactly(bank, bankAccount);
+    assertThat(searchIndex.search("goes", 10)).containsExactly(bank, email);
+    assertThat(searchIndex.search("ba", 10)).containsExactly(bank, bankAccount, snowbank, savings);
+    assertThat(searchIndex.search("bankrupt", 10)).isEmpty();
+    assertThat(searchIndex.search("", 10)).isEmpty();
+  }
+
+  @Test
+  public void testIndexFollowsAddsEditsAndDeletes() {
+    PasswordEntry bank = entry("Bank", "Where my money goes.");
+    PasswordEntrySearchIndex searchIndex =
+        PasswordEntrySearchIndex.fromEntries(Collections.singletonList(bank));
+
+    PasswordEntry gaming = entry("Gaming", "Because I'm an epic gamer.");
+    searchIndex.add(gaming);
+    assertThat(searchIndex.search("epic", 10)).containsExactly(gaming);
+
+    PasswordEntry renamedBank = entry("Piggy Bank", "Where my money stays.");
+    searchIndex.replace(bank, renamedBank);
+    assertThat(searchIndex.search("goes", 10)).isEmpty();
+    assertThat(searchIndex.search("piggy", 10)).containsExactly(renamedBank);
+
+    searchIndex.remove(gaming);
+    assertThat(searchIndex.search("epic", 10)).isEmpty();
+    assertThat(searchIndex.size()).isEqualTo(1);
+  }
+}
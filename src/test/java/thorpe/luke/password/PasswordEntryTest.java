@@ -0,0 +1,86 @@
+package thorpe.luke.password;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import thorpe.luke.password.apdater.PasswordEntryIndexJsonAdapter;
+import thorpe.luke.password.apdater.PasswordEntrySecretJsonAdapter;
+import thorpe.luke.password.apdater.PasswordHistoryJsonAdapter;
+
+public class PasswordEntryTest {
+  private static final LocalDateTime NOW = LocalDateTime.of(2024, 6, 1, 12, 0);
+
+  private static Map<LocalDateTime, String> oldPasswords(int count) {
+    Map<LocalDateTime, String> oldPasswords = new HashMap<>();
+    for (int i = 1; i <= count; i++) {
+      oldPasswords.put(NOW.minusDays(i), "hunter" + i);
+    }
+    return oldPasswords;
+  }
+
+  @Test
+  public void testOldPasswordsAreSortedOldestFirst() {
+    PasswordEntry entry = new PasswordEntry("Email", "", "hunter0", NOW, oldPasswords(5));
+
+    assertThat(entry.getOldPasswords().values())
+        .containsExactly("hunter5", "hunter4", "hunter3", "hunter2", "hunter1");
+  }
+
+  @Test
+  public void testHistoryKeptApartIsOnlyDecodedWhenAskedFor() {
+    AtomicInteger secretDecodeCount = new AtomicInteger();
+    AtomicInteger historyDecodeCount = new AtomicInteger();
+    PasswordEntry entry =
+        PasswordEntry.withLazySecrets(
+            new PasswordEntryIndexJsonAdapter("Email", "", NOW),
+            () -> {
+              secretDecodeCount.incrementAndGet();
+              return new PasswordEntrySecretJsonAdapter("hunter0", null);
+            },
+            () -> {
+              historyDecodeCount.incrementAndGet();
+              return new PasswordHistoryJsonAdapter(oldPasswords(3));
+            });
+
+    assertThat(entry.getPassword()).isEqualTo("hunter0");
+    assertThat(entry.getPassword()).isEqualTo("hunter0");
+    assertThat(secretDecodeCount).hasValue(1);
+    assertThat(historyDecodeCount).hasValue(0);
+
+    assertThat(entry.getOldPasswords()).hasSize(3);
+    assertThat(entry.getOldPasswords()).hasSize(3);
+    assertThat(historyDecodeCount).hasValue(1);
+  }
+
+  @Test
+  public void testHistoryIsCompactedByCountAndAge() {
+    PasswordEntry entry = new PasswordEntry("Email", "", "hunter0", NOW, oldPasswords(10));
+
+    assertThat(
+            entry
+                .withHistoryCompactedBy(
+                    PasswordHistoryPolicy.where().maximumCountIsSetTo(3).build(), NOW)
+                .getOldPasswords()
+                .values())
+        .containsExactly("hunter3", "hunter2", "hunter1");
+    assertThat(
+            entry
+                .withHistoryCompactedBy(
+                    PasswordHistoryPolicy.where().maximumAgeIsSetTo(Duration.ofDays(4)).build(),
+                    NOW)
+                .getOldPasswords()
+                .values())
+        .containsExactly("hunter4", "hunter3", "hunter2", "hunter1");
+    assertThat(
+            entry.withHistoryCompactedBy(
+                PasswordHistoryPolicy.where().maximumCountIsSetTo(10).build(), NOW))
+        .isSameAs(entry);
+    assertThat(entry.withHistoryCompactedBy(PasswordHistoryPolicy.KEEP_EVERYTHING, NOW))
+        .isSameAs(entry);
+  }
+}
@@ -0,0 +1,191 @@
+package thorpe.luke.password;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class PasswordLibraryCatalogTest {
+  private static final String PASSWORD = "my_p4s$w0Rd";
+  private static final String SALT = "my_$4Lt";
+
+  private static PasswordLibrary library(String name, int entryCount) {
+    PasswordLibrary passwordLibrary =
+        PasswordLibrary.fromPassword(name, "Stores my super secret passwords.", PASSWORD, SALT);
+    for (int i = 0; i < entryCount; i++) {
+      passwordLibrary =
+          passwordLibrary.addEntry(
+              new PasswordEntry(
+                  "Account " + i,
+                  "Where my money goes.",
+                  "pls_dont_steal",
+                  LocalDateTime.now(),
+                  Collections.emptyMap()));
+    }
+    return passwordLibrary;
+  }
+
+  @Test
+  public void testWritesAreRecordedAndChangedFilesAreNotTrusted() throws IOException {
+    File directory = Files.createTempDirectory("password_library_catalog").toFile();
+    File file = new File(directory, "a" + PasswordLibrary.FILE_SUFFIX);
+    library("My Password Library", 3).writeToEncryptedFile(file, SALT);
+
+    PasswordLibraryCatalog.Entry entry = PasswordLibraryCatalog.read(directory).get(file).get();
+    assertThat(entry.getLibraryName()).isEqualTo("My Password Library");
+    assertThat(entry.getEntryCount()).isEqualTo(3);
+    assertThat(entry.getSize()).isEqualTo(file.length());
+    assertThat(entry.getFormatVersion()).isEqualTo(PasswordLibraryFormat.LATEST.getVersion());
+
+    Files.write(file.toPath(), new byte[] {'\n'}, StandardOpenOption.APPEND);
+    assertThat(PasswordLibraryCatalog.read(directory).get(file)).isEmpty();
+
+    File otherFile = new File(directory, "b" + PasswordLibrary.FILE_SUFFIX);
+    library("My Other Password Library", 1).writeToEncryptedFile(otherFile, SALT);
+    Files.delete(file.toPath());
+    library("My Other Password Library", 2).writeToEncryptedFile(otherFile, SALT);
+    PasswordLibraryCatalog catalog = PasswordLibraryCatalog.read(directory);
+    assertThat(catalog.size()).isEqualTo(1);
+    assertThat(catalog.get(otherFile).get().getEntryCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testSnapshotsTakenAtTheSameTimeAreNumbered() throws IOException {
+    File directory = Files.createTempDirectory("password_library_catalog").toFile();
+    PasswordLibrary passwordLibrary = library("My Password Library", 1);
+    File firstFile =
+        PasswordLibraryCatalog.createSnapshotFile(directory, passwordLibrary, "2020_01_01");
+    File secondFile =
+        PasswordLibraryCatalog.createSnapshotFile(directory, passwordLibrary, "2020_01_01");
+    File thirdFile =
+        PasswordLibraryCatalog.createSnapshotFile(directory, passwordLibrary, "2020_01_01");
+
+    assertThat(firstFile.getName())
+        .isEqualTo(PasswordLibraryCatalog.snapshotFileName(passwordLibrary, "2020_01_01"));
+    assertThat(Arrays.asList(firstFile, secondFile, thirdFile))
+        .doesNotHaveDuplicates()
+        .allMatch(File::isFile)
+        .isSortedAccordingTo(PasswordLibraryDirectoryIndex.ORDER);
+  }
+
+  @Test
+  public void testSnapshotsAreGroupedByLibraryNewestFirst() throws IOException {
+    File directory = Files.createTempDirectory("password_library_catalog").toFile();
+    PasswordLibrary passwordLibrary = library("My Password Library", 1);
+    File legacyFile =
+        new File(directory, PasswordLibraryCatalog.snapshotFileName(passwordLibrary, "2020_01_01"));
+    Files.createFile(legacyFile.toPath());
+    assertThat(legacyFile.setLastModified(1_000)).isTrue();
+    File olderFile =
+        new File(directory, PasswordLibraryCatalog.snapshotFileName(passwordLibrary, "2021_01_01"));
+    passwordLibrary.writeToEncryptedFile(olderFile, SALT);
+    // The catalog no longer describes the file, so its own modification time is used instead.
+    assertThat(olderFile.setLastModified(2_000)).isTrue();
+    File otherFile = new File(directory, "2022_01_01___Renamed" + PasswordLibrary.FILE_SUFFIX);
+    library("Another Password Library", 1).writeToEncryptedFile(otherFile, SALT);
+    File newestFile =
+        new File(directory, PasswordLibraryCatalog.snapshotFileName(passwordLibrary, "2023_01_01"));
+    passwordLibrary.writeToEncryptedFile(newestFile, SALT);
+
+    PasswordLibraryCatalog catalog = PasswordLibraryCatalog.read(directory);
+    List<List<File>> snapshots =
+        PasswordLibraryCatalog.groupSnapshots(
+            Arrays.asList(legacyFile, olderFile, otherFile, newestFile), catalog::get);
+    assertThat(snapshots)
+        .containsExactly(
+            Collections.singletonList(otherFile), Arrays.asList(newestFile, olderFile, legacyFile));
+  }
+
+  @Test
+  public void testLibrariesAreOnlyGroupedWithSnapshotsOfTheSameLibraryInTheSameDirectory()
+      throws IOException {
+    File directory = Files.createTempDirectory("password_library_catalog").toFile();
+    File otherDirectory = Files.createTempDirectory("password_library_catalog").toFile();
+    PasswordLibrary spacedLibrary = library("My Bank", 1);
+    File spacedFile =
+        new File(directory, PasswordLibraryCatalog.snapshotFileName(spacedLibrary, "2020_01_01"));
+    spacedLibrary.writeToEncryptedFile(spacedFile, SALT);
+    PasswordLibrary unspacedLibrary = library("MyBank", 1);
+    File unspacedFile =
+        new File(directory, PasswordLibraryCatalog.snapshotFileName(unspacedLibrary, "2021_01_01"));
+    unspacedLibrary.writeToEncryptedFile(unspacedFile, SALT);
+    // The catalog does not describe this one, and both libraries sanitize to its name.
+    File ambiguousFile =
+        new File(directory, PasswordLibraryCatalog.snapshotFileName(unspacedLibrary, "2022_01_01"));
+    Files.createFile(ambiguousFile.toPath());
+    File elsewhereFile =
+        new File(
+            otherDirectory, PasswordLibraryCatalog.snapshotFileName(spacedLibrary, "2023_01_01"));
+    spacedLibrary.writeToEncryptedFile(elsewhereFile, SALT);
+    PasswordLibrary firstUnicodeLibrary = library("\u9280\u884c", 1);
+    File firstUnicodeFile =
+        new File(
+            directory, PasswordLibraryCatalog.snapshotFileName(firstUnicodeLibrary, "2020_01_01"));
+    firstUnicodeLibrary.writeToEncryptedFile(firstUnicodeFile, SALT);
+    PasswordLibrary secondUnicodeLibrary = library("\u00e9pargne", 1);
+    File secondUnicodeFile =
+        new File(
+            directory, PasswordLibraryCatalog.snapshotFileName(secondUnicodeLibrary, "2021_01_01"));
+    secondUnicodeLibrary.writeToEncryptedFile(secondUnicodeFile, SALT);
+    // Neither is described by the catalog, and their names sanitize to nothing at all.
+    File firstUnknownFile = new File(directory, "2022_01_01___" + PasswordLibrary.FILE_SUFFIX);
+    Files.createFile(firstUnknownFile.toPath());
+    File secondUnknownFile = new File(directory, "2023_01_01___" + PasswordLibrary.FILE_SUFFIX);
+    Files.createFile(secondUnknownFile.toPath());
+
+    List<File> files =
+        Arrays.asList(
+            spacedFile,
+            unspacedFile,
+            ambiguousFile,
+            elsewhereFile,
+            firstUnicodeFile,
+            secondUnicodeFile,
+            firstUnknownFile,
+            secondUnknownFile);
+    List<List<File>> snapshots =
+        PasswordLibraryCatalog.groupSnapshots(
+            files,
+            file -> PasswordLibraryCatalog.read(file.getAbsoluteFile().getParentFile()).get(file));
+    assertThat(snapshots).hasSize(files.size());
+    assertThat(snapshots).allMatch(group -> group.size() == 1);
+  }
+
+  @Test
+  public void testLibrariesOfTheSameNameAreToldApartByTheirKeys() throws IOException {
+    File directory = Files.createTempDirectory("password_library_catalog").toFile();
+    PasswordLibrary firstLibrary = library("My Bank", 1);
+    PasswordLibrary secondLibrary =
+        PasswordLibrary.fromPassword("My Bank", "Another bank.", "an0ther_p4s$w0Rd", SALT);
+    File firstOlderFile =
+        new File(directory, PasswordLibraryCatalog.snapshotFileName(firstLibrary, "2020_01_01"));
+    firstLibrary.writeToEncryptedFile(firstOlderFile, SALT);
+    File firstNewerFile =
+        new File(directory, PasswordLibraryCatalog.snapshotFileName(firstLibrary, "2021_01_01"));
+    firstLibrary.writeToEncryptedFile(firstNewerFile, SALT);
+    File secondFile =
+        new File(directory, PasswordLibraryCatalog.snapshotFileName(secondLibrary, "2022_01_01"));
+    secondLibrary.writeToEncryptedFile(secondFile, SALT);
+    // The catalog does not describe this one, and it could be a snapshot of either library.
+    File ambiguousFile =
+        new File(directory, PasswordLibraryCatalog.snapshotFileName(firstLibrary, "2023_01_01"));
+    Files.createFile(ambiguousFile.toPath());
+
+    PasswordLibraryCatalog catalog = PasswordLibraryCatalog.read(directory);
+    List<List<File>> snapshots =
+        PasswordLibraryCatalog.groupSnapshots(
+            Arrays.asList(firstOlderFile, firstNewerFile, secondFile, ambiguousFile), catalog::get);
+    assertThat(snapshots)
+        .containsExactlyInAnyOrder(
+            Arrays.asList(firstNewerFile, firstOlderFile),
+            Collections.singletonList(secondFile),
+            Collections.singletonList(ambiguousFile));
+  }
+}
@@ -0,0 +1,85 @@
+package thorpe.luke.password;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class PasswordLibraryDirectoryIndexTest {
+
+  private static PasswordLibraryDirectoryIndex.Delta nextDelta(
+      BlockingQueue<PasswordLibraryDirectoryIndex.Delta> deltas) throws InterruptedException {
+    PasswordLibraryDirectoryIndex.Delta delta = deltas.poll(30, TimeUnit.SECONDS);
+    assertThat(delta).as("Expected a delta from the watch service.").isNotNull();
+    return delta;
+  }
+
+  @Test
+  public void testChangesToTheDirectoryArriveAsDeltas() throws IOException, InterruptedException {
+    Path directory = Files.createTempDirectory("password_library_directory");
+    File existingFile =
+        Files.createFile(directory.resolve("b" + PasswordLibrary.FILE_SUFFIX)).toFile();
+    Files.createFile(directory.resolve("notes.txt"));
+    BlockingQueue<PasswordLibraryDirectoryIndex.Delta> deltas = new LinkedBlockingQueue<>();
+
+    try (PasswordLibraryDirectoryIndex index =
+        PasswordLibraryDirectoryIndex.open(directory, deltas::add)) {
+      assertThat(index.getFiles()).containsExactly(existingFile);
+
+      File newFile =
+          Files.createFile(directory.resolve("a" + PasswordLibrary.FILE_SUFFIX)).toFile();
+      assertThat(nextDelta(deltas).getAdded()).containsExactly(newFile);
+      assertThat(index.getFiles()).containsExactly(newFile, existingFile);
+
+      Path subdirectory = Files.createDirectory(directory.resolve("old"));
+      File nestedFile =
+          Files.createFile(subdirectory.resolve("c" + PasswordLibrary.FILE_SUFFIX)).toFile();
+      // The nested file is either found when the new directory is registered, or by its own event.
+      while (!index.getFiles().contains(nestedFile)) {
+        nextDelta(deltas);
+      }
+      deltas.clear();
+
+      Files.delete(nestedFile.toPath());
+      Files.delete(subdirectory);
+      assertThat(nextDelta(deltas).getRemoved()).containsExactly(nestedFile);
+      assertThat(index.getFiles()).containsExactly(newFile, existingFile);
+
+      Files.delete(existingFile.toPath());
+      index.refresh(existingFile);
+      assertThat(nextDelta(deltas).getRemoved()).containsExactly(existingFile);
+      assertThat(index.getFiles()).containsExactly(newFile);
+    }
+  }
+
+  @Test
+  public void testRescanReportsOnlyWhatTheIndexMissed() throws IOException, InterruptedException {
+    Path directory = Files.createTempDirectory("password_library_directory");
+    BlockingQueue<PasswordLibraryDirectoryIndex.Delta> deltas = new LinkedBlockingQueue<>();
+    try (PasswordLibraryDirectoryIndex index =
+        PasswordLibraryDirectoryIndex.open(directory, deltas::add)) {
+      File file = Files.createFile(directory.resolve("a" + PasswordLibrary.FILE_SUFFIX)).toFile();
+      index.refresh(file);
+      assertThat(nextDelta(deltas).getAdded()).containsExactly(file);
+
+      index.rescan();
+      index.refresh(file);
+      // Only the modification from the second refresh, as the rescan found nothing new.
+      while (true) {
+        PasswordLibraryDirectoryIndex.Delta delta = nextDelta(deltas);
+        assertThat(delta.getAdded()).isEmpty();
+        assertThat(delta.getRemoved()).isEmpty();
+        if (!delta.getModified().isEmpty()) {
+          break;
+        }
+      }
+      assertThat(index.getFiles()).containsExactly(file);
+    }
+  }
+}
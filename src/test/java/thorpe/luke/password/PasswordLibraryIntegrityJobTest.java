@@ -0,0 +1,157 @@
+package thorpe.luke.password;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import thorpe.luke.cryptography.DerivedKeyCache;
+
+public class PasswordLibraryIntegrityJobTest {
+  private static final String PASSWORD = "my_p4s$w0Rd";
+  private static final String SALT = "my_$4Lt";
+
+  private static PasswordLibrary library(String name, String password) {
+    return PasswordLibrary.fromPassword(name, "Stores my super secret passwords.", password, SALT)
+        .addEntry(
+            new PasswordEntry(
+                "Bank Account",
+                "Where my money goes.",
+                "pls_dont_steal",
+                LocalDateTime.now(),
+                Collections.emptyMap()));
+  }
+
+  private static File writeLibrary(File directory, String name, String password)
+      throws IOException {
+    File file = new File(directory, name + PasswordLibrary.FILE_SUFFIX);
+    library(name, password).writeToEncryptedFile(file, SALT);
+    return file;
+  }
+
+  private static List<PasswordLibraryIntegrityJob.Status> statusesOf(
+      PasswordLibraryIntegrityJob.Report report) {
+    List<PasswordLibraryIntegrityJob.Status> statuses = new ArrayList<>();
+    for (PasswordLibraryIntegrityJob.Result result : report.getResults()) {
+      statuses.add(result.getStatus());
+    }
+    return statuses;
+  }
+
+  @Test
+  public void testDamageIsToldApartFromAnotherPassword() throws Exception {
+    File directory = Files.createTempDirectory("password_library_integrity").toFile();
+    File intactFile = writeLibrary(directory, "Intact", PASSWORD);
+    File corruptFile = writeLibrary(directory, "Corrupt", PASSWORD);
+    File otherFile = writeLibrary(directory, "Other", "0th3r_p4s$w0Rd");
+    File copiedFile = new File(directory, "Copied" + PasswordLibrary.FILE_SUFFIX);
+    Files.copy(intactFile.toPath(), copiedFile.toPath());
+    File missingFile = new File(directory, "Missing" + PasswordLibrary.FILE_SUFFIX);
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(corruptFile, "rw")) {
+      long middle = randomAccessFile.length() / 2;
+      randomAccessFile.seek(middle);
+      int value = randomAccessFile.read();
+      randomAccessFile.seek(middle);
+      randomAccessFile.write(value ^ 0x01);
+    }
+    List<File> files = Arrays.asList(intactFile, corruptFile, otherFile, copiedFile, missingFile);
+    List<PasswordLibraryIntegrityJob.Result> listenedResults = new ArrayList<>();
+
+    PasswordLibraryIntegrityJob.Report report =
+        new PasswordLibraryIntegrityJob(new DerivedKeyCache(Duration.ofMinutes(1)))
+            .run(files, PASSWORD, SALT, listenedResults::add);
+
+    assertThat(report.getResults())
+        .extracting(PasswordLibraryIntegrityJob.Result::getFile)
+        .isEqualTo(files);
+    assertThat(listenedResults).containsExactlyInAnyOrderElementsOf(report.getResults());
+    assertThat(statusesOf(report))
+        .containsExactly(
+            PasswordLibraryIntegrityJob.Status.INTACT,
+            PasswordLibraryIntegrityJob.Status.CORRUPT,
+            PasswordLibraryIntegrityJob.Status.WRONG_PASSWORD,
+            PasswordLibraryIntegrityJob.Status.UNRECORDED,
+            PasswordLibraryIntegrityJob.Status.UNREADABLE);
+    assertThat(report.hasFailures()).isTrue();
+    assertThat(report.getCheckedBytes()).isEqualTo(intactFile.length() + corruptFile.length());
+  }
+
+  @Test
+  public void testJournalsKeepTheirChecksumsUpToDate() throws Exception {
+    File directory = Files.createTempDirectory("password_library_integrity").toFile();
+    File file = new File(directory, "Journal" + PasswordLibrary.FILE_SUFFIX);
+    DerivedKeyCache derivedKeyCache = new DerivedKeyCache(Duration.ofMinutes(1));
+    PasswordLibrary passwordLibrary = library("Journal", PASSWORD);
+    PasswordLibraryJournal journal =
+        PasswordLibraryJournal.create(file, passwordLibrary, SALT, derivedKeyCache, task -> {});
+    journal.save(
+        passwordLibrary.addEntry(
+            new PasswordEntry(
+                "Email", "", "hunter2", LocalDateTime.now(), Collections.emptyMap())));
+    PasswordLibraryIntegrityJob job = new PasswordLibraryIntegrityJob(derivedKeyCache);
+
+    assertThat(statusesOf(job.run(Collections.singletonList(file), PASSWORD, SALT, result -> {})))
+        .containsExactly(PasswordLibraryIntegrityJob.Status.INTACT);
+
+    // Compaction is left to be run by hand, and once the key is locked it cannot record a checksum.
+    for (int i = 0; i < 40; i++) {
+      passwordLibrary = passwordLibrary.addEntry(entryNumber(i));
+      journal.save(passwordLibrary);
+    }
+    for (int i = 0; i < 40; i++) {
+      passwordLibrary = passwordLibrary.removeEntry("Entry " + i);
+      journal.save(passwordLibrary);
+    }
+    derivedKeyCache.lockAll();
+    journal.compact();
+    assertThat(statusesOf(job.run(Collections.singletonList(file), PASSWORD, SALT, result -> {})))
+        .containsExactly(PasswordLibraryIntegrityJob.Status.UNRECORDED);
+  }
+
+  @Test
+  public void testAJournalThatGrewBeforeItsChecksumWasRecordedIsStale() throws Exception {
+    File directory = Files.createTempDirectory("password_library_integrity").toFile();
+    File file = new File(directory, "Journal" + PasswordLibrary.FILE_SUFFIX);
+    File checksumsFile = new File(directory, PasswordLibraryChecksums.FILE_NAME);
+    DerivedKeyCache derivedKeyCache = new DerivedKeyCache(Duration.ofMinutes(1));
+    PasswordLibrary passwordLibrary = library("Journal", PASSWORD);
+    PasswordLibraryJournal journal =
+        PasswordLibraryJournal.create(file, passwordLibrary, SALT, derivedKeyCache, task -> {});
+    byte[] checksumsBeforeAppend = Files.readAllBytes(checksumsFile.toPath());
+    long snapshotLength = file.length();
+    // As though the writer stopped between the append and recording its checksum.
+    journal.save(passwordLibrary.addEntry(entryNumber(0)));
+    Files.write(checksumsFile.toPath(), checksumsBeforeAppend);
+    PasswordLibraryIntegrityJob job = new PasswordLibraryIntegrityJob(derivedKeyCache);
+
+    PasswordLibraryIntegrityJob.Report report =
+        job.run(Collections.singletonList(file), PASSWORD, SALT, result -> {});
+    assertThat(statusesOf(report)).containsExactly(PasswordLibraryIntegrityJob.Status.STALE);
+    assertThat(report.hasFailures()).isFalse();
+    assertThat(report.getCheckedBytes()).isEqualTo(file.length());
+
+    // Damage to what the checksum covers is still told apart.
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      long snapshotMiddle = snapshotLength / 2;
+      randomAccessFile.seek(snapshotMiddle);
+      int value = randomAccessFile.read();
+      randomAccessFile.seek(snapshotMiddle);
+      randomAccessFile.write(value ^ 0x01);
+    }
+    assertThat(statusesOf(job.run(Collections.singletonList(file), PASSWORD, SALT, result -> {})))
+        .containsExactly(PasswordLibraryIntegrityJob.Status.CORRUPT);
+  }
+
+  private static PasswordEntry entryNumber(int i) {
+    return new PasswordEntry(
+        "Entry " + i, "", "p4ss" + i, LocalDateTime.now(), Collections.emptyMap());
+  }
+}
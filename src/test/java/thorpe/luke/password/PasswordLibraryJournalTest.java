@@ -0,0 +1,217 @@
+package thorpe.luke.password;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Fail.fail;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.junit.Test;
+import thorpe.luke.cryptography.DerivedKeyCache;
+
+public class PasswordLibraryJournalTest {
+
+  private static final String PASSWORD = "my_p4s$w0Rd";
+  private static final String SALT = "my_$4Lt";
+
+  private final DerivedKeyCache derivedKeyCache = new DerivedKeyCache(Duration.ofMinutes(1));
+
+  private static PasswordEntry entry(String name, String password) {
+    return new PasswordEntry(
+        name, "Described as " + name, password, LocalDateTime.now(), Collections.emptyMap());
+  }
+
+  private PasswordLibraryJournal reopen(File file) throws IOException, PasswordMismatchException {
+    return PasswordLibraryJournal.open(
+        file, PASSWORD, SALT, derivedKeyCache, MoreExecutors.directExecutor());
+  }
+
+  @Test
+  public void testSavesOnlyAppendTheChangedEntries() {
+    try {
+      File file = File.createTempFile("password_library", "testSavesOnlyAppendTheChangedEntries");
+      PasswordEntry bankAccount = entry("Bank Account", "pls_dont_steal");
+      PasswordEntry gamingAccount = entry("Gaming Account", "mr-beast29");
+      PasswordLibraryJournal journal =
+          PasswordLibraryJournal.create(
+              file,
+              PasswordLibrary.fromPassword("My Password Library", "", PASSWORD, SALT)
+                  .addEntry(bankAccount),
+              SALT,
+              derivedKeyCache,
+              MoreExecutors.directExecutor());
+      List<String> snapshot = Files.readAllLines(file.toPath());
+
+      PasswordLibrary withGamingAccount = journal.getPasswordLibrary().addEntry(gamingAccount);
+      journal.save(withGamingAccount);
+      List<String> appended = Files.readAllLines(file.toPath());
+      assertThat(appended).startsWith(snapshot.toArray(new String[0])).hasSize(snapshot.size() + 2);
+      assertThat(appended.get(snapshot.size()))
+          .startsWith(SealedRecordPasswordLibraryFormat.ENTRY_RECORD);
+      assertThat(appended.get(snapshot.size() + 1))
+          .startsWith(SealedRecordPasswordLibraryFormat.COMMIT_RECORD);
+      assertThat(reopen(file).getPasswordLibrary()).isEqualTo(withGamingAccount);
+
+      PasswordLibrary withoutBankAccount =
+          PasswordLibrary.fromPassword(
+              "My Password Library", "", PASSWORD, SALT, List.of(gamingAccount));
+      journal.save(withoutBankAccount);
+      List<String> deleted = Files.readAllLines(file.toPath());
+      assertThat(deleted).hasSize(appended.size() + 2);
+      assertThat(deleted.get(appended.size()))
+          .startsWith(SealedRecordPasswordLibraryFormat.DELETION_RECORD);
+      assertThat(reopen(file).getPasswordLibrary()).isEqualTo(withoutBankAccount);
+    } catch (IOException | PasswordMismatchException e) {
+      e.printStackTrace();
+      fail(e.getMessage());
+    }
+  }
+
+  @Test
+  public void testCompactionFoldsTheLogIntoASnapshot() {
+    try {
+      File file = File.createTempFile("password_library", "testCompactionFoldsTheLogIntoASnapshot");
+      PasswordLibrary passwordLibrary =
+          PasswordLibrary.fromPassword("My Password Library", "", PASSWORD, SALT)
+              .addEntry(entry("Bank Account", "pls_dont_steal"));
+      PasswordLibraryJournal journal =
+          PasswordLibraryJournal.create(
+              file, passwordLibrary, SALT, derivedKeyCache, MoreExecutors.directExecutor());
+      for (int i = 0; i < 100; i++) {
+        passwordLibrary =
+            PasswordLibrary.fromPassword(
+                "My Password Library",
+                "Edited " + i + " times.",
+                PASSWORD,
+                SALT,
+                List.of(entry("Bank Account", "pls_dont_steal_" + i)));
+        journal.save(passwordLibrary);
+        // Compaction runs on the direct executor, so the log never grows far past the snapshot.
+        assertThat(Files.readAllLines(file.toPath()).size()).isLessThan(70);
+      }
+      journal.compact();
+      assertThat(Files.readAllLines(file.toPath())).hasSize(4);
+      assertThat(reopen(file).getPasswordLibrary()).isEqualTo(passwordLibrary);
+
+      passwordLibrary = journal.getPasswordLibrary().addEntry(entry("Email", "hunter2"));
+      journal.save(passwordLibrary);
+      assertThat(reopen(file).getPasswordLibrary()).isEqualTo(passwordLibrary);
+    } catch (IOException | PasswordMismatchException e) {
+      e.printStackTrace();
+      fail(e.getMessage());
+    }
+  }
+
+  @Test
+  public void testDroppedMovedOrReplayedRecordsAreRejected() throws Exception {
+    File file = File.createTempFile("password_library", "testDroppedMovedOrReplayedRecords");
+    PasswordLibraryJournal journal =
+        PasswordLibraryJournal.create(
+            file,
+            PasswordLibrary.fromPassword("My Password Library", "", PASSWORD, SALT)
+                .addEntry(entry("Bank Account", "pls_dont_steal")),
+            SALT,
+            derivedKeyCache,
+            MoreExecutors.directExecutor());
+    journal.save(journal.getPasswordLibrary().addEntry(entry("Email", "hunter2")));
+    List<String> lines = Files.readAllLines(file.toPath());
+    int emailRecord = lines.size() - 2;
+
+    // Dropping the new entry record leaves the commit record for a library that had it.
+    List<String> dropped = new ArrayList<>(lines);
+    dropped.remove(emailRecord);
+    assertRejected(file, dropped);
+
+    // Moving the entry record's sealed fields under another serial fails to authenticate.
+    List<String> moved = new ArrayList<>(lines);
+    String[] bankAccountFields = lines.get(2).split(" ");
+    String[] emailFields = lines.get(emailRecord).split(" ");
+    moved.set(2, bankAccountFields[0] + " " + bankAccountFields[1] + " " + emailFields[2]);
+    moved.set(emailRecord, emailFields[0] + " " + emailFields[1] + " " + bankAccountFields[2]);
+    assertRejected(file, moved);
+
+    // Replaying a record repeats its serial.
+    List<String> replayed = new ArrayList<>(lines);
+    replayed.add(emailRecord, lines.get(emailRecord));
+    assertRejected(file, replayed);
+  }
+
+  @Test
+  public void testTornAppendsAreIgnoredAndCutOff() throws Exception {
+    File file = File.createTempFile("password_library", "testTornAppendsAreIgnoredAndCutOff");
+    PasswordLibrary passwordLibrary =
+        PasswordLibrary.fromPassword("My Password Library", "", PASSWORD, SALT)
+            .addEntry(entry("Bank Account", "pls_dont_steal"));
+    PasswordLibraryJournal journal =
+        PasswordLibraryJournal.create(
+            file, passwordLibrary, SALT, derivedKeyCache, MoreExecutors.directExecutor());
+    List<String> snapshot = Files.readAllLines(file.toPath());
+    long snapshotLength = file.length();
+    journal.save(passwordLibrary.addEntry(entry("Email", "hunter2")));
+
+    // A crash part way through the append leaves the frame without its commit record.
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      randomAccessFile.setLength(snapshotLength + (file.length() - snapshotLength) / 2);
+    }
+    PasswordLibraryJournal reopenedJournal = reopen(file);
+    assertThat(reopenedJournal.getPasswordLibrary()).isEqualTo(passwordLibrary);
+
+    PasswordLibrary withGamingAccount =
+        reopenedJournal.getPasswordLibrary().addEntry(entry("Gaming Account", "mr-beast29"));
+    reopenedJournal.save(withGamingAccount);
+    assertThat(Files.readAllLines(file.toPath()))
+        .startsWith(snapshot.toArray(new String[0]))
+        .hasSize(snapshot.size() + 2);
+    assertThat(reopen(file).getPasswordLibrary()).isEqualTo(withGamingAccount);
+  }
+
+  @Test
+  public void testDamageBeforeTheLastAppendIsNotMistakenForATornAppend() throws Exception {
+    File file = File.createTempFile("password_library", "testDamageBeforeTheLastAppend");
+    PasswordLibraryJournal journal =
+        PasswordLibraryJournal.create(
+            file,
+            PasswordLibrary.fromPassword("My Password Library", "", PASSWORD, SALT)
+                .addEntry(entry("Bank Account", "pls_dont_steal")),
+            SALT,
+            derivedKeyCache,
+            MoreExecutors.directExecutor());
+    journal.save(journal.getPasswordLibrary().addEntry(entry("Email", "hunter2")));
+    List<String> lines = new ArrayList<>(Files.readAllLines(file.toPath()));
+    lines.set(2, lines.get(2).substring(0, lines.get(2).length() - 4) + "AAAA");
+
+    Files.write(file.toPath(), lines);
+    assertThatThrownBy(() -> reopen(file)).isInstanceOf(IOException.class);
+  }
+
+  /**
+   * Writes the lines with their frame checksums made to match, as anyone can without the key, so
+   * that only the sealed records stand in the way of tampering.
+   */
+  private void assertRejected(File file, List<String> lines) throws IOException {
+    List<String> rechecked = new ArrayList<>(lines);
+    CRC32 frameChecksum = new CRC32();
+    for (int i = 1; i < rechecked.size(); i++) {
+      String[] fields = rechecked.get(i).split(" ");
+      if (fields[0].equals(SealedRecordPasswordLibraryFormat.COMMIT_RECORD)) {
+        fields[2] = String.format("%08x", frameChecksum.getValue());
+        rechecked.set(i, String.join(" ", fields));
+        frameChecksum.reset();
+      } else {
+        frameChecksum.update((rechecked.get(i) + "\n").getBytes(StandardCharsets.US_ASCII));
+      }
+    }
+    Files.write(file.toPath(), rechecked);
+    assertThatThrownBy(() -> reopen(file)).isInstanceOf(IOException.class);
+  }
+}
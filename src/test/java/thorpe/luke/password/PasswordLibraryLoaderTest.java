@@ -0,0 +1,90 @@
+package thorpe.luke.password;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import thorpe.luke.cryptography.DerivedKeyCache;
+
+public class PasswordLibraryLoaderTest {
+  private static final String PASSWORD = "my_p4s$w0Rd";
+  private static final String SALT = "my_$4Lt";
+
+  private static File writeLibrary(File directory, String name, String password)
+      throws IOException {
+    File file = new File(directory, name + PasswordLibrary.FILE_SUFFIX);
+    PasswordLibrary.fromPassword(name, "Stores my super secret passwords.", password, SALT)
+        .addEntry(
+            new PasswordEntry(
+                "Bank Account",
+                "Where my money goes.",
+                "pls_dont_steal",
+                LocalDateTime.now(),
+                Collections.emptyMap()))
+        .writeToEncryptedFile(file, SALT);
+    return file;
+  }
+
+  @Test
+  public void testEachFileIsReadAndFailuresDoNotStopTheOthers() throws Exception {
+    File directory = Files.createTempDirectory("password_library_loader").toFile();
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      files.add(writeLibrary(directory, "Library " + i, PASSWORD));
+    }
+    files.add(1, writeLibrary(directory, "Other", "0th3r_p4s$w0Rd"));
+    File damagedFile = new File(directory, "Damaged" + PasswordLibrary.FILE_SUFFIX);
+    Files.write(damagedFile.toPath(), new byte[] {1, 2, 3});
+    files.add(damagedFile);
+    List<PasswordLibraryLoader.Outcome> listenedOutcomes = new ArrayList<>();
+
+    List<PasswordLibraryLoader.Outcome> outcomes =
+        new PasswordLibraryLoader(
+                new DerivedKeyCache(Duration.ofMinutes(1)), LoaderThreads.best(), 2)
+            .verifyEach(files, PASSWORD, SALT, listenedOutcomes::add);
+
+    assertThat(outcomes).extracting(PasswordLibraryLoader.Outcome::getFile).isEqualTo(files);
+    assertThat(listenedOutcomes).containsExactlyInAnyOrderElementsOf(outcomes);
+    assertThat(outcomes.get(0).getPasswordLibrary().get().getName()).isEqualTo("Library 0");
+    assertThat(outcomes.get(1).getFailure().get()).isInstanceOf(PasswordMismatchException.class);
+    assertThat(outcomes.get(5).getPasswordLibrary()).isEmpty();
+    assertThat(outcomes.get(5).getFailure()).isPresent();
+    assertThat(outcomes.subList(2, 5))
+        .allSatisfy(outcome -> assertThat(outcome.getPasswordLibrary()).isPresent());
+  }
+
+  @Test
+  public void testInterruptedLoadsCancelTheirReadsBeforeReturning() throws Exception {
+    File directory = Files.createTempDirectory("password_library_loader").toFile();
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      files.add(writeLibrary(directory, "Library " + i, PASSWORD));
+    }
+    AtomicReference<ExecutorService> executor = new AtomicReference<>();
+    LoaderThreads loaderThreads =
+        taskCount -> {
+          executor.set(LoaderThreads.platform().newExecutor(taskCount));
+          return executor.get();
+        };
+    PasswordLibraryLoader loader =
+        new PasswordLibraryLoader(new DerivedKeyCache(Duration.ofMinutes(1)), loaderThreads, 1);
+
+    assertThatThrownBy(
+            () ->
+                loader.loadEach(
+                    files, PASSWORD, SALT, outcome -> Thread.currentThread().interrupt()))
+        .isInstanceOf(InterruptedException.class);
+    assertThat(executor.get().isTerminated()).isTrue();
+    assertThat(Thread.interrupted()).isFalse();
+  }
+}
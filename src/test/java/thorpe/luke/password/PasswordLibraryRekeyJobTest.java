@@ -0,0 +1,94 @@
+package thorpe.luke.password;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import thorpe.luke.cryptography.DerivedKeyCache;
+import thorpe.luke.util.DurableFiles;
+
+public class PasswordLibraryRekeyJobTest {
+  private static final String OLD_PASSWORD = "my_p4s$w0Rd";
+  private static final String OLD_SALT = "my_$4Lt";
+  private static final String NEW_PASSWORD = "my_n3w_p4s$w0Rd";
+  private static final String NEW_SALT = "my_n3w_$4Lt";
+
+  private static PasswordLibrary library(String name, String password, String salt) {
+    return PasswordLibrary.fromPassword(name, "Stores my super secret passwords.", password, salt)
+        .addEntry(
+            new PasswordEntry(
+                "Bank Account",
+                "Where my money goes.",
+                "pls_dont_steal",
+                LocalDateTime.now(),
+                Collections.emptyMap()));
+  }
+
+  @Test
+  public void testLibrariesAreRekeyedAndRerunsPickUpWhereTheyLeftOff()
+      throws IOException, InterruptedException, PasswordMismatchException {
+    File directory = Files.createTempDirectory("password_library_rekey").toFile();
+    DerivedKeyCache derivedKeyCache = new DerivedKeyCache(Duration.ofMinutes(1));
+    List<File> oldFiles = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      File file = new File(directory, "old" + i + PasswordLibrary.FILE_SUFFIX);
+      library("Library " + i, OLD_PASSWORD, OLD_SALT)
+          .writeToEncryptedFile(file, OLD_SALT, derivedKeyCache);
+      oldFiles.add(file);
+    }
+    File rekeyedFile = new File(directory, "rekeyed" + PasswordLibrary.FILE_SUFFIX);
+    library("Rekeyed", NEW_PASSWORD, NEW_SALT)
+        .writeToEncryptedFile(rekeyedFile, NEW_SALT, derivedKeyCache);
+    File otherFile = new File(directory, "other" + PasswordLibrary.FILE_SUFFIX);
+    library("Other", "something_else", OLD_SALT)
+        .writeToEncryptedFile(otherFile, OLD_SALT, derivedKeyCache);
+    // Left behind by a run that crashed part way through writing.
+    File temporaryFile = new File(directory, oldFiles.get(0).getName() + ".123.tmp");
+    Files.write(temporaryFile.toPath(), new byte[] {1, 2, 3});
+    assertThat(
+            temporaryFile.setLastModified(
+                System.currentTimeMillis()
+                    - DurableFiles.STALE_TEMPORARY_FILE_AGE.multipliedBy(2).toMillis()))
+        .isTrue();
+
+    List<File> files = new ArrayList<>(oldFiles);
+    files.addAll(Arrays.asList(rekeyedFile, otherFile));
+    PasswordLibraryRekeyJob job =
+        new PasswordLibraryRekeyJob(
+            OLD_PASSWORD, OLD_SALT, NEW_PASSWORD, NEW_SALT, derivedKeyCache, 2);
+    List<Integer> finishedCounts = new ArrayList<>();
+    PasswordLibraryRekeyJob.Report report =
+        job.run(
+            files, (file, outcome, finishedCount, totalCount) -> finishedCounts.add(finishedCount));
+
+    assertThat(report.getRekeyedFiles()).containsExactlyInAnyOrderElementsOf(oldFiles);
+    assertThat(report.getAlreadyRekeyedFiles()).containsExactly(rekeyedFile);
+    assertThat(report.getFailures()).containsOnlyKeys(otherFile);
+    assertThat(report.getFailures().get(otherFile)).isInstanceOf(PasswordMismatchException.class);
+    assertThat(report.getRekeyedBytes()).isPositive();
+    assertThat(finishedCounts).containsExactly(1, 2, 3, 4, 5);
+    assertThat(temporaryFile).doesNotExist();
+    for (int i = 0; i < 3; i++) {
+      PasswordLibrary passwordLibrary =
+          PasswordLibrary.readFromEncryptedFile(oldFiles.get(i), NEW_PASSWORD, NEW_SALT);
+      assertThat(passwordLibrary.getName()).isEqualTo("Library " + i);
+      assertThat(passwordLibrary.getEntry("Bank Account").get().getPassword())
+          .isEqualTo("pls_dont_steal");
+    }
+    assertThat(PasswordLibraryCatalog.read(directory).get(oldFiles.get(0))).isPresent();
+
+    PasswordLibraryRekeyJob.Report rerunReport =
+        job.run(files, (file, outcome, finishedCount, totalCount) -> {});
+    assertThat(rerunReport.getRekeyedFiles()).isEmpty();
+    assertThat(rerunReport.getAlreadyRekeyedFiles()).hasSize(4);
+    assertThat(rerunReport.getFailures()).containsOnlyKeys(otherFile);
+  }
+}
@@ -0,0 +1,81 @@
+package thorpe.luke.password;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public class PasswordLibrarySearchServiceTest {
+  private static final String PASSWORD = "my_p4s$w0Rd";
+  private static final String SALT = "my_$4Lt";
+
+  private static PasswordLibrary library(String name, String... entryNames) {
+    PasswordLibrary passwordLibrary = PasswordLibrary.fromPassword(name, "", PASSWORD, SALT);
+    for (String entryName : entryNames) {
+      passwordLibrary = passwordLibrary.addEntry(entry(entryName));
+    }
+    return passwordLibrary;
+  }
+
+  private static PasswordEntry entry(String name) {
+    return new PasswordEntry(
+        name,
+        "Login for " + name + ".",
+        "pls_dont_steal",
+        LocalDateTime.now(),
+        Collections.emptyMap());
+  }
+
+  private static List<String> found(
+      PasswordLibrarySearchService<String> searchService, String query, int limit) {
+    return searchService
+        .search(query, limit)
+        .stream()
+        .map(result -> result.getLibraryKey() + "/" + result.getPasswordEntry().getName())
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void testResultsOfEveryLibraryAreRankedTogether() {
+    PasswordLibrarySearchService<String> searchService =
+        new PasswordLibrarySearchService<>(new ForkJoinPool(4));
+    searchService.put("home", library("Home", "Bank", "Bank Account", "Gaming Account"));
+    searchService.put("work", library("Work", "Banking Portal", "Email", "Wiki"));
+    searchService.put("old", library("Old", "Bank"));
+
+    assertThat(found(searchService, "bank", 10))
+        .containsExactly("home/Bank", "old/Bank", "home/Bank Account", "work/Banking Portal");
+    assertThat(found(searchService, "bank", 2)).containsExactly("home/Bank", "old/Bank");
+    assertThat(found(searchService, "login for wiki", 10)).containsExactly("work/Wiki");
+    assertThat(found(searchService, "nothing", 10)).isEmpty();
+  }
+
+  @Test
+  public void testResultsAreCachedUntilTheLibrariesChange() {
+    PasswordLibrarySearchService<String> searchService = new PasswordLibrarySearchService<>();
+    PasswordLibrary home = library("Home", "Bank");
+    searchService.put("home", home);
+
+    List<PasswordLibrarySearchService.Result<String>> results = searchService.search("bank", 10);
+    assertThat(searchService.search("bank", 10)).isSameAs(results);
+
+    Map<String, PasswordLibrary> passwordLibraries = new HashMap<>();
+    passwordLibraries.put("home", home);
+    searchService.sync(passwordLibraries);
+    assertThat(searchService.search("bank", 10)).isSameAs(results);
+
+    passwordLibraries.put("home", home.addEntry(entry("Bank Account")));
+    searchService.sync(passwordLibraries);
+    assertThat(found(searchService, "bank", 10)).containsExactly("home/Bank", "home/Bank Account");
+
+    searchService.remove("home");
+    assertThat(searchService.size()).isZero();
+    assertThat(searchService.search("bank", 10)).isEmpty();
+  }
+}
@@ -1,14 +1,17 @@
 package thorpe.luke.password;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.Fail.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.time.LocalDateTime;
 import java.util.Collections;
 import java.util.HashMap;
 import org.junit.Test;
+import thorpe.luke.cryptography.AES256EncryptionEngine;
 
 public class PasswordLibraryTest {
 
@@ -76,4 +79,136 @@ public class PasswordLibraryTest {
     } catch (PasswordMismatchException e) {
     }
   }
+
+  /**
+   * The library in each of the files under src/test/resources, which were written by the versions
+   * that still wrote their formats.
+   */
+  private static PasswordLibrary olderFormatLibrary(int version) {
+    return PasswordLibrary.fromPassword(
+            "My Old Password Library",
+            "Written in version " + version + ".",
+            "my_p4s$w0Rd",
+            "my_$4Lt")
+        .addEntry(
+            new PasswordEntry(
+                "Email",
+                "Where my spam goes.",
+                "hunter2",
+                LocalDateTime.of(2020, 1, 1, 0, 0),
+                Collections.singletonMap(LocalDateTime.of(2019, 1, 1, 0, 0), "hunter1")));
+  }
+
+  private static void assertOlderFormatIsStillReadable(int version) throws Exception {
+    File file =
+        new File(PasswordLibraryTest.class.getResource("version-" + version + ".passlib").toURI());
+    assertThat(PasswordLibrary.readFromEncryptedFile(file, "my_p4s$w0Rd", "my_$4Lt"))
+        .isEqualTo(olderFormatLibrary(version));
+    assertThatThrownBy(
+            () -> PasswordLibrary.readFromEncryptedFile(file, "wrong_password", "my_$4Lt"))
+        .isInstanceOf(PasswordMismatchException.class);
+  }
+
+  @Test
+  public void testVersionOneFilesAreStillReadable() throws Exception {
+    File file = new File(PasswordLibraryTest.class.getResource("version-1.passlib").toURI());
+    assertThat(Files.readString(file.toPath()))
+        .doesNotStartWith(PasswordLibraryFormat.VERSION_PREFIX);
+    assertOlderFormatIsStillReadable(1);
+  }
+
+  @Test
+  public void testMalformedFilesAreNotMistakenForAnotherPassword() throws Exception {
+    String password = "my_p4s$w0Rd";
+    String salt = "my_$4Lt";
+    File file = File.createTempFile("password_library", "testMalformedFiles");
+    Files.writeString(
+        file.toPath(),
+        AES256EncryptionEngine.fromPassword(PasswordLibrary.hash(password, salt), salt)
+            .encrypt("{\"name\": \"My Password Library\", \"entries\": ["));
+
+    assertThatThrownBy(() -> PasswordLibrary.readFromEncryptedFile(file, password, salt))
+        .isInstanceOf(IOException.class)
+        .hasMessageContaining("Malformed");
+    assertThatThrownBy(() -> PasswordLibrary.readFromEncryptedFile(file, "wrong_password", salt))
+        .isInstanceOf(PasswordMismatchException.class);
+  }
+
+  @Test
+  public void testVersionTwoFilesAreStillReadable() throws Exception {
+    assertOlderFormatIsStillReadable(2);
+  }
+
+  @Test
+  public void testVersionThreeFilesAreStillReadable() throws Exception {
+    assertOlderFormatIsStillReadable(3);
+  }
+
+  @Test
+  public void testVersionFourFilesAreStillReadable() throws Exception {
+    assertOlderFormatIsStillReadable(4);
+  }
+
+  @Test
+  public void testFilesAreWrittenInTheLatestFormat() {
+    File file;
+    try {
+      file = File.createTempFile("password_library", "testFilesAreWrittenInTheLatestFormat");
+      PasswordLibrary.fromPassword("My Password Library", "", "password", "salt")
+          .writeToEncryptedFile(file, "salt");
+      assertThat(Files.readString(file.toPath()))
+          .startsWith(
+              PasswordLibraryFormat.VERSION_PREFIX
+                  + PasswordLibraryFormat.LATEST.getVersion()
+                  + "\n");
+    } catch (IOException e) {
+      e.printStackTrace();
+      fail(e.getMessage());
+    }
+  }
+
+  @Test
+  public void testEntriesAreKeyedByNameAndUpdatesLeaveOlderVersionsIntact() {
+    PasswordEntry bankAccount =
+        new PasswordEntry(
+            "Bank Account",
+            "Where my money goes.",
+            "pls_dont_steal",
+            LocalDateTime.now(),
+            Collections.emptyMap());
+    PasswordEntry gamingAccount =
+        new PasswordEntry(
+            "Gaming Account",
+            "Because I'm an epic gamer.",
+            "mr-beast29",
+            LocalDateTime.now(),
+            Collections.emptyMap());
+    PasswordLibrary emptyLibrary =
+        PasswordLibrary.fromPassword("My Password Library", "", "my_p4s$w0Rd", "my_$4Lt");
+    PasswordLibrary passwordLibrary = emptyLibrary.addEntry(bankAccount).addEntry(gamingAccount);
+    assertThat(emptyLibrary.getEntries()).isEmpty();
+    assertThat(passwordLibrary.getEntries()).containsExactlyInAnyOrder(bankAccount, gamingAccount);
+    assertThat(passwordLibrary.getEntry("Bank Account")).contains(bankAccount);
+    assertThatThrownBy(() -> passwordLibrary.addEntry(bankAccount))
+        .isInstanceOf(IllegalArgumentException.class);
+
+    PasswordEntry savingsAccount =
+        new PasswordEntry(
+            "Savings Account",
+            "Where my money stays.",
+            "still_pls",
+            LocalDateTime.now(),
+            Collections.emptyMap());
+    PasswordLibrary replacedLibrary = passwordLibrary.replaceEntry("Bank Account", savingsAccount);
+    assertThat(replacedLibrary.getEntry("Bank Account")).isEmpty();
+    assertThat(replacedLibrary.getEntry("Savings Account")).contains(savingsAccount);
+    assertThat(passwordLibrary.getEntry("Bank Account")).contains(bankAccount);
+    assertThatThrownBy(() -> replacedLibrary.replaceEntry("Savings Account", gamingAccount))
+        .isInstanceOf(IllegalArgumentException.class);
+
+    PasswordLibrary removedLibrary = replacedLibrary.removeEntry("Gaming Account");
+    assertThat(removedLibrary.getEntries()).containsExactly(savingsAccount);
+    assertThat(removedLibrary.removeEntry("Gaming Account")).isSameAs(removedLibrary);
+    assertThat(replacedLibrary.getEntries()).hasSize(2);
+  }
 }
@@ -0,0 +1,112 @@
+package thorpe.luke.password;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class SnapshotRetentionEngineTest {
+  private static final LocalDateTime NOW = LocalDateTime.of(2024, 3, 15, 12, 0);
+
+  private static File snapshot(File directory, String libraryName, Duration age, int size)
+      throws IOException {
+    LocalDateTime savedAt = NOW.minus(age);
+    File file =
+        new File(
+            directory,
+            savedAt.toString().replaceAll("[-:.]", "_")
+                + "___"
+                + libraryName
+                + PasswordLibrary.FILE_SUFFIX);
+    Files.write(file.toPath(), new byte[size]);
+    assertThat(file.setLastModified(savedAt.toInstant(ZoneOffset.UTC).toEpochMilli())).isTrue();
+    return file;
+  }
+
+  @Test
+  public void testDryRunsReportWithoutDeleting() throws IOException {
+    File directory = Files.createTempDirectory("snapshot_retention").toFile();
+    File oldest = snapshot(directory, "Bank", Duration.ofHours(3), 10);
+    File older = snapshot(directory, "Bank", Duration.ofHours(2), 20);
+    File old = snapshot(directory, "Bank", Duration.ofHours(1), 30);
+    File newest = snapshot(directory, "Bank", Duration.ZERO, 40);
+    File other = snapshot(directory, "Games", Duration.ofDays(100), 50);
+    List<File> files = Arrays.asList(oldest, older, old, newest, other);
+    SnapshotRetentionPolicy policy = SnapshotRetentionPolicy.where().keepLastIsSetTo(2).build();
+    SnapshotRetentionEngine engine = new SnapshotRetentionEngine(ZoneOffset.UTC);
+
+    SnapshotRetentionEngine.Report dryRunReport = engine.run(files, policy, true);
+    assertThat(dryRunReport.getExpiredFiles()).containsExactly(older, oldest);
+    assertThat(dryRunReport.getReclaimedBytes()).isEqualTo(30);
+    assertThat(oldest).exists();
+    assertThat(engine.getReclaimedBytes()).isZero();
+
+    SnapshotRetentionEngine.Report report = engine.run(files, policy, false);
+    assertThat(report.getExpiredFiles()).containsExactly(older, oldest);
+    assertThat(report.getExaminedFileCount()).isEqualTo(5);
+    assertThat(oldest).doesNotExist();
+    assertThat(older).doesNotExist();
+    assertThat(engine.getRunCount()).isEqualTo(2);
+    assertThat(engine.getDeletedFileCount()).isEqualTo(2);
+    assertThat(engine.getReclaimedBytes()).isEqualTo(30);
+  }
+
+  @Test
+  public void testDailyAndWeeklyRulesKeepTheLastSnapshotOfEachPeriod() throws IOException {
+    File directory = Files.createTempDirectory("snapshot_retention").toFile();
+    File newest = snapshot(directory, "Bank", Duration.ZERO, 1);
+    File earlierToday = snapshot(directory, "Bank", Duration.ofHours(1), 1);
+    File yesterday = snapshot(directory, "Bank", Duration.ofDays(1), 1);
+    File earlierYesterday = snapshot(directory, "Bank", Duration.ofDays(1).plusHours(1), 1);
+    File lastWeek = snapshot(directory, "Bank", Duration.ofDays(7), 1);
+    File earlierLastWeek = snapshot(directory, "Bank", Duration.ofDays(8), 1);
+    File weeksAgo = snapshot(directory, "Bank", Duration.ofDays(30), 1);
+    SnapshotRetentionPolicy policy =
+        SnapshotRetentionPolicy.where().keepDailyIsSetTo(2).keepWeeklyIsSetTo(2).build();
+
+    SnapshotRetentionEngine.Report report =
+        new SnapshotRetentionEngine(ZoneOffset.UTC)
+            .run(
+                Arrays.asList(
+                    newest,
+                    earlierToday,
+                    yesterday,
+                    earlierYesterday,
+                    lastWeek,
+                    earlierLastWeek,
+                    weeksAgo),
+                policy,
+                true);
+    assertThat(report.getExpiredFiles())
+        .containsExactly(earlierToday, earlierYesterday, earlierLastWeek, weeksAgo);
+  }
+
+  @Test
+  public void testSizeLimitDropsTheOldestSnapshotsButNeverTheNewest() throws IOException {
+    File directory = Files.createTempDirectory("snapshot_retention").toFile();
+    File oldBank = snapshot(directory, "Bank", Duration.ofDays(3), 100);
+    File newBank = snapshot(directory, "Bank", Duration.ZERO, 100);
+    File oldGames = snapshot(directory, "Games", Duration.ofDays(2), 100);
+    File newGames = snapshot(directory, "Games", Duration.ofDays(1), 100);
+    SnapshotRetentionPolicy policy =
+        SnapshotRetentionPolicy.where().maximumTotalBytesIsSetTo(250).build();
+
+    SnapshotRetentionEngine.Report report =
+        new SnapshotRetentionEngine(ZoneOffset.UTC)
+            .run(Arrays.asList(oldBank, newBank, oldGames, newGames), policy, true);
+    assertThat(report.getExpiredFiles()).containsExactly(oldBank, oldGames);
+
+    policy = SnapshotRetentionPolicy.where().maximumTotalBytesIsSetTo(1).build();
+    report =
+        new SnapshotRetentionEngine(ZoneOffset.UTC)
+            .run(Arrays.asList(oldBank, newBank, oldGames, newGames), policy, true);
+    assertThat(report.getExpiredFiles()).containsExactly(oldBank, oldGames);
+  }
+}
@@ -0,0 +1,139 @@
+package thorpe.luke.password.agent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import thorpe.luke.password.PasswordEntry;
+import thorpe.luke.password.PasswordLibrary;
+import thorpe.luke.password.PasswordMismatchException;
+
+public class PasswordLibraryAgentTest {
+  private static final String PASSWORD = "password";
+  private static final String SALT = "salt";
+
+  private AgentTransport transport;
+  private Path directory;
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    Optional<AgentTransport> unixDomainTransport = AgentTransport.unixDomain();
+    assumeTrue(unixDomainTransport.isPresent());
+    transport = unixDomainTransport.get();
+    directory = Files.createTempDirectory("agent");
+    file = directory.resolve("Bank.passlib").toFile();
+    PasswordLibrary.fromPassword(
+            "Bank",
+            "",
+            PASSWORD,
+            SALT,
+            Arrays.asList(
+                new PasswordEntry(
+                    "Online", "", "hunter2", LocalDateTime.now(), Collections.emptyMap()),
+                new PasswordEntry(
+                    "Phone", "", "1234", LocalDateTime.now(), Collections.emptyMap())))
+        .writeToEncryptedFile(file, SALT);
+  }
+
+  @Test
+  public void testUnlockedLibrariesAreServedUntilLocked() throws Exception {
+    Path socket = directory.resolve("agent.sock");
+    try (PasswordLibraryAgent agent =
+            PasswordLibraryAgent.start(transport, socket, SALT, Duration.ofMinutes(1));
+        PasswordLibraryAgentClient client = PasswordLibraryAgentClient.connect(socket).get()) {
+      assertThat(client.getPassword(file, "Online")).isEmpty();
+      assertThatThrownBy(() -> client.unlock(file, "wrong"))
+          .isInstanceOf(PasswordMismatchException.class);
+      assertThat(client.isUnlocked(file)).isFalse();
+
+      client.unlock(file, PASSWORD);
+      assertThat(client.isUnlocked(file)).isTrue();
+      assertThat(client.getPassword(file, "Online")).contains("hunter2");
+      assertThat(client.getPassword(file, "Email")).isEmpty();
+      assertThat(client.listEntries(file)).contains(Arrays.asList("Online", "Phone"));
+      assertThat(client.listUnlocked()).containsExactly(file.getCanonicalPath());
+
+      client.lock(file);
+      assertThat(client.listEntries(file)).isEmpty();
+
+      client.unlock(file, PASSWORD);
+      client.lockAll();
+      assertThat(client.isUnlocked(file)).isFalse();
+
+      assertThatThrownBy(
+              () -> PasswordLibraryAgent.start(transport, socket, SALT, Duration.ofMinutes(1)))
+          .hasMessageContaining("already listening");
+      client.stop();
+      agent.awaitStop();
+      assertThat(socket).doesNotExist();
+    }
+  }
+
+  @Test
+  public void testIdleAndChangedLibrariesAreLocked() throws Exception {
+    Path socket = directory.resolve("agent.sock");
+    try (PasswordLibraryAgent agent =
+            PasswordLibraryAgent.start(transport, socket, SALT, Duration.ofMillis(200));
+        PasswordLibraryAgentClient client =
+            PasswordLibraryAgentClient.connect(agent.getSocket()).get()) {
+      client.unlock(file, PASSWORD);
+      long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+      while (client.isUnlocked(file) && System.nanoTime() < deadline) {
+        Thread.sleep(50);
+      }
+      assertThat(client.isUnlocked(file)).isFalse();
+
+      client.unlock(file, PASSWORD);
+      PasswordLibrary.readFromEncryptedFile(file, PASSWORD, SALT)
+          .removeEntry("Phone")
+          .writeToEncryptedFile(file, SALT);
+      assertThat(client.getPassword(file, "Online")).isEmpty();
+    }
+  }
+
+  @Test
+  public void testStaleSocketsAreReplaced() throws Exception {
+    Path socket = directory.resolve("agent.sock");
+    Files.createFile(socket);
+    assertThat(PasswordLibraryAgentClient.connect(socket)).isEmpty();
+
+    try (PasswordLibraryAgent agent =
+        PasswordLibraryAgent.start(transport, socket, SALT, Duration.ofMinutes(1))) {
+      assertThat(PasswordLibraryAgentClient.connect(agent.getSocket())).isPresent();
+    }
+    assertThat(socket).doesNotExist();
+  }
+
+  @Test
+  public void testSocketsAreOnlyBoundInDirectoriesPrivateToTheirOwner() throws Exception {
+    Path privateDirectory = directory.resolve("private");
+    Path socket = privateDirectory.resolve("agent.sock");
+    try (PasswordLibraryAgent agent =
+        PasswordLibraryAgent.start(transport, socket, SALT, Duration.ofMinutes(1))) {
+      assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(privateDirectory)))
+          .isEqualTo("rwx------");
+      assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(socket)))
+          .isEqualTo("rw-------");
+    }
+
+    Path sharedDirectory = Files.createDirectory(directory.resolve("shared"));
+    Files.setPosixFilePermissions(sharedDirectory, PosixFilePermissions.fromString("rwxr-xr-x"));
+    Path sharedSocket = sharedDirectory.resolve("agent.sock");
+    assertThatThrownBy(
+            () -> PasswordLibraryAgent.start(transport, sharedSocket, SALT, Duration.ofMinutes(1)))
+        .hasMessageContaining("Others can access");
+    assertThat(sharedSocket).doesNotExist();
+  }
+}
@@ -0,0 +1,89 @@
+package thorpe.luke.password.apdater;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import thorpe.luke.password.PasswordLibrary;
+import thorpe.luke.util.AutoDetectingCodec;
+import thorpe.luke.util.CodecException;
+import thorpe.luke.util.JsonCodec;
+
+public class PasswordLibraryCodecsTest {
+
+  private static PasswordLibraryJsonAdapter someLibrary() {
+    List<PasswordEntryJsonAdapter> entries =
+        Arrays.asList(
+            new PasswordEntryJsonAdapter(
+                "Bank Account",
+                "Where my money goes. £€",
+                "pls_dont_steal",
+                LocalDateTime.now(),
+                new HashMap<>()),
+            new PasswordEntryJsonAdapter(
+                "Gaming Account",
+                null,
+                "mr-beast29",
+                LocalDateTime.of(1969, 7, 20, 20, 17, 40, 123456789),
+                new HashMap<LocalDateTime, String>() {
+                  {
+                    put(LocalDateTime.now().minusDays(4), "mr-wolf74");
+                  }
+                }));
+    return new PasswordLibraryJsonAdapter(
+        "My Password Library", "Stores my super secret passwords.", "some_hash", entries);
+  }
+
+  private static PasswordLibrary toPasswordLibrary(PasswordLibraryJsonAdapter adapter) {
+    // The library compares its entries field by field, which the adapters do not.
+    adapter.setEntries(
+        adapter
+            .getEntries()
+            .stream()
+            .peek(
+                entry ->
+                    entry.setDescription(
+                        entry.getDescription() == null ? "" : entry.getDescription()))
+            .collect(Collectors.toList()));
+    return PasswordLibrary.fromAdapter(adapter);
+  }
+
+  @Test
+  public void testBinaryEncodingRoundTripsAndIsSmallerThanJson() throws CodecException {
+    PasswordLibraryJsonAdapter library = someLibrary();
+    byte[] binary = PasswordLibraryCodecs.LIBRARY.encode(library);
+    byte[] json = new JsonCodec<>(PasswordLibraryJsonAdapter.class).encode(library);
+    assertThat(binary.length).isLessThan(json.length / 2);
+
+    PasswordLibraryJsonAdapter decodedLibrary = PasswordLibraryCodecs.LIBRARY.decode(binary);
+    assertThat(decodedLibrary.getEntries().stream().map(PasswordEntryJsonAdapter::getDescription))
+        .contains((String) null);
+    assertThat(toPasswordLibrary(decodedLibrary)).isEqualTo(toPasswordLibrary(library));
+  }
+
+  @Test
+  public void testEitherEncodingIsDetectedOnRead() throws CodecException {
+    PasswordLibraryJsonAdapter library = someLibrary();
+    AutoDetectingCodec<PasswordLibraryJsonAdapter> codec =
+        PasswordLibraryCodecs.preferringBinary(
+            PasswordLibraryCodecs.LIBRARY, PasswordLibraryJsonAdapter.class);
+    byte[] binary = codec.encode(library);
+    byte[] json = new JsonCodec<>(PasswordLibraryJsonAdapter.class).encode(library);
+    assertThat(binary).isEqualTo(PasswordLibraryCodecs.LIBRARY.encode(library));
+    assertThat(toPasswordLibrary(codec.decode(binary)))
+        .isEqualTo(toPasswordLibrary(codec.decode(json)));
+  }
+
+  @Test
+  public void testTruncatedBinaryIsRejected() throws CodecException {
+    byte[] binary = PasswordLibraryCodecs.LIBRARY.encode(someLibrary());
+    assertThatThrownBy(
+            () -> PasswordLibraryCodecs.LIBRARY.decode(Arrays.copyOf(binary, binary.length - 1)))
+        .isInstanceOf(CodecException.class);
+  }
+}
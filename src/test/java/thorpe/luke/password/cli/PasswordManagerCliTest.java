@@ -0,0 +1,207 @@
+package thorpe.luke.password.cli;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import thorpe.luke.password.PasswordHistoryPolicy;
+import thorpe.luke.password.agent.AgentTransport;
+import thorpe.luke.password.agent.PasswordLibraryAgent;
+import thorpe.luke.password.ui.model.Options;
+import thorpe.luke.password.ui.model.StorageMode;
+
+public class PasswordManagerCliTest {
+  private static final String PASSWORD = "password";
+
+  private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+  private final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+  private Path agentSocket;
+
+  @Before
+  public void setUp() throws IOException {
+    agentSocket = Files.createTempDirectory("password_manager_cli").resolve("agent.sock");
+  }
+
+  private static Options optionsFor(File dataDirectory, StorageMode storageMode) {
+    return Options.where()
+        .dataPathIsSetTo(dataDirectory.getPath())
+        .saltIsSetTo("salt")
+        .storageModeIsSetTo(storageMode)
+        .historyPolicyIsSetTo(PasswordHistoryPolicy.where().maximumCountIsSetTo(1).build())
+        .build();
+  }
+
+  private int run(Options options, String password, String input, String... arguments) {
+    output.reset();
+    errors.reset();
+    return new PasswordManagerCli(
+            new BufferedReader(new StringReader(input)),
+            new PrintStream(output, true),
+            new PrintStream(errors, true),
+            options,
+            () -> Optional.ofNullable(password),
+            agentSocket)
+        .run(Arrays.asList(arguments));
+  }
+
+  private String output() {
+    return new String(output.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private String errors() {
+    return new String(errors.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testBatchesAddChangeAndReadEntriesInEitherStorageMode() throws IOException {
+    for (StorageMode storageMode : StorageMode.values()) {
+      Options options =
+          optionsFor(Files.createTempDirectory("password_manager_cli").toFile(), storageMode);
+      String batch =
+          String.join(
+              "\n",
+              "# Set up a new library.",
+              "add 'My Bank' Online \"Online banking\"",
+              "first",
+              "add 'My Bank' Online",
+              "second",
+              "add 'My Bank' Online",
+              "third",
+              "",
+              "add 'My Bank' Phone",
+              "1234",
+              "get 'My Bank' Online",
+              "list 'My Bank'",
+              "export MyBank -");
+
+      assertThat(run(options, PASSWORD, batch, "batch")).isEqualTo(PasswordManagerCli.SUCCESS);
+      assertThat(errors()).isEmpty();
+      assertThat(output())
+          .contains("Added Online in My Bank")
+          .contains("Changed Online in My Bank")
+          .contains("third\nOnline\nPhone\n".replace("\n", System.lineSeparator()))
+          .contains("Online banking")
+          .contains("second")
+          .doesNotContain("first");
+
+      assertThat(run(options, PASSWORD, "", "list")).isEqualTo(PasswordManagerCli.SUCCESS);
+      assertThat(output()).startsWith("My Bank\t");
+      assertThat(run(options, PASSWORD, "", "verify")).isEqualTo(PasswordManagerCli.SUCCESS);
+      assertThat(output()).startsWith("OK\t");
+      assertThat(run(options, PASSWORD, "", "check")).isEqualTo(PasswordManagerCli.SUCCESS);
+      assertThat(output()).startsWith("INTACT\t").doesNotContain("CORRUPT");
+      assertThat(run(options, PASSWORD, "list 'My Bank'\nmetrics", "batch"))
+          .isEqualTo(PasswordManagerCli.SUCCESS);
+      assertThat(output()).contains("kdf.derive\t").contains("library.read\t");
+    }
+  }
+
+  @Test
+  public void testExportedLibrariesImportWithoutDuplicates() throws IOException {
+    File dataDirectory = Files.createTempDirectory("password_manager_cli").toFile();
+    Options options = optionsFor(dataDirectory, StorageMode.SNAPSHOT);
+    File exportFile = new File(dataDirectory, "export.json");
+    String batch =
+        String.join(
+            "\n", "add Work Email", "hunter2", "add Work Wiki", "hunter3", "add Home Email", "abc");
+    assertThat(run(options, PASSWORD, batch, "batch")).isEqualTo(PasswordManagerCli.SUCCESS);
+    assertThat(run(options, PASSWORD, "", "export", "Work", exportFile.getPath()))
+        .isEqualTo(PasswordManagerCli.SUCCESS);
+    assertThat(run(options, PASSWORD, "", "import", "Home", exportFile.getPath()))
+        .isEqualTo(PasswordManagerCli.SUCCESS);
+    assertThat(output()).contains("Imported 1 entries into Home, skipping 1");
+
+    assertThat(run(options, PASSWORD, "", "get", "Home", "Wiki"))
+        .isEqualTo(PasswordManagerCli.SUCCESS);
+    assertThat(output().trim()).isEqualTo("hunter3");
+    assertThat(run(options, PASSWORD, "", "get", "Home", "Email"))
+        .isEqualTo(PasswordManagerCli.SUCCESS);
+    assertThat(output().trim()).isEqualTo("abc");
+    assertThat(run(options, PASSWORD, "", "search", "mail")).isEqualTo(PasswordManagerCli.SUCCESS);
+    assertThat(output())
+        .isEqualTo("Home\tEmail\nWork\tEmail\n".replace("\n", System.lineSeparator()));
+  }
+
+  @Test
+  public void testFailuresSetTheExitStatus() throws IOException {
+    Options options =
+        optionsFor(
+            Files.createTempDirectory("password_manager_cli").toFile(), StorageMode.SNAPSHOT);
+    run(options, PASSWORD, "hunter2\n", "add", "Work", "Email");
+
+    assertThat(run(options, "wrong", "", "get", "Work", "Email"))
+        .isEqualTo(PasswordManagerCli.FAILURE);
+    assertThat(run(options, PASSWORD, "", "get", "Work", "Phone"))
+        .isEqualTo(PasswordManagerCli.USAGE_ERROR);
+    assertThat(errors()).contains("no entry called Phone");
+    assertThat(run(options, PASSWORD, "", "get", "Home", "Email"))
+        .isEqualTo(PasswordManagerCli.USAGE_ERROR);
+    assertThat(run(options, null, "", "list", "Work")).isEqualTo(PasswordManagerCli.USAGE_ERROR);
+    assertThat(errors()).contains(PasswordManagerCli.PASSWORD_VARIABLE);
+    assertThat(run(options, PASSWORD, "", "frobnicate")).isEqualTo(PasswordManagerCli.USAGE_ERROR);
+    assertThat(run(options, PASSWORD, "", "list")).isEqualTo(PasswordManagerCli.SUCCESS);
+  }
+
+  @Test
+  public void testLookupsGoThroughARunningAgent() throws IOException {
+    Optional<AgentTransport> transport = AgentTransport.unixDomain();
+    assumeTrue(transport.isPresent());
+    Options options =
+        optionsFor(
+            Files.createTempDirectory("password_manager_cli").toFile(), StorageMode.SNAPSHOT);
+    run(options, PASSWORD, "hunter2\n", "add", "Work", "Email");
+
+    try (PasswordLibraryAgent agent =
+        PasswordLibraryAgent.start(
+            transport.get(), agentSocket, options.getSalt(), Duration.ofMinutes(1))) {
+      assertThat(run(options, "wrong", "", "get", "Work", "Email"))
+          .isEqualTo(PasswordManagerCli.FAILURE);
+      assertThat(run(options, PASSWORD, "", "get", "Work", "Email"))
+          .isEqualTo(PasswordManagerCli.SUCCESS);
+      assertThat(output().trim()).isEqualTo("hunter2");
+
+      // The agent holds the library now, so no password is needed.
+      assertThat(run(options, null, "", "get", "Work", "Email"))
+          .isEqualTo(PasswordManagerCli.SUCCESS);
+      assertThat(output().trim()).isEqualTo("hunter2");
+      assertThat(run(options, null, "", "list", "Work")).isEqualTo(PasswordManagerCli.SUCCESS);
+      assertThat(output().trim()).isEqualTo("Email");
+      assertThat(run(options, null, "", "search", "email")).isEqualTo(PasswordManagerCli.SUCCESS);
+      assertThat(output().trim()).isEqualTo("Work\tEmail");
+      assertThat(run(options, null, "", "get", "Work", "Phone"))
+          .isEqualTo(PasswordManagerCli.USAGE_ERROR);
+
+      assertThat(run(options, null, "", "agent", "lock")).isEqualTo(PasswordManagerCli.SUCCESS);
+      assertThat(run(options, null, "", "get", "Work", "Email"))
+          .isEqualTo(PasswordManagerCli.USAGE_ERROR);
+      assertThat(run(options, null, "", "agent", "stop")).isEqualTo(PasswordManagerCli.SUCCESS);
+      assertThat(agent.getSocket()).doesNotExist();
+    }
+  }
+
+  @Test
+  public void testLinesAreTokenizedLikeAShell() throws UsageException {
+    assertThat(PasswordManagerCli.tokenize("  add 'My Bank'  \"a \\\"b\\\"\" c\\ d # e"))
+        .containsExactly("add", "My Bank", "a \"b\"", "c d");
+    assertThat(PasswordManagerCli.tokenize("'\\'")).containsExactly("\\");
+    assertThat(PasswordManagerCli.tokenize("a#b")).containsExactly("a#b");
+    assertThat(PasswordManagerCli.tokenize("# comment")).isEqualTo(Collections.emptyList());
+    assertThatThrownBy(() -> PasswordManagerCli.tokenize("get 'My Bank"))
+        .isInstanceOf(UsageException.class);
+  }
+}
@@ -0,0 +1,160 @@
+package thorpe.luke.password.transfer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import org.junit.Test;
+import thorpe.luke.password.PasswordEntry;
+import thorpe.luke.password.PasswordLibrary;
+
+public class PasswordEntryImporterTest {
+  private static final String PASSWORD = "my_p4s$w0Rd";
+  private static final String SALT = "my_$4Lt";
+
+  private static PasswordLibrary library() {
+    return PasswordLibrary.fromPassword(
+            "My Password Library", "Stores my super secret passwords.", PASSWORD, SALT)
+        .addEntry(
+            new PasswordEntry(
+                "Bank Account",
+                "Where my money goes.",
+                "pls_dont_steal",
+                LocalDateTime.now(),
+                Collections.emptyMap()));
+  }
+
+  private static PasswordEntryImporter.Report importCsv(
+      PasswordEntryImporter.DuplicatePolicy duplicatePolicy, String csv) throws IOException {
+    try (PasswordEntryReader reader = new CsvPasswordEntryReader(new StringReader(csv))) {
+      return new PasswordEntryImporter(duplicatePolicy).importInto(library(), reader);
+    }
+  }
+
+  @Test
+  public void testCsvIsReadWithQuotesLineBreaksAndOtherManagersColumns() throws IOException {
+    PasswordEntryImporter.Report report =
+        importCsv(
+            PasswordEntryImporter.DuplicatePolicy.SKIP,
+            "\uFEFFTitle,Username,URL,Password,Notes,Group\r\n"
+                + "Email,me@example.com,https://mail.example.com,\"p,\"\"q\"\"\",\"Line one\r\nLine"
+                + " two\",Personal\r\n"
+                + "\r\n"
+                + "Gaming Account,,,mr-beast29,,Fun\n");
+
+    assertThat(report.getImportedCount()).isEqualTo(2);
+    assertThat(report.getRejectedCount()).isZero();
+    PasswordLibrary passwordLibrary = report.getPasswordLibrary();
+    assertThat(passwordLibrary.getEntries()).hasSize(3);
+    PasswordEntry email = passwordLibrary.getEntry("Email").get();
+    assertThat(email.getPassword()).isEqualTo("p,\"q\"");
+    assertThat(email.getDescription())
+        .isEqualTo("Username: me@example.com\nURL: https://mail.example.com\nLine one\r\nLine two");
+    assertThat(passwordLibrary.getEntry("Gaming Account").get().getDescription()).isEmpty();
+  }
+
+  @Test
+  public void testMalformedRowsAreRejectedWithTheirLineAndTheRestImported() throws IOException {
+    PasswordEntryImporter.Report report =
+        importCsv(
+            PasswordEntryImporter.DuplicatePolicy.SKIP,
+            "name,password,created\n"
+                + "Email,p4ss,2021-03-04T05:06:07\n"
+                + "No Password,,\n"
+                + "Too Many,a,b,c\n"
+                + "Bad Date,p4ss,yesterday\n"
+                + ",p4ss,\n"
+                + "Gaming Account,mr-beast29,\n");
+
+    assertThat(report.getImportedCount()).isEqualTo(2);
+    assertThat(report.getRejectedCount()).isEqualTo(4);
+    assertThat(report.getRejects())
+        .extracting(MalformedEntryException::getLineNumber)
+        .containsExactly(3L, 4L, 5L, 6L);
+    assertThat(report.getRowCount()).isEqualTo(6);
+    assertThat(report.getPasswordLibrary().getEntry("Email").get().getDateTimeOfCreation())
+        .isEqualTo(LocalDateTime.of(2021, 3, 4, 5, 6, 7));
+  }
+
+  @Test
+  public void testDuplicatesAreSkippedOrReplacedByName() throws IOException {
+    String csv =
+        "name,password\n" + "Bank Account,new_password\n" + "Email,first\n" + "Email,second\n";
+
+    PasswordEntryImporter.Report skipped =
+        importCsv(PasswordEntryImporter.DuplicatePolicy.SKIP, csv);
+    assertThat(skipped.getImportedCount()).isEqualTo(1);
+    assertThat(skipped.getSkippedCount()).isEqualTo(2);
+    assertThat(skipped.getPasswordLibrary().getEntry("Bank Account").get().getPassword())
+        .isEqualTo("pls_dont_steal");
+    assertThat(skipped.getPasswordLibrary().getEntry("Email").get().getPassword())
+        .isEqualTo("first");
+
+    PasswordEntryImporter.Report replaced =
+        importCsv(PasswordEntryImporter.DuplicatePolicy.REPLACE, csv);
+    assertThat(replaced.getImportedCount()).isEqualTo(1);
+    assertThat(replaced.getReplacedCount()).isEqualTo(2);
+    assertThat(replaced.getPasswordLibrary().getEntries()).hasSize(2);
+    assertThat(replaced.getPasswordLibrary().getEntry("Bank Account").get().getPassword())
+        .isEqualTo("new_password");
+    assertThat(replaced.getPasswordLibrary().getEntry("Email").get().getPassword())
+        .isEqualTo("second");
+  }
+
+  @Test
+  public void testExportsAreReadBackInEitherFormat() throws IOException {
+    PasswordLibrary passwordLibrary =
+        library()
+            .addEntry(
+                new PasswordEntry(
+                    "Gaming Account",
+                    "Because I'm an epic gamer,\n\"obviously\".",
+                    "mr-beast29",
+                    LocalDateTime.of(2020, 1, 2, 3, 4, 5),
+                    new HashMap<LocalDateTime, String>() {
+                      {
+                        put(LocalDateTime.of(2019, 1, 2, 3, 4, 5), "mr-wolf74");
+                      }
+                    }));
+    PasswordLibrary emptyPasswordLibrary =
+        PasswordLibrary.fromPassword("Empty", "", PASSWORD, SALT);
+
+    for (PasswordEntryFileFormat format : PasswordEntryFileFormat.values()) {
+      StringWriter stringWriter = new StringWriter();
+      try (PasswordEntryWriter writer = format.newWriter(stringWriter)) {
+        assertThat(PasswordEntryExporter.export(passwordLibrary, writer)).isEqualTo(2);
+      }
+      PasswordEntryImporter.Report report;
+      try (PasswordEntryReader reader =
+          format.newReader(new StringReader(stringWriter.toString()))) {
+        report =
+            new PasswordEntryImporter(PasswordEntryImporter.DuplicatePolicy.SKIP)
+                .importInto(emptyPasswordLibrary, reader);
+      }
+
+      assertThat(report.getImportedCount()).isEqualTo(2);
+      assertThat(report.getRejectedCount()).isZero();
+      PasswordEntry gamingAccount = report.getPasswordLibrary().getEntry("Gaming Account").get();
+      assertThat(gamingAccount.getDescription())
+          .isEqualTo("Because I'm an epic gamer,\n\"obviously\".");
+      assertThat(gamingAccount.getPassword()).isEqualTo("mr-beast29");
+      assertThat(gamingAccount.getDateTimeOfCreation())
+          .isEqualTo(LocalDateTime.of(2020, 1, 2, 3, 4, 5));
+      assertThat(gamingAccount.getOldPasswords())
+          .hasSize(format == PasswordEntryFileFormat.JSON_LINES ? 1 : 0);
+    }
+  }
+
+  @Test
+  public void testFormatsAreKnownByTheirExtension() {
+    assertThat(PasswordEntryFileFormat.forFileName("dump.CSV"))
+        .contains(PasswordEntryFileFormat.CSV);
+    assertThat(PasswordEntryFileFormat.forFileName("dump.ndjson"))
+        .contains(PasswordEntryFileFormat.JSON_LINES);
+    assertThat(PasswordEntryFileFormat.forFileName("dump.json")).isEmpty();
+  }
+}
@@ -0,0 +1,33 @@
+package thorpe.luke.password.ui.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Test;
+import thorpe.luke.password.ui.model.Options;
+import thorpe.luke.password.ui.model.StorageMode;
+
+public class OptionsServiceTest {
+
+  @Test
+  public void testEveryOptionSurvivesARestart() throws IOException {
+    Path configPath = Files.createTempDirectory("options").resolve("config");
+    OptionsService optionsService = new OptionsService(configPath.toString());
+    Options options =
+        Options.where()
+            .dataPathIsSetTo("./libraries/")
+            .saltIsSetTo("n3w_$4Lt")
+            .storageModeIsSetTo(StorageMode.APPEND)
+            .retentionDryRunIsSetTo(false)
+            .build();
+    optionsService.writeOptionsFileToDisk(options);
+
+    Options loadedOptions = new OptionsService(configPath.toString()).loadOptionsFromDisk();
+    assertThat(loadedOptions.getDataPath()).isEqualTo("./libraries/");
+    assertThat(loadedOptions.getSalt()).isEqualTo("n3w_$4Lt");
+    assertThat(loadedOptions.getStorageMode()).isEqualTo(StorageMode.APPEND);
+    assertThat(loadedOptions.isRetentionDryRun()).isFalse();
+  }
+}
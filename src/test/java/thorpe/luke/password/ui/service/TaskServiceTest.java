@@ -0,0 +1,151 @@
+package thorpe.luke.password.ui.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class TaskServiceTest {
+
+  @Test
+  public void testProgressAndResultsAreHandedToTheCallbackExecutor() {
+    List<Runnable> callbacks = new ArrayList<>();
+    TaskService taskService =
+        new TaskService(MoreExecutors.newDirectExecutorService(), callbacks::add);
+    List<String> events = new ArrayList<>();
+
+    taskService.submit(
+        progress -> {
+          progress.update(0.5, "Halfway.");
+          return 42;
+        },
+        (fraction, message) -> events.add(fraction + " " + message),
+        result -> events.add("Succeeded with " + result + "."),
+        e -> events.add("Failed."));
+    taskService.submit(
+        progress -> {
+          throw new IOException("No disk.");
+        },
+        (fraction, message) -> events.add(fraction + " " + message),
+        result -> events.add("Succeeded."),
+        e -> events.add("Failed with " + e.getMessage()));
+
+    assertThat(events).isEmpty();
+    callbacks.forEach(Runnable::run);
+    assertThat(events)
+        .containsExactly("0.5 Halfway.", "Succeeded with 42.", "Failed with No disk.");
+  }
+
+  @Test
+  public void testCancelledTasksStopAtTheNextCheckAndDiscardTheirResults()
+      throws InterruptedException {
+    ExecutorService executorService = Executors.newSingleThreadExecutor();
+    List<Runnable> callbacks = new ArrayList<>();
+    TaskService taskService = new TaskService(executorService, callbacks::add);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch cancelled = new CountDownLatch(1);
+    List<String> events = new ArrayList<>();
+
+    TaskService.Task task =
+        taskService.submit(
+            progress -> {
+              started.countDown();
+              // Like key derivation, this step cannot be interrupted.
+              Uninterruptibles.awaitUninterruptibly(cancelled);
+              events.add("Checked.");
+              progress.checkCancelled();
+              events.add("Continued.");
+              return 42;
+            },
+            (fraction, message) -> {},
+            result -> events.add("Succeeded."),
+            e -> events.add("Failed."));
+    started.await();
+    task.cancel();
+    cancelled.countDown();
+    executorService.shutdown();
+    assertThat(executorService.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+    callbacks.forEach(Runnable::run);
+    assertThat(task.isCancelled()).isTrue();
+    assertThat(events).containsExactly("Checked.");
+  }
+
+  @Test
+  public void testWritesAreNeverInterruptedAndCannotBeCancelledOnceBegun()
+      throws InterruptedException {
+    ExecutorService executorService = Executors.newSingleThreadExecutor();
+    List<Runnable> callbacks = new ArrayList<>();
+    TaskService taskService = new TaskService(executorService, callbacks::add);
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch cancelled = new CountDownLatch(1);
+    List<String> events = new ArrayList<>();
+
+    TaskService.Task task =
+        taskService.submitWrite(
+            progress -> {
+              progress.beginWriting();
+              writing.countDown();
+              Uninterruptibles.awaitUninterruptibly(cancelled);
+              events.add(Thread.currentThread().isInterrupted() ? "Interrupted." : "Wrote.");
+              return 42;
+            },
+            (fraction, message) -> {},
+            result -> events.add("Succeeded with " + result + "."),
+            e -> events.add("Failed."));
+    writing.await();
+    assertThat(task.cancel()).isFalse();
+    cancelled.countDown();
+    taskService.shutdown();
+    assertThat(executorService.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+    callbacks.forEach(Runnable::run);
+    assertThat(task.isCancelled()).isFalse();
+    assertThat(events).containsExactly("Wrote.", "Succeeded with 42.");
+  }
+
+  @Test
+  public void testShutdownWaitsForWritesInProgress() throws InterruptedException {
+    ExecutorService executorService = Executors.newSingleThreadExecutor();
+    List<Runnable> callbacks = new ArrayList<>();
+    TaskService taskService = new TaskService(executorService, callbacks::add);
+    CountDownLatch writing = new CountDownLatch(1);
+    List<String> events = new ArrayList<>();
+
+    taskService.submitWrite(
+        progress -> {
+          progress.beginWriting();
+          writing.countDown();
+          Thread.sleep(100);
+          events.add("Wrote.");
+          return 42;
+        },
+        (fraction, message) -> {},
+        result -> events.add("Succeeded with " + result + "."),
+        e -> events.add("Failed."));
+    TaskService.Task queuedTask =
+        taskService.submitWrite(
+            progress -> {
+              events.add("Queued write ran.");
+              return 0;
+            },
+            (fraction, message) -> {},
+            result -> {},
+            e -> {});
+    writing.await();
+    taskService.shutdown();
+
+    assertThat(events).containsExactly("Wrote.");
+    assertThat(queuedTask.isCancelled()).isTrue();
+    callbacks.forEach(Runnable::run);
+    assertThat(events).containsExactly("Wrote.", "Succeeded with 42.");
+  }
+}
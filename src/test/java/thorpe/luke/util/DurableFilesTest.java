@@ -0,0 +1,109 @@
+package thorpe.luke.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.Test;
+
+public class DurableFilesTest {
+
+  @Test
+  public void testFailedWritesLeaveThePreviousContentsIntact() throws IOException {
+    Path directory = Files.createTempDirectory("durable_files");
+    Path file = directory.resolve("library.passlib");
+    DurableFiles.write(file, outputStream -> outputStream.write(new byte[] {1, 2, 3}));
+    assertThat(Files.readAllBytes(file)).containsExactly(1, 2, 3);
+
+    assertThatThrownBy(
+            () ->
+                DurableFiles.write(
+                    file,
+                    outputStream -> {
+                      outputStream.write(new byte[] {4, 5});
+                      throw new IOException("Disk full.");
+                    }))
+        .hasMessage("Disk full.");
+    assertThat(Files.readAllBytes(file)).containsExactly(1, 2, 3);
+    try (Stream<Path> files = Files.list(directory)) {
+      assertThat(files).containsExactly(file);
+    }
+
+    // Writers may close the stream, as formats that finalise a cipher stream do.
+    DurableFiles.write(
+        file,
+        outputStream -> {
+          outputStream.write(new byte[] {6});
+          outputStream.close();
+        });
+    assertThat(Files.readAllBytes(file)).containsExactly(6);
+  }
+
+  @Test
+  public void testTemporaryFilesOfInterruptedWritesAreDeleted() throws IOException {
+    Path directory = Files.createTempDirectory("durable_files");
+    Path file = Files.createFile(directory.resolve("library.passlib"));
+    Path temporaryFile = Files.createFile(directory.resolve("library.passlib.123.tmp"));
+    Path otherFile = Files.createFile(directory.resolve("other.passlib.123.tmp"));
+    Path liveFile = Files.createFile(directory.resolve("library.passlib.456.tmp"));
+    FileTime stale =
+        FileTime.from(
+            Instant.now()
+                .minus(DurableFiles.STALE_TEMPORARY_FILE_AGE)
+                .minus(Duration.ofMinutes(1)));
+    Files.setLastModifiedTime(temporaryFile, stale);
+    Files.setLastModifiedTime(otherFile, stale);
+
+    DurableFiles.deleteTemporaryFiles(file);
+    assertThat(temporaryFile).doesNotExist();
+    assertThat(file).exists();
+    assertThat(otherFile).exists();
+    // A write in progress, such as a concurrent save, keeps its temporary file.
+    assertThat(liveFile).exists();
+  }
+
+  @Test
+  public void testLargeFilesAreReadThroughAMarkableMapping() throws IOException {
+    Path file = Files.createTempFile("durable_files", ".passlib");
+    byte[] contents = new byte[(int) DurableFiles.MAPPING_THRESHOLD + 1];
+    new Random(0).nextBytes(contents);
+    Files.write(file, contents);
+
+    try (InputStream inputStream = DurableFiles.newInputStream(file)) {
+      if (DurableFiles.MAPPING_ENABLED) {
+        assertThat(inputStream).isInstanceOf(ByteBufferInputStream.class);
+      }
+      assertThat(inputStream.markSupported()).isTrue();
+      inputStream.mark(16);
+      assertThat(inputStream.read()).isEqualTo(contents[0] & 0xFF);
+      inputStream.reset();
+      assertThat(inputStream.readAllBytes()).isEqualTo(contents);
+      assertThat(inputStream.read()).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  public void testFilesCanBeReplacedAndDeletedOnceRead() throws IOException {
+    Path file = Files.createTempFile("durable_files", ".passlib");
+    byte[] contents = new byte[(int) DurableFiles.MAPPING_THRESHOLD + 1];
+    new Random(0).nextBytes(contents);
+    Files.write(file, contents);
+
+    try (InputStream inputStream = DurableFiles.newInputStream(file)) {
+      assertThat(inputStream.readAllBytes()).isEqualTo(contents);
+    }
+    // Re-keying, compaction and retention all replace or delete a file they have just read.
+    DurableFiles.write(file, outputStream -> outputStream.write(new byte[] {1, 2, 3}));
+    assertThat(Files.readAllBytes(file)).containsExactly(1, 2, 3);
+    Files.delete(file);
+    assertThat(file).doesNotExist();
+  }
+}
@@ -0,0 +1,105 @@
+package thorpe.luke.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import org.junit.Test;
+
+public class PersistentHashMapTest {
+
+  /** A key whose hash is deliberately narrow, so that many keys collide. */
+  private static class CollidingKey {
+    private final int value;
+
+    private CollidingKey(int value) {
+      this.value = value;
+    }
+
+    @Override
+    public int hashCode() {
+      return value % 37;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      return object instanceof CollidingKey && ((CollidingKey) object).value == value;
+    }
+
+    @Override
+    public String toString() {
+      return Objects.toString(value);
+    }
+  }
+
+  @Test
+  public void testBehavesLikeAHashMap() {
+    Random random = new Random(42);
+    Map<Object, Integer> expected = new HashMap<>();
+    PersistentHashMap<Object, Integer> actual = PersistentHashMap.empty();
+    for (int i = 0; i < 20_000; i++) {
+      int value = random.nextInt(2_000);
+      Object key = random.nextBoolean() ? Integer.valueOf(value) : new CollidingKey(value);
+      if (random.nextInt(3) == 0) {
+        expected.remove(key);
+        actual = actual.minus(key);
+      } else {
+        expected.put(key, i);
+        actual = actual.plus(key, i);
+      }
+      assertThat(actual.size()).isEqualTo(expected.size());
+      assertThat(actual.get(key)).isEqualTo(expected.get(key));
+    }
+    assertThat(actual.asMap()).isEqualTo(expected);
+    for (Object key : expected.keySet()) {
+      actual = actual.minus(key);
+    }
+    assertThat(actual.isEmpty()).isTrue();
+    assertThat(actual.iterator().hasNext()).isFalse();
+  }
+
+  @Test
+  public void testUpdatesLeaveTheOriginalUntouched() {
+    PersistentHashMap<String, Integer> original =
+        PersistentHashMap.<String, Integer>empty().plus("one", 1).plus("two", 2);
+    PersistentHashMap<String, Integer> updated = original.plus("three", 3).minus("one");
+    assertThat(original.asMap()).containsOnly(Map.entry("one", 1), Map.entry("two", 2));
+    assertThat(updated.asMap()).containsOnly(Map.entry("two", 2), Map.entry("three", 3));
+    assertThat(original.minus("four")).isSameAs(original);
+    assertThat(original.plus("one", original.get("one"))).isSameAs(original);
+  }
+
+  @Test
+  public void testBuildersLeaveEveryBuiltMapUntouched() {
+    Random random = new Random(7);
+    Map<Object, Integer> expected = new HashMap<>();
+    PersistentHashMap<Object, Integer> original = PersistentHashMap.empty();
+    for (int i = 0; i < 1_000; i++) {
+      original = original.plus(i, i);
+      expected.put(i, i);
+    }
+    Map<Object, Integer> expectedOriginal = new HashMap<>(expected);
+
+    PersistentHashMap.Builder<Object, Integer> builder = original.toBuilder();
+    PersistentHashMap<Object, Integer> built = null;
+    Map<Object, Integer> expectedBuilt = null;
+    for (int i = 0; i < 20_000; i++) {
+      int value = random.nextInt(5_000);
+      Object key = random.nextBoolean() ? Integer.valueOf(value) : new CollidingKey(value);
+      builder.put(key, i);
+      expected.put(key, i);
+      assertThat(builder.get(key)).isEqualTo(i);
+      if (i == 10_000) {
+        built = builder.build();
+        expectedBuilt = new HashMap<>(expected);
+      }
+    }
+    assertThat(builder.size()).isEqualTo(expected.size());
+    assertThat(builder.build().asMap()).isEqualTo(expected);
+    assertThat(built.asMap()).isEqualTo(expectedBuilt);
+    assertThat(original.asMap()).isEqualTo(expectedOriginal);
+    assertThat(PersistentHashMap.builder().build()).isSameAs(PersistentHashMap.empty());
+  }
+}